@@ -790,6 +790,7 @@ public class Curve {
         List<Double> weights;
         TLabel positiveLabel;
         Comparator<? super TScore> comparator;
+        int parallelism = 1;
 
         /** No-op constructor. */
         public Builder() {}
@@ -895,6 +896,24 @@ public class Curve {
             return this;
         }
 
+        /**
+         * Specifies the maximum number of threads to use for ranking.
+         * The default is 1 (sequential).  Only scores that are doubles
+         * in their natural ordering (and arrays of primitives, see
+         * {@link PrimitivesBuilder}) are ranked in parallel.  The curve
+         * is the same regardless of the parallelism.
+         *
+         * @param parallelism A positive number of threads
+         * @return This builder
+         */
+        public Builder<TScore, TLabel> parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("The parallelism must be positive.");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
         /**
          * Does the work of checking for valid builder state.  To be
          * called by {@link #build()} before building.
@@ -949,6 +968,15 @@ public class Curve {
 
             // Create a list of ranked labels if not already given
             if (rankedLabels == null) {
+                // Rank doubles in their natural ordering with the
+                // primitive engine if possible
+                if (comparator == null && weights == null) {
+                    int[][] counts = rankDoubleScores();
+                    if (counts != null) {
+                        return new Curve(counts[0], counts[1]);
+                    }
+                }
+
                 // Rank labels by scores using a stable sort.
                 // First populate a sortable list.
                 List<Tuple> sorted = new ArrayList<Tuple>(scores.size());
@@ -1007,6 +1035,31 @@ public class Curve {
             return new Curve(rankedLabels, positiveLabel);
         }
 
+        /**
+         * Ranks the labels by the scores with {@link Ranking} if all
+         * the scores are doubles.  The labels are reduced to whether
+         * they are positive, so no objects are created per example.
+         *
+         * @return The arrays of positive and negative counts, or null
+         * if the scores are not all doubles
+         */
+        int[][] rankDoubleScores() {
+            double[] scoresArray = new double[scores.size()];
+            int scoreIndex = 0;
+            for (Object score : scores) {
+                if (!(score instanceof Double)) {
+                    return null;
+                }
+                scoresArray[scoreIndex++] = ((Double) score).doubleValue();
+            }
+            int[] labelsArray = new int[labels.size()];
+            int labelIndex = 0;
+            for (TLabel label : labels) {
+                labelsArray[labelIndex++] = label.equals(positiveLabel) ? 1 : 0;
+            }
+            return ParallelRanking.rankCounts(scoresArray, labelsArray, 1, parallelism);
+        }
+
         /**
          * Instantiates a sequence as a list.
          *
@@ -1083,11 +1136,21 @@ public class Curve {
      * Scores must be doubles and labels must be integers.  (Labels must
      * compare exactly.)  The default positive label is 1.</p>
      *
-     * <p>All arrays of primitives are converted to lists of number
-     * objects.</p>
+     * <p>Arrays of primitives are ranked directly (see {@link Ranking})
+     * without converting them to lists of number objects.  The arrays
+     * are not copied, so they should not be modified before building.
+     * If arrays are mixed with sequences of objects (e.g. an array of
+     * scores and an iterable of labels), the arrays are converted to
+     * lists and the curve is built by {@link Builder#build()}.</p>
      */
     public static class PrimitivesBuilder extends Builder<Double, Integer> {
 
+        // Arrays given in place of the corresponding lists.  At most
+        // one of an array and its corresponding list is non-null.
+        int[] rankedLabelsArray;
+        double[] scoresArray;
+        int[] labelsArray;
+
         /** Creates a builder with a default positive label of 1. */
         public PrimitivesBuilder() {
             positiveLabel = Integer.valueOf(1);
@@ -1100,7 +1163,8 @@ public class Curve {
          * @see Builder#rankedLabels(Iterable)
          */
         public PrimitivesBuilder rankedLabels(int[] labels) {
-            rankedLabels = PrimitivesBuilder.primitiveArrayToList(labels);
+            rankedLabelsArray = labels;
+            rankedLabels = null;
             return this;
         }
 
@@ -1110,7 +1174,8 @@ public class Curve {
          * @see Builder#scores(Iterable)
          */
         public PrimitivesBuilder scores(double[] scores) {
-            this.scores = PrimitivesBuilder.primitiveArrayToList(scores);
+            scoresArray = scores;
+            this.scores = null;
             return this;
         }
 
@@ -1120,7 +1185,29 @@ public class Curve {
          * @see Builder#labels(Iterable)
          */
         public PrimitivesBuilder labels(int[] labels) {
-            this.labels = PrimitivesBuilder.primitiveArrayToList(labels);
+            labelsArray = labels;
+            this.labels = null;
+            return this;
+        }
+
+        @Override
+        public PrimitivesBuilder rankedLabels(Iterable<Integer> labels) {
+            rankedLabelsArray = null;
+            super.rankedLabels(labels);
+            return this;
+        }
+
+        @Override
+        public PrimitivesBuilder scores(Iterable<Double> scores) {
+            scoresArray = null;
+            super.scores(scores);
+            return this;
+        }
+
+        @Override
+        public PrimitivesBuilder labels(Iterable<Integer> labels) {
+            labelsArray = null;
+            super.labels(labels);
             return this;
         }
 
@@ -1144,6 +1231,78 @@ public class Curve {
             return this;
         }
 
+        @Override
+        public PrimitivesBuilder parallelism(int parallelism) {
+            super.parallelism(parallelism);
+            return this;
+        }
+
+        /**
+         * Builds a curve from parameters that have been specified up to
+         * this point.  Ranks the labels by the scores if necessary.
+         * Arrays of primitives are ranked and counted directly.
+         *
+         * @return A new curve
+         * @throws IllegalArgumentException if the builder has not been
+         * given valid arguments as required to construct a curve
+         */
+        @Override
+        public Curve build() {
+            // Build from an array of ranked labels
+            if (rankedLabelsArray != null) {
+                if (rankedLabelsArray.length == 0) {
+                    throw new IllegalArgumentException("The list of ranked labels must not be empty.");
+                }
+                if (positiveLabel == null) {
+                    throw new IllegalArgumentException("A positive label must be specified.");
+                }
+                if (parallelism > 1 &&
+                    rankedLabelsArray.length >= ParallelRanking.PARALLEL_THRESHOLD) {
+                    int[][] counts = new ParallelRanking(parallelism)
+                        .rankedCounts(rankedLabelsArray, positiveLabel.intValue());
+                    return new Curve(counts[0], counts[1]);
+                }
+                return new Curve(rankedLabelsArray, positiveLabel.intValue());
+            }
+
+            // Build from arrays of scores and labels in their natural
+            // ordering
+            if (rankedLabels == null && scoresArray != null && labelsArray != null &&
+                comparator == null) {
+                if (scoresArray.length == 0) {
+                    throw new IllegalArgumentException("The list of scores must not be empty.");
+                }
+                if (labelsArray.length == 0) {
+                    throw new IllegalArgumentException("The list of labels must not be empty.");
+                }
+                if (scoresArray.length != labelsArray.length) {
+                    throw new IllegalArgumentException("The number of scores does not equal the number of labels.");
+                }
+                if (positiveLabel == null) {
+                    throw new IllegalArgumentException("A positive label must be specified.");
+                }
+                int[][] counts = ParallelRanking.rankCounts(
+                    scoresArray, labelsArray, positiveLabel.intValue(),
+                    parallelism);
+                return new Curve(counts[0], counts[1]);
+            }
+
+            // Arrays mixed with sequences or with a comparator.  Build
+            // generically from copies of the arrays as lists, leaving
+            // this builder as it is.
+            Builder<Double, Integer> builder = new Builder<Double, Integer>();
+            builder.rankedLabels = rankedLabels;
+            builder.scores = (scoresArray != null) ?
+                PrimitivesBuilder.primitiveArrayToList(scoresArray) : scores;
+            builder.labels = (labelsArray != null) ?
+                PrimitivesBuilder.primitiveArrayToList(labelsArray) : labels;
+            builder.weights = weights;
+            builder.positiveLabel = positiveLabel;
+            builder.comparator = comparator;
+            builder.parallelism = parallelism;
+            return builder.build();
+        }
+
         /**
          * Converts a primitive array of doubles to a list of Doubles.
          *
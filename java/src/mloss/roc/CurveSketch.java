@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * <p>Mergeable, serializable summary of a classification result from
+ * which an approximate curve can be built.  Holds one {@link
+ * QuantileSketch} of the scores of the positives and one of the scores
+ * of the negatives.  Results that are scored in many places (such as
+ * shards of a data set) can each be summarized in a sketch of a few
+ * kilobytes, sent to one place, merged, and built into a curve, without
+ * ever collecting or sorting all the scores.</p>
+ *
+ * <p>The curve built from a sketch has the exact numbers of positives
+ * and negatives.  At any threshold, its number of true positives is
+ * within {@link #maximumTruePositiveError()} of the exact number and
+ * its number of false positives is within {@link
+ * #maximumFalsePositiveError()} of the exact number.  (These are the
+ * rank error bounds of the sketches.)  Dividing by the totals bounds
+ * the errors of the true and false positive rates, the coordinates of
+ * the ROC curve.</p>
+ */
+public class CurveSketch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private QuantileSketch positives;
+    private QuantileSketch negatives;
+
+    /**
+     * Creates a sketch with the default capacity (see {@link
+     * QuantileSketch#DEFAULT_CAPACITY}).
+     */
+    public CurveSketch() {
+        this(QuantileSketch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a sketch with the given capacity.
+     *
+     * @param capacity See {@link QuantileSketch#QuantileSketch(int)}.
+     */
+    public CurveSketch(int capacity) {
+        this(new QuantileSketch(capacity), new QuantileSketch(capacity));
+    }
+
+    private CurveSketch(QuantileSketch positives, QuantileSketch negatives) {
+        this.positives = positives;
+        this.negatives = negatives;
+    }
+
+    /**
+     * Adds an example.
+     *
+     * @param score The score of the example
+     * @param isPositive Whether the label of the example is positive
+     * @return This sketch
+     */
+    public CurveSketch add(double score, boolean isPositive) {
+        if (isPositive) {
+            positives.add(score);
+        } else {
+            negatives.add(score);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given examples.
+     *
+     * @param scores The scores of the examples
+     * @param labels The labels of the examples in the same order as
+     * the scores
+     * @param positiveLabel The label to consider positive
+     * @return This sketch
+     */
+    public CurveSketch add(double[] scores, int[] labels, int positiveLabel) {
+        if (scores.length != labels.length) {
+            throw new IllegalArgumentException("The number of scores does not equal the number of labels.");
+        }
+        for (int index = 0; index < scores.length; index++) {
+            add(scores[index], labels[index] == positiveLabel);
+        }
+        return this;
+    }
+
+    /**
+     * Merges the given sketch into this one.  The given sketch is not
+     * modified.
+     *
+     * @param other A sketch with the same capacity
+     * @return This sketch
+     */
+    public CurveSketch merge(CurveSketch other) {
+        positives.merge(other.positives);
+        negatives.merge(other.negatives);
+        return this;
+    }
+
+    /** Returns the sketch of the scores of the positives. */
+    public QuantileSketch positives() {
+        return positives;
+    }
+
+    /** Returns the sketch of the scores of the negatives. */
+    public QuantileSketch negatives() {
+        return negatives;
+    }
+
+    /**
+     * Returns the bound on the absolute error of the number of true
+     * positives at any threshold of the built curve.
+     */
+    public long maximumTruePositiveError() {
+        return positives.maximumRankError();
+    }
+
+    /**
+     * Returns the bound on the absolute error of the number of false
+     * positives at any threshold of the built curve.
+     */
+    public long maximumFalsePositiveError() {
+        return negatives.maximumRankError();
+    }
+
+    /**
+     * Builds an approximate curve from the sketch.  Each distinct score
+     * held by either class sketch is a threshold.
+     *
+     * @return A new curve
+     * @throws IllegalArgumentException if the sketch is empty
+     * @throws IllegalStateException if there are too many examples for
+     * a curve
+     */
+    public Curve build() {
+        long numberExamples = positives.count() + negatives.count();
+        if (numberExamples == 0) {
+            throw new IllegalArgumentException("The list of scores must not be empty.");
+        }
+        if (numberExamples > Integer.MAX_VALUE) {
+            throw new IllegalStateException(String.format("Too many examples for a curve: more than %s.", Integer.MAX_VALUE));
+        }
+
+        // Collect the weighted items of both classes
+        int numberPositiveItems = positives.numberItems();
+        int numberItems = numberPositiveItems + negatives.numberItems();
+        long[] keys = new long[numberItems];
+        long[] weights = new long[numberItems];
+        positives.items(keys, weights);
+        long[] negativeKeys = new long[numberItems - numberPositiveItems];
+        long[] negativeWeights = new long[numberItems - numberPositiveItems];
+        negatives.items(negativeKeys, negativeWeights);
+        System.arraycopy(negativeKeys, 0, keys, numberPositiveItems, negativeKeys.length);
+        System.arraycopy(negativeWeights, 0, weights, numberPositiveItems, negativeWeights.length);
+
+        // Find the distinct keys
+        long[] distinctKeys = keys.clone();
+        Arrays.sort(distinctKeys);
+        int numberGroups = 0;
+        for (int index = 0; index < distinctKeys.length; index++) {
+            if (index == 0 || distinctKeys[index] != distinctKeys[index - 1]) {
+                distinctKeys[numberGroups++] = distinctKeys[index];
+            }
+        }
+
+        // Total the weights of each class at each distinct key
+        long[] groupPositives = new long[numberGroups];
+        long[] groupNegatives = new long[numberGroups];
+        for (int index = 0; index < numberItems; index++) {
+            int group = Arrays.binarySearch(distinctKeys, 0, numberGroups, keys[index]);
+            if (index < numberPositiveItems) {
+                groupPositives[group] += weights[index];
+            } else {
+                groupNegatives[group] += weights[index];
+            }
+        }
+
+        // Accumulate the counts from the highest key to the lowest
+        int[] posCounts = new int[numberGroups + 1];
+        int[] negCounts = new int[numberGroups + 1];
+        for (int group = numberGroups - 1, countIndex = 1; group >= 0; group--, countIndex++) {
+            posCounts[countIndex] = posCounts[countIndex - 1] + (int) groupPositives[group];
+            negCounts[countIndex] = negCounts[countIndex - 1] + (int) groupNegatives[group];
+        }
+        return new Curve(posCounts, negCounts);
+    }
+
+    /**
+     * Writes this sketch in a compact binary form.
+     *
+     * @see QuantileSketch#write(DataOutput)
+     */
+    public void write(DataOutput output) throws IOException {
+        positives.write(output);
+        negatives.write(output);
+    }
+
+    /**
+     * Reads a sketch written by {@link #write(DataOutput)}.
+     *
+     * @throws IOException if reading fails or the input is not a
+     * sketch
+     */
+    public static CurveSketch read(DataInput input) throws IOException {
+        QuantileSketch positives = QuantileSketch.read(input);
+        QuantileSketch negatives = QuantileSketch.read(input);
+        if (positives.capacity() != negatives.capacity()) {
+            throw new IOException("The class sketches have different capacities.");
+        }
+        return new CurveSketch(positives, negatives);
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * <p>Builds a curve from more scores and labels than fit in memory.
+ * Examples are added one at a time and are ranked within a fixed
+ * memory budget by an external sort.</p>
+ *
+ * <p>Examples are collected in a buffer until the buffer is full.
+ * Then the buffer is sorted and written to a temporary file as a
+ * sorted run.  A run is compact: it only contains one record per
+ * distinct score, namely the score's sortable key (see {@link
+ * Ranking#sortableKey(double)}) and the numbers of positives and
+ * negatives with that score.  When building, the runs are merged from
+ * the highest score to the lowest and the counts are accumulated into
+ * the arrays of the curve.  (If there are too many runs to merge at
+ * once, groups of runs are first merged into longer runs.)  If all the
+ * examples fit in the buffer, nothing is written to disk.</p>
+ *
+ * <p>The curve is the same as one built by {@link Curve.Builder}
+ * (including the grouping of tied scores) but the number of examples
+ * is limited by the integer counts of {@link Curve}.  The memory
+ * budget only covers ranking; the curve itself needs memory
+ * proportional to the number of distinct scores.</p>
+ *
+ * <p>Building consumes the examples, so a builder builds only one
+ * curve.  Temporary files are deleted when the builder builds or is
+ * closed.</p>
+ */
+public class ExternalBuilder implements Closeable {
+
+    /** The bytes of memory used per buffered example (key and scratch). */
+    static final int BYTES_PER_EXAMPLE = 16;
+
+    /** The smallest buffer regardless of the memory budget. */
+    static final int MINIMUM_CAPACITY = 1 << 10;
+
+    /** The largest buffer regardless of the memory budget. */
+    static final int MAXIMUM_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /** The size of the initial buffer.  The buffer grows as needed. */
+    static final int INITIAL_CAPACITY = 1 << 16;
+
+    /** The maximum number of runs to merge at once (open files). */
+    static final int MERGE_WIDTH = 64;
+
+    /** The size of the I/O buffer of each run. */
+    static final int IO_BUFFER_SIZE = 1 << 16;
+
+    // The buffer holds the keys of the positives growing up from the
+    // front and the keys of the negatives growing down from the back
+    private long[] keys;
+    private int numberPositives;
+    private int numberNegatives;
+    private int capacity;
+    private File tempDirectory;
+    private List<Run> runs = new ArrayList<Run>();
+    private boolean closed;
+
+    /**
+     * Creates a builder that ranks within the given memory budget and
+     * puts its temporary files in the default temporary directory.
+     *
+     * @param memoryBytes The approximate number of bytes to use for
+     * ranking
+     */
+    public ExternalBuilder(long memoryBytes) {
+        this(memoryBytes, null);
+    }
+
+    /**
+     * Creates a builder that ranks within the given memory budget and
+     * puts its temporary files in the given directory.
+     *
+     * @param memoryBytes The approximate number of bytes to use for
+     * ranking
+     * @param tempDirectory The directory for temporary files, or null
+     * for the default temporary directory
+     */
+    public ExternalBuilder(long memoryBytes, File tempDirectory) {
+        if (memoryBytes <= 0) {
+            throw new IllegalArgumentException("The memory budget must be positive.");
+        }
+        capacity = (int) Math.max(MINIMUM_CAPACITY, Math.min(
+            MAXIMUM_CAPACITY, memoryBytes / BYTES_PER_EXAMPLE));
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Adds an example.
+     *
+     * @param score The score of the example
+     * @param isPositive Whether the label of the example is positive
+     * @return This builder
+     * @throws IOException if writing a run fails
+     */
+    public ExternalBuilder add(double score, boolean isPositive)
+        throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The builder is closed.");
+        }
+        if (keys == null || numberPositives + numberNegatives == keys.length) {
+            makeRoom();
+        }
+        if (isPositive) {
+            keys[numberPositives++] = Ranking.sortableKey(score);
+        } else {
+            keys[keys.length - 1 - numberNegatives++] = Ranking.sortableKey(score);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given examples.
+     *
+     * @param scores The scores of the examples
+     * @param labels The labels of the examples in the same order as
+     * the scores
+     * @param positiveLabel The label to consider positive
+     * @return This builder
+     * @throws IOException if writing a run fails
+     */
+    public ExternalBuilder add(double[] scores, int[] labels, int positiveLabel)
+        throws IOException {
+        if (scores.length != labels.length) {
+            throw new IllegalArgumentException("The number of scores does not equal the number of labels.");
+        }
+        for (int index = 0; index < scores.length; index++) {
+            add(scores[index], labels[index] == positiveLabel);
+        }
+        return this;
+    }
+
+    /**
+     * Builds a curve from all the examples added so far and closes
+     * this builder.
+     *
+     * @return A new curve
+     * @throws IOException if reading or writing a run fails
+     * @throws IllegalArgumentException if no examples were added
+     * @throws IllegalStateException if there are too many examples for
+     * a curve
+     */
+    public Curve build() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The builder is closed.");
+        }
+        try {
+            if (runs.isEmpty() && numberPositives + numberNegatives == 0) {
+                throw new IllegalArgumentException("The list of scores must not be empty.");
+            }
+            int[][] counts;
+            // Everything fits in memory
+            if (runs.isEmpty()) {
+                sortBuffer();
+                counts = Ranking.mergeCounts(
+                    keys, 0, numberPositives,
+                    keys.length - numberNegatives, keys.length);
+            }
+            // Merge the runs
+            else {
+                if (numberPositives + numberNegatives > 0) {
+                    spill();
+                }
+                keys = null;
+                while (runs.size() > MERGE_WIDTH) {
+                    List<Run> group = new ArrayList<Run>(
+                        runs.subList(0, MERGE_WIDTH));
+                    runs.subList(0, MERGE_WIDTH).clear();
+                    RunWriter writer = new RunWriter(newRunFile());
+                    try {
+                        merge(group, writer);
+                    } finally {
+                        writer.close();
+                    }
+                    runs.add(writer.run);
+                    delete(group);
+                }
+                CountsCollector collector = new CountsCollector();
+                merge(runs, collector);
+                counts = collector.counts();
+            }
+            return new Curve(counts[0], counts[1]);
+        } finally {
+            close();
+        }
+    }
+
+    /** Deletes any temporary files and releases the buffer. */
+    public void close() {
+        closed = true;
+        keys = null;
+        delete(runs);
+        runs.clear();
+    }
+
+    /** Grows the buffer if possible and otherwise spills it to disk. */
+    private void makeRoom() throws IOException {
+        if (keys == null) {
+            keys = new long[Math.min(INITIAL_CAPACITY, capacity)];
+        } else if (keys.length < capacity) {
+            long[] newKeys = new long[(int) Math.min(capacity, 2L * keys.length)];
+            System.arraycopy(keys, 0, newKeys, 0, numberPositives);
+            System.arraycopy(keys, keys.length - numberNegatives,
+                             newKeys, newKeys.length - numberNegatives,
+                             numberNegatives);
+            keys = newKeys;
+        } else {
+            spill();
+        }
+    }
+
+    /** Sorts the keys of each class in the buffer. */
+    private void sortBuffer() {
+        long[] scratch = new long[Math.max(numberPositives, numberNegatives)];
+        Ranking.sort(keys, 0, numberPositives, scratch, 0);
+        Ranking.sort(keys, keys.length - numberNegatives, keys.length,
+                     scratch, 0);
+    }
+
+    /** Sorts the buffer and writes it to disk as a run. */
+    private void spill() throws IOException {
+        sortBuffer();
+        RunWriter writer = new RunWriter(newRunFile());
+        try {
+            // Merge the two classes from the highest key down
+            int positiveIndex = numberPositives - 1;
+            int negativeIndex = keys.length - 1;
+            int negativesFrom = keys.length - numberNegatives;
+            long key;
+            while (positiveIndex >= 0 || negativeIndex >= negativesFrom) {
+                if (negativeIndex < negativesFrom ||
+                    (positiveIndex >= 0 &&
+                     keys[positiveIndex] >= keys[negativeIndex])) {
+                    key = keys[positiveIndex];
+                } else {
+                    key = keys[negativeIndex];
+                }
+                int positives = 0;
+                int negatives = 0;
+                while (positiveIndex >= 0 && keys[positiveIndex] == key) {
+                    positives++;
+                    positiveIndex--;
+                }
+                while (negativeIndex >= negativesFrom && keys[negativeIndex] == key) {
+                    negatives++;
+                    negativeIndex--;
+                }
+                writer.group(key, positives, negatives);
+            }
+        } finally {
+            writer.close();
+        }
+        runs.add(writer.run);
+        numberPositives = 0;
+        numberNegatives = 0;
+    }
+
+    /** Creates a new temporary file for a run. */
+    private File newRunFile() throws IOException {
+        File file = File.createTempFile("roc-run-", ".bin", tempDirectory);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /** Deletes the files of the given runs. */
+    private static void delete(List<Run> runs) {
+        for (Run run : runs) {
+            run.file.delete();
+        }
+    }
+
+    /**
+     * Merges the given runs from the highest key to the lowest key and
+     * passes each distinct key with its total counts to the given
+     * sink.
+     */
+    static void merge(List<Run> runs, GroupSink sink) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(runs.size());
+        List<RunReader> readers = new ArrayList<RunReader>(runs.size());
+        try {
+            for (Run run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                // Sum the counts of the highest key over all the runs
+                long key = queue.peek().key;
+                long positives = 0;
+                long negatives = 0;
+                while (!queue.isEmpty() && queue.peek().key == key) {
+                    RunReader reader = queue.poll();
+                    positives += reader.positives;
+                    negatives += reader.negatives;
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+                sink.group(key, positives, negatives);
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /** Writes an unsigned variable-length integer (LEB128). */
+    static void writeVarLong(DataOutputStream output, long value)
+        throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            output.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    /** Reads an unsigned variable-length integer (LEB128). */
+    static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = input.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /** Receives distinct keys and their counts in descending order. */
+    interface GroupSink {
+        void group(long key, long positives, long negatives)
+            throws IOException;
+    }
+
+    /**
+     * A sorted run on disk.  Each record is a key (8 bytes) followed by
+     * the numbers of positives and negatives as variable-length
+     * integers.  Records are in descending order of key.
+     */
+    static class Run {
+        File file;
+        long numberRecords;
+
+        Run(File file) {
+            this.file = file;
+        }
+    }
+
+    /** Writes groups to a new run. */
+    static class RunWriter implements GroupSink, Closeable {
+        Run run;
+        DataOutputStream output;
+
+        RunWriter(File file) throws IOException {
+            run = new Run(file);
+            output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), IO_BUFFER_SIZE));
+        }
+
+        public void group(long key, long positives, long negatives)
+            throws IOException {
+            output.writeLong(key);
+            writeVarLong(output, positives);
+            writeVarLong(output, negatives);
+            run.numberRecords++;
+        }
+
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+
+    /** Reads the groups of a run in order. */
+    static class RunReader implements Comparable<RunReader>, Closeable {
+        DataInputStream input;
+        long remaining;
+        long key;
+        long positives;
+        long negatives;
+
+        RunReader(Run run) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(run.file), IO_BUFFER_SIZE));
+            remaining = run.numberRecords;
+        }
+
+        /** Reads the next group.  Returns false at the end of the run. */
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            key = input.readLong();
+            positives = readVarLong(input);
+            negatives = readVarLong(input);
+            remaining--;
+            return true;
+        }
+
+        /** Orders readers by descending key. */
+        public int compareTo(RunReader other) {
+            return Long.compare(other.key, key);
+        }
+
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /** Accumulates groups into the arrays of counts of a curve. */
+    static class CountsCollector implements GroupSink {
+        int[] posCounts = new int[1024];
+        int[] negCounts = new int[1024];
+        int countIndex = 0;
+        long posCount = 0;
+        long negCount = 0;
+
+        public void group(long key, long positives, long negatives) {
+            posCount += positives;
+            negCount += negatives;
+            if (posCount + negCount > Integer.MAX_VALUE) {
+                throw new IllegalStateException(String.format("Too many examples for a curve: more than %s.", Integer.MAX_VALUE));
+            }
+            countIndex++;
+            if (countIndex == posCounts.length) {
+                int newLength = (int) Math.min(MAXIMUM_CAPACITY,
+                                               2L * posCounts.length);
+                posCounts = Arrays.copyOf(posCounts, newLength);
+                negCounts = Arrays.copyOf(negCounts, newLength);
+            }
+            posCounts[countIndex] = (int) posCount;
+            negCounts[countIndex] = (int) negCount;
+        }
+
+        /** Returns the arrays of counts trimmed to their actual size. */
+        int[][] counts() {
+            return Ranking.trimCounts(posCounts, negCounts, countIndex + 1);
+        }
+    }
+}
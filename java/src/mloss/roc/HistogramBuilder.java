@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+/**
+ * <p>Builds an approximate curve from scores that fall in a known range
+ * (such as probabilities) using a fixed number of score bins.  Adding
+ * an example takes constant time and no sorting is done, and the
+ * memory used is constant (two arrays of counts, one entry per bin)
+ * regardless of how many examples are added.</p>
+ *
+ * <p>The range of scores is divided into bins of equal width.  Each bin
+ * counts the positives and negatives whose scores fall in it.  The
+ * curve is built as if all the examples in a bin had the same score,
+ * so its points are at the bin boundaries.  Empty bins do not make
+ * points.  Scores below the range are counted in the lowest bin and
+ * scores above the range (and NaNs) are counted in the highest
+ * bin.</p>
+ *
+ * <p>Binning only loses information about the order of positives and
+ * negatives within the same bin.  See {@link #maximumRocAreaError()}
+ * for the resulting bound on the error of the area under the ROC
+ * curve.</p>
+ */
+public class HistogramBuilder {
+
+    /** The default number of bins, 2^16. */
+    public static final int DEFAULT_NUMBER_BINS = 1 << 16;
+
+    private long[] positiveCounts;
+    private long[] negativeCounts;
+    private double minimum;
+    private double maximum;
+    private double binsPerUnit;
+
+    /**
+     * Creates a builder for probabilities, that is, scores in [0, 1],
+     * with {@link #DEFAULT_NUMBER_BINS} bins.
+     */
+    public HistogramBuilder() {
+        this(DEFAULT_NUMBER_BINS);
+    }
+
+    /**
+     * Creates a builder for probabilities, that is, scores in [0, 1],
+     * with the given number of bins.
+     *
+     * @param numberBins A positive number of bins
+     */
+    public HistogramBuilder(int numberBins) {
+        this(numberBins, 0.0, 1.0);
+    }
+
+    /**
+     * Creates a builder for scores in the given range with the given
+     * number of bins.
+     *
+     * @param numberBins A positive number of bins
+     * @param minimum The lowest score of the range
+     * @param maximum The highest score of the range.  Must be greater
+     * than the minimum.
+     */
+    public HistogramBuilder(int numberBins, double minimum, double maximum) {
+        if (numberBins < 1) {
+            throw new IllegalArgumentException("The number of bins must be positive.");
+        }
+        if (!(minimum < maximum) ||
+            Double.isInfinite(minimum) || Double.isInfinite(maximum)) {
+            throw new IllegalArgumentException(String.format("Not a valid range of scores: [%s, %s]", minimum, maximum));
+        }
+        positiveCounts = new long[numberBins];
+        negativeCounts = new long[numberBins];
+        this.minimum = minimum;
+        this.maximum = maximum;
+        binsPerUnit = numberBins / (maximum - minimum);
+    }
+
+    /**
+     * Returns the index of the bin for the given score.  The bins are
+     * numbered from the lowest scores to the highest.
+     */
+    int binIndex(double score) {
+        // NaN fails this comparison and goes in the highest bin
+        if (score >= minimum) {
+            double bin = (score - minimum) * binsPerUnit;
+            // The maximum is included in the highest bin
+            return bin < positiveCounts.length ?
+                (int) bin : positiveCounts.length - 1;
+        } else if (score < minimum) {
+            return 0;
+        } else {
+            return positiveCounts.length - 1;
+        }
+    }
+
+    /**
+     * Adds an example.
+     *
+     * @param score The score of the example
+     * @param isPositive Whether the label of the example is positive
+     * @return This builder
+     */
+    public HistogramBuilder add(double score, boolean isPositive) {
+        if (isPositive) {
+            positiveCounts[binIndex(score)]++;
+        } else {
+            negativeCounts[binIndex(score)]++;
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given examples.
+     *
+     * @param scores The scores of the examples
+     * @param labels The labels of the examples in the same order as
+     * the scores
+     * @param positiveLabel The label to consider positive
+     * @return This builder
+     */
+    public HistogramBuilder add(double[] scores, int[] labels, int positiveLabel) {
+        if (scores.length != labels.length) {
+            throw new IllegalArgumentException("The number of scores does not equal the number of labels.");
+        }
+        for (int index = 0; index < scores.length; index++) {
+            add(scores[index], labels[index] == positiveLabel);
+        }
+        return this;
+    }
+
+    /**
+     * Adds all the examples of the given builder to this one.  The
+     * builders must have the same bins.
+     *
+     * @param other A builder with the same bins
+     * @return This builder
+     */
+    public HistogramBuilder add(HistogramBuilder other) {
+        if (other.positiveCounts.length != positiveCounts.length ||
+            other.minimum != minimum || other.maximum != maximum) {
+            throw new IllegalArgumentException("Only builders with the same bins can be combined.");
+        }
+        for (int bin = 0; bin < positiveCounts.length; bin++) {
+            positiveCounts[bin] += other.positiveCounts[bin];
+            negativeCounts[bin] += other.negativeCounts[bin];
+        }
+        return this;
+    }
+
+    /** Returns the number of bins. */
+    public int numberBins() {
+        return positiveCounts.length;
+    }
+
+    /**
+     * Returns the boundary between the given bin and the bin below it.
+     * Boundary 0 is the minimum and boundary numberBins is the maximum.
+     *
+     * @param boundaryIndex An index in [0, numberBins]
+     */
+    public double binBoundary(int boundaryIndex) {
+        return minimum + boundaryIndex / binsPerUnit;
+    }
+
+    /**
+     * Builds a curve from the examples added so far.  There is one
+     * point per non-empty bin, from the highest bin to the lowest.
+     *
+     * @return A new curve
+     * @throws IllegalArgumentException if no examples have been added
+     * @throws IllegalStateException if there are too many examples for
+     * a curve
+     */
+    public Curve build() {
+        // Count the non-empty bins and the examples
+        int numberGroups = 0;
+        long numberExamples = 0;
+        for (int bin = 0; bin < positiveCounts.length; bin++) {
+            if (positiveCounts[bin] + negativeCounts[bin] > 0) {
+                numberGroups++;
+                numberExamples += positiveCounts[bin] + negativeCounts[bin];
+            }
+        }
+        if (numberExamples == 0) {
+            throw new IllegalArgumentException("The list of scores must not be empty.");
+        }
+        if (numberExamples > Integer.MAX_VALUE) {
+            throw new IllegalStateException(String.format("Too many examples for a curve: more than %s.", Integer.MAX_VALUE));
+        }
+
+        // Accumulate the counts from the highest bin to the lowest
+        int[] posCounts = new int[numberGroups + 1];
+        int[] negCounts = new int[numberGroups + 1];
+        int countIndex = 0;
+        for (int bin = positiveCounts.length - 1; bin >= 0; bin--) {
+            if (positiveCounts[bin] + negativeCounts[bin] > 0) {
+                countIndex++;
+                posCounts[countIndex] = posCounts[countIndex - 1] + (int) positiveCounts[bin];
+                negCounts[countIndex] = negCounts[countIndex - 1] + (int) negativeCounts[bin];
+            }
+        }
+        return new Curve(posCounts, negCounts);
+    }
+
+    /**
+     * <p>Computes the maximum possible difference between the area
+     * under the ROC curve built from the bins and the area under the
+     * ROC curve built from the exact scores of the same examples.</p>
+     *
+     * <p>The area under the ROC curve is the fraction of
+     * (positive, negative) pairs in which the positive is ranked above
+     * the negative, with ties counting half.  Pairs in different bins
+     * are ordered the same whether binned or not.  Pairs in the same
+     * bin count half when binned but could count anywhere from zero to
+     * one with exact scores.  Therefore the error is at most half the
+     * fraction of pairs that share a bin.</p>
+     *
+     * @return The bound on the absolute error of {@link
+     * Curve#rocArea()}, or NaN if there are no positives or no
+     * negatives
+     */
+    public double maximumRocAreaError() {
+        double sharedPairs = 0.0;
+        double positives = 0.0;
+        double negatives = 0.0;
+        for (int bin = 0; bin < positiveCounts.length; bin++) {
+            sharedPairs += (double) positiveCounts[bin] * (double) negativeCounts[bin];
+            positives += positiveCounts[bin];
+            negatives += negativeCounts[bin];
+        }
+        return 0.5 * sharedPairs / (positives * negatives);
+    }
+}
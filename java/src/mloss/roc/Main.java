@@ -7,25 +7,46 @@ package mloss.roc;
 
 
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import mloss.roc.util.CsvProcessing;
 import mloss.roc.util.ArrayUtils;
-import mloss.roc.util.NaiveCsvReader;
+import mloss.roc.util.ArrowFile;
+import mloss.roc.util.ColumnTable;
+import mloss.roc.util.BackgroundInputStream;
+import mloss.roc.util.ConcatenatedGzipInputStream;
+import mloss.roc.util.CsvTokenizer;
+import mloss.roc.util.DoubleArrayList;
+import mloss.roc.util.DoubleParser;
+import mloss.roc.util.IntArrayList;
+import mloss.roc.util.LabelDictionary;
+import mloss.roc.util.NpyArray;
+import mloss.roc.util.ParallelCsvReader;
+import mloss.roc.util.ReaderInputStream;
+import mloss.roc.util.RocBinaryFile;
 
 
 // TODO design reporting in terms of different information and different formats
@@ -66,13 +87,23 @@ public class Main {
     public static final String scoresKeyOptName = "--scores-key";
     public static final String scoresColumnOptName = "--scores-column";
     public static final String labelsKeyOptName = "--labels-key";
+    public static final String presortedOptName = "--presorted";
     public static final String labelsColumnOptName = "--labels-column";
+    public static final String scoresNameOptName = "--scores-name";
+    public static final String labelsNameOptName = "--labels-name";
     public static final String positiveLabelOptName = "--positive";
     public static final String reportNameOptName = "--report";
     public static final String reportFileOptName = "--to";
+    public static final String memoryOptName = "--memory";
+    public static final String threadsOptName = "--threads";
+    public static final String toBinaryOptName = "--to-binary";
 
     public static final String stdioFileName = "-";
 
+    // The magic bytes of Zstandard frames
+    private static final byte[] zstdMagic =
+        {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd};
+
     private static final String indent = "        ";
 
     // TODO load help from a file, or have it compiled in, or build it with an options package?
@@ -122,11 +153,24 @@ public class Main {
 
         scoresLabelsOptName + " FILE\n" + indent +
         "File containing scores and labels, one per line, in CSV format.  Default\n" + indent +
-        "is '-' (standard input).\n" +
+        "is '-' (standard input).  A file in Roc binary format (see\n" + indent +
+        "'--to-binary') is detected and read directly.  Its labels already match\n" + indent +
+        "the positive label given when converting; other binary files need an\n" + indent +
+        "integer positive label.  So is a NumPy '.npz' archive (from\n" + indent +
+        "'numpy.savez') with arrays named 'scores' and 'labels'.  So is an Apache\n" + indent +
+        "Arrow IPC file, of which only the scores and labels columns are read.\n" + indent +
+        "CSV input (here and below) may be compressed with gzip, which is\n" + indent +
+        "detected and decompressed on a separate thread.  Zstandard is not\n" + indent +
+        "supported; decompress it first with 'zstd -dc'.\n" +
         scoresOptName + " FILE\n" + indent +
         "File containing scores, one per line, in CSV format.  Must be specified\n" + indent +
         "in combination with '--labels'.  The scores are matched to the labels by\n" + indent +
-        "the specified keys or otherwise by line number.  No default.\n" +
+        "the specified keys or otherwise by line number.  No default.  NumPy\n" + indent +
+        "'.npy' files (from 'numpy.save') of scores and labels are detected and\n" + indent +
+        "read directly, in which case the positive label must be an integer.  May\n" + indent +
+        "be given multiple times with keys to compare several models against the\n" + indent +
+        "same labels, which are read once.  The reports are repeated for each\n" + indent +
+        "scores file in order.\n" +
         labelsOptName + " FILE\n" + indent +
         "File containing labels, one per line, in CSV format.  Labels specified\n" + indent +
         "by themselves are treated as already ranked from most positive to most\n" + indent +
@@ -143,6 +187,12 @@ public class Main {
         "number that is not a scores column (scores-labels input) or the smallest\n" + indent +
         "number that is not a labels keys column (separate scores and labels\n" + indent +
         "inputs).  Default is 2 if both columns are left unspecified.\n" +
+        scoresNameOptName + " NAME\n" + indent +
+        "Name of the column containing the scores in an Arrow scores-labels file.\n" + indent +
+        "Default is to select the column by number as with '--scores-column'.\n" +
+        labelsNameOptName + " NAME\n" + indent +
+        "Name of the column containing the labels in an Arrow scores-labels file.\n" + indent +
+        "Default is to select the column by number as with '--labels-column'.\n" +
         scoresKeyOptName + " INTEGER(S)\n" + indent +
         "Column or list of columns containing the (compound) keys for the scores\n" + indent +
         "file to use when joining the scores to the labels from the labels file.\n" + indent +
@@ -155,19 +205,46 @@ public class Main {
         "Comma-separated list of 1-based numbers as a single token (no spaces).\n" + indent +
         "Default is to join the files by line number.  Only applies to separate\n" + indent +
         "scores and labels files.\n" +
+        presortedOptName + "\n" + indent +
+        "Declare that the scores and labels files are already sorted by their\n" + indent +
+        "keys (as UTF-8 bytes, as by 'LC_ALL=C sort') and join them by streaming\n" + indent +
+        "both at once without storing or sorting them.  Input that is out of\n" + indent +
+        "order is an error.  Only applies to separate scores and labels files\n" + indent +
+        "with keys.\n" +
         positiveLabelOptName + " STRING\n" + indent +
         "Label that identifies positive examples.  Default is 1.\n" +
+        memoryOptName + " MEGABYTES\n" + indent +
+        "Rank the scores and labels within approximately this much memory by\n" + indent +
+        "sorting them in runs on disk (in the default temporary directory).  For\n" + indent +
+        "inputs that do not fit in memory.  Applies to scores-labels input and to\n" + indent +
+        "separate scores and labels inputs.  Inputs joined by keys are also\n" + indent +
+        "sorted by their keys in runs on disk and then merged, so only the key,\n" + indent +
+        "scores, and labels columns are spilled.  Presorted inputs are not\n" + indent +
+        "sorted by their keys.  Multiple scores inputs are each joined in turn\n" + indent +
+        "to the labels, which are sorted once.  Default is to rank in memory.\n" +
+        threadsOptName + " INTEGER\n" + indent +
+        "Number of threads for reading scores-labels files, for reading separate\n" + indent +
+        "scores and labels inputs concurrently, and for ranking.  Default is the\n" + indent +
+        "number of processors.\n" +
         "\n" +
 
         "Output\n\n" +
 
+        toBinaryOptName + " FILE\n" + indent +
+        "Convert the scores and labels to Roc binary format in the given file\n" + indent +
+        "instead of producing reports.  The binary file stores the scores as\n" + indent +
+        "64-bit floats and the labels as 1 (positive) or 0 (negative) and can be\n" + indent +
+        "given as a scores-labels file to skip parsing.  Applies to scores-labels\n" + indent +
+        "input and to separate scores and labels inputs joined by line number.\n" +
+
         reportNameOptName + " STRING(S)\n" + indent +
         "Name or list of names of the reports to produce, from the following:\n" + indent +
         Reports.namesString + "\n" + indent +
         "Specify multiple reports with a comma-separated list or by using the\n" + indent +
         "option multiple times.  Follow with a '--to' option to specify the\n" + indent +
         "output file for the report(s).  Default is '--report all' if no report\n" + indent +
-        "options are specified.\n" +
+        "options are specified.  If the input is ranked labels and only area\n" + indent +
+        "reports are requested, the labels are streamed in constant memory.\n" +
         reportFileOptName + " FILE\n" + indent +
         "File for the output of one or more reports.  Must follow one or more\n" + indent +
         "'--report' options.  If there is no trailing '--to' option, then\n" + indent +
@@ -256,22 +333,37 @@ public class Main {
     }
 
     // Class members
-    private BufferedReader input;
+    private InputStream inputStream;
+    // The input as bytes after checking for compression, which
+    // consumes bytes, so it is only done once
+    private InputStream decompressedInputStream;
     private PrintWriter output;
     private PrintWriter error;
 
-    /** Constructs a main with the given IO. */
+    /**
+     * Constructs a main with the given IO.  The input characters are
+     * read as bytes (see {@link ReaderInputStream}).
+     */
     public Main(BufferedReader input,
                 PrintWriter output,
                 PrintWriter error) {
-        this.input = input;
+        this.inputStream = new ReaderInputStream(input);
+        this.output = output;
+        this.error = error;
+    }
+
+    /** Constructs a main with the given IO. */
+    public Main(InputStream input,
+                PrintWriter output,
+                PrintWriter error) {
+        this.inputStream = input;
         this.output = output;
         this.error = error;
     }
 
     /** Constructs a main that uses standard IO. */
     public Main() {
-        this(new BufferedReader(new InputStreamReader(System.in)),
+        this(System.in,
              new PrintWriter(System.out, true), // auto-flush
              new PrintWriter(System.err, true));
     }
@@ -283,7 +375,7 @@ public class Main {
         // Default values
         String defaultOperation = scoresLabelsOptName;
         String defaultFileName = stdioFileName;
-        String defaultDelimiter = ",";
+        byte defaultDelimiter = ',';
         String positiveLabel = "1";
 
         // Environment.  For now this is a somewhat naive environment
@@ -347,7 +439,9 @@ public class Main {
 
             // Integers
             else if (arg.equals(scoresColumnOptName) ||
-                     arg.equals(labelsColumnOptName)) {
+                     arg.equals(labelsColumnOptName) ||
+                     arg.equals(memoryOptName) ||
+                     arg.equals(threadsOptName)) {
                 // Check integer argument given
                 if (nextArgIndex >= args.length) {
                     throw new Main.Exception(String.format("Integer missing after option: %s", arg), ExitStatus.ERROR_USAGE);
@@ -381,6 +475,9 @@ public class Main {
 
             // Strings and other unchecked/unparsed values
             else if (arg.equals(positiveLabelOptName) ||
+                     arg.equals(scoresNameOptName) ||
+                     arg.equals(labelsNameOptName) ||
+                     arg.equals(toBinaryOptName) ||
                      arg.equals(reportNameOptName) ||
                      arg.equals(reportFileOptName)) {
                 // Check that an argument was given
@@ -414,6 +511,11 @@ public class Main {
                 }
             }
 
+            // Flags
+            else if (arg.equals(presortedOptName)) {
+                env.put(arg, null);
+            }
+
             // Ignored or non-functional arguments
             else if (arg.equals(debugOptName)) {
             }
@@ -434,6 +536,37 @@ public class Main {
         // Scores-labels option overrides individual scores and/or
         // labels options.  No need to check for mutual exclusivity.
 
+        // Memory budget for ranking (if any) in bytes
+        long memoryBytes = 0;
+        if (env.containsKey(memoryOptName)) {
+            String integerValue = getLast(env.get(memoryOptName));
+            memoryBytes = Long.parseLong(integerValue) * 1024 * 1024;
+            if (memoryBytes <= 0) {
+                throw new Main.Exception(String.format("Memory must be a positive number of megabytes: %s", integerValue), ExitStatus.ERROR_USAGE);
+            }
+        }
+
+        // Number of threads for reading and ranking
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (env.containsKey(threadsOptName)) {
+            String integerValue = getLast(env.get(threadsOptName));
+            threads = Integer.parseInt(integerValue);
+            if (threads <= 0) {
+                throw new Main.Exception(String.format("The number of threads must be positive: %s", integerValue), ExitStatus.ERROR_USAGE);
+            }
+        }
+
+        // File to convert the input into (if any)
+        String binaryFileName = null;
+        if (env.containsKey(toBinaryOptName)) {
+            binaryFileName = getLast(env.get(toBinaryOptName));
+            if (!env.containsKey(scoresLabelsOptName) &&
+                !env.containsKey(scoresOptName) &&
+                env.containsKey(labelsOptName)) {
+                throw new Main.Exception(String.format("Option '%s' requires scores.", toBinaryOptName), ExitStatus.ERROR_USAGE);
+            }
+        }
+
         // Flatten groups of report names
         for (int groupIndex = 0; groupIndex < reportGroups.size(); groupIndex++) {
             List<String> group = reportGroups.get(groupIndex);
@@ -477,6 +610,12 @@ public class Main {
         // labels together in one input overrides providing them
         // individually.
         Curve curve = null;
+        // Multiple curves (one per scores input) if there are multiple
+        // scores inputs
+        List<Curve> curves = new ArrayList<Curve>();
+        // Only the areas (in constant memory) if the input is ranked
+        // labels and only area reports are requested
+        RankedLabelsAccumulator areas = null;
 
         // Input is scores and labels together in CSV format
         if (env.containsKey(scoresLabelsOptName)) {
@@ -508,15 +647,77 @@ public class Main {
                 throw new Main.Exception(String.format("Column conflict for scores and labels: {%s} <-> {%s}", scoreCol + 1, labelCol + 1), ExitStatus.ERROR_USAGE);
             }
 
-            // Read the CSV input from files or stdin as requested
             String slFileName = getLast(env.get(scoresLabelsOptName));
-            List<String[]> scoresLabelsCsv =
-                readCsv(slFileName, openFileOrInput(slFileName), defaultDelimiter);
 
-            // Build curve
-            curve = buildCurveFromScoresLabels(
-                scoresLabelsCsv, scoreCol, labelCol,
-                mapGetOrDefault(env, positiveLabelOptName, positiveLabel));
+            // Convert the input instead of building a curve
+            if (binaryFileName != null) {
+                CsvTokenizer scoresLabelsCsv = new CsvTokenizer(
+                    openFileOrInputStream(slFileName), defaultDelimiter);
+                convertToBinary(
+                    slFileName, scoresLabelsCsv, scoreCol,
+                    slFileName, scoresLabelsCsv, labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    binaryFileName,
+                    threads);
+            }
+            // Read binary input directly
+            else if (!slFileName.equals(stdioFileName) &&
+                     RocBinaryFile.isRocBinaryFile(new File(slFileName))) {
+                curve = buildCurveFromBinary(
+                    slFileName,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    threads);
+            } else if (!slFileName.equals(stdioFileName) &&
+                       NpyArray.isNpzFile(new File(slFileName))) {
+                Map<String, NpyArray> arrays =
+                    NpyArray.readArchive(new File(slFileName));
+                for (String name : new String[] {"scores", "labels"}) {
+                    if (!arrays.containsKey(name)) {
+                        throw new Main.Exception(String.format("Array '%s' missing from archive: %s", name, slFileName), ExitStatus.ERROR_FILE);
+                    }
+                }
+                curve = buildCurveFromNumpy(
+                    slFileName, arrays.get("scores"),
+                    slFileName, arrays.get("labels"),
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    threads);
+            } else if (!slFileName.equals(stdioFileName) &&
+                       ArrowFile.isArrowFile(new File(slFileName))) {
+                curve = buildCurveFromArrow(
+                    slFileName,
+                    mapGetOrDefault(env, scoresNameOptName, null), scoreCol,
+                    mapGetOrDefault(env, labelsNameOptName, null), labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    threads);
+            }
+            // Stream the input through an external sort if there is a
+            // memory budget
+            else if (memoryBytes > 0) {
+                CsvTokenizer scoresLabelsCsv = new CsvTokenizer(
+                    openFileOrInputStream(slFileName), defaultDelimiter);
+                curve = buildCurveExternally(
+                    slFileName, scoresLabelsCsv, scoreCol,
+                    slFileName, scoresLabelsCsv, labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    memoryBytes);
+            } else if (threads > 1 && !slFileName.equals(stdioFileName) &&
+                       !isGzipFile(slFileName)) {
+                // Read chunks of the file in parallel
+                curve = buildCurveInParallel(
+                    slFileName, defaultDelimiter, scoreCol, labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    threads);
+            } else {
+                // Read the scores and labels columns from files or
+                // stdin as requested
+                CsvTokenizer scoresLabelsCsv = new CsvTokenizer(
+                    openFileOrInputStream(slFileName), defaultDelimiter);
+                curve = buildCurveFromTokenizedScoresLabels(
+                    slFileName, scoresLabelsCsv, scoreCol,
+                    slFileName, scoresLabelsCsv, labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    threads);
+            }
         }
 
         // Input is scores and labels separately in CSV format
@@ -574,25 +775,142 @@ public class Main {
                 throw new Main.Exception(String.format("Column conflict for labels keys and labels: {%s} <-> {%s}", colsString, labelCol + 1), ExitStatus.ERROR_USAGE);
             }
 
-            // Read the CSV input from files or stdin as requested
-            String sFileName = getLast(env.get(scoresOptName));
+            List<String> sFileNames = env.get(scoresOptName);
+            String sFileName = getLast(sFileNames);
             String lFileName = getLast(env.get(labelsOptName));
-            List<String[]> scoresCsv =
-                readCsv(sFileName, openFileOrInput(sFileName), defaultDelimiter);
-            List<String[]> labelsCsv =
-                readCsv(lFileName, openFileOrInput(lFileName), defaultDelimiter);
-
-            // Build curve with the rows already in order or with a join
-            if (scoresKeyCols.length == 0) {
-                curve = buildCurveFromSeparateScoresLabels(
-                    scoresCsv, scoreCol,
-                    labelsCsv, labelCol,
-                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel));
+
+            // Multiple scores inputs are each joined to the labels
+            if (sFileNames.size() > 1 &&
+                (scoresKeyCols.length == 0 || env.containsKey(presortedOptName))) {
+                throw new Main.Exception(String.format("Multiple '%s' options require keys and not '%s'.", scoresOptName, presortedOptName), ExitStatus.ERROR_USAGE);
+            }
+
+            // Read the inputs concurrently unless they share stdin
+            int numberStdio = Collections.frequency(sFileNames, stdioFileName) +
+                (lFileName.equals(stdioFileName) ? 1 : 0);
+            int inputThreads = (numberStdio > 1) ? 1 : threads;
+
+            // Convert the input instead of building a curve
+            if (binaryFileName != null) {
+                if (scoresKeyCols.length > 0) {
+                    throw new Main.Exception(String.format("Option '%s' requires inputs joined by line number.", toBinaryOptName), ExitStatus.ERROR_USAGE);
+                }
+                convertToBinary(
+                    sFileName,
+                    new CsvTokenizer(openFileOrInputStream(sFileName), defaultDelimiter),
+                    scoreCol,
+                    lFileName,
+                    new CsvTokenizer(openFileOrInputStream(lFileName), defaultDelimiter),
+                    labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    binaryFileName,
+                    inputThreads);
+            }
+            // Read NumPy arrays directly
+            else if (scoresKeyCols.length == 0 &&
+                     (isNpyFile(sFileName) || isNpyFile(lFileName))) {
+                if (!isNpyFile(sFileName) || !isNpyFile(lFileName)) {
+                    throw new Main.Exception("Both scores and labels must be NumPy arrays or neither.", ExitStatus.ERROR_USAGE);
+                }
+                curve = buildCurveFromNumpy(
+                    sFileName, NpyArray.read(new File(sFileName)),
+                    lFileName, NpyArray.read(new File(lFileName)),
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    threads);
+            }
+            // Stream rows joined by line number through an external
+            // sort if there is a memory budget
+            else if (memoryBytes > 0 && scoresKeyCols.length == 0) {
+                curve = buildCurveExternally(
+                    sFileName,
+                    new CsvTokenizer(openFileOrInputStream(sFileName), defaultDelimiter),
+                    scoreCol,
+                    lFileName,
+                    new CsvTokenizer(openFileOrInputStream(lFileName), defaultDelimiter),
+                    labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    memoryBytes);
+            } else if (scoresKeyCols.length == 0) {
+                // Read the rows in order
+                curve = buildCurveFromTokenizedScoresLabels(
+                    sFileName,
+                    new CsvTokenizer(openFileOrInputStream(sFileName), defaultDelimiter),
+                    scoreCol,
+                    lFileName,
+                    new CsvTokenizer(openFileOrInputStream(lFileName), defaultDelimiter),
+                    labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    inputThreads);
+            } else if (env.containsKey(presortedOptName)) {
+                // Stream the sorted inputs through a merge join
+                curve = buildCurveFromSortedScoresLabels(
+                    sFileName,
+                    new CsvTokenizer(openFileOrInputStream(sFileName), defaultDelimiter),
+                    scoresKeyCols,
+                    scoreCol,
+                    lFileName,
+                    new CsvTokenizer(openFileOrInputStream(lFileName), defaultDelimiter),
+                    labelsKeyCols,
+                    labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    threads,
+                    memoryBytes);
+            } else if (memoryBytes > 0) {
+                // Sort the labels once and join each scores input to
+                // them through an external sort
+                CsvProcessing.ExternalRowSorter sortedLabels = sortLabelsExternally(
+                    lFileName,
+                    new CsvTokenizer(openFileOrInputStream(lFileName), defaultDelimiter),
+                    labelsKeyCols,
+                    labelCol,
+                    memoryBytes);
+                try {
+                    for (String scoresFileName : sFileNames) {
+                        curves.add(buildCurveFromJoinedScoresLabelsExternally(
+                            scoresFileName,
+                            new CsvTokenizer(openFileOrInputStream(scoresFileName), defaultDelimiter),
+                            scoresKeyCols,
+                            scoreCol,
+                            sortedLabels,
+                            mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                            memoryBytes));
+                    }
+                } finally {
+                    sortedLabels.close();
+                }
             } else {
-                curve = buildCurveFromJoinedScoresLabels(
-                    scoresCsv, scoresKeyCols, scoreCol,
-                    labelsCsv, labelsKeyCols, labelCol,
-                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel));
+                // Read the key columns followed by the scores or labels
+                // column from files or stdin as requested into columnar
+                // tables.  Read the inputs concurrently and join them
+                // once all are read.
+                int numberKeys = scoresKeyCols.length;
+                boolean[] labelsNumeric = new boolean[numberKeys + 1];
+                boolean[] scoresNumeric = new boolean[numberKeys + 1];
+                scoresNumeric[numberKeys] = true;
+                List<Callable<ColumnTable>> reads =
+                    new ArrayList<Callable<ColumnTable>>(sFileNames.size() + 1);
+                reads.add(columnTableReader(
+                    lFileName, openFileOrInputStream(lFileName), defaultDelimiter,
+                    ArrayUtils.concat(labelsKeyCols, labelCol), labelsNumeric));
+                for (String scoresFileName : sFileNames) {
+                    reads.add(columnTableReader(
+                        scoresFileName, openFileOrInputStream(scoresFileName),
+                        defaultDelimiter,
+                        ArrayUtils.concat(scoresKeyCols, scoreCol), scoresNumeric));
+                }
+                List<ColumnTable> inputs = callConcurrently(inputThreads, reads);
+
+                // Build curves with joins.  The keys are now the first
+                // columns.
+                int[] keyCols = new int[numberKeys];
+                for (int keyIndex = 0; keyIndex < numberKeys; keyIndex++) {
+                    keyCols[keyIndex] = keyIndex;
+                }
+                curves = buildCurvesFromJoinedColumnTables(
+                    inputs.subList(1, inputs.size()), keyCols, numberKeys,
+                    inputs.get(0), keyCols, numberKeys,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    threads);
             }
         }
 
@@ -605,22 +923,34 @@ public class Main {
                 labelCol = Integer.parseInt(integerValue) - 1;
             }
 
-            // Read the CSV input from files or stdin as requested
+            // Read the labels column from files or stdin as requested
             String lFileName = getLast(env.get(labelsOptName));
-            List<String[]> labelsCsv =
-                readCsv(lFileName, openFileOrInput(lFileName), defaultDelimiter);
-
-            // Build curve
-            curve = buildCurveFromRankedLabels(
-                labelsCsv, labelCol,
-                mapGetOrDefault(env, positiveLabelOptName, positiveLabel));
+            if (isAreaReportsOnly(reportGroups)) {
+                areas = accumulateTokenizedRankedLabels(
+                    lFileName,
+                    new CsvTokenizer(openFileOrInputStream(lFileName), defaultDelimiter),
+                    labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel));
+            } else {
+                curve = buildCurveFromTokenizedRankedLabels(
+                    lFileName,
+                    new CsvTokenizer(openFileOrInputStream(lFileName), defaultDelimiter),
+                    labelCol,
+                    mapGetOrDefault(env, positiveLabelOptName, positiveLabel),
+                    threads);
+            }
         }
 
-        // Report on the curve (if one was constructed)
+        // Report on the curves (if any were constructed) in order
         if (curve != null) {
+            curves.add(curve);
+        }
+        if (curves.size() > 0 || areas != null) {
             // Do default report if none specified
             if (reportGroups.size() == 0) {
-                Reports.yaml(curve, output);
+                for (Curve eachCurve : curves) {
+                    Reports.yaml(eachCurve, output);
+                }
             }
 
             // Run reports
@@ -637,8 +967,15 @@ public class Main {
                         // Open output
                         reportOutput = openFileOrOutput(reportFile);
                         // Run reports
-                        for (String reportName : reportGroup) {
-                            Reports.report(reportName, curve, reportOutput);
+                        if (areas != null) {
+                            for (String reportName : reportGroup) {
+                                Reports.report(reportName, areas, reportOutput);
+                            }
+                        }
+                        for (Curve eachCurve : curves) {
+                            for (String reportName : reportGroup) {
+                                Reports.report(reportName, eachCurve, reportOutput);
+                            }
                         }
                     } catch (IllegalArgumentException e) {
                         throw new Main.Exception(e.getMessage(), ExitStatus.ERROR_USAGE);
@@ -683,18 +1020,61 @@ public class Main {
         }
     }
 
-    public BufferedReader openFileOrInput(String fileName)
-        throws FileNotFoundException {
+    public InputStream openFileOrInputStream(String fileName)
+        throws IOException {
 
         // Use the given input if the file name signifies stdio.
         // Otherwise open the given file for reading.
         if (fileName.equals(stdioFileName)) {
-            return input;
+            if (decompressedInputStream == null) {
+                decompressedInputStream =
+                    decompressIfCompressed(inputStream, fileName);
+            }
+            return decompressedInputStream;
         } else {
-            return new BufferedReader(new FileReader(fileName));
+            return decompressIfCompressed(new FileInputStream(fileName),
+                                          fileName);
         }
     }
 
+    /**
+     * Returns the given input decompressed if it starts with the magic
+     * bytes of gzip and otherwise returns the given input as is.  Gzip
+     * input may have multiple members (see {@link
+     * ConcatenatedGzipInputStream}) and is decompressed on a
+     * background thread (see {@link BackgroundInputStream}) so that
+     * decompressing and parsing overlap.
+     */
+    public static InputStream decompressIfCompressed(InputStream input,
+                                                     String fileName)
+        throws IOException {
+
+        // Peek at the magic bytes
+        PushbackInputStream pushback = new PushbackInputStream(input, zstdMagic.length);
+        byte[] magic = new byte[zstdMagic.length];
+        int length = 0;
+        int numberRead;
+        while (length < magic.length &&
+               (numberRead = pushback.read(magic, length, magic.length - length)) >= 0) {
+            length += numberRead;
+        }
+        pushback.unread(magic, 0, length);
+
+        if (ConcatenatedGzipInputStream.hasMagic(magic, length)) {
+            return new BackgroundInputStream(
+                new ConcatenatedGzipInputStream(pushback));
+        } else if (length == zstdMagic.length && Arrays.equals(magic, zstdMagic)) {
+            throw new IOException(String.format("Zstandard input is not supported (decompress it with 'zstd -dc'): %s", fileName));
+        }
+        return pushback;
+    }
+
+    /** Returns whether the given file name is of a gzip file. */
+    static boolean isGzipFile(String fileName) throws IOException {
+        return !fileName.equals(stdioFileName) &&
+            ConcatenatedGzipInputStream.isGzipFile(new File(fileName));
+    }
+
     public PrintWriter openFileOrOutput(String fileName)
         throws FileNotFoundException {
 
@@ -707,199 +1087,820 @@ public class Main {
         }
     }
 
-    /** Reads the specified input as CSV data. */
-    public static List<String[]> readCsv(
+    /**
+     * Reads the given columns of the specified input as CSV data into a
+     * columnar table (see {@link ColumnTable#read}).
+     *
+     * @throws ArrayIndexOutOfBoundsException if a row does not have
+     * one of the given columns
+     */
+    public static ColumnTable readColumnTable(
             String fileName,
-            BufferedReader input,
-            String delimiter)
+            InputStream input,
+            byte delimiter,
+            int[] columns,
+            boolean[] numeric)
         throws IOException, Main.Exception {
 
-        // Read the entire CSV
-        List<String[]> csv = new NaiveCsvReader(input, delimiter).readAll();
+        ColumnTable table = ColumnTable.read(
+            new CsvTokenizer(input, delimiter), columns, numeric);
         // Check for non-empty input
-        if (csv.size() == 0) {
+        if (table.numberRows() == 0) {
             throw new Main.Exception(String.format("Empty input: %s", fileName),
                                      ExitStatus.ERROR_FILE);
         }
-        return csv;
+        return table;
     }
 
-    public static Curve buildCurveFromRankedLabels(
-            Iterable<String[]> labelsCsv,
-            int labelsColumn,
-            String positiveLabel) {
-
-        // Create an iterator for the input column of labels
-        Iterable<String> labelsIterator =
-            new ProjectionIterator<String>(labelsCsv, labelsColumn);
-
-        // Build and return the curve
-        return new Curve.Builder<Double,String>()
-            .rankedLabels(labelsIterator)
-            .positiveLabel(positiveLabel)
-            .build();
+    /**
+     * Returns a task that reads the given columns of the specified
+     * input into a columnar table (as in {@link #readColumnTable}).
+     */
+    public static Callable<ColumnTable> columnTableReader(
+            final String fileName,
+            final InputStream input,
+            final byte delimiter,
+            final int[] columns,
+            final boolean[] numeric) {
+
+        return new Callable<ColumnTable>() {
+            public ColumnTable call() throws IOException, Main.Exception {
+                return readColumnTable(fileName, input, delimiter, columns, numeric);
+            }
+        };
     }
 
-    public static Curve buildCurveFromScoresLabels(
-            Iterable<String[]> scoresLabelsCsv,
+    /**
+     * Builds a curve for each of the given columnar scores tables by
+     * joining it to the same columnar labels table (see {@link
+     * ColumnTable#join}).  The joins compare dictionary codes
+     * rather than strings, and the joined scores and labels are
+     * gathered straight into primitive arrays by row index.  The scores
+     * columns must be numeric and the other columns dictionary-encoded.
+     *
+     * @return The curves in the order of the scores tables
+     */
+    public static List<Curve> buildCurvesFromJoinedColumnTables(
+            List<ColumnTable> scoresTables,
+            int[] scoresKeyColumns,
             int scoresColumn,
+            ColumnTable labelsTable,
+            int[] labelsKeyColumns,
             int labelsColumn,
-            String positiveLabel) {
-
-        // BUG this won't work if scoresLabelsCsv is only iterable once
-
-        // Project the scores and labels
-        Iterable<Double> scoresIterator =
-            new StringToDoubleConversionIterator(
-                new ProjectionIterator<String>(scoresLabelsCsv,
-                                               scoresColumn));
-        Iterable<String> labelsIterator =
-            new ProjectionIterator<String>(scoresLabelsCsv,
-                                           labelsColumn);
-
-        // Build and return the curve
-        return new Curve.Builder<Double,String>()
-            .scores(scoresIterator)
-            .labels(labelsIterator)
-            .positiveLabel(positiveLabel)
-            .build();
+            String positiveLabel,
+            int threads) {
+
+        // Check arguments
+        if (scoresKeyColumns.length != labelsKeyColumns.length) {
+            throw new IllegalArgumentException("There must be the same number of key columns for both the scores and labels.");
+        }
+
+        byte[] positiveLabelBytes = positiveLabel.getBytes(Charset.defaultCharset());
+        List<Curve> curves = new ArrayList<Curve>(scoresTables.size());
+        for (ColumnTable scoresTable : scoresTables) {
+            int[][] rows = ColumnTable.join(
+                scoresTable, scoresKeyColumns, labelsTable, labelsKeyColumns);
+            if (rows[0].length == 0) {
+                throw new IllegalArgumentException("Empty join result: no score-label pairs to rank.  Check your inputs and join parameters.");
+            }
+            curves.add(new Curve.PrimitivesBuilder()
+                       .scores(scoresTable.doubleColumn(scoresColumn).gather(rows[0]))
+                       .labels(labelsTable.dictionaryColumn(labelsColumn)
+                               .gatherMatches(rows[1], positiveLabelBytes))
+                       .parallelism(threads)
+                       .build());
+        }
+        return curves;
     }
 
-    public static Curve buildCurveFromJoinedScoresLabels(
-            Iterable<String[]> scoresCsv,
+    /**
+     * Builds a curve from separate scores and labels inputs that are
+     * sorted by their keys by streaming them through a merge join (see
+     * {@link CsvProcessing#sortedMergeJoin}).  Neither input is stored;
+     * each joined score and label goes straight into primitive arrays,
+     * or into an {@link ExternalBuilder} if there is a memory budget.
+     *
+     * @throws Main.Exception if an input is not sorted by its keys
+     */
+    public static Curve buildCurveFromSortedScoresLabels(
+            String scoresFileName,
+            CsvTokenizer scoresCsv,
             int[] scoresKeyColumns,
             int scoresColumn,
-            Iterable<String[]> labelsCsv,
+            String labelsFileName,
+            CsvTokenizer labelsCsv,
             int[] labelsKeyColumns,
             int labelsColumn,
-            String positiveLabel) {
+            final String positiveLabel,
+            int threads,
+            long memoryBytes)
+        throws IOException, Main.Exception {
 
         // Check arguments
         if (scoresKeyColumns.length != labelsKeyColumns.length) {
             throw new IllegalArgumentException("There must be the same number of key columns for both the scores and labels.");
         }
 
-        // Set up the join
-        int[][] keys = new int[scoresKeyColumns.length][2];
-        int[][] fields = new int[scoresKeyColumns.length + 2][2];
-        int keyIndex;
-        for (keyIndex = 0; keyIndex < scoresKeyColumns.length; keyIndex++) {
-            // Match keys
-            keys[keyIndex][0] = scoresKeyColumns[keyIndex];
-            keys[keyIndex][1] = labelsKeyColumns[keyIndex];
-            // Assemble fields
-            fields[keyIndex][0] = 0;
-            fields[keyIndex][1] = scoresKeyColumns[keyIndex];
-        }
-        // Assemble remaining fields
-        fields[keyIndex][0] = 0;
-        fields[keyIndex][1] = scoresColumn;
-        keyIndex++;
-        fields[keyIndex][0] = 1;
-        fields[keyIndex][1] = labelsColumn;
+        // Set up the join.  Each cursor yields the key fields followed
+        // by the scores or labels field.
+        int numberKeys = scoresKeyColumns.length;
+        int[][] keys = new int[numberKeys][];
+        for (int keyIndex = 0; keyIndex < numberKeys; keyIndex++) {
+            keys[keyIndex] = new int[] {keyIndex, keyIndex};
+        }
+        int[][] fields = {{0, numberKeys}, {1, numberKeys}};
+        TokenizerCursor scoresRows = new TokenizerCursor(
+            scoresCsv, ArrayUtils.concat(scoresKeyColumns, scoresColumn));
+        TokenizerCursor labelsRows = new TokenizerCursor(
+            labelsCsv, ArrayUtils.concat(labelsKeyColumns, labelsColumn));
 
         // Do the join
-        List<String[]> scoresLabelsRows =
-            CsvProcessing.mergeJoin(keys, fields, scoresCsv, labelsCsv);
+        final DoubleArrayList scores = new DoubleArrayList();
+        final IntArrayList labels = new IntArrayList();
+        final ExternalBuilder builder =
+            (memoryBytes > 0) ? new ExternalBuilder(memoryBytes) : null;
+        try {
+            long numberJoined;
+            try {
+                numberJoined = CsvProcessing.sortedMergeJoin(
+                    keys, fields, scoresRows, labelsRows,
+                    new CsvProcessing.RowConsumer() {
+                        public void accept(String[] row) throws IOException {
+                            if (builder != null) {
+                                builder.add(parseScore(row[0]), positiveLabel.equals(row[1]));
+                            } else {
+                                scores.add(parseScore(row[0]));
+                                labels.add(positiveLabel.equals(row[1]) ? 1 : 0);
+                            }
+                        }
+                    });
+            } catch (CsvProcessing.UnsortedInputException e) {
+                boolean isScores = (e.inputNumber == 1);
+                throw new Main.Exception(String.format("Input not sorted by its keys: %s: line %s", isScores ? scoresFileName : labelsFileName, (isScores ? scoresRows : labelsRows).lineNumber()), ExitStatus.ERROR_INPUT);
+            }
+
+            // Check for non-empty inputs and join result
+            if (scoresRows.numberRows == 0 || labelsRows.numberRows == 0) {
+                throw new Main.Exception(String.format("Empty input: %s", scoresRows.numberRows == 0 ? scoresFileName : labelsFileName),
+                                         ExitStatus.ERROR_FILE);
+            }
+            if (numberJoined == 0) {
+                throw new IllegalArgumentException("Empty join result: no score-label pairs to rank.  Check your inputs and join parameters.");
+            }
+            if (builder != null) {
+                return builder.build();
+            }
+            return new Curve.PrimitivesBuilder()
+                .scores(scores.trimmedArray())
+                .labels(labels.trimmedArray())
+                .parallelism(threads)
+                .build();
+        } finally {
+            if (builder != null) {
+                builder.close();
+            }
+        }
+    }
+
+    /**
+     * Sorts a labels input that may be larger than memory for external
+     * sort-merge joins with scores inputs (see {@link
+     * #buildCurveFromJoinedScoresLabelsExternally}).  The key columns
+     * followed by the labels column are sorted into runs on disk within
+     * a quarter of the memory budget (the share of the labels in each
+     * join), so the labels are read and sorted only once however many
+     * scores inputs are joined to them.  The caller must close the
+     * returned sorter.
+     */
+    public static CsvProcessing.ExternalRowSorter sortLabelsExternally(
+            String labelsFileName,
+            CsvTokenizer labelsCsv,
+            int[] labelsKeyColumns,
+            int labelsColumn,
+            long memoryBytes)
+        throws IOException, Main.Exception {
+
+        TokenizerCursor labelsRows = new TokenizerCursor(
+            labelsCsv, ArrayUtils.concat(labelsKeyColumns, labelsColumn));
+        int numberKeys = labelsKeyColumns.length;
+        CsvProcessing.ExternalRowSorter sorter = CsvProcessing.externalSort(
+            externalJoinKeys(numberKeys), externalJoinFields(numberKeys), 1,
+            labelsRows, Math.max(1, memoryBytes / 4), null);
+        if (labelsRows.numberRows == 0) {
+            sorter.close();
+            throw new Main.Exception(String.format("Empty input: %s", labelsFileName),
+                                     ExitStatus.ERROR_FILE);
+        }
+        return sorter;
+    }
+
+    /**
+     * Builds a curve from a scores input that may be larger than memory
+     * and sorted labels (see {@link #sortLabelsExternally}) by joining
+     * them with an external sort-merge join (see {@link
+     * CsvProcessing#externalMergeJoin(int[][], int[][],
+     * CsvProcessing.RowCursor, CsvProcessing.ExternalRowSorter,
+     * CsvProcessing.RowConsumer, long, File)}) and streaming the joined
+     * scores and labels through an {@link ExternalBuilder}.  Half the
+     * memory budget goes to the builder and a quarter to sorting the
+     * scores.
+     */
+    public static Curve buildCurveFromJoinedScoresLabelsExternally(
+            String scoresFileName,
+            CsvTokenizer scoresCsv,
+            int[] scoresKeyColumns,
+            int scoresColumn,
+            CsvProcessing.ExternalRowSorter sortedLabels,
+            final String positiveLabel,
+            long memoryBytes)
+        throws IOException, Main.Exception {
+
+        // Set up the join.  Each cursor yields the key fields followed
+        // by the scores or labels field.
+        int numberKeys = scoresKeyColumns.length;
+        TokenizerCursor scoresRows = new TokenizerCursor(
+            scoresCsv, ArrayUtils.concat(scoresKeyColumns, scoresColumn));
+
+        // Do the join
+        final ExternalBuilder builder = new ExternalBuilder(Math.max(1, memoryBytes / 2));
+        try {
+            long numberJoined = CsvProcessing.externalMergeJoin(
+                externalJoinKeys(numberKeys), externalJoinFields(numberKeys),
+                scoresRows, sortedLabels,
+                new CsvProcessing.RowConsumer() {
+                    public void accept(String[] row) throws IOException {
+                        builder.add(parseScore(row[0]), positiveLabel.equals(row[1]));
+                    }
+                },
+                Math.max(1, memoryBytes / 4), null);
+
+            // Check for non-empty input and join result
+            if (scoresRows.numberRows == 0) {
+                throw new Main.Exception(String.format("Empty input: %s", scoresFileName),
+                                         ExitStatus.ERROR_FILE);
+            }
+            if (numberJoined == 0) {
+                throw new IllegalArgumentException("Empty join result: no score-label pairs to rank.  Check your inputs and join parameters.");
+            }
+            return builder.build();
+        } finally {
+            builder.close();
+        }
+    }
+
+    /**
+     * Returns the keys of an external join of cursors that each yield
+     * the given number of key fields followed by a scores or labels
+     * field.
+     */
+    private static int[][] externalJoinKeys(int numberKeys) {
+        int[][] keys = new int[numberKeys][];
+        for (int keyIndex = 0; keyIndex < numberKeys; keyIndex++) {
+            keys[keyIndex] = new int[] {keyIndex, keyIndex};
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the projection (the score and then the label) of an
+     * external join (see {@link #externalJoinKeys}).
+     */
+    private static int[][] externalJoinFields(int numberKeys) {
+        return new int[][] {{0, numberKeys}, {1, numberKeys}};
+    }
+
+    /**
+     * A cursor over the given columns of the rows read by a tokenizer.
+     */
+    static class TokenizerCursor implements CsvProcessing.RowCursor {
+        private CsvTokenizer csv;
+        private int[] columns;
+        long numberRows = 0;
+
+        TokenizerCursor(CsvTokenizer csv, int[] columns) {
+            this.csv = csv;
+            this.columns = columns;
+        }
 
-        // Check for an empty join result which means the user probably
-        // did something wrong and in any case will not produce sensical
-        // output
-        if (scoresLabelsRows.size() == 0)
-            throw new IllegalArgumentException("Empty join result: no score-label pairs to rank.  Check your inputs and join parameters.");
+        public String[] nextRow() throws IOException {
+            if (!csv.nextRow()) {
+                return null;
+            }
+            numberRows++;
+            return csv.fields(columns);
+        }
+
+        /** Returns the line on which the current row starts. */
+        long lineNumber() {
+            return csv.lineNumber();
+        }
+    }
+
+    /**
+     * Builds a curve by streaming rows of scores and labels through an
+     * {@link ExternalBuilder} with the given memory budget.  The scores
+     * and labels are matched by line number.  The scores tokenizer and
+     * the labels tokenizer may be the same tokenizer, in which case
+     * each row contains both a score and a label.  Labels are compared
+     * to the positive label as bytes without converting them to
+     * strings.
+     */
+    public static Curve buildCurveExternally(
+            String scoresFileName,
+            CsvTokenizer scoresCsv,
+            int scoresColumn,
+            String labelsFileName,
+            CsvTokenizer labelsCsv,
+            int labelsColumn,
+            String positiveLabel,
+            long memoryBytes)
+        throws IOException, Main.Exception {
 
-        // Call the separate, in-order curve builder
-        return buildCurveFromSeparateScoresLabels(
-            scoresLabelsRows, fields.length - 2,
-            scoresLabelsRows, fields.length - 1,
-            positiveLabel);
+        byte[] positiveLabelBytes = positiveLabel.getBytes(Charset.defaultCharset());
+        ExternalBuilder builder = new ExternalBuilder(memoryBytes);
+        try {
+            boolean moreScores;
+            boolean moreLabels = true;
+            long numberRows = 0;
+            while ((moreScores = scoresCsv.nextRow()) &&
+                   (moreLabels = (labelsCsv == scoresCsv || labelsCsv.nextRow()))) {
+                builder.add(scoresCsv.fieldDouble(scoresColumn),
+                            labelsCsv.fieldEquals(labelsColumn, positiveLabelBytes));
+                numberRows++;
+            }
+            // Check for non-empty inputs of the same length
+            if (numberRows == 0) {
+                throw new Main.Exception(String.format("Empty input: %s", moreScores ? labelsFileName : scoresFileName),
+                                         ExitStatus.ERROR_FILE);
+            }
+            if (moreScores || !moreLabels ||
+                (labelsCsv != scoresCsv && labelsCsv.nextRow())) {
+                throw new IllegalArgumentException("The number of scores does not equal the number of labels.");
+            }
+            return builder.build();
+        } finally {
+            builder.close();
+        }
     }
 
-    public static Curve buildCurveFromSeparateScoresLabels(
-            Iterable<String[]> scoresCsv,
+    /**
+     * Builds a curve from rows of scores and labels read with the given
+     * tokenizers into primitive arrays.
+     *
+     * @see #readTokenizedScoresLabels
+     */
+    public static Curve buildCurveFromTokenizedScoresLabels(
+            String scoresFileName,
+            CsvTokenizer scoresCsv,
             int scoresColumn,
-            Iterable<String[]> labelsCsv,
+            String labelsFileName,
+            CsvTokenizer labelsCsv,
             int labelsColumn,
-            String positiveLabel) {
-
-        // Project the scores and labels
-        Iterable<Double> scoresIterator =
-            new StringToDoubleConversionIterator(
-                new ProjectionIterator<String>(scoresCsv,
-                                               scoresColumn));
-        Iterable<String> labelsIterator =
-            new ProjectionIterator<String>(labelsCsv,
-                                           labelsColumn);
-
-        // Build and return the curve
-        return new Curve.Builder<Double, String>()
-            .scores(scoresIterator)
-            .labels(labelsIterator)
-            .positiveLabel(positiveLabel)
+            String positiveLabel,
+            int threads)
+        throws IOException, Main.Exception {
+
+        DoubleArrayList scores = new DoubleArrayList();
+        IntArrayList labels = new IntArrayList();
+        readTokenizedScoresLabels(
+            scoresFileName, scoresCsv, scoresColumn,
+            labelsFileName, labelsCsv, labelsColumn,
+            positiveLabel, scores, labels, threads);
+        return new Curve.PrimitivesBuilder()
+            .scores(scores.trimmedArray())
+            .labels(labels.trimmedArray())
+            .parallelism(threads)
             .build();
     }
 
-    public static class ProjectionIterator<E>
-        implements Iterator<E>, Iterable<E> {
+    /**
+     * Reads rows of scores and labels with the given tokenizers into
+     * the given lists.  The scores and labels are matched by line
+     * number.  The scores tokenizer and the labels tokenizer may be the
+     * same tokenizer, in which case each row contains both a score and
+     * a label.  The labels are dictionary-encoded as they are read (see
+     * {@link LabelDictionary}), so no label becomes a string, and
+     * afterwards are reduced to whether they are positive (1 or 0) by
+     * looking up their codes.  Separate tokenizers are read
+     * concurrently if there is more than one thread (see {@link
+     * #callConcurrently}), so reading takes as long as the slower of
+     * the two inputs rather than both.
+     */
+    public static void readTokenizedScoresLabels(
+            String scoresFileName,
+            final CsvTokenizer scoresCsv,
+            final int scoresColumn,
+            String labelsFileName,
+            final CsvTokenizer labelsCsv,
+            final int labelsColumn,
+            String positiveLabel,
+            final DoubleArrayList scores,
+            final IntArrayList labels,
+            int threads)
+        throws IOException, Main.Exception {
+
+        final LabelDictionary dictionary = new LabelDictionary();
+        if (labelsCsv != scoresCsv && threads > 1) {
+            // Read each input to its end on its own thread
+            List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(2);
+            tasks.add(new Callable<Boolean>() {
+                    public Boolean call() throws IOException {
+                        while (scoresCsv.nextRow()) {
+                            scores.add(scoresCsv.fieldDouble(scoresColumn));
+                        }
+                        return true;
+                    }
+                });
+            tasks.add(new Callable<Boolean>() {
+                    public Boolean call() throws IOException {
+                        while (labelsCsv.nextRow()) {
+                            labels.add(labelsCsv.fieldCode(labelsColumn, dictionary));
+                        }
+                        return true;
+                    }
+                });
+            callConcurrently(threads, tasks);
+            // Check for non-empty inputs of the same length
+            if (scores.size() == 0 || labels.size() == 0) {
+                throw new Main.Exception(String.format("Empty input: %s", scores.size() == 0 ? scoresFileName : labelsFileName),
+                                         ExitStatus.ERROR_FILE);
+            }
+            if (scores.size() != labels.size()) {
+                throw new IllegalArgumentException("The number of scores does not equal the number of labels.");
+            }
+        } else {
+            // Read the rows in lockstep
+            boolean moreScores;
+            boolean moreLabels = true;
+            while ((moreScores = scoresCsv.nextRow()) &&
+                   (moreLabels = (labelsCsv == scoresCsv || labelsCsv.nextRow()))) {
+                scores.add(scoresCsv.fieldDouble(scoresColumn));
+                labels.add(labelsCsv.fieldCode(labelsColumn, dictionary));
+            }
+            // Check for non-empty inputs of the same length
+            if (scores.size() == 0) {
+                throw new Main.Exception(String.format("Empty input: %s", moreScores ? labelsFileName : scoresFileName),
+                                         ExitStatus.ERROR_FILE);
+            }
+            if (moreScores || !moreLabels ||
+                (labelsCsv != scoresCsv && labelsCsv.nextRow())) {
+                throw new IllegalArgumentException("The number of scores does not equal the number of labels.");
+            }
+        }
+
+        // Replace the codes with whether they are positive
+        decodePositives(labels.trimmedArray(), dictionary, positiveLabel);
+    }
 
-        private Iterator<E[]> iterator;
-        private int column;
+    /**
+     * Calls the given tasks on a pool of at most the given number of
+     * threads (or in order on this thread if there is only one) and
+     * returns their results in order.  If tasks fail, the exception of
+     * the first failed task is rethrown.
+     */
+    public static <T> List<T> callConcurrently(
+            int threads,
+            List<? extends Callable<T>> tasks)
+        throws IOException, Main.Exception {
 
-        public ProjectionIterator(Iterable<E[]> table, int column) {
-            iterator = table.iterator();
-            this.column = column;
+        List<T> results = new ArrayList<T>(tasks.size());
+        ExecutorService executor = null;
+        try {
+            if (threads <= 1 || tasks.size() <= 1) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+            } else {
+                executor = Executors.newFixedThreadPool(
+                    Math.min(threads, tasks.size()));
+                for (Future<T> future : executor.invokeAll(tasks)) {
+                    try {
+                        results.add(future.get());
+                    } catch (ExecutionException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Main.Exception e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (Throwable e) {
+            throw new IOException(e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
+        return results;
+    }
 
-        public boolean hasNext() {
-            return iterator.hasNext();
+    /**
+     * Converts rows of scores and labels read with the given tokenizers
+     * (as in {@link #readTokenizedScoresLabels}) into a Roc binary file
+     * (see {@link RocBinaryFile}) with 64-bit scores and 8-bit labels
+     * that are 1 for positive and 0 for negative.
+     */
+    public static void convertToBinary(
+            String scoresFileName,
+            CsvTokenizer scoresCsv,
+            int scoresColumn,
+            String labelsFileName,
+            CsvTokenizer labelsCsv,
+            int labelsColumn,
+            String positiveLabel,
+            String binaryFileName,
+            int threads)
+        throws IOException, Main.Exception {
+
+        DoubleArrayList scores = new DoubleArrayList();
+        IntArrayList labels = new IntArrayList();
+        readTokenizedScoresLabels(
+            scoresFileName, scoresCsv, scoresColumn,
+            labelsFileName, labelsCsv, labelsColumn,
+            positiveLabel, scores, labels, threads);
+        RocBinaryFile.write(new File(binaryFileName),
+                            scores.trimmedArray(), RocBinaryFile.ScoreType.FLOAT64,
+                            labels.trimmedArray(), RocBinaryFile.LabelType.INT8,
+                            true);
+    }
+
+    /**
+     * Builds a curve from the given Roc binary file (see {@link
+     * RocBinaryFile}).  The scores and labels are read from memory
+     * mapped pages without parsing.
+     *
+     * @param positiveLabel An integer label.  Ignored if the labels of
+     * the file are already 1 for positive and 0 for negative (as
+     * written by {@link #convertToBinary}).
+     */
+    public static Curve buildCurveFromBinary(
+            String fileName,
+            String positiveLabel,
+            int threads)
+        throws IOException, Main.Exception {
+
+        RocBinaryFile binary = new RocBinaryFile(new File(fileName));
+        try {
+            int positive = binary.labelsArePositives() ? 1 :
+                parseIntegerLabel(positiveLabel);
+            // Check for non-empty input
+            if (binary.numberRows() == 0) {
+                throw new Main.Exception(String.format("Empty input: %s", fileName),
+                                         ExitStatus.ERROR_FILE);
+            }
+            return new Curve.PrimitivesBuilder()
+                .scores(binary.readScores())
+                .labels(binary.readLabels())
+                .positiveLabel(positive)
+                .parallelism(threads)
+                .build();
+        } finally {
+            binary.close();
         }
+    }
+
+    /**
+     * Builds a curve from the given NumPy arrays of scores and labels
+     * (see {@link NpyArray}).  The arrays are read from memory mapped
+     * pages without parsing.
+     *
+     * @param positiveLabel An integer label
+     */
+    public static Curve buildCurveFromNumpy(
+            String scoresFileName,
+            NpyArray scores,
+            String labelsFileName,
+            NpyArray labels,
+            String positiveLabel,
+            int threads)
+        throws IOException, Main.Exception {
 
-        public E next() {
-            E[] next = iterator.next();
-            if (column < 0 || column >= next.length) {
-                throw new ArrayIndexOutOfBoundsException(String.format("Column index out of bounds: %s", column));
+        int positive = parseIntegerLabel(positiveLabel);
+        // Check for non-empty input
+        if (scores.length() == 0 || labels.length() == 0) {
+            throw new Main.Exception(String.format("Empty input: %s", scores.length() == 0 ? scoresFileName : labelsFileName), ExitStatus.ERROR_FILE);
+        }
+        if (scores.length() != labels.length()) {
+            throw new IllegalArgumentException("The number of scores does not equal the number of labels.");
+        }
+        return new Curve.PrimitivesBuilder()
+            .scores(scores.toDoubles())
+            .labels(labels.toInts())
+            .positiveLabel(positive)
+            .parallelism(threads)
+            .build();
+    }
+
+    /**
+     * Builds a curve from the scores and labels columns of the given
+     * Arrow IPC file (see {@link ArrowFile}).  Only the buffers of those
+     * columns are read, from memory mapped pages without parsing.  Each
+     * column is selected by name if a name is given and otherwise by
+     * number.
+     */
+    public static Curve buildCurveFromArrow(
+            String fileName,
+            String scoresName,
+            int scoresColumn,
+            String labelsName,
+            int labelsColumn,
+            String positiveLabel,
+            int threads)
+        throws IOException, Main.Exception {
+
+        ArrowFile arrow = new ArrowFile(new File(fileName));
+        try {
+            if (scoresName != null) {
+                scoresColumn = arrowColumnIndex(arrow, scoresName, fileName);
+            }
+            if (labelsName != null) {
+                labelsColumn = arrowColumnIndex(arrow, labelsName, fileName);
             }
-            return next[column];
+            // Check for non-empty input
+            if (arrow.numberRows() == 0) {
+                throw new Main.Exception(String.format("Empty input: %s", fileName),
+                                         ExitStatus.ERROR_FILE);
+            }
+            return new Curve.PrimitivesBuilder()
+                .scores(arrow.readDoubles(scoresColumn))
+                .labels(arrow.readPositives(labelsColumn, positiveLabel))
+                .parallelism(threads)
+                .build();
+        } finally {
+            arrow.close();
         }
+    }
 
-        public void remove() {
-            throw new UnsupportedOperationException();
+    private static int arrowColumnIndex(ArrowFile arrow, String name,
+                                        String fileName)
+        throws Main.Exception {
+        int column = arrow.columnIndex(name);
+        if (column < 0) {
+            throw new Main.Exception(String.format("No column named '%s' in: %s", name, fileName), ExitStatus.ERROR_USAGE);
         }
+        return column;
+    }
 
-        public Iterator<E> iterator() {
-            return this;
+    /**
+     * Parses the positive label as an integer for binary input, whose
+     * labels are integers.
+     */
+    static int parseIntegerLabel(String positiveLabel) throws Main.Exception {
+        try {
+            return Integer.parseInt(positiveLabel);
+        } catch (NumberFormatException e) {
+            throw new Main.Exception(String.format("The positive label must be an integer for binary input: %s", positiveLabel), ExitStatus.ERROR_USAGE);
         }
     }
 
-    public static class StringToDoubleConversionIterator
-        implements Iterator<Double>, Iterable<Double> {
+    /** Returns whether the given file name is of a NumPy array file. */
+    static boolean isNpyFile(String fileName) throws IOException {
+        return !fileName.equals(stdioFileName) &&
+            NpyArray.isNpyFile(new File(fileName));
+    }
 
-        private Iterator<String> iterator;
+    /**
+     * Builds a curve from labels in ranked order read with the given
+     * tokenizer into a primitive array.  The labels are
+     * dictionary-encoded as in {@link
+     * #buildCurveFromTokenizedScoresLabels}.
+     */
+    public static Curve buildCurveFromTokenizedRankedLabels(
+            String labelsFileName,
+            CsvTokenizer labelsCsv,
+            int labelsColumn,
+            String positiveLabel,
+            int threads)
+        throws IOException, Main.Exception {
 
-        public StringToDoubleConversionIterator(Iterable<String> iterable) {
-            iterator = iterable.iterator();
+        LabelDictionary dictionary = new LabelDictionary();
+        IntArrayList labels = new IntArrayList();
+        while (labelsCsv.nextRow()) {
+            labels.add(labelsCsv.fieldCode(labelsColumn, dictionary));
         }
-
-        public boolean hasNext() {
-            return iterator.hasNext();
+        // Check for non-empty input
+        if (labels.size() == 0) {
+            throw new Main.Exception(String.format("Empty input: %s", labelsFileName),
+                                     ExitStatus.ERROR_FILE);
         }
 
-        public Double next() {
-            String next = iterator.next();
-            try {
-                return Double.parseDouble(next);
-            } catch (NumberFormatException e) {
-                // Fix exception message so that it is independent of the exception name
-                throw new NumberFormatException(String.format("Not a floating-point number: \"%s\"", next));
+        int[] labelsArray = labels.trimmedArray();
+        decodePositives(labelsArray, dictionary, positiveLabel);
+        return new Curve.PrimitivesBuilder()
+            .rankedLabels(labelsArray)
+            .parallelism(threads)
+            .build();
+    }
+
+    /**
+     * Returns whether reports are requested and all of them need only
+     * the areas under the curves (see {@link Reports#isAreaReport}).
+     */
+    static boolean isAreaReportsOnly(List<List<String>> reportGroups) {
+        if (reportGroups.size() == 0) {
+            return false;
+        }
+        for (List<String> reportGroup : reportGroups) {
+            for (String reportName : reportGroup) {
+                if (!Reports.isAreaReport(reportName)) {
+                    return false;
+                }
             }
         }
+        return true;
+    }
+
+    /**
+     * Streams the given ranked labels into an accumulator of the areas
+     * under the curves (see {@link RankedLabelsAccumulator}).  Unlike
+     * {@link #buildCurveFromTokenizedRankedLabels}, this stores nothing
+     * per label, so the input may be arbitrarily long.
+     */
+    public static RankedLabelsAccumulator accumulateTokenizedRankedLabels(
+            String labelsFileName,
+            CsvTokenizer labelsCsv,
+            int labelsColumn,
+            String positiveLabel)
+        throws IOException, Main.Exception {
+
+        byte[] positiveLabelBytes = positiveLabel.getBytes(Charset.defaultCharset());
+        RankedLabelsAccumulator areas = new RankedLabelsAccumulator();
+        while (labelsCsv.nextRow()) {
+            areas.add(labelsCsv.fieldEquals(labelsColumn, positiveLabelBytes));
+        }
+        // Check for non-empty input
+        if (areas.size() == 0) {
+            throw new Main.Exception(String.format("Empty input: %s", labelsFileName),
+                                     ExitStatus.ERROR_FILE);
+        }
+        return areas;
+    }
+
+    /**
+     * Replaces the given label codes with 1 if they are the code of the
+     * positive label and 0 otherwise.
+     */
+    static void decodePositives(int[] labels, LabelDictionary dictionary,
+                                String positiveLabel) {
+        boolean[] isPositive = dictionary.codeSet(
+            positiveLabel.getBytes(Charset.defaultCharset()));
+        for (int index = 0; index < labels.length; index++) {
+            labels[index] = isPositive[labels[index]] ? 1 : 0;
+        }
+    }
 
-        public void remove() {
-            throw new UnsupportedOperationException();
+    /**
+     * Builds a curve from the given scores-labels file by reading
+     * chunks of it in parallel (see {@link ParallelCsvReader}) and
+     * ranking with the given number of threads.  The rows are in the
+     * same order as when reading sequentially, so the curve is the
+     * same.
+     */
+    public static Curve buildCurveInParallel(
+            String fileName,
+            byte delimiter,
+            int scoresColumn,
+            int labelsColumn,
+            String positiveLabel,
+            int threads)
+        throws IOException, Main.Exception {
+
+        ParallelCsvReader reader = new ParallelCsvReader(
+            new File(fileName), delimiter, threads);
+        reader.readScoresLabels(scoresColumn, labelsColumn,
+                                positiveLabel.getBytes(Charset.defaultCharset()));
+        // Check for non-empty input
+        if (reader.scores().length == 0) {
+            throw new Main.Exception(String.format("Empty input: %s", fileName),
+                                     ExitStatus.ERROR_FILE);
         }
+        return new Curve.PrimitivesBuilder()
+            .scores(reader.scores())
+            .labels(reader.labels())
+            .parallelism(threads)
+            .build();
+    }
 
-        public Iterator<Double> iterator() {
-            return this;
+    /**
+     * Parses the given score.
+     *
+     * @throws NumberFormatException if the score is not a number
+     */
+    static double parseScore(String score) {
+        try {
+            return DoubleParser.parseDouble(score);
+        } catch (NumberFormatException e) {
+            // Fix exception message so that it is independent of the exception name
+            throw new NumberFormatException(String.format("Not a floating-point number: \"%s\"", score));
         }
     }
+
 }
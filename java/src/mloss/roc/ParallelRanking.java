@@ -0,0 +1,538 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * <p>Multi-threaded version of {@link Ranking}.  Produces exactly the
+ * same counts as {@link Ranking} (including the grouping of tied
+ * scores) but does the work in parallel on a fork/join pool.</p>
+ *
+ * <p>The work proceeds in the following phases, each of which runs in
+ * parallel over blocks of the data:</p>
+ *
+ * <ol>
+ * <li>Split the scores by class, converting them to sortable keys.
+ * Each block counts its positives, then the block totals are
+ * prefix-summed to tell each block where to put its keys.</li>
+ * <li>Sort the keys of each class.  Each block is radix sorted and then
+ * the sorted blocks are merged pairwise, each merge itself split into
+ * independent pieces.</li>
+ * <li>Cut the sorted keys into blocks of key ranges, so that tied
+ * scores never span blocks.  Each block counts its groups (distinct
+ * scores), positives, and negatives.  The block totals are
+ * prefix-summed from the highest block down.</li>
+ * <li>Each block fills in its part of the arrays of positive and
+ * negative counts starting from its prefix sums.</li>
+ * </ol>
+ */
+class ParallelRanking {
+
+    /**
+     * Inputs smaller than this are not worth splitting across threads.
+     * They are ranked sequentially.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /** The maximum number of threads to use. */
+    private int parallelism;
+
+    /** The number of blocks into which to split the work. */
+    private int numberBlocks;
+
+    /** The pool that runs the work.  Only exists during a ranking. */
+    private ForkJoinPool pool;
+
+    /**
+     * Creates a ranking that uses the given number of threads.
+     *
+     * @param parallelism The maximum number of threads to use
+     */
+    ParallelRanking(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be positive.");
+        }
+        this.parallelism = parallelism;
+        // Use more blocks than threads to even out the load
+        numberBlocks = 4 * parallelism;
+    }
+
+    /**
+     * Same as {@link Ranking#rankCounts(double[], int[], int)} but uses
+     * multiple threads if the parallelism is greater than one and the
+     * input is large enough.  The result does not depend on the
+     * parallelism.
+     *
+     * @param parallelism The maximum number of threads to use
+     */
+    static int[][] rankCounts(double[] scores, int[] labels,
+                              int positiveLabel, int parallelism) {
+        if (parallelism > 1 && labels.length >= PARALLEL_THRESHOLD) {
+            return new ParallelRanking(parallelism)
+                .rankCounts(scores, labels, positiveLabel);
+        }
+        return Ranking.rankCounts(scores, labels, positiveLabel);
+    }
+
+    /**
+     * Multi-threaded version of {@link Ranking#rankCounts(double[],
+     * int[], int)}.
+     */
+    int[][] rankCounts(final double[] scores, final int[] labels,
+                       final int positiveLabel) {
+        pool = new ForkJoinPool(parallelism);
+        try {
+            // Phase 1: split the scores by class into keys
+            final long[] keys = new long[labels.length];
+            final int[] inputBounds = blockBounds(0, labels.length, numberBlocks);
+            final int[] blockPositives = new int[numberBlocks];
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numberBlocks);
+            for (int block = 0; block < numberBlocks; block++) {
+                final int theBlock = block;
+                tasks.add(new Callable<Void>() {
+                        public Void call() {
+                            int count = 0;
+                            for (int index = inputBounds[theBlock]; index < inputBounds[theBlock + 1]; index++) {
+                                if (labels[index] == positiveLabel) {
+                                    count++;
+                                }
+                            }
+                            blockPositives[theBlock] = count;
+                            return null;
+                        }
+                    });
+            }
+            runAll(tasks);
+            // Prefix-sum the block totals into starting positions
+            final int[] positiveStarts = new int[numberBlocks];
+            final int[] negativeStarts = new int[numberBlocks];
+            int numberPositives = 0;
+            for (int block = 0; block < numberBlocks; block++) {
+                positiveStarts[block] = numberPositives;
+                numberPositives += blockPositives[block];
+            }
+            int numberNegatives = 0;
+            for (int block = 0; block < numberBlocks; block++) {
+                negativeStarts[block] = numberPositives + numberNegatives;
+                numberNegatives += (inputBounds[block + 1] - inputBounds[block]) - blockPositives[block];
+            }
+            tasks.clear();
+            for (int block = 0; block < numberBlocks; block++) {
+                final int theBlock = block;
+                tasks.add(new Callable<Void>() {
+                        public Void call() {
+                            int positiveIndex = positiveStarts[theBlock];
+                            int negativeIndex = negativeStarts[theBlock];
+                            for (int index = inputBounds[theBlock]; index < inputBounds[theBlock + 1]; index++) {
+                                if (labels[index] == positiveLabel) {
+                                    keys[positiveIndex++] = Ranking.sortableKey(scores[index]);
+                                } else {
+                                    keys[negativeIndex++] = Ranking.sortableKey(scores[index]);
+                                }
+                            }
+                            return null;
+                        }
+                    });
+            }
+            runAll(tasks);
+
+            // Phase 2: sort each class
+            long[] scratch = new long[keys.length];
+            sort(keys, 0, numberPositives, scratch);
+            sort(keys, numberPositives, keys.length, scratch);
+
+            // Phases 3 and 4: count
+            return mergeCounts(keys, 0, numberPositives,
+                               numberPositives, keys.length);
+        } finally {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Multi-threaded version of {@link Curve#buildCounts(int[], int)}.
+     * Each block counts its positives, the block totals are
+     * prefix-summed, and then each block fills in its part of the
+     * counts.
+     *
+     * @param rankedLabels Labels already in ranked order
+     * @param positiveLabel The label to consider positive
+     * @return See {@link Ranking#rankCounts(double[], int[], int)}.
+     */
+    int[][] rankedCounts(final int[] rankedLabels, final int positiveLabel) {
+        pool = new ForkJoinPool(parallelism);
+        try {
+            final int[] bounds = blockBounds(0, rankedLabels.length, numberBlocks);
+            final int[] blockPositives = new int[numberBlocks];
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numberBlocks);
+            for (int block = 0; block < numberBlocks; block++) {
+                final int theBlock = block;
+                tasks.add(new Callable<Void>() {
+                        public Void call() {
+                            int count = 0;
+                            for (int index = bounds[theBlock]; index < bounds[theBlock + 1]; index++) {
+                                if (rankedLabels[index] == positiveLabel) {
+                                    count++;
+                                }
+                            }
+                            blockPositives[theBlock] = count;
+                            return null;
+                        }
+                    });
+            }
+            runAll(tasks);
+            final int[] posCounts = new int[rankedLabels.length + 1];
+            final int[] negCounts = new int[rankedLabels.length + 1];
+            final int[] positivesBefore = new int[numberBlocks];
+            int positives = 0;
+            for (int block = 0; block < numberBlocks; block++) {
+                positivesBefore[block] = positives;
+                positives += blockPositives[block];
+            }
+            tasks.clear();
+            for (int block = 0; block < numberBlocks; block++) {
+                final int theBlock = block;
+                tasks.add(new Callable<Void>() {
+                        public Void call() {
+                            int posCount = positivesBefore[theBlock];
+                            int negCount = bounds[theBlock] - posCount;
+                            for (int index = bounds[theBlock]; index < bounds[theBlock + 1]; index++) {
+                                if (rankedLabels[index] == positiveLabel) {
+                                    posCount++;
+                                } else {
+                                    negCount++;
+                                }
+                                posCounts[index + 1] = posCount;
+                                negCounts[index + 1] = negCount;
+                            }
+                            return null;
+                        }
+                    });
+            }
+            runAll(tasks);
+            return new int[][] {posCounts, negCounts};
+        } finally {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Sorts the given range of keys by radix sorting blocks in
+     * parallel and then merging the sorted blocks in parallel.
+     *
+     * @param keys The keys to sort
+     * @param from The index of the first key to sort, inclusive
+     * @param to The index of the last key to sort, exclusive
+     * @param scratch Working space as long as the keys.  The range of
+     * the working space corresponding to the range of keys is used.
+     */
+    void sort(final long[] keys, int from, int to, final long[] scratch) {
+        if (to - from < PARALLEL_THRESHOLD) {
+            Ranking.sort(keys, from, to, scratch, from);
+            return;
+        }
+
+        // Sort each block
+        final int[] bounds = blockBounds(from, to, parallelism);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(parallelism);
+        for (int block = 0; block < parallelism; block++) {
+            final int blockFrom = bounds[block];
+            final int blockTo = bounds[block + 1];
+            tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        Ranking.sort(keys, blockFrom, blockTo, scratch, blockFrom);
+                        return null;
+                    }
+                });
+        }
+        runAll(tasks);
+
+        // Merge adjacent sorted runs until there is only one.  Each
+        // round halves the number of runs and merges from the source
+        // to the destination.
+        int[] runBounds = bounds;
+        long[] source = keys;
+        long[] destination = scratch;
+        while (runBounds.length > 2) {
+            int numberRuns = runBounds.length - 1;
+            int numberMerges = numberRuns / 2;
+            int piecesPerMerge = Math.max(1, numberBlocks / numberMerges);
+            tasks.clear();
+            int[] newRunBounds = new int[(numberRuns + 1) / 2 + 1];
+            for (int run = 0; run < numberRuns; run += 2) {
+                newRunBounds[run / 2] = runBounds[run];
+                if (run + 1 < numberRuns) {
+                    addMergeTasks(tasks, source, runBounds[run],
+                                  runBounds[run + 1], runBounds[run + 2],
+                                  destination, piecesPerMerge);
+                } else {
+                    // Odd run out.  Just copy it.
+                    final long[] theSource = source;
+                    final long[] theDestination = destination;
+                    final int runFrom = runBounds[run];
+                    final int runTo = runBounds[run + 1];
+                    tasks.add(new Callable<Void>() {
+                            public Void call() {
+                                System.arraycopy(theSource, runFrom, theDestination, runFrom, runTo - runFrom);
+                                return null;
+                            }
+                        });
+                }
+            }
+            newRunBounds[newRunBounds.length - 1] = to;
+            runAll(tasks);
+            runBounds = newRunBounds;
+            long[] swap = source;
+            source = destination;
+            destination = swap;
+        }
+
+        // Make sure the sorted keys end up in the given array
+        if (source != keys) {
+            System.arraycopy(source, from, keys, from, to - from);
+        }
+    }
+
+    /**
+     * Adds tasks that together merge two adjacent sorted runs into the
+     * same range of the destination.  The left run is cut into pieces
+     * and each piece is matched with the elements of the right run
+     * that fall between it and the next piece, so the pieces can be
+     * merged independently.
+     */
+    void addMergeTasks(List<Callable<Void>> tasks, final long[] source,
+                       int leftFrom, int middle, int rightTo,
+                       final long[] destination, int numberPieces) {
+        int[] leftBounds = blockBounds(leftFrom, middle, numberPieces);
+        int[] rightBounds = new int[numberPieces + 1];
+        rightBounds[0] = middle;
+        rightBounds[numberPieces] = rightTo;
+        for (int piece = 1; piece < numberPieces; piece++) {
+            rightBounds[piece] = lowerBound(source, middle, rightTo,
+                                            source[leftBounds[piece]]);
+        }
+        for (int piece = 0; piece < numberPieces; piece++) {
+            final int pieceLeftFrom = leftBounds[piece];
+            final int pieceLeftTo = leftBounds[piece + 1];
+            final int pieceRightFrom = rightBounds[piece];
+            final int pieceRightTo = rightBounds[piece + 1];
+            final int destinationFrom = leftFrom + (pieceLeftFrom - leftFrom) + (pieceRightFrom - middle);
+            tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        merge(source, pieceLeftFrom, pieceLeftTo,
+                              pieceRightFrom, pieceRightTo,
+                              destination, destinationFrom);
+                        return null;
+                    }
+                });
+        }
+    }
+
+    /**
+     * Merges two sorted ranges into the destination.
+     */
+    static void merge(long[] source, int leftFrom, int leftTo,
+                      int rightFrom, int rightTo,
+                      long[] destination, int destinationFrom) {
+        int left = leftFrom;
+        int right = rightFrom;
+        int index = destinationFrom;
+        while (left < leftTo && right < rightTo) {
+            if (source[right] < source[left]) {
+                destination[index++] = source[right++];
+            } else {
+                destination[index++] = source[left++];
+            }
+        }
+        System.arraycopy(source, left, destination, index, leftTo - left);
+        index += leftTo - left;
+        System.arraycopy(source, right, destination, index, rightTo - right);
+    }
+
+    /**
+     * Multi-threaded version of {@link Ranking#mergeCounts(long[],
+     * int, int, int, int)}.
+     */
+    int[][] mergeCounts(final long[] keys,
+                        int positivesFrom, int positivesTo,
+                        int negativesFrom, int negativesTo) {
+        // Cut the key space into ranges using keys from the larger
+        // class as splitters.  Block boundaries in each class are where
+        // the splitters would be inserted, so equal keys always land
+        // in the same block.
+        int largerFrom = positivesFrom;
+        int largerTo = positivesTo;
+        if (negativesTo - negativesFrom > positivesTo - positivesFrom) {
+            largerFrom = negativesFrom;
+            largerTo = negativesTo;
+        }
+        int[] splitterIndices = blockBounds(largerFrom, largerTo, numberBlocks);
+        final int[] positiveBounds = new int[numberBlocks + 1];
+        final int[] negativeBounds = new int[numberBlocks + 1];
+        positiveBounds[0] = positivesFrom;
+        negativeBounds[0] = negativesFrom;
+        positiveBounds[numberBlocks] = positivesTo;
+        negativeBounds[numberBlocks] = negativesTo;
+        for (int block = 1; block < numberBlocks; block++) {
+            long splitter = keys[splitterIndices[block]];
+            positiveBounds[block] = lowerBound(keys, positivesFrom, positivesTo, splitter);
+            negativeBounds[block] = lowerBound(keys, negativesFrom, negativesTo, splitter);
+        }
+
+        // Phase 3: count the groups in each block
+        final int[] blockGroups = new int[numberBlocks];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numberBlocks);
+        for (int block = 0; block < numberBlocks; block++) {
+            final int theBlock = block;
+            tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        blockGroups[theBlock] = countGroups(
+                            keys,
+                            positiveBounds[theBlock], positiveBounds[theBlock + 1],
+                            negativeBounds[theBlock], negativeBounds[theBlock + 1]);
+                        return null;
+                    }
+                });
+        }
+        runAll(tasks);
+        // Prefix-sum the block totals from the highest block down
+        final int[] groupsBefore = new int[numberBlocks];
+        final int[] positivesBefore = new int[numberBlocks];
+        final int[] negativesBefore = new int[numberBlocks];
+        int groups = 0;
+        int positives = 0;
+        int negatives = 0;
+        for (int block = numberBlocks - 1; block >= 0; block--) {
+            groupsBefore[block] = groups;
+            positivesBefore[block] = positives;
+            negativesBefore[block] = negatives;
+            groups += blockGroups[block];
+            positives += positiveBounds[block + 1] - positiveBounds[block];
+            negatives += negativeBounds[block + 1] - negativeBounds[block];
+        }
+
+        // Phase 4: fill in the counts
+        final int[] posCounts = new int[groups + 1];
+        final int[] negCounts = new int[groups + 1];
+        tasks.clear();
+        for (int block = 0; block < numberBlocks; block++) {
+            final int theBlock = block;
+            tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        Ranking.mergeCounts(
+                            keys,
+                            positiveBounds[theBlock], positiveBounds[theBlock + 1],
+                            negativeBounds[theBlock], negativeBounds[theBlock + 1],
+                            posCounts, negCounts,
+                            groupsBefore[theBlock],
+                            positivesBefore[theBlock],
+                            negativesBefore[theBlock]);
+                        return null;
+                    }
+                });
+        }
+        runAll(tasks);
+        return new int[][] {posCounts, negCounts};
+    }
+
+    /**
+     * Counts the number of distinct keys in the union of two sorted
+     * ranges.
+     */
+    static int countGroups(long[] keys,
+                           int positivesFrom, int positivesTo,
+                           int negativesFrom, int negativesTo) {
+        int groups = 0;
+        int positiveIndex = positivesFrom;
+        int negativeIndex = negativesFrom;
+        long key;
+        while (positiveIndex < positivesTo || negativeIndex < negativesTo) {
+            if (negativeIndex >= negativesTo ||
+                (positiveIndex < positivesTo &&
+                 keys[positiveIndex] <= keys[negativeIndex])) {
+                key = keys[positiveIndex];
+            } else {
+                key = keys[negativeIndex];
+            }
+            while (positiveIndex < positivesTo && keys[positiveIndex] == key) {
+                positiveIndex++;
+            }
+            while (negativeIndex < negativesTo && keys[negativeIndex] == key) {
+                negativeIndex++;
+            }
+            groups++;
+        }
+        return groups;
+    }
+
+    /**
+     * Finds the index of the first key in the given sorted range that
+     * is not less than the given key.
+     */
+    static int lowerBound(long[] keys, int from, int to, long key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Cuts the given range into the given number of (nearly) equal
+     * blocks.
+     *
+     * @return The bounds of the blocks.  Block i is [bounds[i],
+     * bounds[i + 1]).
+     */
+    static int[] blockBounds(int from, int to, int numberBlocks) {
+        int[] bounds = new int[numberBlocks + 1];
+        long size = to - from;
+        for (int block = 0; block <= numberBlocks; block++) {
+            bounds[block] = from + (int) (size * block / numberBlocks);
+        }
+        return bounds;
+    }
+
+    /**
+     * Runs the given tasks in the pool and waits for them all to
+     * finish.  Rethrows any exception thrown by a task.
+     */
+    void runAll(List<Callable<Void>> tasks) {
+        List<Future<Void>> futures = pool.invokeAll(tasks);
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * <p>Compact, mergeable summary of a multiset of scores that answers
+ * rank queries ("how many scores are at least x?") approximately, with
+ * a known bound on the error.  This is a deterministic variant of the
+ * KLL sketch (Karnin, Lang, and Liberty, 2016): a stack of compactors
+ * of equal capacity.</p>
+ *
+ * <p>Each score is held as its sortable key (see {@link
+ * Ranking#sortableKey(double)}), so scores are ordered and tied exactly
+ * as they are by {@link Curve.Builder}.  Items at level h stand for
+ * 2^h scores each.  New scores enter level 0.  When a level fills up,
+ * it is compacted: its items are sorted and every other item moves up
+ * a level (alternating between the odd and the even items from one
+ * compaction to the next).  Compaction preserves the total weight and
+ * changes the rank of any score by at most the weight of the items
+ * compacted, 2^h.  The sketch adds up these amounts as it goes, so
+ * {@link #maximumRankError()} is a guaranteed (not probabilistic)
+ * bound.  It grows roughly as (n / capacity) log2(n / capacity).</p>
+ *
+ * <p>Sketches with the same capacity merge by concatenating their
+ * levels and compacting as needed.  Merging is associative in the
+ * sense that any order of merges gives a sketch with the same error
+ * guarantee: the error bounds of the parts add.</p>
+ */
+public class QuantileSketch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The default capacity of a level. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** The maximum number of levels (weights up to 2^62). */
+    static final int MAXIMUM_LEVELS = 63;
+
+    // The following are transient because they are serialized in a
+    // compact form by writeObject
+    private transient int capacity;
+    private transient long[][] levels;
+    private transient int[] sizes;
+    private transient boolean[] oddOffsets;
+    private transient int numberLevels;
+    private transient long count;
+    private transient long maximumRankError;
+
+    /** Creates a sketch with {@link #DEFAULT_CAPACITY}. */
+    public QuantileSketch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a sketch whose levels hold the given number of items.
+     * Larger capacities use more space and are more accurate.
+     *
+     * @param capacity An even number of items of at least 2
+     */
+    public QuantileSketch(int capacity) {
+        if (capacity < 2 || capacity % 2 != 0) {
+            throw new IllegalArgumentException(String.format("The capacity must be an even number of at least 2: %s", capacity));
+        }
+        init(capacity);
+    }
+
+    private void init(int capacity) {
+        this.capacity = capacity;
+        levels = new long[MAXIMUM_LEVELS][];
+        sizes = new int[MAXIMUM_LEVELS];
+        oddOffsets = new boolean[MAXIMUM_LEVELS];
+        numberLevels = 0;
+        count = 0;
+        maximumRankError = 0;
+    }
+
+    /** Returns the capacity of each level. */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Returns the number of scores summarized. */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns the bound on the absolute error of any rank computed
+     * from this sketch, as a number of scores.
+     */
+    public long maximumRankError() {
+        return maximumRankError;
+    }
+
+    /** Returns the number of items held, a measure of the size. */
+    public int numberItems() {
+        int numberItems = 0;
+        for (int level = 0; level < numberLevels; level++) {
+            numberItems += sizes[level];
+        }
+        return numberItems;
+    }
+
+    /**
+     * Adds a score.
+     *
+     * @param score Any double
+     * @return This sketch
+     */
+    public QuantileSketch add(double score) {
+        append(0, Ranking.sortableKey(score));
+        count++;
+        if (sizes[0] >= capacity) {
+            compact();
+        }
+        return this;
+    }
+
+    /**
+     * Merges the given sketch into this one.  The given sketch is not
+     * modified.
+     *
+     * @param other A sketch with the same capacity
+     * @return This sketch
+     */
+    public QuantileSketch merge(QuantileSketch other) {
+        if (other.capacity != capacity) {
+            throw new IllegalArgumentException(String.format("Only sketches with the same capacity can be merged: %s != %s", capacity, other.capacity));
+        }
+        // Note the sizes first in case the other sketch is this one
+        int otherLevels = other.numberLevels;
+        int[] otherSizes = other.sizes.clone();
+        for (int level = 0; level < otherLevels; level++) {
+            for (int index = 0; index < otherSizes[level]; index++) {
+                append(level, other.levels[level][index]);
+            }
+        }
+        count += other.count;
+        maximumRankError += other.maximumRankError;
+        compact();
+        return this;
+    }
+
+    /**
+     * Returns the approximate number of scores that are greater than
+     * or equal to the given score (in the ordering of {@link
+     * Double#compare(double, double)}).  The error is at most {@link
+     * #maximumRankError()}.
+     */
+    public long countAtLeast(double score) {
+        long key = Ranking.sortableKey(score);
+        long weightedCount = 0;
+        for (int level = 0; level < numberLevels; level++) {
+            for (int index = 0; index < sizes[level]; index++) {
+                if (levels[level][index] >= key) {
+                    weightedCount += 1L << level;
+                }
+            }
+        }
+        return weightedCount;
+    }
+
+    /**
+     * Copies the keys of the items (in no particular order) and their
+     * weights to the given arrays.  The arrays must have room for {@link
+     * #numberItems()} items.
+     *
+     * @return The number of items
+     */
+    int items(long[] keys, long[] weights) {
+        int numberItems = 0;
+        for (int level = 0; level < numberLevels; level++) {
+            for (int index = 0; index < sizes[level]; index++) {
+                keys[numberItems] = levels[level][index];
+                weights[numberItems] = 1L << level;
+                numberItems++;
+            }
+        }
+        return numberItems;
+    }
+
+    /** Appends a key to the given level, growing it as needed. */
+    private void append(int level, long key) {
+        if (level >= numberLevels) {
+            if (level >= MAXIMUM_LEVELS) {
+                throw new IllegalStateException("Too many scores for the sketch.");
+            }
+            numberLevels = level + 1;
+        }
+        if (levels[level] == null) {
+            levels[level] = new long[capacity];
+        } else if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], 2 * levels[level].length);
+        }
+        levels[level][sizes[level]++] = key;
+    }
+
+    /** Compacts every level that is full, from the bottom up. */
+    private void compact() {
+        for (int level = 0; level < numberLevels; level++) {
+            while (sizes[level] >= capacity) {
+                compact(level);
+            }
+        }
+    }
+
+    /**
+     * Sorts the items of the given level and moves every other one up
+     * a level.  If the number of items is odd, the lowest item stays.
+     */
+    private void compact(int level) {
+        long[] items = levels[level];
+        int size = sizes[level];
+        Arrays.sort(items, 0, size);
+        int from = size % 2;
+        int offset = oddOffsets[level] ? 1 : 0;
+        oddOffsets[level] = !oddOffsets[level];
+        for (int index = from + offset; index < size; index += 2) {
+            append(level + 1, items[index]);
+        }
+        sizes[level] = from;
+        maximumRankError += 1L << level;
+    }
+
+    /**
+     * Writes this sketch in a compact binary form: the capacity, the
+     * count, the error bound, and the items of each level.
+     */
+    public void write(DataOutput output) throws IOException {
+        output.writeInt(capacity);
+        output.writeLong(count);
+        output.writeLong(maximumRankError);
+        output.writeByte(numberLevels);
+        for (int level = 0; level < numberLevels; level++) {
+            output.writeBoolean(oddOffsets[level]);
+            output.writeInt(sizes[level]);
+            for (int index = 0; index < sizes[level]; index++) {
+                output.writeLong(levels[level][index]);
+            }
+        }
+    }
+
+    /**
+     * Reads a sketch written by {@link #write(DataOutput)}.
+     *
+     * @throws IOException if reading fails or the input is not a
+     * sketch
+     */
+    public static QuantileSketch read(DataInput input) throws IOException {
+        QuantileSketch sketch = new QuantileSketch(2);
+        sketch.readFields(input);
+        return sketch;
+    }
+
+    private void readFields(DataInput input) throws IOException {
+        int capacity = input.readInt();
+        if (capacity < 2 || capacity % 2 != 0) {
+            throw new IOException(String.format("Not a valid sketch capacity: %s", capacity));
+        }
+        init(capacity);
+        count = input.readLong();
+        maximumRankError = input.readLong();
+        int storedLevels = input.readUnsignedByte();
+        if (storedLevels > MAXIMUM_LEVELS) {
+            throw new IOException(String.format("Not a valid number of sketch levels: %s", storedLevels));
+        }
+        for (int level = 0; level < storedLevels; level++) {
+            oddOffsets[level] = input.readBoolean();
+            int size = input.readInt();
+            if (size < 0) {
+                throw new IOException(String.format("Not a valid sketch level size: %s", size));
+            }
+            for (int index = 0; index < size; index++) {
+                append(level, input.readLong());
+            }
+        }
+        numberLevels = storedLevels;
+    }
+
+    private void writeObject(ObjectOutputStream output) throws IOException {
+        output.defaultWriteObject();
+        write(output);
+    }
+
+    private void readObject(ObjectInputStream input)
+        throws IOException, ClassNotFoundException {
+        input.defaultReadObject();
+        readFields(input);
+    }
+}
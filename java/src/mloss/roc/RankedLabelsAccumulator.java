@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+/**
+ * <p>Computes the areas under the ROC and PR curves and the
+ * Mann-Whitney U statistics of a stream of ranked labels in constant
+ * memory.  Labels are added one at a time in the order of the ranking
+ * (most likely positive first) and only running sums are kept, so a
+ * ranking of any length can be evaluated without storing its
+ * counts.</p>
+ *
+ * <p>The results are exactly (bit-for-bit) those of a {@link Curve}
+ * constructed from the same ranked labels (see {@link
+ * Curve#Curve(java.util.List, Object)}): each label is its own
+ * threshold, so the fractional rank of each label is its position and
+ * each PR area term is a trapezoid or nothing.  The numbers of labels
+ * are counted in longs, so the ranking is not limited by the integer
+ * counts of {@link Curve}.</p>
+ */
+public class RankedLabelsAccumulator {
+
+    private long totalPositives = 0;
+    private long totalNegatives = 0;
+    // The sums of the ranks of the positives and negatives
+    private double sumPosRanks = 0.0;
+    private double sumNegRanks = 0.0;
+    // The area under the PR curve times the number of positives
+    private double prAreaSum = 0.0;
+
+    /** Creates an accumulator with no labels. */
+    public RankedLabelsAccumulator() {}
+
+    /**
+     * Adds the next label of the ranking.
+     *
+     * @param isPositive Whether the label is positive
+     * @return This accumulator
+     */
+    public RankedLabelsAccumulator add(boolean isPositive) {
+        long previousRank = totalPositives + totalNegatives;
+        long rank = previousRank + 1;
+        if (isPositive) {
+            // Precision uses the value of rank 1 as the value for rank
+            // 0 (see Curve.precision), which is 1 since the first
+            // label is positive
+            double previousPrecision = (previousRank == 0) ? 1.0 :
+                (double) totalPositives / (double) previousRank;
+            totalPositives++;
+            double precision = (double) totalPositives / (double) rank;
+            // Trapezoid (with a base of 1 positive)
+            prAreaSum += (previousPrecision + precision) / 2.0;
+            sumPosRanks += (double) rank;
+        } else {
+            totalNegatives++;
+            sumNegRanks += (double) rank;
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given labels as the next labels of the ranking.
+     *
+     * @param rankedLabels The labels in the order of the ranking
+     * @param positiveLabel The label that will be considered positive.
+     * All other labels are considered negative.
+     * @return This accumulator
+     */
+    public RankedLabelsAccumulator add(int[] rankedLabels, int positiveLabel) {
+        for (int label : rankedLabels) {
+            add(label == positiveLabel);
+        }
+        return this;
+    }
+
+    /** Returns the number of labels added. */
+    public long size() {
+        return totalPositives + totalNegatives;
+    }
+
+    /** Returns the number of positive labels added. */
+    public long totalPositives() {
+        return totalPositives;
+    }
+
+    /** Returns the number of negative labels added. */
+    public long totalNegatives() {
+        return totalNegatives;
+    }
+
+    /** Checks that there is at least one label. */
+    private void checkNotEmpty() {
+        if (size() == 0) {
+            throw new IllegalArgumentException("The list of ranked labels must not be empty.");
+        }
+    }
+
+    /**
+     * Computes the area under the ROC curve (see {@link
+     * Curve#rocArea()}).
+     *
+     * @throws IllegalArgumentException if no labels were added
+     */
+    public double rocArea() {
+        double[] uStatistics = mannWhitneyU();
+        return uStatistics[1] / ((double) totalPositives * (double) totalNegatives);
+    }
+
+    /**
+     * Computes the area under the PR curve (see {@link
+     * Curve#prArea()}).
+     *
+     * @throws IllegalArgumentException if no labels were added
+     */
+    public double prArea() {
+        checkNotEmpty();
+        return prAreaSum / (double) totalPositives;
+    }
+
+    /**
+     * Computes the Mann-Whitney U statistics (see {@link
+     * Curve#mannWhitneyU()}).
+     *
+     * @return A two-element array containing the U statistic for the
+     * positives and the U statistic for the negatives.
+     * @throws IllegalArgumentException if no labels were added
+     */
+    public double[] mannWhitneyU() {
+        checkNotEmpty();
+        double uPos = sumPosRanks - ((double) totalPositives * (double) totalPositives + (double) totalPositives) / 2.0;
+        double uNeg = sumNegRanks - ((double) totalNegatives * (double) totalNegatives + (double) totalNegatives) / 2.0;
+        return new double[] {uPos, uNeg};
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.util.Arrays;
+
+
+/**
+ * <p>Ranks arrays of primitive scores and labels and counts the
+ * positives and negatives at each threshold without creating any
+ * per-example objects.  This is the engine behind {@link
+ * Curve.PrimitivesBuilder} and behind {@link Curve.Builder} for scores
+ * that are doubles in their natural ordering.</p>
+ *
+ * <p>The counts are the same as those computed by {@link
+ * Curve.Builder#build()}: scores are ranked in descending order
+ * according to {@link Double#compare(double, double)} (the natural
+ * ordering of {@link Double}) and examples with equal scores are
+ * grouped together into a single threshold.</p>
+ *
+ * <p>Scores are ranked by transforming each one into a 64-bit key that
+ * sorts as a signed long in the same order as the score sorts as a
+ * double.  The keys are then sorted with a least significant digit
+ * (LSD) radix sort, which takes time linear in the number of
+ * examples.</p>
+ */
+class Ranking {
+    /* Only the numbers of positives and negatives at each distinct
+     * score matter for a curve, not the order of the examples within
+     * a group of tied scores.  Therefore the labels never have to be
+     * sorted along with the scores.  (A double has no spare bit to hold
+     * a label anyway.)  Instead, the keys of the positives and the keys
+     * of the negatives are sorted separately, in two ranges of a
+     * single array, and then merged from the top down, counting as
+     * they go.
+     */
+
+    /** The number of bits in a radix sort digit. */
+    static final int RADIX_BITS = 8;
+
+    /** The number of distinct radix sort digits. */
+    static final int RADIX = 1 << RADIX_BITS;
+
+    /** The number of digits in a key. */
+    static final int NUMBER_DIGITS = 64 / RADIX_BITS;
+
+    /**
+     * Ranges smaller than this are sorted with {@link
+     * Arrays#sort(long[], int, int)} rather than the radix sort, which
+     * has a large constant overhead.
+     */
+    static final int RADIX_SORT_THRESHOLD = 1 << 10;
+
+    /**
+     * Unconstructable (no-op).  (A private constructor is necessary
+     * because otherwise Java inserts a default public constructor.)
+     */
+    private Ranking() {}
+
+    /**
+     * Converts a score into a key that sorts (as a signed long) in the
+     * same order as {@link Double#compare(double, double)}.  Equal
+     * scores (according to {@link Double#equals(Object)}) have equal
+     * keys.  All NaNs have the same key.
+     *
+     * @param score Any double
+     * @return The sortable key for the score
+     */
+    static long sortableKey(double score) {
+        // Positive doubles already sort correctly as longs.  Negative
+        // doubles sort backwards, so flip all their bits except the
+        // sign.
+        long bits = Double.doubleToLongBits(score);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * Ranks the given labels by the given scores and counts the
+     * positives and negatives at each distinct score.
+     *
+     * @param scores The scores of the examples.  Not modified.
+     * @param labels The labels of the examples in the same order as
+     * the scores.  Not modified.
+     * @param positiveLabel The label to consider positive.  All other
+     * labels are considered negative.
+     * @return A two-element array containing the array of positive
+     * counts and the array of negative counts, suitable for {@link
+     * Curve#Curve(int[], int[])}.
+     */
+    static int[][] rankCounts(double[] scores, int[] labels, int positiveLabel) {
+        // Count the positives to know where to split the keys
+        int numberPositives = 0;
+        for (int index = 0; index < labels.length; index++) {
+            if (labels[index] == positiveLabel) {
+                numberPositives++;
+            }
+        }
+
+        // Convert the scores to keys, the positives in the front and
+        // the negatives in the back
+        long[] keys = new long[labels.length];
+        int positiveIndex = 0;
+        int negativeIndex = numberPositives;
+        for (int index = 0; index < labels.length; index++) {
+            if (labels[index] == positiveLabel) {
+                keys[positiveIndex++] = sortableKey(scores[index]);
+            } else {
+                keys[negativeIndex++] = sortableKey(scores[index]);
+            }
+        }
+
+        // Sort each class in ascending order
+        long[] scratch = new long[Math.max(numberPositives,
+                                           keys.length - numberPositives)];
+        sort(keys, 0, numberPositives, scratch, 0);
+        sort(keys, numberPositives, keys.length, scratch, 0);
+
+        return mergeCounts(keys, 0, numberPositives,
+                           numberPositives, keys.length);
+    }
+
+    /**
+     * Sorts the given range of keys in ascending (signed) order.
+     *
+     * @param keys The keys to sort
+     * @param from The index of the first key to sort, inclusive
+     * @param to The index of the last key to sort, exclusive
+     * @param scratch Working space
+     * @param scratchFrom The index of the start of the working space.
+     * The working space is at least as long as the range.
+     */
+    static void sort(long[] keys, int from, int to, long[] scratch, int scratchFrom) {
+        if (to - from < RADIX_SORT_THRESHOLD) {
+            Arrays.sort(keys, from, to);
+        } else {
+            radixSort(keys, from, to, scratch, scratchFrom);
+        }
+    }
+
+    /**
+     * Sorts the given range of keys in ascending (signed) order using
+     * an LSD radix sort.  Digits that are the same for every key (such
+     * as the sign and exponent of scores that are all probabilities)
+     * are skipped.
+     *
+     * @param keys The keys to sort
+     * @param from The index of the first key to sort, inclusive
+     * @param to The index of the last key to sort, exclusive
+     * @param scratch Working space
+     * @param scratchFrom The index of the start of the working space.
+     * The working space is at least as long as the range.
+     */
+    static void radixSort(long[] keys, int from, int to, long[] scratch, int scratchFrom) {
+        int size = to - from;
+
+        // Histogram all the digits in one pass.  Flip the sign bit so
+        // that the keys sort as unsigned numbers.
+        int[][] histograms = new int[NUMBER_DIGITS][RADIX];
+        long unsignedKey;
+        for (int index = from; index < to; index++) {
+            unsignedKey = keys[index] ^ Long.MIN_VALUE;
+            for (int digit = 0; digit < NUMBER_DIGITS; digit++) {
+                histograms[digit][(int) (unsignedKey >>> (digit * RADIX_BITS)) & (RADIX - 1)]++;
+            }
+        }
+
+        // Distribute the keys back and forth between the array and the
+        // scratch space, one digit at a time
+        long[] source = keys;
+        int sourceFrom = from;
+        long[] destination = scratch;
+        int destinationFrom = scratchFrom;
+        int[] offsets = new int[RADIX];
+        for (int digit = 0; digit < NUMBER_DIGITS; digit++) {
+            int[] histogram = histograms[digit];
+            int shift = digit * RADIX_BITS;
+            // Skip the digit if all the keys have the same value for it
+            unsignedKey = source[sourceFrom] ^ Long.MIN_VALUE;
+            if (histogram[(int) (unsignedKey >>> shift) & (RADIX - 1)] == size) {
+                continue;
+            }
+            // Compute the starting position of each digit value
+            int offset = destinationFrom;
+            for (int value = 0; value < RADIX; value++) {
+                offsets[value] = offset;
+                offset += histogram[value];
+            }
+            // Distribute
+            for (int index = sourceFrom; index < sourceFrom + size; index++) {
+                unsignedKey = source[index] ^ Long.MIN_VALUE;
+                destination[offsets[(int) (unsignedKey >>> shift) & (RADIX - 1)]++] = source[index];
+            }
+            // Swap the source and destination
+            long[] swapArray = source;
+            source = destination;
+            destination = swapArray;
+            int swapFrom = sourceFrom;
+            sourceFrom = destinationFrom;
+            destinationFrom = swapFrom;
+        }
+
+        // Make sure the sorted keys end up in the given array
+        if (source != keys) {
+            System.arraycopy(source, sourceFrom, keys, from, size);
+        }
+    }
+
+    /**
+     * Merges the sorted keys of the positives and the negatives from
+     * the highest key to the lowest key and counts the positives and
+     * negatives at each distinct key in a single linear scan.
+     *
+     * @param keys Array containing the sorted keys of both classes
+     * @param positivesFrom The index of the first key of the
+     * positives, inclusive
+     * @param positivesTo The index of the last key of the positives,
+     * exclusive
+     * @param negativesFrom The index of the first key of the
+     * negatives, inclusive
+     * @param negativesTo The index of the last key of the negatives,
+     * exclusive
+     * @return See {@link #rankCounts(double[], int[], int)}.
+     */
+    static int[][] mergeCounts(long[] keys,
+                               int positivesFrom, int positivesTo,
+                               int negativesFrom, int negativesTo) {
+        int size = (positivesTo - positivesFrom) + (negativesTo - negativesFrom);
+        int[] posCounts = new int[size + 1];
+        int[] negCounts = new int[size + 1];
+        int countIndex = mergeCounts(keys, positivesFrom, positivesTo,
+                                     negativesFrom, negativesTo,
+                                     posCounts, negCounts, 0, 0, 0);
+        return trimCounts(posCounts, negCounts, countIndex + 1);
+    }
+
+    /**
+     * Merges and counts like {@link #mergeCounts(long[], int, int,
+     * int, int)} but stores the counts in the given arrays starting
+     * after the given index.  The counts continue from the given
+     * counts of the preceding (higher) keys.
+     *
+     * @param posCounts Array in which to store the positive counts
+     * @param negCounts Array in which to store the negative counts
+     * @param countIndex The index of the counts preceding the counts
+     * for these keys
+     * @param posCount The number of positives with higher keys
+     * @param negCount The number of negatives with higher keys
+     * @return The index of the last counts stored
+     */
+    static int mergeCounts(long[] keys,
+                           int positivesFrom, int positivesTo,
+                           int negativesFrom, int negativesTo,
+                           int[] posCounts, int[] negCounts,
+                           int countIndex, int posCount, int negCount) {
+        int positiveIndex = positivesTo - 1;
+        int negativeIndex = negativesTo - 1;
+        long key;
+        while (positiveIndex >= positivesFrom || negativeIndex >= negativesFrom) {
+            // The key of the next group is the larger of the two
+            // highest remaining keys
+            if (negativeIndex < negativesFrom ||
+                (positiveIndex >= positivesFrom &&
+                 keys[positiveIndex] >= keys[negativeIndex])) {
+                key = keys[positiveIndex];
+            } else {
+                key = keys[negativeIndex];
+            }
+            // Count all the examples tied at this key
+            while (positiveIndex >= positivesFrom && keys[positiveIndex] == key) {
+                posCount++;
+                positiveIndex--;
+            }
+            while (negativeIndex >= negativesFrom && keys[negativeIndex] == key) {
+                negCount++;
+                negativeIndex--;
+            }
+            countIndex++;
+            posCounts[countIndex] = posCount;
+            negCounts[countIndex] = negCount;
+        }
+        return countIndex;
+    }
+
+    /**
+     * Limits the given arrays of counts to their actual size.
+     *
+     * @return A two-element array containing the trimmed arrays of
+     * positive and negative counts
+     */
+    static int[][] trimCounts(int[] posCounts, int[] negCounts, int size) {
+        if (size == posCounts.length) {
+            return new int[][] {posCounts, negCounts};
+        }
+        int[] realPosCounts = new int[size];
+        int[] realNegCounts = new int[size];
+        System.arraycopy(posCounts, 0, realPosCounts, 0, size);
+        System.arraycopy(negCounts, 0, realNegCounts, 0, size);
+        return new int[][] {realPosCounts, realNegCounts};
+    }
+}
@@ -45,6 +45,33 @@ public class Reports {
         output.println(String.format("%s", curve.prArea()));
     }
 
+    /**
+     * Returns whether the given report needs only the areas under the
+     * curves (and so can be run on a {@link RankedLabelsAccumulator}).
+     */
+    public static boolean isAreaReport(String reportName) {
+        return (reportName.equalsIgnoreCase(names[1]) ||
+                reportName.equalsIgnoreCase(names[3]));
+    }
+
+    /**
+     * Runs the given area report (see {@link #isAreaReport}) on the
+     * given accumulated ranked labels.
+     */
+    public static void report(String reportName, RankedLabelsAccumulator areas, PrintWriter output) {
+        if (reportName.equalsIgnoreCase(names[1])) {
+            prArea(areas, output);
+        } else if (reportName.equalsIgnoreCase(names[3])) {
+            rocArea(areas, output);
+        } else {
+            throw new IllegalArgumentException(String.format("Report name '%s' is not one of %s.", reportName, Arrays.toString(new String[] {names[1], names[3]})));
+        }
+    }
+
+    public static void prArea(RankedLabelsAccumulator areas, PrintWriter output) {
+        output.println(String.format("%s", areas.prArea()));
+    }
+
     public static void prPts(Curve curve, PrintWriter output) {
         double[][] prPoints = curve.prPoints();
         for (double[] point : prPoints) {
@@ -56,6 +83,10 @@ public class Reports {
         output.println(String.format("%s", curve.rocArea()));
     }
 
+    public static void rocArea(RankedLabelsAccumulator areas, PrintWriter output) {
+        output.println(String.format("%s", areas.rocArea()));
+    }
+
     public static void rocPts(Curve curve, PrintWriter output) {
         double[][] rocPoints = curve.rocPoints();
         for (double[] point : rocPoints) {
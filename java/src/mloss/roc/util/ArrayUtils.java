@@ -51,6 +51,16 @@ public class ArrayUtils {
         return result;
     }
 
+    /**
+     * Concatenates the given arrays of integers.  Returns a new array.
+     */
+    public static int[] concat(int[] ints1, int... ints2) {
+        int[] result = new int[ints1.length + ints2.length];
+        System.arraycopy(ints1, 0, result, 0, ints1.length);
+        System.arraycopy(ints2, 0, result, ints1.length, ints2.length);
+        return result;
+    }
+
     /**
      * Finds the first occurrence of the target among the given
      * integers.  Returns the index of the target or -1 if the target
@@ -80,6 +90,19 @@ public class ArrayUtils {
         return builder.toString();
     }
 
+    /**
+     * Converts the given unsigned 64-bit integer to the nearest double.
+     * Halving with the lost bit kept as a sticky low bit (round to odd)
+     * leaves a 63-bit value whose single rounding to a double is the
+     * correct rounding of the original value.
+     */
+    public static double unsignedToDouble(long value) {
+        if (value >= 0) {
+            return value;
+        }
+        return (double) ((value >>> 1) | (value & 1)) * 2.0;
+    }
+
     /**
      * Converts each of the given strings to integers (using {@link
      * Integer.parseInt(String)}).
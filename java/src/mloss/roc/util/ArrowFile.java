@@ -0,0 +1,731 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * <p>Reads columns from a file in the Apache Arrow IPC file format (as
+ * written by, for example, <code>pyarrow.ipc.new_file</code> or
+ * <code>pyarrow.feather.write_feather</code> without compression).
+ * Opening the file reads only the footer and the metadata of the
+ * record batches.  A column is read by memory mapping only its own
+ * validity and data buffers (see {@link FileChannel#map}) in each
+ * record batch, so the other columns of a wide table are never
+ * touched.</p>
+ *
+ * <p>The metadata are flatbuffers, which are parsed in place.  Columns
+ * of integers (of any width and signedness), 32-bit and 64-bit floats,
+ * booleans, and UTF-8 strings can be read.  Columns of other types may
+ * be present as long as they are not read.  Dictionary-encoded columns
+ * and compressed record batches are not supported.  Null values are
+ * errors.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * ArrowFile arrow = new ArrowFile(file);
+ * double[] scores = arrow.readDoubles(arrow.columnIndex("score"));
+ * int[] labels = arrow.readPositives(arrow.columnIndex("label"), "1");
+ * arrow.close();
+ * </pre>
+ */
+public class ArrowFile implements Closeable {
+
+    /** The bytes that start and end every Arrow IPC file. */
+    public static final byte[] MAGIC = {'A', 'R', 'R', 'O', 'W', '1'};
+
+    // Types (the Type union in Schema.fbs)
+    static final int TYPE_NULL = 1;
+    static final int TYPE_INT = 2;
+    static final int TYPE_FLOATING_POINT = 3;
+    static final int TYPE_BINARY = 4;
+    static final int TYPE_UTF8 = 5;
+    static final int TYPE_BOOL = 6;
+    static final int TYPE_DECIMAL = 7;
+    static final int TYPE_DATE = 8;
+    static final int TYPE_TIME = 9;
+    static final int TYPE_TIMESTAMP = 10;
+    static final int TYPE_INTERVAL = 11;
+    static final int TYPE_LIST = 12;
+    static final int TYPE_STRUCT = 13;
+    static final int TYPE_UNION = 14;
+    static final int TYPE_FIXED_SIZE_BINARY = 15;
+    static final int TYPE_FIXED_SIZE_LIST = 16;
+    static final int TYPE_MAP = 17;
+    static final int TYPE_DURATION = 18;
+    static final int TYPE_LARGE_BINARY = 19;
+    static final int TYPE_LARGE_UTF8 = 20;
+    static final int TYPE_LARGE_LIST = 21;
+    static final int TYPE_RUN_END_ENCODED = 22;
+    static final int TYPE_LIST_VIEW = 25;
+    static final int TYPE_LARGE_LIST_VIEW = 26;
+
+    // Message headers (the MessageHeader union in Message.fbs)
+    static final int MESSAGE_RECORD_BATCH = 3;
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    private File file;
+    private FileInputStream input;
+    private FileChannel channel;
+    private ByteOrder order;
+
+    // Top-level fields
+    private String[] names;
+    private int[] types;
+    private Table[] typeTables;
+    private boolean[] isDictionaryEncoded;
+    // Index of the first field node and first buffer of each top-level
+    // field in a record batch, or -1 if a preceding field has a type
+    // whose number of buffers is not known
+    private int[] firstNodes;
+    private int[] firstBuffers;
+
+    private List<RecordBatch> batches = new ArrayList<RecordBatch>();
+    private long numberRows;
+
+    /**
+     * Opens the given Arrow IPC file and reads its schema and the
+     * metadata of its record batches.
+     *
+     * @throws IOException if the file is not a valid Arrow IPC file
+     */
+    public ArrowFile(File file) throws IOException {
+        this.file = file;
+        input = new FileInputStream(file);
+        try {
+            channel = input.getChannel();
+            readFooter();
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        } catch (RuntimeException e) {
+            // Bad offsets in the flatbuffers
+            input.close();
+            throw new IOException(String.format("Not a valid Arrow file: %s", file), e);
+        }
+    }
+
+    /** Returns whether the given file starts like an Arrow IPC file. */
+    public static boolean isArrowFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        FileInputStream input = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[MAGIC.length];
+            int length = 0;
+            int numberRead;
+            while (length < bytes.length &&
+                   (numberRead = input.read(bytes, length, bytes.length - length)) >= 0) {
+                length += numberRead;
+            }
+            return length == MAGIC.length && hasMagic(bytes, 0);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static boolean hasMagic(byte[] bytes, int offset) {
+        for (int index = 0; index < MAGIC.length; index++) {
+            if (bytes[offset + index] != MAGIC[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readFooter() throws IOException {
+        // The file is the magic padded to 8 bytes, the stream format,
+        // the footer, the length of the footer, and the magic
+        long size = channel.size();
+        if (size < 8 + 4 + MAGIC.length) {
+            throw new IOException(String.format("Not an Arrow file: %s", file));
+        }
+        ByteBuffer start = readFully(0, MAGIC.length);
+        ByteBuffer end = readFully(size - 4 - MAGIC.length, 4 + MAGIC.length);
+        if (!hasMagic(start.array(), 0) || !hasMagic(end.array(), 4)) {
+            throw new IOException(String.format("Not an Arrow file: %s", file));
+        }
+        int footerLength = end.getInt(0);
+        if (footerLength <= 0 || footerLength > size - 8 - 4 - MAGIC.length) {
+            throw new IOException(String.format("Not a valid Arrow file: %s", file));
+        }
+        Table footer = Table.root(readFully(size - 4 - MAGIC.length - footerLength,
+                                            footerLength));
+
+        // Schema
+        Table schema = footer.table(1);
+        if (schema == null) {
+            throw new IOException(String.format("Not a valid Arrow file: %s", file));
+        }
+        order = (schema.getShort(0, (short) 0) == 1) ?
+            ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        int numberFields = schema.vectorLength(1);
+        names = new String[numberFields];
+        types = new int[numberFields];
+        typeTables = new Table[numberFields];
+        isDictionaryEncoded = new boolean[numberFields];
+        firstNodes = new int[numberFields];
+        firstBuffers = new int[numberFields];
+        int[] counts = {0, 0};
+        for (int field = 0; field < numberFields; field++) {
+            Table fieldTable = schema.vectorTable(1, field);
+            String name = fieldTable.string(0);
+            names[field] = (name == null) ? "" : name;
+            types[field] = fieldTable.getByte(2, (byte) 0) & 0xff;
+            typeTables[field] = fieldTable.table(3);
+            isDictionaryEncoded[field] = fieldTable.table(4) != null;
+            firstNodes[field] = counts[0];
+            firstBuffers[field] = counts[1];
+            if (counts[0] >= 0) {
+                countNodesBuffers(fieldTable, counts);
+            }
+        }
+
+        // Record batches, each of which is a message followed by a body
+        int numberBatches = footer.vectorLength(3);
+        int blocks = footer.vector(3);
+        for (int batch = 0; batch < numberBatches; batch++) {
+            // struct Block { offset: long; metaDataLength: int; bodyLength: long; }
+            int block = blocks + 24 * batch;
+            long offset = footer.buffer.getLong(block);
+            int metadataLength = footer.buffer.getInt(block + 8);
+            if (offset < 0 || metadataLength < 8 || offset + metadataLength > size) {
+                throw new IOException(String.format("Not a valid Arrow file: %s", file));
+            }
+            ByteBuffer metadata = readFully(offset, metadataLength);
+            // The message is prefixed by its length, which is preceded
+            // by a continuation marker (0xffffffff) since Arrow 0.15
+            int prefix = (metadata.getInt(0) == -1) ? 8 : 4;
+            metadata.position(prefix);
+            Table message = Table.root(metadata.slice().order(ByteOrder.LITTLE_ENDIAN));
+            if ((message.getByte(1, (byte) 0) & 0xff) != MESSAGE_RECORD_BATCH) {
+                throw new IOException(String.format("Not a valid Arrow file: %s", file));
+            }
+            Table recordBatch = message.table(2);
+            if (recordBatch.table(3) != null) {
+                throw new IOException(String.format("Compressed Arrow record batches are not supported: %s", file));
+            }
+            RecordBatch batchInfo = new RecordBatch(
+                recordBatch, offset + metadataLength);
+            batches.add(batchInfo);
+            numberRows += batchInfo.length;
+        }
+    }
+
+    /**
+     * Adds the number of field nodes and the number of buffers of the
+     * given field (including its children) to the given counts.  Sets
+     * the counts to -1 if they are not known.
+     */
+    private static void countNodesBuffers(Table field, int[] counts) {
+        int type = field.getByte(2, (byte) 0) & 0xff;
+        int numberBuffers;
+        switch (type) {
+        case TYPE_NULL:
+        case TYPE_RUN_END_ENCODED:
+            numberBuffers = 0;
+            break;
+        case TYPE_STRUCT:
+        case TYPE_FIXED_SIZE_LIST:
+            numberBuffers = 1;
+            break;
+        case TYPE_BINARY:
+        case TYPE_UTF8:
+        case TYPE_LARGE_BINARY:
+        case TYPE_LARGE_UTF8:
+        case TYPE_LIST_VIEW:
+        case TYPE_LARGE_LIST_VIEW:
+            numberBuffers = 3;
+            break;
+        case TYPE_UNION:
+            // Sparse unions have type ids and dense unions also have
+            // offsets
+            numberBuffers = (field.table(3).getShort(0, (short) 0) == 1) ? 2 : 1;
+            break;
+        case TYPE_INT:
+        case TYPE_FLOATING_POINT:
+        case TYPE_BOOL:
+        case TYPE_DECIMAL:
+        case TYPE_DATE:
+        case TYPE_TIME:
+        case TYPE_TIMESTAMP:
+        case TYPE_INTERVAL:
+        case TYPE_FIXED_SIZE_BINARY:
+        case TYPE_DURATION:
+        case TYPE_LIST:
+        case TYPE_MAP:
+        case TYPE_LARGE_LIST:
+            // A validity bitmap and fixed-width values or offsets
+            numberBuffers = 2;
+            break;
+        default:
+            // Unknown or with a variable number of buffers (views)
+            counts[0] = -1;
+            counts[1] = -1;
+            return;
+        }
+        counts[0] += 1;
+        counts[1] += numberBuffers;
+        int numberChildren = field.vectorLength(5);
+        for (int child = 0; child < numberChildren && counts[0] >= 0; child++) {
+            countNodesBuffers(field.vectorTable(5, child), counts);
+        }
+    }
+
+    /**
+     * Reads exactly the given number of bytes at the given position
+     * into a little-endian buffer.
+     */
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException(String.format("Not a valid Arrow file: %s", file));
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Returns the number of (top-level) columns. */
+    public int numberColumns() {
+        return names.length;
+    }
+
+    /** Returns the name of the given column. */
+    public String columnName(int column) {
+        checkColumn(column);
+        return names[column];
+    }
+
+    /**
+     * Returns the index of the first column with the given name or -1
+     * if there is no such column.
+     */
+    public int columnIndex(String name) {
+        for (int column = 0; column < names.length; column++) {
+            if (names[column].equals(name)) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the number of rows in all the record batches. */
+    public long numberRows() {
+        return numberRows;
+    }
+
+    /**
+     * Reads the given column of numbers as doubles.  The column must be
+     * integers or 32-bit or 64-bit floats.
+     */
+    public double[] readDoubles(int column) throws IOException {
+        checkReadable(column);
+        try {
+            return readCheckedDoubles(column);
+        } catch (RuntimeException e) {
+            // Bad offsets or lengths in the record batches
+            throw new IOException(String.format("Not a valid Arrow file: %s", file), e);
+        }
+    }
+
+    private double[] readCheckedDoubles(int column) throws IOException {
+        int type = types[column];
+        int bytesPerValue;
+        if (type == TYPE_INT) {
+            bytesPerValue = typeTables[column].getInt(0, 0) / 8;
+        } else if (type == TYPE_FLOATING_POINT) {
+            short precision = typeTables[column].getShort(0, (short) 0);
+            if (precision == 0) {
+                throw new IOException(String.format("Half-precision floats are not supported: column %s in %s", names[column], file));
+            }
+            bytesPerValue = (precision == 1) ? 4 : 8;
+        } else {
+            throw new IOException(String.format("Not a numeric column: %s in %s", names[column], file));
+        }
+        boolean signed = typeTables[column].getBool(1, false);
+
+        double[] values = new double[checkedNumberRows()];
+        int row = 0;
+        for (RecordBatch batch : batches) {
+            int length = (int) batch.length;
+            checkNoNulls(batch, column);
+            ByteBuffer data = map(batch, firstBuffers[column] + 1,
+                                  (long) length * bytesPerValue);
+            if (type == TYPE_FLOATING_POINT && bytesPerValue == 8) {
+                data.asDoubleBuffer().get(values, row, length);
+            } else if (type == TYPE_FLOATING_POINT) {
+                for (int index = 0; index < length; index++) {
+                    values[row + index] = data.getFloat(4 * index);
+                }
+            } else {
+                for (int index = 0; index < length; index++) {
+                    long value = getInteger(data, index, bytesPerValue, signed);
+                    values[row + index] = signed ? value :
+                        ArrayUtils.unsignedToDouble(value);
+                }
+            }
+            row += length;
+        }
+        return values;
+    }
+
+    /**
+     * Reads the given column of labels as whether each label is the
+     * given positive label: 1 for positive and 0 for negative.  The
+     * column must be UTF-8 strings, integers, or booleans.  Strings are
+     * compared byte by byte without decoding them.  Integers match
+     * their decimal text.  Booleans match "true", "True", or "1" if
+     * they are true and "false", "False", or "0" if they are false.
+     */
+    public int[] readPositives(int column, String positiveLabel)
+        throws IOException {
+        checkReadable(column);
+        try {
+            return readCheckedPositives(column, positiveLabel);
+        } catch (RuntimeException e) {
+            // Bad offsets or lengths in the record batches
+            throw new IOException(String.format("Not a valid Arrow file: %s", file), e);
+        }
+    }
+
+    private int[] readCheckedPositives(int column, String positiveLabel)
+        throws IOException {
+        int type = types[column];
+        if (type != TYPE_UTF8 && type != TYPE_LARGE_UTF8 &&
+            type != TYPE_INT && type != TYPE_BOOL) {
+            throw new IOException(String.format("Not a string, integer, or boolean column: %s in %s", names[column], file));
+        }
+        byte[] positive = positiveLabel.getBytes(utf8);
+        // The integer whose decimal text is the positive label, if any
+        Long positiveInteger = null;
+        try {
+            long value = Long.parseLong(positiveLabel);
+            if (Long.toString(value).equals(positiveLabel)) {
+                positiveInteger = value;
+            }
+        } catch (NumberFormatException e) {
+            // No integer matches
+        }
+        int positiveBit = (positiveLabel.equals("true") ||
+                           positiveLabel.equals("True") ||
+                           positiveLabel.equals("1")) ? 1 :
+            (positiveLabel.equals("false") ||
+             positiveLabel.equals("False") ||
+             positiveLabel.equals("0")) ? 0 : -1;
+
+        int[] labels = new int[checkedNumberRows()];
+        int row = 0;
+        for (RecordBatch batch : batches) {
+            int length = (int) batch.length;
+            checkNoNulls(batch, column);
+            int buffer = firstBuffers[column];
+            if (type == TYPE_INT) {
+                int bytesPerValue = typeTables[column].getInt(0, 0) / 8;
+                boolean signed = typeTables[column].getBool(1, false);
+                ByteBuffer data = map(batch, buffer + 1, (long) length * bytesPerValue);
+                if (positiveInteger != null) {
+                    long target = positiveInteger;
+                    for (int index = 0; index < length; index++) {
+                        labels[row + index] =
+                            (getInteger(data, index, bytesPerValue, signed) == target &&
+                             (signed || target >= 0)) ? 1 : 0;
+                    }
+                }
+            } else if (type == TYPE_BOOL) {
+                ByteBuffer data = map(batch, buffer + 1, (length + 7) / 8);
+                if (positiveBit >= 0) {
+                    for (int index = 0; index < length; index++) {
+                        int bit = (data.get(index >>> 3) >>> (index & 7)) & 1;
+                        labels[row + index] = (bit == positiveBit) ? 1 : 0;
+                    }
+                }
+            } else {
+                // Offsets into the data of each string
+                boolean large = (type == TYPE_LARGE_UTF8);
+                int offsetSize = large ? 8 : 4;
+                ByteBuffer offsets = map(batch, buffer + 1,
+                                         (long) (length + 1) * offsetSize);
+                long dataLength = large ? offsets.getLong(8 * length) :
+                    offsets.getInt(4 * length);
+                ByteBuffer data = map(batch, buffer + 2, dataLength);
+                long start = large ? offsets.getLong(0) : offsets.getInt(0);
+                for (int index = 0; index < length; index++) {
+                    long end = large ? offsets.getLong(8 * (index + 1)) :
+                        offsets.getInt(4 * (index + 1));
+                    labels[row + index] = bytesEqual(data, (int) start, (int) end, positive) ? 1 : 0;
+                    start = end;
+                }
+            }
+            row += length;
+        }
+        return labels;
+    }
+
+    private static boolean bytesEqual(ByteBuffer data, int start, int end,
+                                      byte[] bytes) {
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int index = 0; index < bytes.length; index++) {
+            if (data.get(start + index) != bytes[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long getInteger(ByteBuffer data, int index,
+                                   int bytesPerValue, boolean signed) {
+        switch (bytesPerValue) {
+        case 1:
+            return signed ? data.get(index) : data.get(index) & 0xffL;
+        case 2:
+            return signed ? data.getShort(2 * index) : data.getShort(2 * index) & 0xffffL;
+        case 4:
+            return signed ? data.getInt(4 * index) : data.getInt(4 * index) & 0xffffffffL;
+        default:
+            return data.getLong(8 * index);
+        }
+    }
+
+    private void checkColumn(int column) {
+        if (column < 0 || column >= names.length) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Column index out of bounds: %s", column));
+        }
+    }
+
+    private void checkReadable(int column) throws IOException {
+        checkColumn(column);
+        if (isDictionaryEncoded[column]) {
+            throw new IOException(String.format("Dictionary-encoded columns are not supported: %s in %s", names[column], file));
+        }
+        if (firstBuffers[column] < 0) {
+            throw new IOException(String.format("Column follows a column of an unsupported type: %s in %s", names[column], file));
+        }
+    }
+
+    private int checkedNumberRows() throws IOException {
+        if (numberRows > Integer.MAX_VALUE - 8) {
+            throw new IOException(String.format("Too many rows for an array: %s: %s", numberRows, file));
+        }
+        return (int) numberRows;
+    }
+
+    /** Checks that the given column of the given batch has no nulls. */
+    private void checkNoNulls(RecordBatch batch, int column) throws IOException {
+        long length = batch.nodeLength(firstNodes[column]);
+        if (length != batch.length) {
+            throw new IOException(String.format("Not a valid Arrow file: %s", file));
+        }
+        if (batch.nodeNullCount(firstNodes[column]) != 0) {
+            throw new IOException(String.format("Null values are not supported: column %s in %s", names[column], file));
+        }
+    }
+
+    /**
+     * Maps the given buffer of the given batch, which must hold at
+     * least the given number of bytes.
+     */
+    private ByteBuffer map(RecordBatch batch, int buffer, long minimumLength)
+        throws IOException {
+        long offset = batch.bufferOffset(buffer);
+        long length = batch.bufferLength(buffer);
+        if (offset < 0 || length < minimumLength ||
+            batch.bodyOffset + offset + length > channel.size()) {
+            throw new IOException(String.format("Not a valid Arrow file: %s", file));
+        }
+        if (minimumLength == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        MappedByteBuffer mapped = channel.map(
+            FileChannel.MapMode.READ_ONLY, batch.bodyOffset + offset, minimumLength);
+        mapped.order(order);
+        return mapped;
+    }
+
+    /** Closes the file. */
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /** The metadata of a record batch. */
+    static class RecordBatch {
+        long length;
+        long bodyOffset;
+        // The record batch table with its vectors of field nodes and
+        // buffers
+        Table table;
+        int nodes;
+        int numberNodes;
+        int buffers;
+        int numberBuffers;
+
+        RecordBatch(Table table, long bodyOffset) {
+            this.table = table;
+            this.bodyOffset = bodyOffset;
+            length = table.getLong(0, 0);
+            nodes = table.vector(1);
+            numberNodes = table.vectorLength(1);
+            buffers = table.vector(2);
+            numberBuffers = table.vectorLength(2);
+        }
+
+        // struct FieldNode { length: long; null_count: long; }
+        long nodeLength(int node) {
+            checkIndex(node, numberNodes);
+            return table.buffer.getLong(nodes + 16 * node);
+        }
+
+        long nodeNullCount(int node) {
+            checkIndex(node, numberNodes);
+            return table.buffer.getLong(nodes + 16 * node + 8);
+        }
+
+        // struct Buffer { offset: long; length: long; }
+        long bufferOffset(int buffer) {
+            checkIndex(buffer, numberBuffers);
+            return table.buffer.getLong(buffers + 16 * buffer);
+        }
+
+        long bufferLength(int buffer) {
+            checkIndex(buffer, numberBuffers);
+            return table.buffer.getLong(buffers + 16 * buffer + 8);
+        }
+
+        private static void checkIndex(int index, int size) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(String.format("Not a valid index: %s", index));
+            }
+        }
+    }
+
+    /**
+     * A flatbuffer table: a position in a little-endian buffer that
+     * refers to a vtable of the offsets of the fields.
+     */
+    static class Table {
+        ByteBuffer buffer;
+        int position;
+        int vtable;
+        int vtableSize;
+
+        Table(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+            vtable = position - buffer.getInt(position);
+            vtableSize = buffer.getShort(vtable) & 0xffff;
+        }
+
+        /** Returns the root table of the given flatbuffer. */
+        static Table root(ByteBuffer buffer) {
+            return new Table(buffer, buffer.getInt(0));
+        }
+
+        /**
+         * Returns the position of the given field or 0 if it is
+         * absent.
+         */
+        int field(int field) {
+            int entry = 4 + 2 * field;
+            if (entry >= vtableSize) {
+                return 0;
+            }
+            int offset = buffer.getShort(vtable + entry) & 0xffff;
+            return (offset == 0) ? 0 : position + offset;
+        }
+
+        byte getByte(int field, byte defaultValue) {
+            int at = field(field);
+            return (at == 0) ? defaultValue : buffer.get(at);
+        }
+
+        boolean getBool(int field, boolean defaultValue) {
+            int at = field(field);
+            return (at == 0) ? defaultValue : buffer.get(at) != 0;
+        }
+
+        short getShort(int field, short defaultValue) {
+            int at = field(field);
+            return (at == 0) ? defaultValue : buffer.getShort(at);
+        }
+
+        int getInt(int field, int defaultValue) {
+            int at = field(field);
+            return (at == 0) ? defaultValue : buffer.getInt(at);
+        }
+
+        long getLong(int field, long defaultValue) {
+            int at = field(field);
+            return (at == 0) ? defaultValue : buffer.getLong(at);
+        }
+
+        /** Follows the offset stored at the given position. */
+        private int follow(int at) {
+            return at + buffer.getInt(at);
+        }
+
+        /** Returns the given table field or null if it is absent. */
+        Table table(int field) {
+            int at = field(field);
+            return (at == 0) ? null : new Table(buffer, follow(at));
+        }
+
+        /** Returns the given string field or null if it is absent. */
+        String string(int field) {
+            int at = field(field);
+            if (at == 0) {
+                return null;
+            }
+            int start = follow(at);
+            int length = buffer.getInt(start);
+            byte[] bytes = new byte[length];
+            for (int index = 0; index < length; index++) {
+                bytes[index] = buffer.get(start + 4 + index);
+            }
+            return new String(bytes, utf8);
+        }
+
+        /**
+         * Returns the number of elements of the given vector field (0 if
+         * it is absent).
+         */
+        int vectorLength(int field) {
+            int at = field(field);
+            return (at == 0) ? 0 : buffer.getInt(follow(at));
+        }
+
+        /**
+         * Returns the position of the first element of the given vector
+         * field.
+         */
+        int vector(int field) {
+            int at = field(field);
+            return (at == 0) ? 0 : follow(at) + 4;
+        }
+
+        /** Returns the given element of the given vector of tables. */
+        Table vectorTable(int field, int element) {
+            return new Table(buffer, follow(vector(field) + 4 * element));
+        }
+    }
+}
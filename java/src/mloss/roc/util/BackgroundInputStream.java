@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * <p>Reads a source stream on a background (producer) thread into a
+ * bounded ring of buffers while the thread that reads this stream (the
+ * consumer) takes the filled buffers in order.  Thus work done by the
+ * source, such as decompression (see {@link
+ * ConcatenatedGzipInputStream}), overlaps with work done by the
+ * consumer, such as parsing.  The producer gets at most the given
+ * number of buffers ahead and then waits for the consumer to return
+ * one, so memory use is bounded.</p>
+ *
+ * <p>An exception thrown by the source is rethrown to the consumer
+ * after the bytes read before it.  Closing this stream stops the
+ * producer and closes the source.</p>
+ */
+public class BackgroundInputStream extends InputStream {
+
+    /** The default size of each buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /** The default number of buffers in the ring. */
+    public static final int DEFAULT_NUMBER_BUFFERS = 4;
+
+    private InputStream source;
+    private Thread producer;
+    private volatile boolean closed = false;
+
+    // Buffers filled by the producer (followed by an end or error
+    // chunk) and buffers returned by the consumer
+    private BlockingQueue<Chunk> filled;
+    private BlockingQueue<byte[]> empty;
+
+    // The chunk being read by the consumer
+    private Chunk current = null;
+    private int position = 0;
+    private boolean endOfInput = false;
+
+    /**
+     * Creates a stream that reads the given source in the background
+     * with the default buffers.
+     */
+    public BackgroundInputStream(InputStream source) {
+        this(source, DEFAULT_BUFFER_SIZE, DEFAULT_NUMBER_BUFFERS);
+    }
+
+    /**
+     * Creates a stream that reads the given source in the background
+     * and starts the producer thread.
+     *
+     * @param source The stream to read on the producer thread
+     * @param bufferSize The size of each buffer
+     * @param numberBuffers The number of buffers in the ring
+     */
+    public BackgroundInputStream(InputStream source, int bufferSize,
+                                 int numberBuffers) {
+        if (bufferSize < 1 || numberBuffers < 1) {
+            throw new IllegalArgumentException("The buffer size and the number of buffers must be positive.");
+        }
+        this.source = source;
+        // There is always room for the final chunk
+        filled = new ArrayBlockingQueue<Chunk>(numberBuffers + 1);
+        empty = new ArrayBlockingQueue<byte[]>(numberBuffers);
+        for (int buffer = 0; buffer < numberBuffers; buffer++) {
+            empty.add(new byte[bufferSize]);
+        }
+        producer = new Thread(new Runnable() {
+                public void run() {
+                    produce();
+                }
+            }, "roc-background-input");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /** Fills buffers from the source until its end or an error. */
+    private void produce() {
+        try {
+            while (!closed) {
+                byte[] buffer = empty.take();
+                // Fill the whole buffer to keep hand-offs few
+                int length = 0;
+                int numberRead = 0;
+                Exception error = null;
+                try {
+                    while (length < buffer.length &&
+                           (numberRead = source.read(buffer, length, buffer.length - length)) >= 0) {
+                        length += numberRead;
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                if (length > 0) {
+                    filled.put(new Chunk(buffer, length, null));
+                }
+                if (numberRead < 0 || error != null) {
+                    filled.put(new Chunk(null, 0, error));
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (current == null || position == current.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        int numberCopied = Math.min(length, current.length - position);
+        System.arraycopy(current.bytes, position, bytes, offset, numberCopied);
+        position += numberCopied;
+        return numberCopied;
+    }
+
+    /**
+     * Returns the current buffer to the producer and takes the next
+     * filled one.
+     *
+     * @return Whether there is a next buffer (false at the end of the
+     * input)
+     */
+    private boolean nextChunk() throws IOException {
+        if (current != null) {
+            empty.offer(current.bytes);
+            current = null;
+        }
+        if (endOfInput) {
+            return false;
+        }
+        Chunk chunk;
+        try {
+            chunk = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for input.");
+        }
+        if (chunk.bytes == null) {
+            endOfInput = true;
+            if (chunk.error instanceof IOException) {
+                throw new IOException(chunk.error.getMessage(), chunk.error);
+            } else if (chunk.error != null) {
+                throw (RuntimeException) chunk.error;
+            }
+            return false;
+        }
+        current = chunk;
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        producer.interrupt();
+        source.close();
+    }
+
+    /**
+     * Bytes from the source, or the end of the source (no bytes) with
+     * an optional error.
+     */
+    static class Chunk {
+        byte[] bytes;
+        int length;
+        Exception error;
+
+        Chunk(byte[] bytes, int length, Exception error) {
+            this.bytes = bytes;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,711 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * <p>A table of tabular text data stored by column rather than by row.
+ * Each column is a primitive array: numbers are parsed into a {@code
+ * double[]} and everything else is dictionary-encoded (see {@link
+ * LabelDictionary}) into an {@code int[]} of codes.  So a table of n
+ * rows needs a few arrays of n primitives rather than n arrays of
+ * strings, and reading a table from a {@link CsvTokenizer} creates no
+ * strings at all.</p>
+ *
+ * <p>Operations work on column indices and permutations of row indices
+ * instead of copying rows.  Projecting shares the columns, sorting
+ * returns the order of the rows, and joining returns the pairs of
+ * joined row indices, which can then be used to gather the values of
+ * any columns.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * ColumnTable scores = ColumnTable.read(scoresCsv, new int[] {0, 4}, new boolean[] {false, true});
+ * ColumnTable labels = ColumnTable.read(labelsCsv, new int[] {2, 1}, new boolean[] {false, false});
+ * int[][] rows = ColumnTable.join(scores, new int[] {0}, labels, new int[] {0});
+ * double[] joinedScores = scores.doubleColumn(1).gather(rows[0]);
+ * </pre>
+ */
+public class ColumnTable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** A column of a table. */
+    public abstract static class Column {
+        /** Returns the number of values (rows). */
+        public abstract int size();
+
+        /**
+         * Compares the values of the given rows.
+         *
+         * @return A negative number, zero, or a positive number as the
+         * value of the first row is less than, equal to, or greater
+         * than the value of the second row
+         */
+        public abstract int compare(int row1, int row2);
+    }
+
+    /**
+     * A column of numbers.  Values that are not numbers are kept as
+     * NaN together with their text and are an error only when they are
+     * gathered.
+     */
+    public static class DoubleColumn extends Column {
+        private double[] values;
+        // The rows that are not numbers (in increasing order) and their
+        // text
+        private int[] invalidRows;
+        private List<String> invalidValues;
+
+        /** Creates a column of the given numbers. */
+        public DoubleColumn(double[] values) {
+            this(values, new int[0], new ArrayList<String>(0));
+        }
+
+        DoubleColumn(double[] values, int[] invalidRows,
+                     List<String> invalidValues) {
+            this.values = values;
+            this.invalidRows = invalidRows;
+            this.invalidValues = invalidValues;
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        /** Returns the number in the given row. */
+        public double get(int row) {
+            return values[row];
+        }
+
+        /** Orders numbers as {@link Double#compare}. */
+        public int compare(int row1, int row2) {
+            return Double.compare(values[row1], values[row2]);
+        }
+
+        /**
+         * Returns the numbers in the given rows in the given order.
+         *
+         * @throws NumberFormatException if one of the rows is not a
+         * number
+         */
+        public double[] gather(int[] rows) {
+            double[] gathered = new double[rows.length];
+            for (int index = 0; index < rows.length; index++) {
+                int row = rows[index];
+                if (invalidRows.length > 0) {
+                    int invalid = Arrays.binarySearch(invalidRows, row);
+                    if (invalid >= 0) {
+                        throw new NumberFormatException(String.format("Not a floating-point number: \"%s\"", invalidValues.get(invalid)));
+                    }
+                }
+                gathered[index] = values[row];
+            }
+            return gathered;
+        }
+    }
+
+    /**
+     * A column of dictionary-encoded values.  Values are ordered by
+     * their bytes (as unsigned bytes, which for UTF-8 is the order of
+     * code points).
+     */
+    public static class DictionaryColumn extends Column {
+        private int[] codes;
+        private LabelDictionary dictionary;
+        // The rank of each code in the order of the values (computed
+        // when first needed)
+        private int[] ranks = null;
+
+        /**
+         * Creates a column of the given codes of values in the given
+         * dictionary.
+         */
+        public DictionaryColumn(int[] codes, LabelDictionary dictionary) {
+            this.codes = codes;
+            this.dictionary = dictionary;
+        }
+
+        public int size() {
+            return codes.length;
+        }
+
+        /** Returns the code of the value in the given row. */
+        public int code(int row) {
+            return codes[row];
+        }
+
+        /** Returns the dictionary of the values. */
+        public LabelDictionary dictionary() {
+            return dictionary;
+        }
+
+        /** Returns the value in the given row as a (UTF-8) string. */
+        public String get(int row) {
+            return new String(dictionary.label(codes[row]), UTF_8);
+        }
+
+        public int compare(int row1, int row2) {
+            if (ranks == null) {
+                ranks = ranks(dictionary);
+            }
+            return ranks[codes[row1]] - ranks[codes[row2]];
+        }
+
+        /**
+         * Returns 1 for each of the given rows whose value is one of
+         * the given values and 0 otherwise, in the given order.
+         */
+        public int[] gatherMatches(int[] rows, byte[]... values) {
+            boolean[] isMatch = dictionary.codeSet(values);
+            int[] gathered = new int[rows.length];
+            for (int index = 0; index < rows.length; index++) {
+                gathered[index] = isMatch[codes[rows[index]]] ? 1 : 0;
+            }
+            return gathered;
+        }
+
+        /** Returns the rank of each code in the order of its value. */
+        static int[] ranks(LabelDictionary dictionary) {
+            int[] order = sortedCodes(labels(dictionary));
+            int[] ranks = new int[order.length];
+            for (int rank = 0; rank < order.length; rank++) {
+                ranks[order[rank]] = rank;
+            }
+            return ranks;
+        }
+
+        /**
+         * Returns the rank of each code of each of the given
+         * dictionaries in the order of the values of both together.
+         * Equal values in the two dictionaries have equal ranks.
+         *
+         * @return The ranks of the codes of the first dictionary and of
+         * the second dictionary
+         */
+        static int[][] ranks(LabelDictionary dictionary1,
+                             LabelDictionary dictionary2) {
+            byte[][] labels1 = labels(dictionary1);
+            byte[][] labels2 = labels(dictionary2);
+            int[] order1 = sortedCodes(labels1);
+            int[] order2 = sortedCodes(labels2);
+            int[] ranks1 = new int[order1.length];
+            int[] ranks2 = new int[order2.length];
+            // Merge the sorted values, giving equal values the same rank
+            int index1 = 0;
+            int index2 = 0;
+            int rank = 0;
+            while (index1 < order1.length || index2 < order2.length) {
+                int cmp;
+                if (index1 == order1.length) {
+                    cmp = 1;
+                } else if (index2 == order2.length) {
+                    cmp = -1;
+                } else {
+                    cmp = NormalizedKeys.compareBytes(
+                        labels1[order1[index1]], labels2[order2[index2]]);
+                }
+                if (cmp <= 0) {
+                    ranks1[order1[index1++]] = rank;
+                }
+                if (cmp >= 0) {
+                    ranks2[order2[index2++]] = rank;
+                }
+                rank++;
+            }
+            return new int[][] {ranks1, ranks2};
+        }
+
+        /** Returns the values of the codes of the given dictionary. */
+        private static byte[][] labels(LabelDictionary dictionary) {
+            byte[][] labels = new byte[dictionary.size()][];
+            for (int code = 0; code < labels.length; code++) {
+                labels[code] = dictionary.label(code);
+            }
+            return labels;
+        }
+
+        /** Returns the codes of the given values in order of value. */
+        private static int[] sortedCodes(final byte[][] labels) {
+            int[] order = new int[labels.length];
+            for (int code = 0; code < labels.length; code++) {
+                order[code] = code;
+            }
+            // Sort the codes as the rows of a column of the labels
+            Column[] keys = {
+                new Column() {
+                    public int size() {
+                        return labels.length;
+                    }
+
+                    public int compare(int code1, int code2) {
+                        return NormalizedKeys.compareBytes(labels[code1], labels[code2]);
+                    }
+                },
+            };
+            mergeSort(order, new int[order.length], 0, order.length, keys);
+            return order;
+        }
+    }
+
+    private Column[] columns;
+    private int numberRows;
+
+    /**
+     * Creates a table of the given columns, which must all have the
+     * same number of rows.
+     */
+    public ColumnTable(Column... columns) {
+        numberRows = columns.length > 0 ? columns[0].size() : 0;
+        for (Column column : columns) {
+            if (column.size() != numberRows) {
+                throw new IllegalArgumentException("The columns must all have the same number of rows.");
+            }
+        }
+        this.columns = columns;
+    }
+
+    /**
+     * Reads the given columns of all the rows of the given tokenizer
+     * into a table.
+     *
+     * @param columns The indices of the fields to read.  They become
+     * columns 0, 1, ... of the table in the given order.
+     * @param numeric Whether each of the given columns is numbers
+     * (rather than dictionary-encoded values)
+     * @throws ArrayIndexOutOfBoundsException if a row does not have
+     * one of the given columns
+     */
+    public static ColumnTable read(CsvTokenizer csv, int[] columns,
+                                   boolean[] numeric)
+        throws IOException {
+
+        if (columns.length != numeric.length) {
+            throw new IllegalArgumentException("There must be one numeric flag per column.");
+        }
+        DoubleArrayList[] doubles = new DoubleArrayList[columns.length];
+        IntArrayList[] codes = new IntArrayList[columns.length];
+        LabelDictionary[] dictionaries = new LabelDictionary[columns.length];
+        IntArrayList[] invalidRows = new IntArrayList[columns.length];
+        List<List<String>> invalidValues = new ArrayList<List<String>>();
+        for (int column = 0; column < columns.length; column++) {
+            if (numeric[column]) {
+                doubles[column] = new DoubleArrayList();
+                invalidRows[column] = new IntArrayList(0);
+                invalidValues.add(new ArrayList<String>(0));
+            } else {
+                codes[column] = new IntArrayList();
+                dictionaries[column] = new LabelDictionary();
+                invalidValues.add(null);
+            }
+        }
+        int row = 0;
+        while (csv.nextRow()) {
+            for (int column = 0; column < columns.length; column++) {
+                if (numeric[column]) {
+                    double value;
+                    try {
+                        value = csv.fieldDouble(columns[column]);
+                    } catch (NumberFormatException e) {
+                        value = Double.NaN;
+                        invalidRows[column].add(row);
+                        invalidValues.get(column).add(csv.field(columns[column]));
+                    }
+                    doubles[column].add(value);
+                } else {
+                    codes[column].add(csv.fieldCode(columns[column], dictionaries[column]));
+                }
+            }
+            row++;
+        }
+        Column[] tableColumns = new Column[columns.length];
+        for (int column = 0; column < columns.length; column++) {
+            if (numeric[column]) {
+                tableColumns[column] = new DoubleColumn(
+                    doubles[column].trimmedArray(),
+                    invalidRows[column].trimmedArray(), invalidValues.get(column));
+            } else {
+                tableColumns[column] = new DictionaryColumn(
+                    codes[column].trimmedArray(), dictionaries[column]);
+            }
+        }
+        return new ColumnTable(tableColumns);
+    }
+
+    /** Returns the number of rows. */
+    public int numberRows() {
+        return numberRows;
+    }
+
+    /** Returns the number of columns. */
+    public int numberColumns() {
+        return columns.length;
+    }
+
+    /** Returns the given column. */
+    public Column column(int column) {
+        return columns[column];
+    }
+
+    /** Returns the given column, which must be a column of numbers. */
+    public DoubleColumn doubleColumn(int column) {
+        return (DoubleColumn) columns[column];
+    }
+
+    /**
+     * Returns the given column, which must be a column of
+     * dictionary-encoded values.
+     */
+    public DictionaryColumn dictionaryColumn(int column) {
+        return (DictionaryColumn) columns[column];
+    }
+
+    /**
+     * Returns a table of the given columns of this table in the given
+     * order.  The columns are shared, not copied.
+     */
+    public ColumnTable project(int... columns) {
+        Column[] projected = new Column[columns.length];
+        for (int index = 0; index < columns.length; index++) {
+            projected[index] = this.columns[columns[index]];
+        }
+        return new ColumnTable(projected);
+    }
+
+    /**
+     * Returns the indices of the rows in the order of the given
+     * (compound) key columns.  The sort is a stable merge sort, so rows
+     * with equal keys keep their original order.
+     */
+    public int[] sortedOrder(int... keyColumns) {
+        Column[] keys = new Column[keyColumns.length];
+        for (int index = 0; index < keyColumns.length; index++) {
+            keys[index] = columns[keyColumns[index]];
+        }
+        return sortedOrder(keys, numberRows);
+    }
+
+    /**
+     * Returns the indices of the given number of rows in the order of
+     * the given key columns (stably).
+     */
+    private static int[] sortedOrder(Column[] keys, int numberRows) {
+        int[] order = new int[numberRows];
+        for (int row = 0; row < numberRows; row++) {
+            order[row] = row;
+        }
+        mergeSort(order, new int[numberRows], 0, numberRows, keys);
+        return order;
+    }
+
+    /** Compares the given rows by the given key columns. */
+    private static int compare(int row1, int row2, Column[] keys) {
+        for (Column key : keys) {
+            int cmp = key.compare(row1, row2);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Sorts {@code order[from, to)} using the given scratch space. */
+    private static void mergeSort(int[] order, int[] scratch, int from,
+                                  int to, Column[] keys) {
+        // Insertion sort short ranges
+        if (to - from <= 16) {
+            for (int index = from + 1; index < to; index++) {
+                int row = order[index];
+                int position = index;
+                while (position > from && compare(order[position - 1], row, keys) > 0) {
+                    order[position] = order[position - 1];
+                    position--;
+                }
+                order[position] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, scratch, from, middle, keys);
+        mergeSort(order, scratch, middle, to, keys);
+        if (compare(order[middle - 1], order[middle], keys) <= 0) {
+            return;
+        }
+        // Merge, taking from the left half on ties for stability
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int index = from; index < to; index++) {
+            if (right >= to ||
+                (left < middle && compare(scratch[left], scratch[right], keys) <= 0)) {
+                order[index] = scratch[left++];
+            } else {
+                order[index] = scratch[right++];
+            }
+        }
+    }
+
+    /**
+     * Performs an inner join of the given tables with the default
+     * maximum number of rows for a hash join.
+     *
+     * @see #join(ColumnTable, int[], ColumnTable, int[], int)
+     */
+    public static int[][] join(ColumnTable table1, int[] keys1,
+                               ColumnTable table2, int[] keys2) {
+        return join(table1, keys1, table2, keys2,
+                    CsvProcessing.DEFAULT_MAX_HASH_ROWS);
+    }
+
+    /**
+     * Performs an inner join of the given tables on the given
+     * (compound) keys, which must be dictionary-encoded columns,
+     * choosing the join algorithm from the sizes of the tables as
+     * {@link CsvProcessing#join} does for rows.  If the smaller table
+     * has at most the given number of rows, does a hash join (see
+     * {@link #hashJoin}).  Otherwise does a merge join (see {@link
+     * #mergeJoin}).  The order of the result depends on the algorithm
+     * but the pairs of rows are the same.  The arguments and the result
+     * are as for {@link #hashJoin}.
+     *
+     * @param maxHashRows The maximum number of rows in the table to
+     * build a hash table on
+     */
+    public static int[][] join(ColumnTable table1, int[] keys1,
+                               ColumnTable table2, int[] keys2,
+                               int maxHashRows) {
+        if (CsvProcessing.isHashJoin(table1.numberRows, table2.numberRows,
+                                     maxHashRows)) {
+            return hashJoin(table1, keys1, table2, keys2);
+        }
+        return mergeJoin(table1, keys1, table2, keys2);
+    }
+
+    /**
+     * Performs an inner join of the given tables on the given
+     * (compound) keys, which must be dictionary-encoded columns, using
+     * the merge join algorithm.  The values of each pair of key columns
+     * are ranked together once per distinct value (see {@link
+     * DictionaryColumn}), both tables are sorted by the ranks of their
+     * keys (stably, see {@link #sortedOrder}), and the sorted orders are
+     * merged.  Thus neither table needs to fit in a hash table and the
+     * join compares only ints.  The arguments are as for {@link
+     * #hashJoin}.
+     *
+     * @return The indices of the joined rows as two arrays of the same
+     * length: the rows of the first table and the rows of the second
+     * table.  The pairs are in the order of the keys and, for each key,
+     * in the order of the rows of the first table and then of the rows
+     * of the second table (as by {@link CsvProcessing#mergeJoin}).
+     */
+    public static int[][] mergeJoin(ColumnTable table1, int[] keys1,
+                                    ColumnTable table2, int[] keys2) {
+        if (keys1.length != keys2.length || keys1.length == 0) {
+            throw new IllegalArgumentException("There must be the same (positive) number of key columns for both tables.");
+        }
+        int numberKeys = keys1.length;
+
+        // Rank the values of each pair of key columns together
+        RankColumn[] ranks1 = new RankColumn[numberKeys];
+        RankColumn[] ranks2 = new RankColumn[numberKeys];
+        for (int keyIndex = 0; keyIndex < numberKeys; keyIndex++) {
+            DictionaryColumn column1 = table1.dictionaryColumn(keys1[keyIndex]);
+            DictionaryColumn column2 = table2.dictionaryColumn(keys2[keyIndex]);
+            int[][] ranks = DictionaryColumn.ranks(column1.dictionary, column2.dictionary);
+            ranks1[keyIndex] = new RankColumn(column1.codes, ranks[0]);
+            ranks2[keyIndex] = new RankColumn(column2.codes, ranks[1]);
+        }
+
+        // Sort and merge
+        int[] order1 = sortedOrder(ranks1, table1.numberRows);
+        int[] order2 = sortedOrder(ranks2, table2.numberRows);
+        IntArrayList rows1 = new IntArrayList();
+        IntArrayList rows2 = new IntArrayList();
+        int index1 = 0;
+        int index2 = 0;
+        while (index1 < order1.length && index2 < order2.length) {
+            int cmp = 0;
+            for (int keyIndex = 0; keyIndex < numberKeys && cmp == 0; keyIndex++) {
+                cmp = ranks1[keyIndex].rank(order1[index1]) -
+                    ranks2[keyIndex].rank(order2[index2]);
+            }
+            if (cmp < 0) {
+                index1++;
+            } else if (cmp > 0) {
+                index2++;
+            } else {
+                // Join the blocks of rows with the current key
+                int end1 = index1 + 1;
+                while (end1 < order1.length &&
+                       compare(order1[index1], order1[end1], ranks1) == 0) {
+                    end1++;
+                }
+                int end2 = index2 + 1;
+                while (end2 < order2.length &&
+                       compare(order2[index2], order2[end2], ranks2) == 0) {
+                    end2++;
+                }
+                for (int block1 = index1; block1 < end1; block1++) {
+                    for (int block2 = index2; block2 < end2; block2++) {
+                        rows1.add(order1[block1]);
+                        rows2.add(order2[block2]);
+                    }
+                }
+                index1 = end1;
+                index2 = end2;
+            }
+        }
+        return new int[][] {rows1.trimmedArray(), rows2.trimmedArray()};
+    }
+
+    /**
+     * A column of the ranks of the values of a dictionary-encoded
+     * column in an order shared with another column.
+     */
+    private static class RankColumn extends Column {
+        private int[] codes;
+        private int[] ranks;
+
+        RankColumn(int[] codes, int[] ranks) {
+            this.codes = codes;
+            this.ranks = ranks;
+        }
+
+        public int size() {
+            return codes.length;
+        }
+
+        int rank(int row) {
+            return ranks[codes[row]];
+        }
+
+        public int compare(int row1, int row2) {
+            return ranks[codes[row1]] - ranks[codes[row2]];
+        }
+    }
+
+    /**
+     * Performs an inner join of the given tables on the given
+     * (compound) keys, which must be dictionary-encoded columns, using
+     * the hash join algorithm.  The smaller table (by number of rows)
+     * is built on and the larger one probes it, so the second table is
+     * built on unless the first table has fewer rows.  The codes of the
+     * keys of the built table are translated into the dictionaries of
+     * the probing table once per distinct value, compound keys are
+     * encoded as single ints, and the rows of the built table are
+     * grouped by key into arrays.  Then the rows of the probing table
+     * are probed in order.  Thus the join compares only ints and
+     * creates no rows.
+     *
+     * @param table1 The first table
+     * @param keys1 The key columns of the first table
+     * @param table2 The second table
+     * @param keys2 The key columns of the second table in the same
+     * order as those of the first table (matching them)
+     * @return The indices of the joined rows as two arrays of the same
+     * length: the rows of the first table and the rows of the second
+     * table.  The pairs are in the order of the rows of the probing
+     * table and, for each of its rows, in the order of the matching
+     * rows of the built table.
+     */
+    public static int[][] hashJoin(ColumnTable table1, int[] keys1,
+                                   ColumnTable table2, int[] keys2) {
+        if (keys1.length != keys2.length || keys1.length == 0) {
+            throw new IllegalArgumentException("There must be the same (positive) number of key columns for both tables.");
+        }
+        if (table1.numberRows < table2.numberRows) {
+            int[][] rows = hashJoinBuildingOn2(table2, keys2, table1, keys1);
+            return new int[][] {rows[1], rows[0]};
+        }
+        return hashJoinBuildingOn2(table1, keys1, table2, keys2);
+    }
+
+    /**
+     * Hash joins the given tables building on the second table and
+     * probing with the first (see {@link #hashJoin}).
+     */
+    private static int[][] hashJoinBuildingOn2(ColumnTable table1, int[] keys1,
+                                               ColumnTable table2, int[] keys2) {
+        int numberKeys = keys1.length;
+
+        // Encode the (compound) keys of both tables as ints in the
+        // same encoding.  The codes of a single key are used as is.
+        // Each further key combines the code so far with its own code.
+        int[] ids1 = new int[table1.numberRows];
+        int[] ids2 = new int[table2.numberRows];
+        int numberIds = 0;
+        for (int keyIndex = 0; keyIndex < numberKeys; keyIndex++) {
+            DictionaryColumn column1 = table1.dictionaryColumn(keys1[keyIndex]);
+            DictionaryColumn column2 = table2.dictionaryColumn(keys2[keyIndex]);
+            // Translate the codes of the second table
+            LabelDictionary dictionary1 = column1.dictionary;
+            LabelDictionary dictionary2 = column2.dictionary;
+            int[] translation = new int[dictionary2.size()];
+            for (int code = 0; code < translation.length; code++) {
+                translation[code] = dictionary1.code(dictionary2.label(code));
+            }
+            if (keyIndex == 0) {
+                System.arraycopy(column1.codes, 0, ids1, 0, ids1.length);
+                for (int row = 0; row < ids2.length; row++) {
+                    ids2[row] = translation[column2.codes[row]];
+                }
+                numberIds = dictionary1.size();
+            } else {
+                // Combine the ids so far with the codes of this key
+                PairDictionary compoundIds = new PairDictionary();
+                for (int row = 0; row < ids1.length; row++) {
+                    ids1[row] = compoundIds.encode(ids1[row], column1.codes[row]);
+                }
+                for (int row = 0; row < ids2.length; row++) {
+                    int code = translation[column2.codes[row]];
+                    if (ids2[row] >= 0 && code >= 0) {
+                        ids2[row] = compoundIds.code(ids2[row], code);
+                    } else {
+                        ids2[row] = -1;
+                    }
+                }
+                numberIds = compoundIds.size();
+            }
+        }
+
+        // Group the rows of the second table by id
+        int[] starts = new int[numberIds + 1];
+        for (int id : ids2) {
+            if (id >= 0) {
+                starts[id + 1]++;
+            }
+        }
+        for (int id = 0; id < numberIds; id++) {
+            starts[id + 1] += starts[id];
+        }
+        int[] groupedRows = new int[starts[numberIds]];
+        int[] positions = Arrays.copyOf(starts, numberIds);
+        for (int row = 0; row < ids2.length; row++) {
+            if (ids2[row] >= 0) {
+                groupedRows[positions[ids2[row]]++] = row;
+            }
+        }
+
+        // Probe with the rows of the first table
+        IntArrayList rows1 = new IntArrayList();
+        IntArrayList rows2 = new IntArrayList();
+        for (int row = 0; row < ids1.length; row++) {
+            int id = ids1[row];
+            for (int index = starts[id]; index < starts[id + 1]; index++) {
+                rows1.add(row);
+                rows2.add(groupedRows[index]);
+            }
+        }
+        return new int[][] {rows1.trimmedArray(), rows2.trimmedArray()};
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * <p>Decompresses gzip data (RFC 1952) that may consist of multiple
+ * members, as produced by concatenating gzip files or by parallel
+ * compressors like pigz and bgzip.  The members are decompressed one
+ * after another into a single stream.</p>
+ *
+ * <p>Unlike {@link java.util.zip.GZIPInputStream}, the end of a member
+ * is not detected with {@link InputStream#available()}, so all the
+ * members are read even from pipes and standard input.  The CRC and
+ * the size in the trailer of each member are checked.</p>
+ */
+public class ConcatenatedGzipInputStream extends InputStream {
+
+    /** The first two bytes of every gzip member. */
+    public static final byte[] MAGIC = {(byte) 0x1f, (byte) 0x8b};
+
+    // Header flags
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private InputStream input;
+    private Inflater inflater = new Inflater(true);
+    private CRC32 crc = new CRC32();
+
+    // The bytes in buffer[position, limit) have been read from the
+    // input but not yet given to the inflater or parsed
+    private byte[] buffer = new byte[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+    private boolean inMember = false;
+    private boolean endOfInput = false;
+
+    /** Creates a stream that decompresses the given gzip input. */
+    public ConcatenatedGzipInputStream(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Returns whether the given bytes (the start of a file) begin with
+     * the gzip magic bytes.
+     */
+    public static boolean hasMagic(byte[] bytes, int length) {
+        return length >= MAGIC.length &&
+            bytes[0] == MAGIC[0] && bytes[1] == MAGIC[1];
+    }
+
+    /** Returns whether the given file starts like a gzip file. */
+    public static boolean isGzipFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        FileInputStream input = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[MAGIC.length];
+            int length = 0;
+            int numberRead;
+            while (length < bytes.length &&
+                   (numberRead = input.read(bytes, length, bytes.length - length)) >= 0) {
+                length += numberRead;
+            }
+            return hasMagic(bytes, length);
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (true) {
+            if (!inMember) {
+                if (!readHeader()) {
+                    return -1;
+                }
+                inMember = true;
+                inflater.reset();
+                crc.reset();
+            }
+            int numberInflated;
+            try {
+                numberInflated = inflater.inflate(bytes, offset, length);
+            } catch (DataFormatException e) {
+                throw new IOException(String.format("Corrupt gzip data: %s", e.getMessage()), e);
+            }
+            if (numberInflated > 0) {
+                crc.update(bytes, offset, numberInflated);
+                return numberInflated;
+            }
+            if (inflater.finished()) {
+                // The unused input starts the trailer
+                position = limit - inflater.getRemaining();
+                readTrailer();
+                inMember = false;
+            } else if (inflater.needsDictionary()) {
+                throw new IOException("Corrupt gzip data: a preset dictionary is required.");
+            } else if (inflater.needsInput()) {
+                if (position == limit) {
+                    fill();
+                    if (endOfInput) {
+                        throw new EOFException("Unexpected end of gzip input.");
+                    }
+                }
+                inflater.setInput(buffer, position, limit - position);
+                position = limit;
+            }
+        }
+    }
+
+    /**
+     * Reads the header of the next member.
+     *
+     * @return Whether there is a next member (false at the end of the
+     * input)
+     */
+    private boolean readHeader() throws IOException {
+        int id1 = readByte();
+        if (id1 < 0) {
+            return false;
+        }
+        if (id1 != (MAGIC[0] & 0xff) || readRequiredByte() != (MAGIC[1] & 0xff)) {
+            throw new IOException("Not in gzip format.");
+        }
+        if (readRequiredByte() != 8) {
+            throw new IOException("Unsupported gzip compression method.");
+        }
+        int flags = readRequiredByte();
+        // Modification time, extra flags, and operating system
+        skip(6);
+        if ((flags & FEXTRA) != 0) {
+            skip(readRequiredByte() | (readRequiredByte() << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            while (readRequiredByte() != 0) {}
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readRequiredByte() != 0) {}
+        }
+        if ((flags & FHCRC) != 0) {
+            skip(2);
+        }
+        return true;
+    }
+
+    /** Reads and checks the trailer of the current member. */
+    private void readTrailer() throws IOException {
+        long expectedCrc = readInt() & 0xffffffffL;
+        long expectedSize = readInt() & 0xffffffffL;
+        if (expectedCrc != crc.getValue()) {
+            throw new IOException("Corrupt gzip data: CRC mismatch.");
+        }
+        if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new IOException("Corrupt gzip data: size mismatch.");
+        }
+    }
+
+    private int readInt() throws IOException {
+        return readRequiredByte() | (readRequiredByte() << 8) |
+            (readRequiredByte() << 16) | (readRequiredByte() << 24);
+    }
+
+    private void skip(int numberBytes) throws IOException {
+        for (int index = 0; index < numberBytes; index++) {
+            readRequiredByte();
+        }
+    }
+
+    private int readRequiredByte() throws IOException {
+        int b = readByte();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of gzip input.");
+        }
+        return b;
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit) {
+            fill();
+            if (endOfInput) {
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /** Refills the (empty) buffer from the input. */
+    private void fill() throws IOException {
+        position = 0;
+        limit = 0;
+        int numberRead;
+        do {
+            numberRead = input.read(buffer, 0, buffer.length);
+        } while (numberRead == 0);
+        if (numberRead < 0) {
+            endOfInput = true;
+        } else {
+            limit = numberRead;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        input.close();
+    }
+}
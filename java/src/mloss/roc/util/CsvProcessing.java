@@ -5,12 +5,27 @@
 
 package mloss.roc.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
 
 
 /**
@@ -19,11 +34,18 @@ import java.util.List;
  */
 public class CsvProcessing {
 
+    /**
+     * The default maximum number of rows in the input that {@link
+     * #join} builds a hash table on.
+     */
+    public static final int DEFAULT_MAX_HASH_ROWS = 1 << 22;
+
     /**
      * Comparator for CSV rows (and similar) that uses certain fields as
      * (compound) keys for comparison.  Can be used to sort a single set
      * of rows like in sorting or compare two sets of rows like in
-     * joining.
+     * joining.  Fields are compared as their UTF-8 bytes (see {@link
+     * #compareFields}).
      */
     public static class StringArrayComparator implements Comparator<String[]> {
         int[] keyFields1;
@@ -61,13 +83,78 @@ public class CsvProcessing {
             for (int index = 0; index < keyFields1.length; index++) {
                 field1 = row1[keyFields1[index]];
                 field2 = row2[keyFields2[index]];
-                cmp = field1.compareTo(field2);
+                cmp = compareFields(field1, field2);
                 if (cmp != 0) {
                     return cmp;
                 }
             }
             return 0;
         }
+
+        /**
+         * Compares the given strings as their UTF-8 bytes, that is, by
+         * code point, which is the order of {@code LC_ALL=C sort}.  This
+         * differs from {@link String#compareTo} only for supplementary
+         * characters, which UTF-16 puts before U+E000 to U+FFFF.
+         */
+        public static int compareFields(String field1, String field2) {
+            int length = Math.min(field1.length(), field2.length());
+            for (int index = 0; index < length; index++) {
+                char c1 = field1.charAt(index);
+                char c2 = field2.charAt(index);
+                if (c1 != c2) {
+                    return NormalizedKeys.codePointOrder(c1) -
+                        NormalizedKeys.codePointOrder(c2);
+                }
+            }
+            return field1.length() - field2.length();
+        }
+    }
+
+    /**
+     * Thrown when an input that should be sorted by its keys is not.
+     * Says which input and which of its rows is out of order.
+     */
+    public static class UnsortedInputException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        /** The number of the input (1 or 2). */
+        public final int inputNumber;
+        /** The number of the row (starting at 1) that is out of order. */
+        public final long rowNumber;
+
+        public UnsortedInputException(int inputNumber, long rowNumber) {
+            super(String.format("Input %s is not sorted by its keys at row %s.", inputNumber, rowNumber));
+            this.inputNumber = inputNumber;
+            this.rowNumber = rowNumber;
+        }
+    }
+
+    /**
+     * A source of rows that are read one at a time, such as a file
+     * being parsed.
+     */
+    public interface RowCursor {
+        /**
+         * Returns the next row or null if there are no more rows.
+         */
+        String[] nextRow() throws IOException;
+    }
+
+    /** A destination of rows that are produced one at a time. */
+    public interface RowConsumer {
+        /** Receives the next row. */
+        void accept(String[] row) throws IOException;
+    }
+
+    /** Returns a cursor over the rows of the given input. */
+    public static RowCursor cursor(Iterable<String[]> csv) {
+        final Iterator<String[]> rows = csv.iterator();
+        return new RowCursor() {
+            public String[] nextRow() {
+                return rows.hasNext() ? rows.next() : null;
+            }
+        };
     }
 
     /**
@@ -96,7 +183,10 @@ public class CsvProcessing {
      * Performs an inner join of the given CSV inputs using the merge
      * join algorithm.  Sorts the given inputs by their (compound) keys
      * and then merge joins them, yielding the desired projection of
-     * fields.
+     * fields.  The keys are encoded once (see {@link NormalizedKeys})
+     * so that sorting and merging compare primitives, and the inputs
+     * are sorted as permutations of indices rather than by moving
+     * rows.  The sort is stable.
      *
      * @param keys The keys (and, hence, equality constraints) for the
      * join.  The outer array is a list of equality constraints.  Each
@@ -123,24 +213,8 @@ public class CsvProcessing {
             Iterable<String[]> csv2) {
 
         // Instantiate each input as necessary to enable sorting
-        List<String[]> sorted1;
-        if (csv1 instanceof Collection) {
-            sorted1 = new ArrayList<String[]>((Collection<String[]>) csv1);
-        } else {
-            sorted1 = new ArrayList<String[]>(100);
-            for (String[] row : csv1) {
-                sorted1.add(row);
-            }
-        }
-        List<String[]> sorted2;
-        if (csv2 instanceof Collection) {
-            sorted2 = new ArrayList<String[]>((Collection<String[]>) csv2);
-        } else {
-            sorted2 = new ArrayList<String[]>(100);
-            for (String[] row : csv2) {
-                sorted2.add(row);
-            }
-        }
+        List<String[]> rows1 = randomAccessRows(csv1);
+        List<String[]> rows2 = randomAccessRows(csv2);
 
         // Unzip the keys from equality pairs into keys for each CSV
         // individually (transpose the matrix)
@@ -153,30 +227,31 @@ public class CsvProcessing {
             keys2[index] = keys[index][1];
         }
 
-        // Create comparators for sorting and merging
-        StringArrayComparator cmp1 = new StringArrayComparator(keys1, keys1);
-        StringArrayComparator cmp2 = new StringArrayComparator(keys2, keys2);
-        StringArrayComparator mergeCmp = new StringArrayComparator(keys1, keys2);
+        // Encode the keys once so that sorting and merging compare
+        // primitives rather than strings
+        List<List<String[]>> inputs = new ArrayList<List<String[]>>(2);
+        inputs.add(rows1);
+        inputs.add(rows2);
+        NormalizedKeys[] normalized =
+            NormalizedKeys.normalize(inputs, new int[][] {keys1, keys2});
+        NormalizedKeys normalized1 = normalized[0];
+        NormalizedKeys normalized2 = normalized[1];
 
-        // Sort each input
-        Collections.sort(sorted1, cmp1);
-        Collections.sort(sorted2, cmp2);
+        // Sort each input (stably, by index)
+        int[] order1 = normalized1.sortedIndices();
+        int[] order2 = normalized2.sortedIndices();
 
         // Merge the two CSVs together
-        List<String[]> merged = new LinkedList<String[]>();
-        int size1 = sorted1.size();
-        int size2 = sorted2.size();
+        List<String[]> merged = new ArrayList<String[]>();
+        int size1 = order1.length;
+        int size2 = order2.length;
         int index1 = 0;
         int range2Lo = 0;
         int range2Hi = 0;
-        String[] row1;
-        String[] row2;
         String[] projected;
         int cmp;
         while (index1 < size1 && range2Lo < size2) {
-            row1 = sorted1.get(index1);
-            row2 = sorted2.get(range2Lo);
-            cmp = mergeCmp.compare(row1, row2);
+            cmp = normalized1.compare(order1[index1], normalized2, order2[range2Lo]);
             if (cmp < 0) {
                 // No match, advance 1
                 index1++;
@@ -191,17 +266,17 @@ public class CsvProcessing {
                 }
             } else {
                 // Join all equal rows of 2 with current element of 1
+                String[] row1 = rows1.get(order1[index1]);
                 range2Hi = range2Lo;
                 do {
                     // Combine the rows from the two inputs
-                    projected = project(fields, row1, row2);
+                    projected = project(fields, row1, rows2.get(order2[range2Hi]));
                     merged.add(projected);
                     // Advance 2
                     range2Hi++;
-                    // Get and compare the next row, if any
+                    // Compare the next row, if any
                     if (range2Hi < size2) {
-                        row2 = sorted2.get(range2Hi);
-                        cmp = mergeCmp.compare(row1, row2);
+                        cmp = normalized1.compare(order1[index1], normalized2, order2[range2Hi]);
                     } else {
                         cmp = -1;  // Input 1 is "before" end
                     }
@@ -212,4 +287,865 @@ public class CsvProcessing {
         }
         return merged;
     }
+
+    /**
+     * Returns the given rows as a list with fast random access, copying
+     * them only if necessary.
+     */
+    static List<String[]> randomAccessRows(Iterable<String[]> csv) {
+        if (csv instanceof List && csv instanceof RandomAccess) {
+            return (List<String[]>) csv;
+        } else if (csv instanceof Collection) {
+            return new ArrayList<String[]>((Collection<String[]>) csv);
+        }
+        List<String[]> rows = new ArrayList<String[]>(100);
+        for (String[] row : csv) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Performs an inner join of the given CSV inputs using the hash
+     * join algorithm.  Builds a hash table on the (compound) keys of
+     * the second input and then streams the first input through it,
+     * yielding the desired projection of fields.  Only the second input
+     * is held in memory and neither input is sorted, so this is best
+     * when the second input is the smaller.  The result is in the order
+     * of the first input and, for each of its rows, in the order of the
+     * matching rows of the second input.  The arguments are as for
+     * {@link #mergeJoin}.
+     */
+    public static List<String[]> hashJoin(
+            int[][] keys,
+            int[][] fields,
+            Iterable<String[]> csv1,
+            Iterable<String[]> csv2) {
+
+        List<Iterable<String[]>> csvs1 = new ArrayList<Iterable<String[]>>(1);
+        csvs1.add(csv1);
+        return hashJoinAll(keys, fields, csvs1, csv2).get(0);
+    }
+
+    /**
+     * Performs an inner join of each of the given first CSV inputs with
+     * the same second CSV input using the hash join algorithm (see
+     * {@link #hashJoin}).  The hash table is built on the second input
+     * once and then each first input is streamed through it in turn,
+     * so the second input is read and hashed only once however many
+     * first inputs there are.  The keys and fields are as for {@link
+     * #mergeJoin}, with the first inputs all having the same layout:
+     * input index 0 refers to whichever first input is being joined
+     * and input index 1 to the second input.
+     *
+     * @return The results of the joins in the order of the first inputs
+     */
+    public static List<List<String[]>> hashJoinAll(
+            int[][] keys,
+            int[][] fields,
+            List<? extends Iterable<String[]>> csvs1,
+            Iterable<String[]> csv2) {
+
+        // Unzip the keys from equality pairs into keys for each CSV
+        int[] keys1 = new int[keys.length];
+        int[] keys2 = new int[keys.length];
+        for (int index = 0; index < keys.length; index++) {
+            keys1[index] = keys[index][0];
+            keys2[index] = keys[index][1];
+        }
+
+        // Build a table of the rows of input 2 by the id of their key
+        KeyEncoder encoder = new KeyEncoder(keys2.length);
+        List<List<String[]>> table = new ArrayList<List<String[]>>();
+        for (String[] row2 : csv2) {
+            int id = encoder.encode(row2, keys2);
+            if (id == table.size()) {
+                table.add(new ArrayList<String[]>(1));
+            }
+            table.get(id).add(row2);
+        }
+
+        // Probe the table with each row of each input 1
+        List<List<String[]>> results = new ArrayList<List<String[]>>(csvs1.size());
+        for (Iterable<String[]> csv1 : csvs1) {
+            List<String[]> joined = new ArrayList<String[]>();
+            for (String[] row1 : csv1) {
+                int id = encoder.code(row1, keys1);
+                if (id >= 0) {
+                    for (String[] row2 : table.get(id)) {
+                        joined.add(project(fields, row1, row2));
+                    }
+                }
+            }
+            results.add(joined);
+        }
+        return results;
+    }
+
+    /**
+     * Dictionary encoding of (compound) keys of rows: maps each
+     * distinct key to a small int id in order of first appearance
+     * starting from 0.  Each field of the key has its own dictionary of
+     * codes and the codes of the fields are combined one at a time by a
+     * {@link PairDictionary}, so a compound key is never copied into an
+     * array or list of its fields.
+     */
+    static class KeyEncoder {
+        private final List<Map<String, Integer>> fieldCodes;
+        private final PairDictionary[] compoundIds;
+
+        KeyEncoder(int numberKeys) {
+            fieldCodes = new ArrayList<Map<String, Integer>>(numberKeys);
+            for (int key = 0; key < numberKeys; key++) {
+                fieldCodes.add(new HashMap<String, Integer>());
+            }
+            compoundIds = new PairDictionary[numberKeys];
+            for (int key = 1; key < numberKeys; key++) {
+                compoundIds[key] = new PairDictionary();
+            }
+        }
+
+        /**
+         * Returns the id of the key of the given row, adding the key if
+         * it is not already in the dictionary.
+         */
+        int encode(String[] row, int[] keyFields) {
+            int id = 0;
+            for (int key = 0; key < keyFields.length; key++) {
+                Map<String, Integer> codes = fieldCodes.get(key);
+                String field = row[keyFields[key]];
+                Integer code = codes.get(field);
+                if (code == null) {
+                    code = codes.size();
+                    codes.put(field, code);
+                }
+                id = (key == 0) ? code : compoundIds[key].encode(id, code);
+            }
+            return id;
+        }
+
+        /**
+         * Returns the id of the key of the given row or -1 if it is not
+         * in the dictionary.
+         */
+        int code(String[] row, int[] keyFields) {
+            int id = 0;
+            for (int key = 0; key < keyFields.length; key++) {
+                Integer code = fieldCodes.get(key).get(row[keyFields[key]]);
+                if (code == null) {
+                    return -1;
+                }
+                id = (key == 0) ? code : compoundIds[key].code(id, code);
+                if (id < 0) {
+                    return -1;
+                }
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Performs an inner join of the given CSV inputs with the default
+     * maximum number of rows for a hash join.
+     *
+     * @see #join(int[][], int[][], Iterable, Iterable, int)
+     */
+    public static List<String[]> join(
+            int[][] keys,
+            int[][] fields,
+            Iterable<String[]> csv1,
+            Iterable<String[]> csv2) {
+        return join(keys, fields, csv1, csv2, DEFAULT_MAX_HASH_ROWS);
+    }
+
+    /**
+     * Performs an inner join of the given CSV inputs choosing the join
+     * algorithm from the sizes of the inputs.  If the smaller input is
+     * a collection of at most the given number of rows, does a hash
+     * join (see {@link #hashJoin}) that builds on the smaller input and
+     * streams the other one.  Otherwise does a merge join (see {@link
+     * #mergeJoin}).  An input that is not a collection has an unknown
+     * size and is never built on.  The order of the result depends on
+     * the algorithm but the rows are the same.  The arguments are as
+     * for {@link #mergeJoin}.
+     *
+     * @param maxHashRows The maximum number of rows in the input to
+     * build a hash table on
+     */
+    public static List<String[]> join(
+            int[][] keys,
+            int[][] fields,
+            Iterable<String[]> csv1,
+            Iterable<String[]> csv2,
+            int maxHashRows) {
+
+        int size1 = (csv1 instanceof Collection) ?
+            ((Collection<String[]>) csv1).size() : Integer.MAX_VALUE;
+        int size2 = (csv2 instanceof Collection) ?
+            ((Collection<String[]>) csv2).size() : Integer.MAX_VALUE;
+        if (!isHashJoin(size1, size2, maxHashRows)) {
+            return mergeJoin(keys, fields, csv1, csv2);
+        } else if (size2 <= size1) {
+            return hashJoin(keys, fields, csv1, csv2);
+        }
+
+        // Build on input 1 by swapping the roles of the inputs in the
+        // keys and the fields
+        int[][] swappedKeys = new int[keys.length][];
+        for (int index = 0; index < keys.length; index++) {
+            swappedKeys[index] = new int[] {keys[index][1], keys[index][0]};
+        }
+        int[][] swappedFields = new int[fields.length][];
+        for (int index = 0; index < fields.length; index++) {
+            swappedFields[index] = new int[] {1 - fields[index][0], fields[index][1]};
+        }
+        return hashJoin(swappedKeys, swappedFields, csv2, csv1);
+    }
+
+    /**
+     * Returns whether {@link #join} does a hash join of inputs of the
+     * given sizes (in rows): whether the smaller input has at most the
+     * given number of rows.
+     */
+    public static boolean isHashJoin(long size1, long size2, int maxHashRows) {
+        return Math.min(size1, size2) <= maxHashRows;
+    }
+
+    /**
+     * Performs an inner join of the given CSV inputs, which must already
+     * be sorted by their (compound) keys, using the merge join
+     * algorithm without sorting or storing them.  The cursors are
+     * walked in lockstep and each joined row (the desired projection of
+     * fields) is given to the consumer as soon as it is found.  Only
+     * the rows of the second input that have the current key are held
+     * in memory.  The keys are ordered as by {@link
+     * StringArrayComparator} (field by field as UTF-8 bytes, as by
+     * {@code LC_ALL=C sort}) and the order of each input is checked as
+     * it is read.  Both inputs are read to their ends so that all of
+     * each is checked.  The keys and fields are as for {@link
+     * #mergeJoin}.
+     *
+     * @return The number of joined rows
+     * @throws UnsortedInputException if an input is not sorted
+     */
+    public static long sortedMergeJoin(
+            int[][] keys,
+            int[][] fields,
+            RowCursor csv1,
+            RowCursor csv2,
+            RowConsumer consumer)
+        throws IOException {
+
+        // Unzip the keys from equality pairs into keys for each CSV
+        int[] keys1 = new int[keys.length];
+        int[] keys2 = new int[keys.length];
+        for (int index = 0; index < keys.length; index++) {
+            keys1[index] = keys[index][0];
+            keys2[index] = keys[index][1];
+        }
+        SortedCursor sorted1 = new SortedCursor(csv1, keys1, 1);
+        SortedCursor sorted2 = new SortedCursor(csv2, keys2, 2);
+        StringArrayComparator mergeCmp = new StringArrayComparator(keys1, keys2);
+
+        // Merge the two CSVs together
+        long numberJoined = 0;
+        List<String[]> block2 = new ArrayList<String[]>();
+        String[] row1 = sorted1.nextRow();
+        String[] row2 = sorted2.nextRow();
+        while (row1 != null && row2 != null) {
+            int cmp = mergeCmp.compare(row1, row2);
+            if (cmp < 0) {
+                row1 = sorted1.nextRow();
+            } else if (cmp > 0) {
+                row2 = sorted2.nextRow();
+            } else {
+                // Collect the block of rows of 2 with the current key
+                block2.clear();
+                do {
+                    block2.add(row2);
+                    row2 = sorted2.nextRow();
+                } while (row2 != null && sorted2.sameKey(block2.get(0), row2));
+                // Join each row of 1 with the current key to the block
+                String[] first1 = row1;
+                do {
+                    for (String[] blockRow2 : block2) {
+                        consumer.accept(project(fields, row1, blockRow2));
+                        numberJoined++;
+                    }
+                    row1 = sorted1.nextRow();
+                } while (row1 != null && sorted1.sameKey(first1, row1));
+            }
+        }
+
+        // Check the order of the rest of the inputs
+        while (row1 != null) {
+            row1 = sorted1.nextRow();
+        }
+        while (row2 != null) {
+            row2 = sorted2.nextRow();
+        }
+        return numberJoined;
+    }
+
+    /**
+     * Performs an inner join of the given CSV inputs, which may be
+     * larger than memory, using an external sort-merge join.  Each
+     * input is reduced to its key fields and the fields it contributes
+     * to the projection, and then sorted by its keys into runs on disk
+     * within half the given memory budget (see {@link
+     * #externalSort}).  The merged runs of the two inputs are then
+     * streamed through {@link #sortedMergeJoin}, which gives each
+     * joined row (the desired projection of fields) to the consumer.
+     * The result is in the same order as that of {@link #mergeJoin}.
+     * The keys and fields are as for {@link #mergeJoin}.
+     *
+     * @param memoryBytes The approximate number of bytes of rows to
+     * hold in memory
+     * @param tempDirectory The directory for temporary files, or null
+     * for the default temporary directory
+     * @return The number of joined rows
+     */
+    public static long externalMergeJoin(
+            int[][] keys,
+            int[][] fields,
+            RowCursor csv1,
+            RowCursor csv2,
+            RowConsumer consumer,
+            long memoryBytes,
+            File tempDirectory)
+        throws IOException {
+
+        // Sort each input into runs and merge join the sorted inputs
+        long sorterBytes = Math.max(1, memoryBytes / 2);
+        ExternalRowSorter sorter1 = null;
+        ExternalRowSorter sorter2 = null;
+        try {
+            sorter1 = externalSort(keys, fields, 0, csv1, sorterBytes, tempDirectory);
+            sorter2 = externalSort(keys, fields, 1, csv2, sorterBytes, tempDirectory);
+            return joinSorted(keys, fields, sorter1, sorter2, consumer);
+        } finally {
+            try {
+                if (sorter1 != null) {
+                    sorter1.close();
+                }
+            } finally {
+                if (sorter2 != null) {
+                    sorter2.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs an inner join of the given first CSV input with a second
+     * input that has already been sorted by {@link #externalSort} (as
+     * input 1, with the same keys and fields).  Only the first input is
+     * read and sorted, within the given memory budget, so a second input
+     * can be sorted once and joined to any number of first inputs.  The
+     * result is as for {@link
+     * #externalMergeJoin(int[][], int[][], RowCursor, RowCursor,
+     * RowConsumer, long, File)}.
+     *
+     * @return The number of joined rows
+     */
+    public static long externalMergeJoin(
+            int[][] keys,
+            int[][] fields,
+            RowCursor csv1,
+            ExternalRowSorter sorted2,
+            RowConsumer consumer,
+            long memoryBytes,
+            File tempDirectory)
+        throws IOException {
+
+        ExternalRowSorter sorter1 = externalSort(
+            keys, fields, 0, csv1, memoryBytes, tempDirectory);
+        try {
+            return joinSorted(keys, fields, sorter1, sorted2, consumer);
+        } finally {
+            sorter1.close();
+        }
+    }
+
+    /**
+     * Reduces the given input of an external sort-merge join to its key
+     * fields followed by the fields it contributes to the projection
+     * (in order) and sorts the reduced rows by their keys into runs on
+     * disk (see {@link ExternalRowSorter}).  The keys and fields are as
+     * for {@link #mergeJoin}.  The caller must close the returned
+     * sorter.
+     *
+     * @param input The index of the input (0 or 1) in the keys and
+     * fields
+     * @param memoryBytes The approximate number of bytes of rows to
+     * hold in memory
+     * @param tempDirectory The directory for temporary files, or null
+     * for the default temporary directory
+     * @return The sorter holding the sorted rows
+     */
+    public static ExternalRowSorter externalSort(
+            int[][] keys,
+            int[][] fields,
+            int input,
+            RowCursor csv,
+            long memoryBytes,
+            File tempDirectory)
+        throws IOException {
+
+        // Each reduced row is the key fields followed by the projected
+        // fields of its input in order
+        List<Integer> columnList = new ArrayList<Integer>();
+        for (int[] key : keys) {
+            columnList.add(key[input]);
+        }
+        for (int[] field : fields) {
+            if (field[0] == input) {
+                columnList.add(field[1]);
+            }
+        }
+        int[] columns = new int[columnList.size()];
+        for (int column = 0; column < columns.length; column++) {
+            columns[column] = columnList.get(column);
+        }
+        int[] reducedKeyFields = new int[keys.length];
+        for (int keyIndex = 0; keyIndex < keys.length; keyIndex++) {
+            reducedKeyFields[keyIndex] = keyIndex;
+        }
+
+        // Close the sorter (deleting its runs) unless it is returned
+        ExternalRowSorter sorter = new ExternalRowSorter(
+            reducedKeyFields, memoryBytes, tempDirectory);
+        boolean isAdded = false;
+        try {
+            String[] row;
+            while ((row = csv.nextRow()) != null) {
+                sorter.add(project(columns, row));
+            }
+            isAdded = true;
+        } finally {
+            if (!isAdded) {
+                sorter.close();
+            }
+        }
+        return sorter;
+    }
+
+    /**
+     * Merge joins the given sorters of the reduced inputs (see {@link
+     * #externalSort}).
+     */
+    private static long joinSorted(
+            int[][] keys,
+            int[][] fields,
+            ExternalRowSorter sorter1,
+            ExternalRowSorter sorter2,
+            RowConsumer consumer)
+        throws IOException {
+
+        int numberKeys = keys.length;
+        if (sorter1.keyFields.length != numberKeys ||
+            sorter2.keyFields.length != numberKeys) {
+            throw new IllegalArgumentException("The sorted inputs must have the same number of keys as the join.");
+        }
+        int[][] reducedKeys = new int[numberKeys][];
+        for (int keyIndex = 0; keyIndex < numberKeys; keyIndex++) {
+            reducedKeys[keyIndex] = new int[] {keyIndex, keyIndex};
+        }
+        // The projected fields of each input follow its keys in order
+        int[][] reducedFields = new int[fields.length][];
+        int[] nextColumns = {numberKeys, numberKeys};
+        for (int fieldIndex = 0; fieldIndex < fields.length; fieldIndex++) {
+            int input = fields[fieldIndex][0];
+            reducedFields[fieldIndex] = new int[] {input, nextColumns[input]++};
+        }
+        return sortedMergeJoin(reducedKeys, reducedFields,
+                               sorter1.sorted(), sorter2.sorted(), consumer);
+    }
+
+    /** Projects the given columns of the given row. */
+    private static String[] project(int[] columns, String[] row) {
+        String[] result = new String[columns.length];
+        for (int index = 0; index < columns.length; index++) {
+            result[index] = row[columns[index]];
+        }
+        return result;
+    }
+
+    /**
+     * <p>Sorts more rows than fit in memory by their (compound) keys.  Rows
+     * are added one at a time and are collected in a buffer until the
+     * buffer reaches the memory budget.  Then the buffer is sorted and
+     * written to a temporary file as a sorted run.  Afterwards the rows
+     * are read back in order through a cursor that merges the runs.  (If
+     * there are too many runs to merge at once, groups of runs are first
+     * merged into longer runs.)  If all the rows fit in the buffer,
+     * nothing is written to disk.</p>
+     *
+     * <p>The keys are ordered as by {@link
+     * StringArrayComparator} and the sort is stable: rows
+     * with equal keys come out in the order they were added.  The key of
+     * each row is encoded once, when it is added, as an order-preserving
+     * byte string (see {@link NormalizedKeys}), and both sorting the
+     * buffer and merging the runs compare the encoded keys rather than
+     * the fields.  The encoded key is stored in the runs ahead of the
+     * fields, which are stored as UTF-8.</p>
+     *
+     * <p>A sorter sorts only once, after all the rows are added, but its
+     * sorted rows can be read any number of times, so an input can be
+     * sorted once and then merged with several others.  Temporary files
+     * are deleted when the sorter is closed.</p>
+     */
+    public static class ExternalRowSorter implements Closeable {
+
+        /** The smallest buffer (in rows) regardless of the memory budget. */
+        static final int MINIMUM_ROWS = 1 << 10;
+
+        /** The maximum number of runs to merge at once (open files). */
+        static final int MERGE_WIDTH = 64;
+
+        /** The size of the I/O buffer of each run. */
+        static final int IO_BUFFER_SIZE = 1 << 16;
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        private int[] keyFields;
+        private long memoryBytes;
+        private File tempDirectory;
+        private List<String[]> buffer = new ArrayList<String[]>();
+        private List<byte[]> bufferKeys = new ArrayList<byte[]>();
+        private long bufferBytes = 0;
+        private List<File> runs = new ArrayList<File>();
+        private boolean sorted = false;
+        private boolean closed = false;
+        // The sorted rows if they all fit in memory
+        private List<String[]> sortedRows = null;
+        private List<DataInputStream> openInputs = new ArrayList<DataInputStream>();
+
+        /**
+         * Creates a sorter that sorts by the given key fields within the
+         * given memory budget and puts its temporary files in the given
+         * directory.
+         *
+         * @param keyFields The indices of the fields to use as keys
+         * @param memoryBytes The approximate number of bytes of rows to
+         * hold in memory
+         * @param tempDirectory The directory for temporary files, or null
+         * for the default temporary directory
+         */
+        public ExternalRowSorter(int[] keyFields, long memoryBytes,
+                                 File tempDirectory) {
+            if (memoryBytes <= 0) {
+                throw new IllegalArgumentException("The memory budget must be positive.");
+            }
+            this.keyFields = keyFields;
+            this.memoryBytes = memoryBytes;
+            this.tempDirectory = tempDirectory;
+        }
+
+        /**
+         * Adds a row.
+         *
+         * @throws IOException if writing a run fails
+         */
+        public void add(String[] row) throws IOException {
+            if (sorted) {
+                throw new IllegalStateException("The rows have already been sorted.");
+            }
+            byte[] key = NormalizedKeys.encodeBytes(row, keyFields);
+            buffer.add(row);
+            bufferKeys.add(key);
+            bufferBytes += estimateBytes(row) + 16 + key.length;
+            if (bufferBytes >= memoryBytes && buffer.size() >= MINIMUM_ROWS) {
+                spill();
+            }
+        }
+
+        /** Estimates the bytes of memory used by the given row. */
+        static long estimateBytes(String[] row) {
+            // Array header and references, and string headers and chars
+            long bytes = 16 + 8 * row.length;
+            for (String field : row) {
+                bytes += 48 + 2 * field.length();
+            }
+            return bytes;
+        }
+
+        /**
+         * Sorts the rows added so far (on the first call) and returns a
+         * cursor over them in order.  No more rows can be added
+         * afterwards.  Each call returns a new cursor from the first row
+         * and closes the runs read by the cursor of the previous call.
+         * The cursor reads the runs as it goes, so the sorter must stay
+         * open until the cursor is finished.
+         *
+         * @throws IOException if reading or writing a run fails
+         */
+        public RowCursor sorted() throws IOException {
+            if (closed) {
+                throw new IllegalStateException("The sorter is closed.");
+            }
+            if (sorted) {
+                if (sortedRows != null) {
+                    return cursor(sortedRows);
+                }
+                closeInputs();
+                return merge(runs);
+            }
+            sorted = true;
+            // Everything fits in memory
+            if (runs.isEmpty()) {
+                sortedRows = new ArrayList<String[]>(buffer.size());
+                for (int index : sortedBufferIndices()) {
+                    sortedRows.add(buffer.get(index));
+                }
+                buffer = null;
+                bufferKeys = null;
+                return cursor(sortedRows);
+            }
+            if (!buffer.isEmpty()) {
+                spill();
+            }
+            buffer = null;
+            bufferKeys = null;
+            // Merge groups of runs in order (for stability) until they can
+            // be merged at once
+            while (runs.size() > MERGE_WIDTH) {
+                List<File> merged = new ArrayList<File>();
+                for (int from = 0; from < runs.size(); from += MERGE_WIDTH) {
+                    List<File> group = runs.subList(from, Math.min(runs.size(), from + MERGE_WIDTH));
+                    File file = newRunFile();
+                    merged.add(file);
+                    DataOutputStream output = openOutput(file);
+                    try {
+                        PriorityQueue<RunReader> queue = openRuns(group);
+                        RunReader reader;
+                        while ((reader = queue.poll()) != null) {
+                            writeRow(output, reader.key, reader.row);
+                            if (reader.advance()) {
+                                queue.add(reader);
+                            }
+                        }
+                    } finally {
+                        output.close();
+                        closeInputs();
+                    }
+                    for (File run : group) {
+                        run.delete();
+                    }
+                }
+                runs = merged;
+            }
+            return merge(runs);
+        }
+
+        /** Deletes any temporary files and releases the buffer. */
+        public void close() throws IOException {
+            sorted = true;
+            closed = true;
+            buffer = null;
+            bufferKeys = null;
+            sortedRows = null;
+            try {
+                closeInputs();
+            } finally {
+                for (File run : runs) {
+                    run.delete();
+                }
+                runs.clear();
+            }
+        }
+
+        /**
+         * Returns the indices of the rows in the buffer in order of
+         * their encoded keys (stably).
+         */
+        private int[] sortedBufferIndices() {
+            return NormalizedKeys.ofBytes(
+                bufferKeys.toArray(new byte[bufferKeys.size()][])).sortedIndices();
+        }
+
+        /** Sorts the buffer and writes it to disk as a run. */
+        private void spill() throws IOException {
+            File file = newRunFile();
+            runs.add(file);
+            DataOutputStream output = openOutput(file);
+            try {
+                for (int index : sortedBufferIndices()) {
+                    writeRow(output, bufferKeys.get(index), buffer.get(index));
+                }
+            } finally {
+                output.close();
+            }
+            buffer.clear();
+            bufferKeys.clear();
+            bufferBytes = 0;
+        }
+
+        /** Creates a new temporary file for a run. */
+        private File newRunFile() throws IOException {
+            File file = File.createTempFile("roc-rows-", ".bin", tempDirectory);
+            file.deleteOnExit();
+            return file;
+        }
+
+        private static DataOutputStream openOutput(File file) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), IO_BUFFER_SIZE));
+        }
+
+        private void closeInputs() throws IOException {
+            for (DataInputStream input : openInputs) {
+                input.close();
+            }
+            openInputs.clear();
+        }
+
+        /**
+         * Writes a row as the length and the bytes of its encoded key,
+         * its number of fields, and the length and the UTF-8 bytes of
+         * each field.
+         */
+        static void writeRow(DataOutputStream output, byte[] key, String[] row)
+            throws IOException {
+            output.writeInt(key.length);
+            output.write(key);
+            output.writeInt(row.length);
+            for (String field : row) {
+                byte[] bytes = field.getBytes(UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+        }
+
+        /**
+         * Reads the encoded key of a row or returns null at the end of
+         * the run.
+         */
+        static byte[] readKey(DataInputStream input) throws IOException {
+            int length;
+            try {
+                length = input.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            byte[] key = new byte[length];
+            input.readFully(key);
+            return key;
+        }
+
+        /** Reads the fields of a row (after its key). */
+        static String[] readRow(DataInputStream input) throws IOException {
+            String[] row = new String[input.readInt()];
+            for (int field = 0; field < row.length; field++) {
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                row[field] = new String(bytes, UTF_8);
+            }
+            return row;
+        }
+
+        /**
+         * Returns a cursor that merges the given runs in order.  Rows with
+         * equal keys come from earlier runs first.
+         */
+        private RowCursor merge(List<File> group) throws IOException {
+            final PriorityQueue<RunReader> queue = openRuns(group);
+            return new RowCursor() {
+                public String[] nextRow() throws IOException {
+                    RunReader reader = queue.poll();
+                    if (reader == null) {
+                        return null;
+                    }
+                    String[] row = reader.row;
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                    return row;
+                }
+            };
+        }
+
+        /**
+         * Opens the given runs and returns a queue of readers of those
+         * that are not empty, ordered by their current rows.
+         */
+        private PriorityQueue<RunReader> openRuns(List<File> group)
+            throws IOException {
+            PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(group.size());
+            for (int index = 0; index < group.size(); index++) {
+                DataInputStream input = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(group.get(index)), IO_BUFFER_SIZE));
+                openInputs.add(input);
+                RunReader reader = new RunReader(input, index);
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+            return queue;
+        }
+
+        /** Reads the rows of a run in order. */
+        class RunReader implements Comparable<RunReader> {
+            DataInputStream input;
+            int runIndex;
+            byte[] key;
+            String[] row;
+
+            RunReader(DataInputStream input, int runIndex) {
+                this.input = input;
+                this.runIndex = runIndex;
+            }
+
+            /** Reads the next row.  Returns false at the end of the run. */
+            boolean advance() throws IOException {
+                key = readKey(input);
+                if (key == null) {
+                    row = null;
+                    return false;
+                }
+                row = readRow(input);
+                return true;
+            }
+
+            /** Orders readers by encoded key and then by run. */
+            public int compareTo(RunReader other) {
+                int keyCmp = NormalizedKeys.compareBytes(key, other.key);
+                return keyCmp != 0 ? keyCmp : runIndex - other.runIndex;
+            }
+        }
+    }
+
+    /**
+     * A cursor that checks that the rows of another cursor are sorted
+     * by their keys.
+     */
+    static class SortedCursor implements RowCursor {
+        private RowCursor rows;
+        private StringArrayComparator cmp;
+        private int inputNumber;
+        private long rowNumber = 0;
+        private String[] previous = null;
+
+        SortedCursor(RowCursor rows, int[] keyFields, int inputNumber) {
+            this.rows = rows;
+            cmp = new StringArrayComparator(keyFields, keyFields);
+            this.inputNumber = inputNumber;
+        }
+
+        public String[] nextRow() throws IOException {
+            String[] row = rows.nextRow();
+            if (row != null) {
+                rowNumber++;
+                if (previous != null && cmp.compare(previous, row) > 0) {
+                    throw new UnsortedInputException(inputNumber, rowNumber);
+                }
+                previous = row;
+            }
+            return row;
+        }
+
+        boolean sameKey(String[] row1, String[] row2) {
+            return cmp.compare(row1, row2) == 0;
+        }
+    }
 }
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+
+/**
+ * <p>Splits delimited text into rows and fields without regular
+ * expressions and without creating objects for fields that are not
+ * used.  Bytes are read into a reusable buffer and each row is
+ * scanned in place for delimiters.  The fields of the current row are
+ * given as offsets into the buffer, and only the fields that are asked
+ * for are converted into strings.</p>
+ *
+ * <p>Rows are split as in RFC 4180: lines end with "\n", "\r\n", or
+ * "\r", fields are separated by a single delimiter byte (which must be
+ * ASCII), and a field that starts with a double quote is quoted.  A
+ * quoted field extends to the next lone double quote and may contain
+ * delimiters, line endings, and doubled double quotes (which stand for
+ * one double quote).  Any text after the closing quote is kept as is.
+ * Double quotes within unquoted fields are ordinary characters.  Empty
+ * lines are rows with one empty field.  Fields are decoded with the
+ * given character set, which must be ASCII-compatible (like UTF-8 and
+ * the ISO-8859 family).</p>
+ *
+ * <p>Rows without quoted fields take a fast path that only looks for
+ * delimiters and line endings.  Only rows with quoted fields are
+ * unescaped, in place in the buffer.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * CsvTokenizer csv = new CsvTokenizer(input, (byte) ',');
+ * while (csv.nextRow()) {
+ *     String label = csv.field(3);
+ * }
+ * </pre>
+ */
+public class CsvTokenizer {
+
+    /** The default size of the buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private static final byte QUOTE = '"';
+
+    private InputStream input;
+    private byte delimiter;
+    private Charset charset;
+
+    // The bytes in buffer[position, limit) have been read but not yet
+    // tokenized
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    // A carriage return ended the previous row, so a line feed at the
+    // start of this row is part of the previous line ending
+    private boolean skipLineFeed;
+    // The input ended inside a quoted field
+    private boolean endedInsideQuotes;
+    // The line on which the current row starts and the line on which
+    // the next row starts (rows span several lines if quoted fields
+    // contain line endings)
+    private long lineNumber = 0;
+    private long nextLineNumber = 1;
+
+    // Field i of the current row is buffer[fieldStarts[i], fieldEnds[i])
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int numberFields;
+
+    /**
+     * Creates a tokenizer of the given input with the given delimiter
+     * and the default character set.
+     */
+    public CsvTokenizer(InputStream input, byte delimiter) {
+        this(input, delimiter, Charset.defaultCharset(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a tokenizer of the given input.
+     *
+     * @param input The input to tokenize
+     * @param delimiter The ASCII byte that separates fields
+     * @param charset The character set for decoding fields
+     * @param bufferSize The initial size of the buffer.  The buffer
+     * grows as needed to hold the longest row.
+     */
+    public CsvTokenizer(InputStream input, byte delimiter, Charset charset,
+                        int bufferSize) {
+        if (delimiter < 0 || delimiter == '\n' || delimiter == '\r' ||
+            delimiter == QUOTE) {
+            throw new IllegalArgumentException(String.format("Not a valid delimiter: %s", delimiter));
+        }
+        this.input = input;
+        this.delimiter = delimiter;
+        this.charset = charset;
+        buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Advances to the next row.
+     *
+     * @return Whether there is a next row (false at the end of the
+     * input)
+     */
+    public boolean nextRow() throws IOException {
+        numberFields = 0;
+        lineNumber = nextLineNumber;
+        nextLineNumber++;
+        int scan = position;
+        int fieldStart = position;
+        while (true) {
+            // Refill the buffer when the scan reaches the end of the
+            // data, keeping the current row
+            if (scan == limit) {
+                if (endOfInput) {
+                    // The last line has no line ending
+                    if (scan == position) {
+                        return false;
+                    }
+                    addField(fieldStart, scan);
+                    position = scan;
+                    return true;
+                }
+                int shift = fill();
+                scan -= shift;
+                fieldStart -= shift;
+                continue;
+            }
+            byte b = buffer[scan];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') {
+                    position++;
+                    scan++;
+                    fieldStart++;
+                    continue;
+                }
+            }
+            if (b == delimiter) {
+                addField(fieldStart, scan);
+                fieldStart = scan + 1;
+            } else if (b == '\n' || b == '\r') {
+                addField(fieldStart, scan);
+                skipLineFeed = (b == '\r');
+                position = scan + 1;
+                return true;
+            } else if (b == QUOTE && scan == fieldStart) {
+                return nextQuotedRow(scan, fieldStart);
+            }
+            scan++;
+        }
+    }
+
+    /**
+     * Finishes the current row starting from a quoted field.  Unlike
+     * {@link #nextRow()}, this unescapes the fields in place: the
+     * content of the current field is written at buffer[fieldStart,
+     * write), which never gets ahead of the scan.
+     *
+     * @param scan The offset of the opening quote of a field
+     * @param fieldStart The offset of the start of the field
+     */
+    private boolean nextQuotedRow(int scan, int fieldStart)
+        throws IOException {
+        int write = fieldStart;
+        boolean inQuotes = false;
+        // Whether the previous byte was a carriage return in quotes
+        boolean afterCarriageReturn = false;
+        while (true) {
+            // Refill the buffer when the scan reaches the end of the
+            // data or when the byte after a quote is needed
+            if (scan == limit || (inQuotes && buffer[scan] == QUOTE &&
+                                  scan + 1 == limit && !endOfInput)) {
+                if (scan == limit && endOfInput) {
+                    // The last line has no line ending
+                    endedInsideQuotes = inQuotes;
+                    addField(fieldStart, write);
+                    position = scan;
+                    return true;
+                }
+                int shift = fill();
+                scan -= shift;
+                fieldStart -= shift;
+                write -= shift;
+                continue;
+            }
+            byte b = buffer[scan];
+            if (inQuotes) {
+                if (b == QUOTE) {
+                    afterCarriageReturn = false;
+                    if (scan + 1 < limit && buffer[scan + 1] == QUOTE) {
+                        // Escaped quote
+                        buffer[write++] = QUOTE;
+                        scan += 2;
+                        continue;
+                    }
+                    inQuotes = false;
+                } else {
+                    buffer[write++] = b;
+                    // Count "\n", "\r\n", and "\r" as one line ending each
+                    if (b == '\r' || (b == '\n' && !afterCarriageReturn)) {
+                        nextLineNumber++;
+                    }
+                    afterCarriageReturn = (b == '\r');
+                    scan++;
+                    continue;
+                }
+            } else if (b == QUOTE && scan == fieldStart) {
+                inQuotes = true;
+            } else if (b == delimiter) {
+                addField(fieldStart, write);
+                fieldStart = scan + 1;
+                write = fieldStart;
+            } else if (b == '\n' || b == '\r') {
+                addField(fieldStart, write);
+                skipLineFeed = (b == '\r');
+                position = scan + 1;
+                return true;
+            } else {
+                buffer[write++] = b;
+            }
+            scan++;
+        }
+    }
+
+    /**
+     * Makes room for and reads more bytes.  Moves the unread bytes to
+     * the front of the buffer (or grows it if they fill it).
+     *
+     * @return The number of positions the unread bytes moved back
+     */
+    private int fill() throws IOException {
+        int shift = position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            for (int field = 0; field < numberFields; field++) {
+                fieldStarts[field] -= shift;
+                fieldEnds[field] -= shift;
+            }
+            limit -= position;
+            position = 0;
+        } else if (limit == buffer.length) {
+            byte[] newBuffer = new byte[2 * buffer.length];
+            System.arraycopy(buffer, 0, newBuffer, 0, limit);
+            buffer = newBuffer;
+        }
+        int numberRead = input.read(buffer, limit, buffer.length - limit);
+        if (numberRead < 0) {
+            endOfInput = true;
+        } else {
+            limit += numberRead;
+        }
+        return shift;
+    }
+
+    private void addField(int start, int end) {
+        if (numberFields == fieldStarts.length) {
+            int[] newStarts = new int[2 * numberFields];
+            int[] newEnds = new int[2 * numberFields];
+            System.arraycopy(fieldStarts, 0, newStarts, 0, numberFields);
+            System.arraycopy(fieldEnds, 0, newEnds, 0, numberFields);
+            fieldStarts = newStarts;
+            fieldEnds = newEnds;
+        }
+        fieldStarts[numberFields] = start;
+        fieldEnds[numberFields] = end;
+        numberFields++;
+    }
+
+    /**
+     * Returns whether the input ended inside a quoted field, that is,
+     * whether the closing quote of the last field is missing.  The
+     * last field then contains everything after its opening quote.
+     */
+    public boolean endedInsideQuotes() {
+        return endedInsideQuotes;
+    }
+
+    /**
+     * Returns the number of the line (starting at 1) on which the
+     * current row starts.  Line endings in quoted fields count.
+     */
+    public long lineNumber() {
+        return lineNumber;
+    }
+
+    /** Returns the number of fields in the current row. */
+    public int numberFields() {
+        return numberFields;
+    }
+
+    /**
+     * Returns the buffer that contains the current row.  The buffer is
+     * only valid until the next call to {@link #nextRow()}.
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the offset in the buffer of the start of the given field
+     * of the current row.
+     */
+    public int fieldStart(int field) {
+        checkField(field);
+        return fieldStarts[field];
+    }
+
+    /**
+     * Returns the offset in the buffer of the end (exclusive) of the
+     * given field of the current row.
+     */
+    public int fieldEnd(int field) {
+        checkField(field);
+        return fieldEnds[field];
+    }
+
+    /** Returns the given field of the current row as a string. */
+    public String field(int field) {
+        checkField(field);
+        return new String(buffer, fieldStarts[field],
+                          fieldEnds[field] - fieldStarts[field], charset);
+    }
+
+    /**
+     * Returns the given field of the current row parsed as a double
+     * (see {@link DoubleParser}) without converting it into a string.
+     *
+     * @throws NumberFormatException if the field is not a number
+     */
+    public double fieldDouble(int field) {
+        checkField(field);
+        try {
+            return DoubleParser.parseDouble(buffer, fieldStarts[field], fieldEnds[field]);
+        } catch (NumberFormatException e) {
+            // Fix exception message so that it is independent of the exception name
+            throw new NumberFormatException(String.format("Not a floating-point number: \"%s\"", field(field)));
+        }
+    }
+
+    /**
+     * Returns whether the given field of the current row consists of
+     * exactly the given bytes.
+     */
+    public boolean fieldEquals(int field, byte[] bytes) {
+        checkField(field);
+        int start = fieldStarts[field];
+        if (fieldEnds[field] - start != bytes.length) {
+            return false;
+        }
+        for (int index = 0; index < bytes.length; index++) {
+            if (buffer[start + index] != bytes[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the code of the given field of the current row in the
+     * given dictionary (adding the field if it is new) without
+     * converting it into a string.
+     */
+    public int fieldCode(int field, LabelDictionary dictionary) {
+        checkField(field);
+        return dictionary.encode(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Returns the given fields of the current row as an array of
+     * strings.
+     */
+    public String[] fields(int[] fields) {
+        String[] strings = new String[fields.length];
+        for (int index = 0; index < fields.length; index++) {
+            strings[index] = field(fields[index]);
+        }
+        return strings;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= numberFields) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Column index out of bounds: %s", field));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A growable array of doubles: a list of primitive doubles without
+ * boxing.  The capacity doubles as needed.
+ *
+ * @see IntArrayList
+ */
+public class DoubleArrayList {
+
+    /** The maximum number of elements. */
+    public static final int MAXIMUM_SIZE = Integer.MAX_VALUE - 8;
+
+    private double[] elements;
+    private int size = 0;
+
+    /** Creates an empty list with a default initial capacity. */
+    public DoubleArrayList() {
+        this(1024);
+    }
+
+    /** Creates an empty list with the given initial capacity. */
+    public DoubleArrayList(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException(String.format("The capacity must not be negative: %s", initialCapacity));
+        }
+        elements = new double[initialCapacity];
+    }
+
+    /** Returns the number of elements. */
+    public int size() {
+        return size;
+    }
+
+    /** Appends the given element. */
+    public void add(double element) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[size++] = element;
+    }
+
+    /** Appends all the elements of the given list. */
+    public void addAll(DoubleArrayList list) {
+        if ((long) size + list.size > MAXIMUM_SIZE) {
+            throw new IllegalStateException(String.format("Too many elements for an array: more than %s.", MAXIMUM_SIZE));
+        }
+        if (size + list.size > elements.length) {
+            elements = Arrays.copyOf(elements, (int) Math.min(
+                MAXIMUM_SIZE, Math.max(size + list.size, 2L * size)));
+        }
+        System.arraycopy(list.elements, 0, elements, size, list.size);
+        size += list.size;
+    }
+
+    /** Returns the element at the given index. */
+    public double get(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    /** Replaces the element at the given index. */
+    public void set(int index, double element) {
+        checkIndex(index);
+        elements[index] = element;
+    }
+
+    /** Removes all the elements (but keeps the capacity). */
+    public void clear() {
+        size = 0;
+    }
+
+    /** Returns a new array of the elements. */
+    public double[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    /**
+     * Shrinks the capacity to the number of elements and returns the
+     * backing array, which then contains exactly the elements.  Avoids
+     * copying when the capacity already equals the size.  The array is
+     * shared with this list until the list grows.
+     */
+    public double[] trimmedArray() {
+        if (elements.length != size) {
+            elements = Arrays.copyOf(elements, size);
+        }
+        return elements;
+    }
+
+    private void grow() {
+        if (size == MAXIMUM_SIZE) {
+            throw new IllegalStateException(String.format("Too many elements for an array: more than %s.", MAXIMUM_SIZE));
+        }
+        int capacity = (int) Math.min(MAXIMUM_SIZE, Math.max(16L, 2L * size));
+        elements = Arrays.copyOf(elements, capacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Index out of bounds: %s", index));
+        }
+    }
+}
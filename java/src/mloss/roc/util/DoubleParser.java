@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+
+
+/**
+ * <p>Parses decimal numbers into doubles directly from bytes or
+ * characters without creating any objects.  The results are correctly
+ * rounded and so are bit-for-bit identical to those of {@link
+ * Double#parseDouble(String)}.</p>
+ *
+ * <p>Plain decimal numbers (an optional sign, digits with an optional
+ * decimal point, and an optional exponent) with at most 19 significant
+ * digits are converted by exact floating-point arithmetic when the
+ * digits and the power of ten are exactly representable (Clinger's
+ * fast path) and otherwise by the Eisel-Lemire algorithm (Lemire,
+ * "Number Parsing at a Gigabyte per Second", 2021), which multiplies
+ * the digits by a 128-bit approximation of the power of ten and only
+ * gives up in the rare cases where the approximation cannot decide the
+ * rounding.  Everything else (more digits, surrounding whitespace,
+ * "NaN", "Infinity", hexadecimal, type suffixes, and invalid input) and
+ * the rare undecided cases fall back to {@link
+ * Double#parseDouble(String)}.</p>
+ */
+public class DoubleParser {
+
+    /**
+     * Unconstructable (no-op).  (A private constructor is necessary
+     * because otherwise Java inserts a default public constructor.)
+     */
+    private DoubleParser() {}
+
+    // Range of the table of powers of ten
+    private static final int MINIMUM_EXPONENT = -348;
+    private static final int MAXIMUM_EXPONENT = 347;
+
+    // 128-bit mantissas of the powers of ten, rounded down and
+    // normalized so that the highest bit is set: the high 64 bits of
+    // 10^e are at index 2 * (e - MINIMUM_EXPONENT) and the low 64 bits
+    // follow
+    private static final long[] POWERS_OF_TEN = powersOfTen();
+
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] EXACT_POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    private static final int MAXIMUM_SIGNIFICANT_DIGITS = 19;
+
+    // Exponents beyond this are clamped, which does not change the
+    // result since they overflow or underflow anyway
+    private static final int MAXIMUM_EXPONENT_DIGITS_VALUE = 100000;
+
+    private static final Charset latin1 = Charset.forName("ISO-8859-1");
+
+    private static long[] powersOfTen() {
+        long[] powers = new long[2 * (MAXIMUM_EXPONENT - MINIMUM_EXPONENT + 1)];
+        BigInteger ten = BigInteger.TEN;
+        for (int exponent = MINIMUM_EXPONENT; exponent <= MAXIMUM_EXPONENT; exponent++) {
+            BigInteger mantissa;
+            if (exponent >= 0) {
+                BigInteger power = ten.pow(exponent);
+                int shift = power.bitLength() - 128;
+                mantissa = shift > 0 ? power.shiftRight(shift) : power.shiftLeft(-shift);
+            } else {
+                BigInteger power = ten.pow(-exponent);
+                mantissa = BigInteger.ONE.shiftLeft(power.bitLength() + 127).divide(power);
+            }
+            int index = 2 * (exponent - MINIMUM_EXPONENT);
+            powers[index] = mantissa.shiftRight(64).longValue();
+            powers[index + 1] = mantissa.longValue();
+        }
+        return powers;
+    }
+
+    /**
+     * Parses the given bytes (in an ASCII-compatible encoding) as a
+     * double.
+     *
+     * @param bytes The bytes containing the number
+     * @param from The offset of the first byte of the number
+     * @param to The offset after the last byte of the number
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    public static double parseDouble(byte[] bytes, int from, int to) {
+        int index = from;
+        boolean negative = false;
+        if (index < to && (bytes[index] == '-' || bytes[index] == '+')) {
+            negative = (bytes[index] == '-');
+            index++;
+        }
+        // Digits before and after the decimal point
+        long mantissa = 0;
+        int exponent = 0;
+        int numberDigits = 0;
+        int numberSignificantDigits = 0;
+        boolean afterPoint = false;
+        for (; index < to; index++) {
+            int digit = bytes[index] - '0';
+            if (digit >= 0 && digit <= 9) {
+                numberDigits++;
+                if (mantissa != 0 || digit != 0) {
+                    if (++numberSignificantDigits > MAXIMUM_SIGNIFICANT_DIGITS) {
+                        return Double.parseDouble(new String(bytes, from, to - from, latin1));
+                    }
+                    mantissa = 10 * mantissa + digit;
+                }
+                if (afterPoint) {
+                    exponent--;
+                }
+            } else if (bytes[index] == '.' && !afterPoint) {
+                afterPoint = true;
+            } else {
+                break;
+            }
+        }
+        // Exponent
+        if (numberDigits > 0 && index < to &&
+            (bytes[index] == 'e' || bytes[index] == 'E')) {
+            index++;
+            boolean negativeExponent = false;
+            if (index < to && (bytes[index] == '-' || bytes[index] == '+')) {
+                negativeExponent = (bytes[index] == '-');
+                index++;
+            }
+            int exponentValue = 0;
+            int numberExponentDigits = 0;
+            for (; index < to; index++) {
+                int digit = bytes[index] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                numberExponentDigits++;
+                if (exponentValue < MAXIMUM_EXPONENT_DIGITS_VALUE) {
+                    exponentValue = 10 * exponentValue + digit;
+                }
+            }
+            if (numberExponentDigits == 0) {
+                numberDigits = 0;
+            }
+            exponent += negativeExponent ? -exponentValue : exponentValue;
+        }
+        if (numberDigits == 0 || index != to) {
+            return Double.parseDouble(new String(bytes, from, to - from, latin1));
+        }
+        double value = toDouble(negative, mantissa, exponent);
+        if (Double.isNaN(value)) {
+            return Double.parseDouble(new String(bytes, from, to - from, latin1));
+        }
+        return value;
+    }
+
+    /**
+     * Parses the given characters as a double.
+     *
+     * @param chars The characters containing the number
+     * @param from The index of the first character of the number
+     * @param to The index after the last character of the number
+     * @throws NumberFormatException if the characters are not a
+     * number
+     */
+    public static double parseDouble(CharSequence chars, int from, int to) {
+        int index = from;
+        boolean negative = false;
+        if (index < to && (chars.charAt(index) == '-' || chars.charAt(index) == '+')) {
+            negative = (chars.charAt(index) == '-');
+            index++;
+        }
+        // Digits before and after the decimal point
+        long mantissa = 0;
+        int exponent = 0;
+        int numberDigits = 0;
+        int numberSignificantDigits = 0;
+        boolean afterPoint = false;
+        for (; index < to; index++) {
+            int digit = chars.charAt(index) - '0';
+            if (digit >= 0 && digit <= 9) {
+                numberDigits++;
+                if (mantissa != 0 || digit != 0) {
+                    if (++numberSignificantDigits > MAXIMUM_SIGNIFICANT_DIGITS) {
+                        return Double.parseDouble(chars.subSequence(from, to).toString());
+                    }
+                    mantissa = 10 * mantissa + digit;
+                }
+                if (afterPoint) {
+                    exponent--;
+                }
+            } else if (chars.charAt(index) == '.' && !afterPoint) {
+                afterPoint = true;
+            } else {
+                break;
+            }
+        }
+        // Exponent
+        if (numberDigits > 0 && index < to &&
+            (chars.charAt(index) == 'e' || chars.charAt(index) == 'E')) {
+            index++;
+            boolean negativeExponent = false;
+            if (index < to && (chars.charAt(index) == '-' || chars.charAt(index) == '+')) {
+                negativeExponent = (chars.charAt(index) == '-');
+                index++;
+            }
+            int exponentValue = 0;
+            int numberExponentDigits = 0;
+            for (; index < to; index++) {
+                int digit = chars.charAt(index) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                numberExponentDigits++;
+                if (exponentValue < MAXIMUM_EXPONENT_DIGITS_VALUE) {
+                    exponentValue = 10 * exponentValue + digit;
+                }
+            }
+            if (numberExponentDigits == 0) {
+                numberDigits = 0;
+            }
+            exponent += negativeExponent ? -exponentValue : exponentValue;
+        }
+        if (numberDigits == 0 || index != to) {
+            return Double.parseDouble(chars.subSequence(from, to).toString());
+        }
+        double value = toDouble(negative, mantissa, exponent);
+        if (Double.isNaN(value)) {
+            return Double.parseDouble(chars.subSequence(from, to).toString());
+        }
+        return value;
+    }
+
+    /** Parses the given string as a double. */
+    public static double parseDouble(CharSequence chars) {
+        return parseDouble(chars, 0, chars.length());
+    }
+
+    /**
+     * Converts mantissa * 10^exponent into the nearest double.
+     *
+     * @return The double, or NaN if the conversion is undecided
+     */
+    static double toDouble(boolean negative, long mantissa, int exponent) {
+        if (mantissa == 0 || exponent < MINIMUM_EXPONENT) {
+            // The mantissa is less than 10^19, so the value is less
+            // than half the smallest subnormal
+            return negative ? -0.0 : 0.0;
+        }
+        if (exponent > MAXIMUM_EXPONENT) {
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        // Clinger's fast path: both the mantissa and the power of ten
+        // are exact, so the one operation rounds correctly.  (The
+        // mantissa is unsigned: 19 digits can exceed Long.MAX_VALUE.)
+        if (mantissa > 0 && mantissa <= (1L << 53) &&
+            exponent >= -22 && exponent <= 22) {
+            double value = (double) mantissa;
+            if (exponent >= 0) {
+                value *= EXACT_POWERS_OF_TEN[exponent];
+            } else {
+                value /= EXACT_POWERS_OF_TEN[-exponent];
+            }
+            return negative ? -value : value;
+        }
+        return eiselLemire(negative, mantissa, exponent);
+    }
+
+    /**
+     * Converts mantissa * 10^exponent into the nearest double by the
+     * Eisel-Lemire algorithm.
+     *
+     * @param mantissa A positive mantissa
+     * @param exponent An exponent within the range of the table
+     * @return The double, or NaN if the algorithm cannot decide the
+     * rounding or the result is subnormal or overflows
+     */
+    static double eiselLemire(boolean negative, long mantissa, int exponent) {
+        // Normalize the mantissa so that its highest bit is set
+        int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+        mantissa <<= leadingZeros;
+        // floor(log2(10^exponent)) + 64 + bias - leadingZeros
+        long binaryExponent = ((217706L * exponent) >> 16) + 64 + 1023 - leadingZeros;
+
+        // Multiply by the high 64 bits of the power of ten
+        int index = 2 * (exponent - MINIMUM_EXPONENT);
+        long powerHigh = POWERS_OF_TEN[index];
+        long powerLow = POWERS_OF_TEN[index + 1];
+        long high = multiplyHigh(mantissa, powerHigh);
+        long low = mantissa * powerHigh;
+
+        // If the lower bits of the product are all ones, the truncated
+        // low half of the power of ten could carry into them, so
+        // include it
+        if ((high & 0x1ff) == 0x1ff && unsignedLess(low + mantissa, mantissa)) {
+            long lowHigh = multiplyHigh(mantissa, powerLow);
+            long lowLow = mantissa * powerLow;
+            long mergedHigh = high;
+            long mergedLow = low + lowHigh;
+            if (unsignedLess(mergedLow, low)) {
+                mergedHigh++;
+            }
+            if ((mergedHigh & 0x1ff) == 0x1ff && mergedLow + 1 == 0 &&
+                unsignedLess(lowLow + mantissa, mantissa)) {
+                return Double.NaN;
+            }
+            high = mergedHigh;
+            low = mergedLow;
+        }
+
+        // Shift to 54 bits
+        long highestBit = high >>> 63;
+        long result = high >>> (highestBit + 9);
+        binaryExponent -= 1 ^ highestBit;
+
+        // Exactly halfway between two doubles is ambiguous
+        if (low == 0 && (high & 0x1ff) == 0 && (result & 3) == 1) {
+            return Double.NaN;
+        }
+
+        // Round to 53 bits
+        result += result & 1;
+        result >>>= 1;
+        if ((result >>> 53) > 0) {
+            result >>>= 1;
+            binaryExponent++;
+        }
+        // Subnormal, infinite, or NaN results are left to the fallback
+        if (binaryExponent <= 0 || binaryExponent >= 0x7ff) {
+            return Double.NaN;
+        }
+        long bits = (binaryExponent << 52) | (result & 0x000fffffffffffffL);
+        if (negative) {
+            bits |= Long.MIN_VALUE;
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    /** Returns the high 64 bits of the unsigned 128-bit product. */
+    static long multiplyHigh(long x, long y) {
+        long x0 = x & 0xffffffffL;
+        long x1 = x >>> 32;
+        long y0 = y & 0xffffffffL;
+        long y1 = y >>> 32;
+        long p00 = x0 * y0;
+        long p01 = x0 * y1;
+        long p10 = x1 * y0;
+        long p11 = x1 * y1;
+        // Cannot overflow: at most (2^32 - 1)^2 + 2 (2^32 - 1)
+        long middle = p10 + (p00 >>> 32) + (p01 & 0xffffffffL);
+        return p11 + (middle >>> 32) + (p01 >>> 32);
+    }
+
+    private static boolean unsignedLess(long x, long y) {
+        return (x + Long.MIN_VALUE) < (y + Long.MIN_VALUE);
+    }
+}
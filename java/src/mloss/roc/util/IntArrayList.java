@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A growable array of ints: a list of primitive ints without
+ * boxing.  The capacity doubles as needed.
+ *
+ * @see DoubleArrayList
+ */
+public class IntArrayList {
+
+    /** The maximum number of elements. */
+    public static final int MAXIMUM_SIZE = Integer.MAX_VALUE - 8;
+
+    private int[] elements;
+    private int size = 0;
+
+    /** Creates an empty list with a default initial capacity. */
+    public IntArrayList() {
+        this(1024);
+    }
+
+    /** Creates an empty list with the given initial capacity. */
+    public IntArrayList(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException(String.format("The capacity must not be negative: %s", initialCapacity));
+        }
+        elements = new int[initialCapacity];
+    }
+
+    /** Returns the number of elements. */
+    public int size() {
+        return size;
+    }
+
+    /** Appends the given element. */
+    public void add(int element) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[size++] = element;
+    }
+
+    /** Appends all the elements of the given list. */
+    public void addAll(IntArrayList list) {
+        if ((long) size + list.size > MAXIMUM_SIZE) {
+            throw new IllegalStateException(String.format("Too many elements for an array: more than %s.", MAXIMUM_SIZE));
+        }
+        if (size + list.size > elements.length) {
+            elements = Arrays.copyOf(elements, (int) Math.min(
+                MAXIMUM_SIZE, Math.max(size + list.size, 2L * size)));
+        }
+        System.arraycopy(list.elements, 0, elements, size, list.size);
+        size += list.size;
+    }
+
+    /** Returns the element at the given index. */
+    public int get(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    /** Replaces the element at the given index. */
+    public void set(int index, int element) {
+        checkIndex(index);
+        elements[index] = element;
+    }
+
+    /** Removes all the elements (but keeps the capacity). */
+    public void clear() {
+        size = 0;
+    }
+
+    /** Returns a new array of the elements. */
+    public int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    /**
+     * Shrinks the capacity to the number of elements and returns the
+     * backing array, which then contains exactly the elements.  Avoids
+     * copying when the capacity already equals the size.  The array is
+     * shared with this list until the list grows.
+     */
+    public int[] trimmedArray() {
+        if (elements.length != size) {
+            elements = Arrays.copyOf(elements, size);
+        }
+        return elements;
+    }
+
+    private void grow() {
+        if (size == MAXIMUM_SIZE) {
+            throw new IllegalStateException(String.format("Too many elements for an array: more than %s.", MAXIMUM_SIZE));
+        }
+        int capacity = (int) Math.min(MAXIMUM_SIZE, Math.max(16L, 2L * size));
+        elements = Arrays.copyOf(elements, capacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Index out of bounds: %s", index));
+        }
+    }
+}
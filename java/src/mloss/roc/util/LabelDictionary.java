@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.util.Arrays;
+
+
+/**
+ * <p>Dictionary encoding of labels: maps each distinct sequence of
+ * bytes to a small int code.  Codes are assigned in order of first
+ * appearance starting from 0.  Labels are looked up directly from a
+ * slice of a buffer (such as that of {@link CsvTokenizer}), so encoding
+ * a column of labels creates no objects except when a new label is
+ * added.</p>
+ *
+ * <p>The dictionary is an open-addressing hash table (with linear
+ * probing) of codes.  The bytes of all the labels are stored one after
+ * another in a single array.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * int code = dictionary.encode(buffer, start, end);
+ * ...
+ * boolean[] isPositive = dictionary.codeSet(positiveLabel);
+ * if (isPositive[code]) ...
+ * </pre>
+ */
+public class LabelDictionary {
+
+    // Bytes of label i are bytes[starts[i], starts[i + 1])
+    private byte[] bytes = new byte[256];
+    private int[] starts = new int[17];
+    private int[] hashes = new int[16];
+    private int size = 0;
+
+    // Hash table of codes + 1 (0 is an empty slot).  The length is a
+    // power of 2 and at least twice the size.
+    private int[] table = new int[32];
+
+    /** Returns the number of distinct labels. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the code of the given label, adding the label if it is
+     * not already in the dictionary.
+     *
+     * @param buffer Bytes containing the label
+     * @param from The offset of the first byte of the label
+     * @param to The offset after the last byte of the label
+     */
+    public int encode(byte[] buffer, int from, int to) {
+        int hash = hash(buffer, from, to);
+        int slot = find(buffer, from, to, hash);
+        if (table[slot] != 0) {
+            return table[slot] - 1;
+        }
+        // Add the label
+        int length = to - from;
+        if (starts[size] + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, starts[size] + length));
+        }
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, 2 * size);
+            starts = Arrays.copyOf(starts, 2 * size + 1);
+        }
+        System.arraycopy(buffer, from, bytes, starts[size], length);
+        starts[size + 1] = starts[size] + length;
+        hashes[size] = hash;
+        int code = size++;
+        table[slot] = code + 1;
+        if (2 * size > table.length) {
+            rehash();
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of the given label or -1 if it is not in the
+     * dictionary.
+     */
+    public int code(byte[] buffer, int from, int to) {
+        int slot = find(buffer, from, to, hash(buffer, from, to));
+        return table[slot] - 1;
+    }
+
+    /**
+     * Returns the code of the given label or -1 if it is not in the
+     * dictionary.
+     */
+    public int code(byte[] label) {
+        return code(label, 0, label.length);
+    }
+
+    /** Returns (a copy of) the bytes of the label with the given code. */
+    public byte[] label(int code) {
+        if (code < 0 || code >= size) {
+            throw new IndexOutOfBoundsException(String.format("Not a label code: %s", code));
+        }
+        return Arrays.copyOfRange(bytes, starts[code], starts[code + 1]);
+    }
+
+    /**
+     * Returns the set of codes of the given labels as an array of
+     * membership flags indexed by code.  Labels that are not in the
+     * dictionary are ignored.
+     *
+     * @return An array with {@link #size()} elements
+     */
+    public boolean[] codeSet(byte[]... labels) {
+        boolean[] set = new boolean[size];
+        for (byte[] label : labels) {
+            int code = code(label);
+            if (code >= 0) {
+                set[code] = true;
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Returns the slot that contains the given label or the empty slot
+     * where it belongs.
+     */
+    private int find(byte[] buffer, int from, int to, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            int code = table[slot] - 1;
+            if (hashes[code] == hash && equals(code, buffer, from, to)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean equals(int code, byte[] buffer, int from, int to) {
+        int start = starts[code];
+        if (starts[code + 1] - start != to - from) {
+            return false;
+        }
+        for (int index = from; index < to; index++) {
+            if (bytes[start++] != buffer[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Doubles the hash table and reinserts the codes. */
+    private void rehash() {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for (int code = 0; code < size; code++) {
+            int slot = hashes[code] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code + 1;
+        }
+    }
+
+    private static int hash(byte[] buffer, int from, int to) {
+        int hash = 1;
+        for (int index = from; index < to; index++) {
+            hash = 31 * hash + buffer[index];
+        }
+        // Spread the high bits into the low bits used for the slot
+        return hash ^ (hash >>> 16);
+    }
+}
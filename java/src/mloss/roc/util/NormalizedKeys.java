@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.util.List;
+
+
+/**
+ * <p>Order-preserving binary encodings of the (compound) keys of rows
+ * so that sorting and merging compare primitives instead of strings.
+ * The keys of each row are encoded once, when the rows are loaded, and
+ * encoded keys compare exactly as {@link
+ * CsvProcessing.StringArrayComparator} compares the rows (field by
+ * field as UTF-8 bytes, that is, by code point).</p>
+ *
+ * <p>The encoding is chosen from the keys of all the inputs to be
+ * compared so that they share it.  If the keys are short enough, each
+ * becomes a single {@code long}: each field is packed left-aligned into
+ * a fixed width (that of its longest value) with 4 bits per character
+ * if every key character is a decimal digit and 8 bits per character
+ * if every key character is nonzero ASCII.  Padding is zero and
+ * characters are nonzero, so a prefix sorts before the values it
+ * prefixes.  Otherwise each key becomes a {@code byte[]} in which each
+ * field is followed by a zero terminator and each character (in code
+ * point order, see {@link #codePointOrder}) is one to three bytes that
+ * start with a nonzero byte: most ASCII characters are themselves.
+ * Byte arrays are compared as unsigned bytes.</p>
+ */
+public class NormalizedKeys {
+
+    // Exactly one of these is not null
+    private long[] longKeys;
+    private byte[][] byteKeys;
+
+    private NormalizedKeys(long[] longKeys, byte[][] byteKeys) {
+        this.longKeys = longKeys;
+        this.byteKeys = byteKeys;
+    }
+
+    /**
+     * Encodes the keys of the rows of each of the given inputs with a
+     * shared encoding.
+     *
+     * @param inputs The rows of each input
+     * @param keyFields The indices of the key fields of each input, in
+     * the same order as the inputs.  Every input has the same number
+     * of key fields.
+     * @return The encoded keys of each input, in the same order as the
+     * inputs
+     */
+    public static NormalizedKeys[] normalize(List<? extends List<String[]>> inputs,
+                                             int[][] keyFields) {
+        int numberInputs = inputs.size();
+        int numberKeys = keyFields[0].length;
+
+        // Find the widths of the fields and the kinds of their
+        // characters
+        int[] widths = new int[numberKeys];
+        boolean allDigits = true;
+        boolean allAscii = true;
+        for (int input = 0; input < numberInputs; input++) {
+            int[] fields = keyFields[input];
+            for (String[] row : inputs.get(input)) {
+                for (int key = 0; key < numberKeys; key++) {
+                    String field = row[fields[key]];
+                    widths[key] = Math.max(widths[key], field.length());
+                    for (int index = 0; index < field.length(); index++) {
+                        char c = field.charAt(index);
+                        allDigits &= (c >= '0' && c <= '9');
+                        allAscii &= (c >= 1 && c <= 127);
+                    }
+                }
+            }
+        }
+        int bitsPerChar = allDigits ? 4 : (allAscii ? 8 : 0);
+        long totalWidth = 0;
+        for (int width : widths) {
+            totalWidth += width;
+        }
+
+        // Encode each input
+        NormalizedKeys[] normalized = new NormalizedKeys[numberInputs];
+        for (int input = 0; input < numberInputs; input++) {
+            List<String[]> rows = inputs.get(input);
+            int[] fields = keyFields[input];
+            if (bitsPerChar > 0 && totalWidth * bitsPerChar <= 64) {
+                long[] keys = new long[rows.size()];
+                int rowIndex = 0;
+                for (String[] row : rows) {
+                    keys[rowIndex++] = encodeLong(row, fields, widths, bitsPerChar);
+                }
+                normalized[input] = new NormalizedKeys(keys, null);
+            } else {
+                byte[][] keys = new byte[rows.size()][];
+                int rowIndex = 0;
+                for (String[] row : rows) {
+                    keys[rowIndex++] = encodeBytes(row, fields);
+                }
+                normalized[input] = new NormalizedKeys(null, keys);
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Wraps the given keys, each encoded by {@link #encodeBytes}, so
+     * that they can be compared and sorted.
+     */
+    static NormalizedKeys ofBytes(byte[][] keys) {
+        return new NormalizedKeys(null, keys);
+    }
+
+    /**
+     * Packs the given key fields into a long that compares (as a
+     * signed long) in the same order as the fields.
+     */
+    static long encodeLong(String[] row, int[] fields, int[] widths,
+                           int bitsPerChar) {
+        long key = 0;
+        int shift = 64;
+        for (int keyIndex = 0; keyIndex < fields.length; keyIndex++) {
+            String field = row[fields[keyIndex]];
+            for (int index = 0; index < widths[keyIndex]; index++) {
+                shift -= bitsPerChar;
+                if (index < field.length()) {
+                    char c = field.charAt(index);
+                    long code = (bitsPerChar == 4) ? c - '0' + 1 : c;
+                    key |= code << shift;
+                }
+            }
+        }
+        // Flip the sign bit so that signed comparison is unsigned
+        // comparison of the packed bits
+        return key ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Encodes the given key fields as bytes that compare (as unsigned
+     * bytes) in the same order as the fields.  Each character, in code
+     * point order, is one byte from 0x02 to 0x7f, two bytes starting
+     * with 0x01 (U+0000 and U+0001), two bytes starting with 0x80 to
+     * 0xbf, or three bytes starting with 0xc0, so shorter encodings
+     * never prefix longer ones and no character starts with the zero
+     * terminator.
+     */
+    static byte[] encodeBytes(String[] row, int[] fields) {
+        int length = 0;
+        for (int field : fields) {
+            String value = row[field];
+            for (int index = 0; index < value.length(); index++) {
+                int c = codePointOrder(value.charAt(index));
+                length += (c >= 2 && c < 0x80) ? 1 : (c < 0x4000 ? 2 : 3);
+            }
+            length++;
+        }
+        byte[] key = new byte[length];
+        int position = 0;
+        for (int field : fields) {
+            String value = row[field];
+            for (int index = 0; index < value.length(); index++) {
+                int c = codePointOrder(value.charAt(index));
+                if (c >= 2 && c < 0x80) {
+                    key[position++] = (byte) c;
+                } else if (c < 2) {
+                    key[position++] = 1;
+                    key[position++] = (byte) (c + 1);
+                } else if (c < 0x4000) {
+                    key[position++] = (byte) (0x80 | (c >>> 8));
+                    key[position++] = (byte) c;
+                } else {
+                    key[position++] = (byte) 0xc0;
+                    key[position++] = (byte) (c >>> 8);
+                    key[position++] = (byte) c;
+                }
+            }
+            // Terminator
+            key[position++] = 0;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the rank of the given UTF-16 code unit in code point
+     * order: surrogates (which make up the supplementary characters)
+     * move after U+E000 to U+FFFF.  Comparing strings by the ranks of
+     * their code units compares them as UTF-8 bytes.
+     */
+    static int codePointOrder(char c) {
+        if (c < 0xd800) {
+            return c;
+        }
+        return (c < 0xe000) ? c + 0x2000 : c - 0x800;
+    }
+
+    /** Returns the number of keys. */
+    public int size() {
+        return longKeys != null ? longKeys.length : byteKeys.length;
+    }
+
+    /**
+     * Compares key {@code index} of these keys with key {@code
+     * otherIndex} of the given keys, which must have been encoded
+     * together with these keys.
+     */
+    public int compare(int index, NormalizedKeys other, int otherIndex) {
+        if (longKeys != null) {
+            long key1 = longKeys[index];
+            long key2 = other.longKeys[otherIndex];
+            return key1 < key2 ? -1 : (key1 == key2 ? 0 : 1);
+        }
+        return compareBytes(byteKeys[index], other.byteKeys[otherIndex]);
+    }
+
+    /** Compares the given arrays lexicographically as unsigned bytes. */
+    static int compareBytes(byte[] bytes1, byte[] bytes2) {
+        int length = Math.min(bytes1.length, bytes2.length);
+        for (int index = 0; index < length; index++) {
+            int cmp = (bytes1[index] & 0xff) - (bytes2[index] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return bytes1.length - bytes2.length;
+    }
+
+    /**
+     * Returns the indices of the keys in sorted order.  The sort is a
+     * stable merge sort, so equal keys keep their original order.
+     */
+    public int[] sortedIndices() {
+        int size = size();
+        int[] indices = new int[size];
+        for (int index = 0; index < size; index++) {
+            indices[index] = index;
+        }
+        mergeSort(indices, new int[size], 0, size);
+        return indices;
+    }
+
+    /** Sorts {@code indices[from, to)} using the given scratch space. */
+    private void mergeSort(int[] indices, int[] scratch, int from, int to) {
+        // Insertion sort short ranges
+        if (to - from <= 16) {
+            for (int index = from + 1; index < to; index++) {
+                int value = indices[index];
+                int position = index;
+                while (position > from && compare(indices[position - 1], this, value) > 0) {
+                    indices[position] = indices[position - 1];
+                    position--;
+                }
+                indices[position] = value;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(indices, scratch, from, middle);
+        mergeSort(indices, scratch, middle, to);
+        // Already in order
+        if (compare(indices[middle - 1], this, indices[middle]) <= 0) {
+            return;
+        }
+        // Merge, taking from the left half on ties for stability
+        System.arraycopy(indices, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int index = from; index < to; index++) {
+            if (right >= to ||
+                (left < middle && compare(scratch[left], this, scratch[right]) <= 0)) {
+                indices[index] = scratch[left++];
+            } else {
+                indices[index] = scratch[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * <p>A one-dimensional NumPy array stored in a file in the NumPy
+ * <code>.npy</code> format, either by itself or as an entry of a
+ * <code>.npz</code> archive (as written by <code>numpy.save</code> and
+ * <code>numpy.savez</code>).  Opening an array only parses its header.
+ * Its elements are read by memory mapping the file (see {@link
+ * FileChannel#map}) and are converted into a Java array in bulk.</p>
+ *
+ * <p>Arrays of booleans, (signed or unsigned) integers of 1, 2, 4, or
+ * 8 bytes, and floats of 4 or 8 bytes are supported in either byte
+ * order.  The shape must have at most one dimension longer than 1
+ * (like <code>(n,)</code>, <code>(n, 1)</code>, or <code>(1,
+ * n)</code>), so the memory order does not matter.  Only stored
+ * (uncompressed) entries of archives are supported because compressed
+ * entries cannot be mapped.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * Map&lt;String, NpyArray&gt; arrays = NpyArray.readArchive(file);
+ * double[] scores = arrays.get("scores").toDoubles();
+ * int[] labels = arrays.get("labels").toInts();
+ * </pre>
+ */
+public class NpyArray {
+
+    /** The bytes that start every <code>.npy</code> file. */
+    public static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+
+    /** The bytes that start every (non-empty) <code>.npz</code> file. */
+    public static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+
+    private static final Charset latin1 = Charset.forName("ISO-8859-1");
+
+    private static final Pattern descrPattern =
+        Pattern.compile("'descr'\\s*:\\s*'([<>|=])([biuf])(\\d+)'");
+    private static final Pattern shapePattern =
+        Pattern.compile("'shape'\\s*:\\s*\\(([\\d\\s,L]*)\\)");
+
+    // Map at most this many bytes at a time.  A multiple of 8 so that
+    // elements never straddle two mappings.
+    private static final int MAPPING_SIZE = 1 << 30;
+
+    // Zip signatures
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private File file;
+    private String name;
+    private long dataOffset;
+    private ByteOrder order;
+    private char kind;
+    private int itemSize;
+    private int length;
+
+    private NpyArray(File file, String name) {
+        this.file = file;
+        this.name = name;
+    }
+
+    /** Returns whether the given file starts like a <code>.npy</code> file. */
+    public static boolean isNpyFile(File file) throws IOException {
+        return startsWith(file, MAGIC);
+    }
+
+    /** Returns whether the given file starts like a <code>.npz</code> file. */
+    public static boolean isNpzFile(File file) throws IOException {
+        return startsWith(file, ZIP_MAGIC);
+    }
+
+    private static boolean startsWith(File file, byte[] magic)
+        throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        FileInputStream input = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[magic.length];
+            int length = 0;
+            int numberRead;
+            while (length < bytes.length &&
+                   (numberRead = input.read(bytes, length, bytes.length - length)) >= 0) {
+                length += numberRead;
+            }
+            if (length < magic.length) {
+                return false;
+            }
+            for (int index = 0; index < magic.length; index++) {
+                if (bytes[index] != magic[index]) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Opens the array in the given <code>.npy</code> file.
+     *
+     * @throws IOException if the file is not a valid <code>.npy</code>
+     * file or the array is not supported
+     */
+    public static NpyArray read(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            NpyArray array = new NpyArray(file, file.toString());
+            array.readHeader(channel, 0, channel.size());
+            return array;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Opens the arrays in the given <code>.npz</code> archive.  The
+     * arrays are named as in NumPy, that is, by their entry names
+     * without the ".npy" extension.
+     *
+     * @return A map from names to arrays in archive order
+     * @throws IOException if the file is not a valid archive, an entry
+     * is compressed, or an array is not supported
+     */
+    public static Map<String, NpyArray> readArchive(File file)
+        throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+
+            // Find the end of central directory record, which is
+            // followed by a comment of at most 65535 bytes
+            int tailSize = (int) Math.min(size, 22 + 65535);
+            ByteBuffer tail = readFully(channel, size - tailSize, tailSize);
+            int end = -1;
+            for (int index = tailSize - 22; index >= 0; index--) {
+                if (tail.getInt(index) == END_SIGNATURE) {
+                    end = index;
+                    break;
+                }
+            }
+            if (end < 0) {
+                throw new IOException(String.format("Not a zip archive: %s", file));
+            }
+            long numberEntries = tail.getShort(end + 10) & 0xffffL;
+            long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+            long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+            // Use the Zip64 record if the fields overflowed
+            if (numberEntries == 0xffffL || directorySize == 0xffffffffL ||
+                directoryOffset == 0xffffffffL) {
+                if (end < 20 || tail.getInt(end - 20) != ZIP64_LOCATOR_SIGNATURE) {
+                    throw new IOException(String.format("Not a valid zip archive: %s", file));
+                }
+                ByteBuffer record = readFully(channel, tail.getLong(end - 12), 56);
+                if (record.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new IOException(String.format("Not a valid zip archive: %s", file));
+                }
+                numberEntries = record.getLong(32);
+                directorySize = record.getLong(40);
+                directoryOffset = record.getLong(48);
+            }
+            if (directorySize > Integer.MAX_VALUE ||
+                directoryOffset + directorySize > size) {
+                throw new IOException(String.format("Not a valid zip archive: %s", file));
+            }
+
+            // Read the entries of the central directory
+            ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+            Map<String, NpyArray> arrays = new LinkedHashMap<String, NpyArray>();
+            int position = 0;
+            for (long entry = 0; entry < numberEntries; entry++) {
+                if (position + 46 > directory.limit() ||
+                    directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new IOException(String.format("Not a valid zip archive: %s", file));
+                }
+                int method = directory.getShort(position + 10) & 0xffff;
+                long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+                long uncompressedSize = directory.getInt(position + 24) & 0xffffffffL;
+                int nameLength = directory.getShort(position + 28) & 0xffff;
+                int extraLength = directory.getShort(position + 30) & 0xffff;
+                int commentLength = directory.getShort(position + 32) & 0xffff;
+                long localOffset = directory.getInt(position + 42) & 0xffffffffL;
+                String entryName = new String(directory.array(), position + 46,
+                                              nameLength, latin1);
+
+                // Replace overflowed fields with the Zip64 extra field,
+                // which has the overflowed fields in order
+                int extra = position + 46 + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = directory.getShort(extra) & 0xffff;
+                    int dataSize = directory.getShort(extra + 2) & 0xffff;
+                    if (id == 0x0001) {
+                        int field = extra + 4;
+                        if (uncompressedSize == 0xffffffffL) {
+                            uncompressedSize = directory.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == 0xffffffffL) {
+                            compressedSize = directory.getLong(field);
+                            field += 8;
+                        }
+                        if (localOffset == 0xffffffffL) {
+                            localOffset = directory.getLong(field);
+                        }
+                    }
+                    extra += 4 + dataSize;
+                }
+                position = extraEnd + commentLength;
+
+                if (!entryName.endsWith(".npy")) {
+                    continue;
+                }
+                if (method != 0) {
+                    throw new IOException(String.format("Compressed archive entries are not supported (use numpy.savez rather than numpy.savez_compressed): %s in %s", entryName, file));
+                }
+
+                // Find the data after the local header, whose extra
+                // field may differ from that in the central directory
+                ByteBuffer local = readFully(channel, localOffset, 30);
+                if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                    throw new IOException(String.format("Not a valid zip archive: %s", file));
+                }
+                long dataStart = localOffset + 30 +
+                    (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+                if (dataStart + compressedSize > size) {
+                    throw new IOException(String.format("Not a valid zip archive: %s", file));
+                }
+                String arrayName = entryName.substring(0, entryName.length() - 4);
+                NpyArray array = new NpyArray(file, entryName + " in " + file);
+                array.readHeader(channel, dataStart, compressedSize);
+                arrays.put(arrayName, array);
+            }
+            return arrays;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads exactly the given number of bytes at the given position
+     * into a little-endian buffer.
+     */
+    private static ByteBuffer readFully(FileChannel channel, long position,
+                                        int length)
+        throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Parses the header of the <code>.npy</code> data that occupies the
+     * given range of the channel.
+     */
+    private void readHeader(FileChannel channel, long offset, long size)
+        throws IOException {
+        // The magic, 2 version bytes, and a header length of 2 bytes
+        // (version 1) or 4 bytes (versions 2 and 3)
+        if (size < 10) {
+            throw new IOException(String.format("Not a NumPy array: %s", name));
+        }
+        ByteBuffer prefix = readFully(channel, offset, (int) Math.min(size, 12));
+        for (int index = 0; index < MAGIC.length; index++) {
+            if (prefix.get(index) != MAGIC[index]) {
+                throw new IOException(String.format("Not a NumPy array: %s", name));
+            }
+        }
+        int majorVersion = prefix.get(6);
+        long headerStart;
+        long headerLength;
+        if (majorVersion == 1) {
+            headerStart = 10;
+            headerLength = prefix.getShort(8) & 0xffff;
+        } else if ((majorVersion == 2 || majorVersion == 3) && size >= 12) {
+            headerStart = 12;
+            headerLength = prefix.getInt(8) & 0xffffffffL;
+        } else {
+            throw new IOException(String.format("Unsupported NumPy format version %s: %s", majorVersion, name));
+        }
+        if (headerStart + headerLength > size) {
+            throw new IOException(String.format("Not a valid NumPy array: %s", name));
+        }
+        ByteBuffer headerBytes = readFully(channel, offset + headerStart, (int) headerLength);
+        String header = new String(headerBytes.array(), latin1);
+
+        // The header is a Python dictionary literal like
+        // {'descr': '<f8', 'fortran_order': False, 'shape': (10,), }
+        Matcher descr = descrPattern.matcher(header);
+        if (!descr.find()) {
+            throw new IOException(String.format("Unsupported NumPy dtype: %s: %s", header.trim(), name));
+        }
+        order = descr.group(1).equals(">") ? ByteOrder.BIG_ENDIAN :
+            descr.group(1).equals("=") ? ByteOrder.nativeOrder() :
+            ByteOrder.LITTLE_ENDIAN;
+        kind = descr.group(2).charAt(0);
+        itemSize = Integer.parseInt(descr.group(3));
+        boolean supported;
+        switch (kind) {
+        case 'b':
+            supported = (itemSize == 1);
+            break;
+        case 'f':
+            supported = (itemSize == 4 || itemSize == 8);
+            break;
+        default:
+            supported = (itemSize == 1 || itemSize == 2 ||
+                         itemSize == 4 || itemSize == 8);
+        }
+        if (!supported) {
+            throw new IOException(String.format("Unsupported NumPy dtype: %s: %s", descr.group(), name));
+        }
+
+        Matcher shape = shapePattern.matcher(header);
+        if (!shape.find()) {
+            throw new IOException(String.format("Not a valid NumPy array: %s", name));
+        }
+        long numberElements = 1;
+        int numberLongDimensions = 0;
+        for (String dimension : shape.group(1).split(",")) {
+            dimension = dimension.trim();
+            if (dimension.endsWith("L")) {
+                dimension = dimension.substring(0, dimension.length() - 1);
+            }
+            if (dimension.isEmpty()) {
+                continue;
+            }
+            long extent = Long.parseLong(dimension);
+            if (extent > 1) {
+                numberLongDimensions++;
+            }
+            numberElements *= extent;
+        }
+        if (numberLongDimensions > 1) {
+            throw new IOException(String.format("Not a one-dimensional NumPy array: shape (%s): %s", shape.group(1), name));
+        }
+        if (numberElements > Integer.MAX_VALUE - 8) {
+            throw new IOException(String.format("Too many elements for an array: %s: %s", numberElements, name));
+        }
+        length = (int) numberElements;
+        dataOffset = offset + headerStart + headerLength;
+        if (headerStart + headerLength + (long) length * itemSize > size) {
+            throw new IOException(String.format("Not a valid NumPy array: %s", name));
+        }
+    }
+
+    /** Returns the number of elements. */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the NumPy type of the elements as a kind and a size in
+     * bytes, like "f8" or "i4".
+     */
+    public String dtype() {
+        return kind + Integer.toString(itemSize);
+    }
+
+    /**
+     * Reads the elements converted to doubles.  Integers of 8 bytes
+     * are rounded as by a cast.
+     */
+    public double[] toDoubles() throws IOException {
+        double[] values = new double[length];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            int index = 0;
+            while (index < length) {
+                int count = Math.min(length - index, MAPPING_SIZE / itemSize);
+                ByteBuffer buffer = map(channel, index, count);
+                if (kind == 'f' && itemSize == 8) {
+                    buffer.asDoubleBuffer().get(values, index, count);
+                } else {
+                    for (int element = 0; element < count; element++) {
+                        values[index + element] = getDouble(buffer, element);
+                    }
+                }
+                index += count;
+            }
+        } finally {
+            input.close();
+        }
+        return values;
+    }
+
+    /**
+     * Reads the elements converted to ints.  Booleans become 1 and 0.
+     *
+     * @throws IOException if an element is not an integer that fits
+     * in an int
+     */
+    public int[] toInts() throws IOException {
+        int[] values = new int[length];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            int index = 0;
+            while (index < length) {
+                int count = Math.min(length - index, MAPPING_SIZE / itemSize);
+                ByteBuffer buffer = map(channel, index, count);
+                if (kind == 'i' && itemSize == 4) {
+                    buffer.asIntBuffer().get(values, index, count);
+                } else {
+                    for (int element = 0; element < count; element++) {
+                        values[index + element] = getInt(buffer, element);
+                    }
+                }
+                index += count;
+            }
+        } finally {
+            input.close();
+        }
+        return values;
+    }
+
+    /** Maps the given range of elements. */
+    private ByteBuffer map(FileChannel channel, int index, int count)
+        throws IOException {
+        MappedByteBuffer buffer = channel.map(
+            FileChannel.MapMode.READ_ONLY,
+            dataOffset + (long) index * itemSize,
+            (long) count * itemSize);
+        buffer.order(order);
+        return buffer;
+    }
+
+    private double getDouble(ByteBuffer buffer, int element) {
+        int position = element * itemSize;
+        if (kind == 'f') {
+            return (itemSize == 8) ? buffer.getDouble(position) : buffer.getFloat(position);
+        } else if (kind == 'u' && itemSize == 8) {
+            return ArrayUtils.unsignedToDouble(buffer.getLong(position));
+        }
+        return getLong(buffer, position);
+    }
+
+    private int getInt(ByteBuffer buffer, int element) throws IOException {
+        int position = element * itemSize;
+        if (kind == 'f') {
+            double value = (itemSize == 8) ? buffer.getDouble(position) : buffer.getFloat(position);
+            if (value != (int) value) {
+                throw new IOException(String.format("Not an integer label: %s: %s", value, name));
+            }
+            return (int) value;
+        }
+        long value = getLong(buffer, position);
+        if (value != (int) value || (kind == 'u' && itemSize == 8 && value < 0)) {
+            throw new IOException(String.format("Label does not fit in an int: %s: %s", value, name));
+        }
+        return (int) value;
+    }
+
+    /** Reads an integer (or boolean) element at the given byte offset. */
+    private long getLong(ByteBuffer buffer, int position) {
+        boolean unsigned = (kind != 'i');
+        switch (itemSize) {
+        case 1:
+            return unsigned ? buffer.get(position) & 0xffL : buffer.get(position);
+        case 2:
+            return unsigned ? buffer.getShort(position) & 0xffffL : buffer.getShort(position);
+        case 4:
+            return unsigned ? buffer.getInt(position) & 0xffffffffL : buffer.getInt(position);
+        default:
+            return buffer.getLong(position);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Dictionary encoding of pairs of (nonnegative) ints: maps each
+ * distinct pair to a small int id.  Ids are assigned in order of
+ * first appearance starting from 0.  Like {@link LabelDictionary},
+ * this is an open-addressing hash table (with linear probing) of
+ * ids, so encoding creates no objects.
+ */
+class PairDictionary {
+    // The pair of each id packed into a long
+    private long[] pairs = new long[16];
+    private int size = 0;
+
+    // Hash table of ids + 1 (0 is an empty slot).  The length is a
+    // power of 2 and at least twice the size.
+    private int[] table = new int[32];
+
+    /** Returns the number of distinct pairs. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the id of the given pair, adding the pair if it is
+     * not already in the dictionary.
+     */
+    int encode(int first, int second) {
+        long pair = pack(first, second);
+        int slot = find(pair);
+        if (table[slot] != 0) {
+            return table[slot] - 1;
+        }
+        if (size == pairs.length) {
+            pairs = Arrays.copyOf(pairs, 2 * size);
+        }
+        pairs[size] = pair;
+        int id = size++;
+        table[slot] = id + 1;
+        if (2 * size > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the given pair or -1 if it is not in the
+     * dictionary.
+     */
+    int code(int first, int second) {
+        return table[find(pack(first, second))] - 1;
+    }
+
+    private static long pack(int first, int second) {
+        return ((long) first << 32) | (second & 0xffffffffL);
+    }
+
+    /**
+     * Returns the slot that contains the given pair or the empty
+     * slot where it belongs.
+     */
+    private int find(long pair) {
+        int mask = table.length - 1;
+        int slot = hash(pair) & mask;
+        while (table[slot] != 0 && pairs[table[slot] - 1] != pair) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Doubles the hash table and reinserts the ids. */
+    private void rehash() {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(pairs[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    private static int hash(long pair) {
+        // Mix all the bits (the finalizer of MurmurHash3) so that
+        // consecutive pairs spread over the table
+        pair ^= pair >>> 33;
+        pair *= 0xff51afd7ed558ccdL;
+        pair ^= pair >>> 33;
+        return (int) pair;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * <p>Reads a column of scores and a column of labels from a delimited
+ * text file using multiple threads.  The file is split into chunks of
+ * bytes whose boundaries are moved forward to the starts of lines.
+ * Each chunk is tokenized (see {@link CsvTokenizer}) on its own thread
+ * into arrays of primitives and then the chunks are concatenated in
+ * file order.  Therefore the rows are in the same order as when read
+ * sequentially.</p>
+ *
+ * <p>A chunk boundary can fall inside a quoted field that contains a
+ * line ending.  Then the chunk before the boundary ends inside quotes,
+ * and everything from the start of that chunk to the end of the file
+ * is read again sequentially.  (Each chunk starts at the start of a
+ * row as long as no chunk before it ends inside quotes.)</p>
+ *
+ * <p>The scores are parsed as doubles and the labels are reduced to
+ * whether they are positive: 1 for a positive label and 0 for any
+ * other label.</p>
+ */
+public class ParallelCsvReader {
+
+    /** Chunks are at least this many bytes. */
+    public static final int MINIMUM_CHUNK_SIZE = 1 << 20;
+
+    private File file;
+    private byte delimiter;
+    private int parallelism;
+    private int minimumChunkSize;
+    private double[] scores;
+    private int[] labels;
+
+    /**
+     * Creates a reader of the given file.
+     *
+     * @param file A regular (seekable) file
+     * @param delimiter The ASCII byte that separates fields
+     * @param parallelism The maximum number of threads to use
+     */
+    public ParallelCsvReader(File file, byte delimiter, int parallelism) {
+        this(file, delimiter, parallelism, MINIMUM_CHUNK_SIZE);
+    }
+
+    /** Creates a reader with the given minimum chunk size (for testing). */
+    ParallelCsvReader(File file, byte delimiter, int parallelism,
+                      int minimumChunkSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be positive.");
+        }
+        this.file = file;
+        this.delimiter = delimiter;
+        this.parallelism = parallelism;
+        this.minimumChunkSize = minimumChunkSize;
+    }
+
+    /**
+     * Reads the scores and labels.  Afterwards they are available from
+     * {@link #scores()} and {@link #labels()}.
+     *
+     * @param scoresColumn The 0-based column of the scores
+     * @param labelsColumn The 0-based column of the labels
+     * @param positiveLabel The encoded bytes of the positive label
+     * @throws NumberFormatException if a score is not a number
+     * @throws ArrayIndexOutOfBoundsException if a row is missing a
+     * column
+     */
+    public void readScoresLabels(final int scoresColumn,
+                                 final int labelsColumn,
+                                 final byte[] positiveLabel)
+        throws IOException {
+
+        FileInputStream input = new FileInputStream(file);
+        ExecutorService executor = null;
+        try {
+            final FileChannel channel = input.getChannel();
+            long size = channel.size();
+            int numberChunks = (int) Math.max(1, Math.min(
+                4L * parallelism, size / minimumChunkSize));
+            final long[] bounds = chunkBounds(channel, numberChunks);
+
+            // Parse each chunk into arrays
+            List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>(numberChunks);
+            for (int chunk = 0; chunk < numberChunks; chunk++) {
+                final long from = bounds[chunk];
+                final long to = bounds[chunk + 1];
+                tasks.add(new Callable<Chunk>() {
+                        public Chunk call() throws IOException {
+                            return readChunk(channel, from, to, scoresColumn,
+                                             labelsColumn, positiveLabel);
+                        }
+                    });
+            }
+            List<Chunk> chunks = new ArrayList<Chunk>(numberChunks);
+            if (numberChunks == 1) {
+                chunks.add(readChunk(channel, bounds[0], bounds[1],
+                                     scoresColumn, labelsColumn, positiveLabel));
+            } else {
+                executor = Executors.newFixedThreadPool(
+                    Math.min(parallelism, numberChunks));
+                for (Future<Chunk> future : executor.invokeAll(tasks)) {
+                    chunks.add(getResult(future));
+                }
+            }
+            // Check the chunks in order.  Reread from the first chunk
+            // that was split inside quotes.  The chunks after it may
+            // have failed to parse, so their errors do not count.
+            for (int chunk = 0; chunk < numberChunks; chunk++) {
+                if (chunks.get(chunk).error != null) {
+                    throw chunks.get(chunk).error;
+                }
+                if (chunks.get(chunk).endedInsideQuotes && chunk < numberChunks - 1) {
+                    chunks.subList(chunk, numberChunks).clear();
+                    Chunk rest = readChunk(channel, bounds[chunk], size,
+                                           scoresColumn, labelsColumn, positiveLabel);
+                    if (rest.error != null) {
+                        throw rest.error;
+                    }
+                    chunks.add(rest);
+                    break;
+                }
+            }
+
+            // Concatenate the chunks in order
+            int numberRows = 0;
+            for (Chunk chunk : chunks) {
+                numberRows += chunk.scores.size();
+            }
+            DoubleArrayList allScores = new DoubleArrayList(numberRows);
+            IntArrayList allLabels = new IntArrayList(numberRows);
+            for (Chunk chunk : chunks) {
+                allScores.addAll(chunk.scores);
+                allLabels.addAll(chunk.labels);
+            }
+            scores = allScores.trimmedArray();
+            labels = allLabels.trimmedArray();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            input.close();
+        }
+    }
+
+    /** Returns the scores that were read. */
+    public double[] scores() {
+        return scores;
+    }
+
+    /**
+     * Returns the labels that were read: 1 for positive and 0 for
+     * negative.
+     */
+    public int[] labels() {
+        return labels;
+    }
+
+    /**
+     * Splits the file into the given number of chunks of approximately
+     * equal size.  Each boundary is moved forward to the start of the
+     * next line.
+     *
+     * @return The bounds of the chunks.  Chunk i is [bounds[i],
+     * bounds[i + 1]).  Chunks may be empty.
+     */
+    static long[] chunkBounds(FileChannel channel, int numberChunks)
+        throws IOException {
+        long size = channel.size();
+        long[] bounds = new long[numberChunks + 1];
+        bounds[numberChunks] = size;
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int chunk = 1; chunk < numberChunks; chunk++) {
+            long bound = Math.max(bounds[chunk - 1], size * chunk / numberChunks);
+            // A line starts after "\n", "\r\n", or "\r" that is not
+            // followed by "\n".  Search forward starting from the byte
+            // before the bound in case the bound is already the start
+            // of a line.
+            if (bound > 0) {
+                long position = bound - 1;
+                boolean afterCarriageReturn = false;
+                search:
+                while (position < size) {
+                    buffer.clear();
+                    int numberRead = channel.read(buffer, position);
+                    if (numberRead <= 0) {
+                        position = size;
+                        break;
+                    }
+                    for (int index = 0; index < numberRead; index++) {
+                        byte b = buffer.get(index);
+                        if (afterCarriageReturn) {
+                            position += (b == '\n') ? index + 1 : index;
+                            break search;
+                        }
+                        if (b == '\n') {
+                            position += index + 1;
+                            break search;
+                        } else if (b == '\r') {
+                            afterCarriageReturn = true;
+                        }
+                    }
+                    position += numberRead;
+                }
+                bound = Math.min(position, size);
+            }
+            bounds[chunk] = bound;
+        }
+        return bounds;
+    }
+
+    /**
+     * Parses the rows in the given range of the file.  A parse error
+     * is kept in the chunk rather than thrown.
+     */
+    private Chunk readChunk(FileChannel channel, long from, long to,
+                            int scoresColumn, int labelsColumn,
+                            byte[] positiveLabel)
+        throws IOException {
+        Chunk chunk = new Chunk();
+        CsvTokenizer csv = new CsvTokenizer(
+            new ChannelRangeInputStream(channel, from, to), delimiter);
+        try {
+            while (csv.nextRow()) {
+                chunk.scores.add(csv.fieldDouble(scoresColumn));
+                chunk.labels.add(csv.fieldEquals(labelsColumn, positiveLabel) ? 1 : 0);
+            }
+        } catch (RuntimeException e) {
+            chunk.error = e;
+        }
+        chunk.endedInsideQuotes = csv.endedInsideQuotes();
+        return chunk;
+    }
+
+    /** Scores and labels parsed from a chunk. */
+    static class Chunk {
+        DoubleArrayList scores = new DoubleArrayList();
+        IntArrayList labels = new IntArrayList();
+        boolean endedInsideQuotes = false;
+        RuntimeException error = null;
+    }
+
+    /**
+     * Reads a range of a file channel with positional reads, so that
+     * multiple streams can read the same channel concurrently.
+     */
+    static class ChannelRangeInputStream extends InputStream {
+        private FileChannel channel;
+        private long position;
+        private long to;
+
+        ChannelRangeInputStream(FileChannel channel, long from, long to) {
+            this.channel = channel;
+            position = from;
+            this.to = to;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= to) {
+                return -1;
+            }
+            length = (int) Math.min(length, to - position);
+            int numberRead = channel.read(
+                ByteBuffer.wrap(bytes, offset, length), position);
+            if (numberRead < 0) {
+                return -1;
+            }
+            position += numberRead;
+            return numberRead;
+        }
+    }
+
+    /**
+     * Gets the result of the given future and rethrows any exception
+     * of the task.
+     */
+    static <T> T getResult(Future<T> future)
+        throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
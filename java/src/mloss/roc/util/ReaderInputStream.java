@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+
+/**
+ * Adapts a character reader into a byte input stream by encoding the
+ * characters with a character set.  This is the reverse of {@link
+ * java.io.InputStreamReader} and allows byte-level processing (such as
+ * {@link CsvTokenizer}) of input that is only available as a reader.
+ */
+public class ReaderInputStream extends InputStream {
+
+    private Reader reader;
+    private CharsetEncoder encoder;
+    private CharBuffer chars = CharBuffer.allocate(8192);
+    private ByteBuffer bytes = ByteBuffer.allocate(8192 * 4);
+    private boolean endOfInput;
+
+    /** Creates a stream of the given reader in the default character set. */
+    public ReaderInputStream(Reader reader) {
+        this(reader, Charset.defaultCharset());
+    }
+
+    /** Creates a stream of the given reader in the given character set. */
+    public ReaderInputStream(Reader reader, Charset charset) {
+        this.reader = reader;
+        encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Both buffers start out empty
+        chars.flip();
+        bytes.flip();
+    }
+
+    /**
+     * Encodes more characters into the byte buffer.
+     *
+     * @return Whether there are any bytes to read
+     */
+    private boolean fillBytes() throws IOException {
+        while (!bytes.hasRemaining()) {
+            if (endOfInput && !chars.hasRemaining()) {
+                return false;
+            }
+            // Read more characters
+            if (!endOfInput) {
+                chars.compact();
+                int numberRead = reader.read(chars);
+                if (numberRead < 0) {
+                    endOfInput = true;
+                }
+                chars.flip();
+            }
+            // Encode them
+            bytes.clear();
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (endOfInput && !chars.hasRemaining() && !result.isOverflow()) {
+                encoder.flush(bytes);
+            }
+            bytes.flip();
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBytes()) {
+            return -1;
+        }
+        return bytes.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fillBytes()) {
+            return -1;
+        }
+        int numberRead = Math.min(length, bytes.remaining());
+        bytes.get(buffer, offset, numberRead);
+        return numberRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
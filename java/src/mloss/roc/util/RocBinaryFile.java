@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * <p>Reads and writes the Roc binary format, a simple container of a
+ * column of scores and a column of labels that can be used without
+ * parsing.  The file is read by memory mapping (see {@link
+ * FileChannel#map}), so opening it is nearly instant regardless of its
+ * size and the operating system shares its pages among concurrent
+ * readers.</p>
+ *
+ * <p>The format is little-endian:</p>
+ * <pre>
+ * offset  size  contents
+ *      0     8  magic: "ROCBIN" 0x00 0x01 (the last byte is the version)
+ *      8     1  score type: 1 = float64, 2 = float32
+ *      9     1  label type: 1 = int8, 2 = int32
+ *     10     1  flags: bit 0 set if the labels are 1 (positive) or 0
+ *               (negative), that is, the positive label was already
+ *               applied when the file was written
+ *     11     5  zero
+ *     16     8  number of rows (int64)
+ *     24     8  zero
+ *     32        scores, then labels
+ * </pre>
+ */
+public class RocBinaryFile implements Closeable {
+
+    /** The bytes that start every Roc binary file. */
+    public static final byte[] MAGIC = {'R', 'O', 'C', 'B', 'I', 'N', 0, 1};
+
+    /** The size of the header in bytes. */
+    public static final int HEADER_SIZE = 32;
+
+    /** Types of the score column. */
+    public enum ScoreType {
+        FLOAT64(1, 8),
+        FLOAT32(2, 4);
+
+        final byte code;
+        final int size;
+
+        ScoreType(int code, int size) {
+            this.code = (byte) code;
+            this.size = size;
+        }
+    }
+
+    /** Types of the label column. */
+    public enum LabelType {
+        INT8(1, 1),
+        INT32(2, 4);
+
+        final byte code;
+        final int size;
+
+        LabelType(int code, int size) {
+            this.code = (byte) code;
+            this.size = size;
+        }
+    }
+
+    // The flag of labels that are 1 for positive and 0 for negative
+    private static final byte FLAG_POSITIVES = 1;
+
+    // Map at most this many bytes at a time.  A multiple of 8 so that
+    // elements never straddle two mappings.
+    private static final int MAPPING_SIZE = 1 << 30;
+
+    private FileInputStream input;
+    private FileChannel channel;
+    private ScoreType scoreType;
+    private LabelType labelType;
+    private boolean labelsArePositives;
+    private int numberRows;
+
+    /**
+     * Opens the given Roc binary file and reads its header.
+     *
+     * @throws IOException if the file is not a valid Roc binary file
+     */
+    public RocBinaryFile(File file) throws IOException {
+        input = new FileInputStream(file);
+        try {
+            channel = input.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {}
+            if (header.hasRemaining() || !hasMagic(header.array(), header.position())) {
+                throw new IOException(String.format("Not a Roc binary file: %s", file));
+            }
+            scoreType = scoreType(header.get(8));
+            labelType = labelType(header.get(9));
+            labelsArePositives = (header.get(10) & FLAG_POSITIVES) != 0;
+            long rows = header.getLong(16);
+            if (scoreType == null || labelType == null || rows < 0 ||
+                rows > Integer.MAX_VALUE ||
+                HEADER_SIZE + rows * (scoreType.size + labelType.size) > channel.size()) {
+                throw new IOException(String.format("Not a valid Roc binary file: %s", file));
+            }
+            numberRows = (int) rows;
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the given bytes (the start of a file) begin with
+     * the magic bytes of a Roc binary file.
+     */
+    public static boolean hasMagic(byte[] bytes, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int index = 0; index < MAGIC.length; index++) {
+            if (bytes[index] != MAGIC[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns whether the given file is a Roc binary file. */
+    public static boolean isRocBinaryFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        FileInputStream input = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[MAGIC.length];
+            int length = 0;
+            int numberRead;
+            while (length < bytes.length &&
+                   (numberRead = input.read(bytes, length, bytes.length - length)) >= 0) {
+                length += numberRead;
+            }
+            return hasMagic(bytes, length);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static ScoreType scoreType(byte code) {
+        for (ScoreType type : ScoreType.values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private static LabelType labelType(byte code) {
+        for (LabelType type : LabelType.values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the number of rows. */
+    public int numberRows() {
+        return numberRows;
+    }
+
+    /** Returns the type of the scores. */
+    public ScoreType scoreType() {
+        return scoreType;
+    }
+
+    /** Returns the type of the labels. */
+    public LabelType labelType() {
+        return labelType;
+    }
+
+    /**
+     * Returns whether the labels are 1 for positive and 0 for negative
+     * rather than arbitrary integers.
+     */
+    public boolean labelsArePositives() {
+        return labelsArePositives;
+    }
+
+    /** Reads the column of scores (widening float32 to float64). */
+    public double[] readScores() throws IOException {
+        double[] scores = new double[numberRows];
+        long position = HEADER_SIZE;
+        int row = 0;
+        while (row < numberRows) {
+            int count = Math.min(numberRows - row, MAPPING_SIZE / scoreType.size);
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY, position, (long) count * scoreType.size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (scoreType == ScoreType.FLOAT64) {
+                buffer.asDoubleBuffer().get(scores, row, count);
+            } else {
+                for (int index = 0; index < count; index++) {
+                    scores[row + index] = buffer.getFloat(4 * index);
+                }
+            }
+            row += count;
+            position += (long) count * scoreType.size;
+        }
+        return scores;
+    }
+
+    /** Reads the column of labels (widening int8 to int32). */
+    public int[] readLabels() throws IOException {
+        int[] labels = new int[numberRows];
+        long position = HEADER_SIZE + (long) numberRows * scoreType.size;
+        int row = 0;
+        while (row < numberRows) {
+            int count = Math.min(numberRows - row, MAPPING_SIZE / labelType.size);
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY, position, (long) count * labelType.size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (labelType == LabelType.INT32) {
+                buffer.asIntBuffer().get(labels, row, count);
+            } else {
+                for (int index = 0; index < count; index++) {
+                    labels[row + index] = buffer.get(index);
+                }
+            }
+            row += count;
+            position += (long) count * labelType.size;
+        }
+        return labels;
+    }
+
+    /** Closes the file. */
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Writes the given scores and labels to the given file in the Roc
+     * binary format.
+     *
+     * @throws IllegalArgumentException if the numbers of scores and
+     * labels differ or a label does not fit in the label type
+     */
+    public static void write(File file, double[] scores, ScoreType scoreType,
+                             int[] labels, LabelType labelType)
+        throws IOException {
+        write(file, scores, scoreType, labels, labelType, false);
+    }
+
+    /**
+     * Writes the given scores and labels to the given file in the Roc
+     * binary format, marking whether the labels are 1 for positive and
+     * 0 for negative (see {@link #labelsArePositives()}).
+     *
+     * @throws IllegalArgumentException if the numbers of scores and
+     * labels differ, a label does not fit in the label type, or the
+     * labels are marked as positives but are not all 1 or 0
+     */
+    public static void write(File file, double[] scores, ScoreType scoreType,
+                             int[] labels, LabelType labelType,
+                             boolean labelsArePositives)
+        throws IOException {
+        if (scores.length != labels.length) {
+            throw new IllegalArgumentException("The number of scores does not equal the number of labels.");
+        }
+        if (labelsArePositives) {
+            for (int label : labels) {
+                if (label != 0 && label != 1) {
+                    throw new IllegalArgumentException(String.format("Label is not 1 (positive) or 0 (negative): %s", label));
+                }
+            }
+        }
+        if (labelType == LabelType.INT8) {
+            for (int label : labels) {
+                if (label != (byte) label) {
+                    throw new IllegalArgumentException(String.format("Label does not fit in 8 bits: %s", label));
+                }
+            }
+        }
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            FileChannel channel = output.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(MAGIC)
+                .put(scoreType.code)
+                .put(labelType.code)
+                .put(labelsArePositives ? FLAG_POSITIVES : 0)
+                .put(new byte[5])
+                .putLong(scores.length)
+                .putLong(0);
+            for (double score : scores) {
+                if (buffer.remaining() < 8) {
+                    flush(channel, buffer);
+                }
+                if (scoreType == ScoreType.FLOAT64) {
+                    buffer.putDouble(score);
+                } else {
+                    buffer.putFloat((float) score);
+                }
+            }
+            for (int label : labels) {
+                if (buffer.remaining() < 4) {
+                    flush(channel, buffer);
+                }
+                if (labelType == LabelType.INT32) {
+                    buffer.putInt(label);
+                } else {
+                    buffer.put((byte) label);
+                }
+            }
+            flush(channel, buffer);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer)
+        throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
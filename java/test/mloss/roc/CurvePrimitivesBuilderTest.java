@@ -6,7 +6,9 @@
 package mloss.roc;
 
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 import org.junit.Before;
@@ -128,6 +130,108 @@ public class CurvePrimitivesBuilderTest {
         assertEquals(0.5, curve.rocArea(), CurveTest.TOLERANCE);
     }
 
+    /**
+     * Tests that building from arrays gives exactly the same curve as
+     * building from the equivalent lists of objects, including for
+     * ties and special values.
+     */
+    @Test
+    public void testBuildWithScoresLabelsSameAsBuilder() {
+        double[] specialScores = {
+            0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MAX_VALUE,
+        };
+        Random random = new Random(5);
+        for (int trial = 0; trial < 100; trial++) {
+            int size = 1 + random.nextInt(200);
+            double[] scores = new double[size];
+            int[] labels = new int[size];
+            for (int index = 0; index < size; index++) {
+                // Mix a few distinct values with many ties
+                switch (random.nextInt(3)) {
+                case 0:
+                    scores[index] = random.nextGaussian();
+                    break;
+                case 1:
+                    scores[index] = random.nextInt(5);
+                    break;
+                default:
+                    scores[index] = specialScores[random.nextInt(specialScores.length)];
+                }
+                labels[index] = random.nextInt(3);
+            }
+            Curve expected = new Curve.Builder<Double, Integer>()
+                .scores(Curve.PrimitivesBuilder.primitiveArrayToList(scores))
+                .labels(Curve.PrimitivesBuilder.primitiveArrayToList(labels))
+                .positiveLabel(2)
+                .build();
+            Curve actual = builder.scores(scores).labels(labels)
+                .positiveLabel(2).build();
+            assertArrayEquals(expected.truePositiveCounts, actual.truePositiveCounts);
+            assertArrayEquals(expected.falsePositiveCounts, actual.falsePositiveCounts);
+        }
+    }
+
+    /**
+     * Tests mixing arrays of primitives with sequences of objects.
+     */
+    @Test
+    public void testBuildWithMixedArraysSequences() {
+        Curve curve = builder.scores(scores)
+            .labels(Curve.PrimitivesBuilder.primitiveArrayToList(labels))
+            .build();
+        assertArrayEquals(posCounts, curve.truePositiveCounts);
+        assertArrayEquals(negCounts, curve.falsePositiveCounts);
+    }
+
+    /**
+     * Tests that a comparator is used when ranking arrays of
+     * primitives.
+     */
+    @Test
+    public void testBuildWithScoresLabelsComparator() {
+        Curve curve = new Curve.PrimitivesBuilder()
+            .scores(new double[] {0.9, 0.8, 0.3, 0.1})
+            .labels(new int[] {1, 1, 0, 0})
+            .comparator(Collections.reverseOrder())
+            .build();
+        assertEquals(0.0, curve.rocArea(), 0.0);
+        Curve expected = new Curve.Builder<Double, Integer>()
+            .scores(Curve.PrimitivesBuilder.primitiveArrayToList(scores))
+            .labels(Curve.PrimitivesBuilder.primitiveArrayToList(labels))
+            .comparator(Collections.reverseOrder())
+            .positiveLabel(1)
+            .build();
+        Curve actual = builder.scores(scores).labels(labels)
+            .comparator(Collections.reverseOrder())
+            .build();
+        assertArrayEquals(expected.truePositiveCounts, actual.truePositiveCounts);
+        assertArrayEquals(expected.falsePositiveCounts, actual.falsePositiveCounts);
+    }
+
+    /**
+     * Tests that building with a comparator leaves the builder as it
+     * was, so building again gives the same curve.
+     */
+    @Test
+    public void testBuildWithScoresLabelsComparatorTwice() {
+        builder.scores(scores).labels(labels)
+            .comparator(Collections.reverseOrder());
+        Curve first = builder.build();
+        assertSame(scores, builder.scoresArray);
+        assertSame(labels, builder.labelsArray);
+        assertNull(builder.scores);
+        assertNull(builder.labels);
+        Curve second = builder.build();
+        assertArrayEquals(first.truePositiveCounts, second.truePositiveCounts);
+        assertArrayEquals(first.falsePositiveCounts, second.falsePositiveCounts);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidState_paSize() {
+        builder.scores(scores).labels(new int[] {1, 0}).build();
+    }
+
     //@Test public void testBuildWithScoresLabelsWeights() {
     //}
 
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link CurveSketch}. */
+public class CurveSketchTest {
+
+    @Test
+    public void testExactWhenSmall() {
+        Random random = new Random(97);
+        double[] scores = RankingTest.makeScores(random, 200);
+        int[] labels = RankingTest.makeLabels(random, scores.length, 0.5);
+        Curve expected = RankingTest.buildReference(scores, labels, 1);
+        Curve actual = new CurveSketch(256).add(scores, labels, 1).build();
+        assertArrayEquals(expected.truePositiveCounts, actual.truePositiveCounts);
+        assertArrayEquals(expected.falsePositiveCounts, actual.falsePositiveCounts);
+    }
+
+    @Test
+    public void testErrorBound() {
+        // Compare the number of true and false positives of the exact
+        // and approximate curves at a threshold of every score
+        Random random = new Random(101);
+        double[] scores = new double[30000];
+        int[] labels = RankingTest.makeLabels(random, scores.length, 0.5);
+        for (int index = 0; index < scores.length; index++) {
+            scores[index] = random.nextGaussian() + labels[index];
+        }
+        CurveSketch sketch = new CurveSketch(64).add(scores, labels, 1);
+        Curve curve = sketch.build();
+        double[] thresholds = RankingTest.makeScores(random, 200);
+        for (double threshold : thresholds) {
+            long truePositives = 0;
+            long falsePositives = 0;
+            for (int index = 0; index < scores.length; index++) {
+                if (Double.compare(scores[index], threshold) >= 0) {
+                    if (labels[index] == 1) {
+                        truePositives++;
+                    } else {
+                        falsePositives++;
+                    }
+                }
+            }
+            assertTrue(Math.abs(sketch.positives().countAtLeast(threshold) - truePositives)
+                       <= sketch.maximumTruePositiveError());
+            assertTrue(Math.abs(sketch.negatives().countAtLeast(threshold) - falsePositives)
+                       <= sketch.maximumFalsePositiveError());
+        }
+        // Totals are exact
+        Curve exact = new Curve.PrimitivesBuilder()
+            .scores(scores).labels(labels).build();
+        assertEquals(exact.totalPositives, curve.totalPositives);
+        assertEquals(exact.totalNegatives, curve.totalNegatives);
+        assertEquals(exact.rocArea(), curve.rocArea(), 0.01);
+    }
+
+    @Test
+    public void testMerge() {
+        Random random = new Random(103);
+        double[] scores = RankingTest.makeScores(random, 1000);
+        int[] labels = RankingTest.makeLabels(random, scores.length, 0.5);
+        CurveSketch whole = new CurveSketch(2048).add(scores, labels, 1);
+        CurveSketch part1 = new CurveSketch(2048);
+        CurveSketch part2 = new CurveSketch(2048);
+        for (int index = 0; index < scores.length; index++) {
+            (index % 3 == 0 ? part1 : part2).add(scores[index], labels[index] == 1);
+        }
+        Curve expected = whole.build();
+        Curve actual = part1.merge(part2).build();
+        assertArrayEquals(expected.truePositiveCounts, actual.truePositiveCounts);
+        assertArrayEquals(expected.falsePositiveCounts, actual.falsePositiveCounts);
+    }
+
+    @Test
+    public void testSerializable() throws IOException, ClassNotFoundException {
+        Random random = new Random(107);
+        double[] scores = RankingTest.makeScores(random, 5000);
+        int[] labels = RankingTest.makeLabels(random, scores.length, 0.5);
+        CurveSketch sketch = new CurveSketch(64).add(scores, labels, 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(sketch);
+        output.close();
+        ObjectInputStream input = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        CurveSketch copy = (CurveSketch) input.readObject();
+        Curve expected = sketch.build();
+        Curve actual = copy.build();
+        assertArrayEquals(expected.truePositiveCounts, actual.truePositiveCounts);
+        assertArrayEquals(expected.falsePositiveCounts, actual.falsePositiveCounts);
+        assertEquals(sketch.maximumTruePositiveError(), copy.maximumTruePositiveError());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        new CurveSketch().build();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link ExternalBuilder}. */
+public class ExternalBuilderTest {
+
+    /** A memory budget that results in the smallest buffer. */
+    public static final long smallMemory = 1;
+
+    public static void assertSameCounts(Curve expected, Curve actual) {
+        assertArrayEquals(expected.truePositiveCounts, actual.truePositiveCounts);
+        assertArrayEquals(expected.falsePositiveCounts, actual.falsePositiveCounts);
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        Random random = new Random(43);
+        double[] scores = RankingTest.makeScores(random, 500);
+        int[] labels = RankingTest.makeLabels(random, scores.length, 0.5);
+        Curve expected = RankingTest.buildReference(scores, labels, 1);
+        Curve actual = new ExternalBuilder(smallMemory)
+            .add(scores, labels, 1).build();
+        assertSameCounts(expected, actual);
+    }
+
+    @Test
+    public void testSpilledRuns() throws IOException {
+        // Several runs that are merged at once
+        Random random = new Random(47);
+        double[] scores = RankingTest.makeScores(
+            random, ExternalBuilder.MINIMUM_CAPACITY * 10 + 17);
+        int[] labels = RankingTest.makeLabels(random, scores.length, 0.5);
+        Curve expected = RankingTest.buildReference(scores, labels, 1);
+        Curve actual = new ExternalBuilder(smallMemory)
+            .add(scores, labels, 1).build();
+        assertSameCounts(expected, actual);
+    }
+
+    @Test
+    public void testMergePasses() throws IOException {
+        // More runs than can be merged at once
+        Random random = new Random(53);
+        double[] scores = RankingTest.makeScores(
+            random,
+            ExternalBuilder.MINIMUM_CAPACITY * (ExternalBuilder.MERGE_WIDTH * 2 + 3));
+        int[] labels = RankingTest.makeLabels(random, scores.length, 0.5);
+        int[][] expected = Ranking.rankCounts(scores, labels, 1);
+        Curve actual = new ExternalBuilder(smallMemory)
+            .add(scores, labels, 1).build();
+        assertArrayEquals(expected[0], actual.truePositiveCounts);
+        assertArrayEquals(expected[1], actual.falsePositiveCounts);
+    }
+
+    @Test
+    public void testTempFilesDeleted() throws IOException {
+        File directory = File.createTempFile("roc-test-", "");
+        directory.delete();
+        directory.mkdir();
+        try {
+            Random random = new Random(59);
+            double[] scores = RankingTest.makeScores(
+                random, ExternalBuilder.MINIMUM_CAPACITY * 3);
+            int[] labels = RankingTest.makeLabels(random, scores.length, 0.5);
+            ExternalBuilder builder = new ExternalBuilder(smallMemory, directory)
+                .add(scores, labels, 1);
+            assertEquals(2, directory.list().length);
+            builder.build();
+            assertEquals(0, directory.list().length);
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testVarLong() throws IOException {
+        long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        for (long value : values) {
+            ExternalBuilder.writeVarLong(output, value);
+        }
+        DataInputStream input = new DataInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        for (long value : values) {
+            assertEquals(value, ExternalBuilder.readVarLong(input));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() throws IOException {
+        new ExternalBuilder(smallMemory).build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuildTwice() throws IOException {
+        ExternalBuilder builder = new ExternalBuilder(smallMemory).add(0.5, true);
+        builder.build();
+        builder.build();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link HistogramBuilder}. */
+public class HistogramBuilderTest {
+
+    @Test
+    public void testBinIndex() {
+        HistogramBuilder builder = new HistogramBuilder(4);
+        assertEquals(0, builder.binIndex(0.0));
+        assertEquals(0, builder.binIndex(0.2));
+        assertEquals(1, builder.binIndex(0.25));
+        assertEquals(2, builder.binIndex(0.5));
+        assertEquals(3, builder.binIndex(0.99));
+        // Out of range
+        assertEquals(3, builder.binIndex(1.0));
+        assertEquals(3, builder.binIndex(1.5));
+        assertEquals(3, builder.binIndex(Double.POSITIVE_INFINITY));
+        assertEquals(3, builder.binIndex(Double.NaN));
+        assertEquals(0, builder.binIndex(-0.5));
+        assertEquals(0, builder.binIndex(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void testBinBoundary() {
+        HistogramBuilder builder = new HistogramBuilder(4, -1.0, 1.0);
+        assertEquals(-1.0, builder.binBoundary(0), 0.0);
+        assertEquals(0.0, builder.binBoundary(2), 0.0);
+        assertEquals(1.0, builder.binBoundary(4), 0.0);
+    }
+
+    @Test
+    public void testBuildSameAsExactWithOneScorePerBin() {
+        // Scores at the centers of bins are exact
+        Random random = new Random(61);
+        int numberBins = 100;
+        int size = 1000;
+        double[] scores = new double[size];
+        int[] labels = new int[size];
+        for (int index = 0; index < size; index++) {
+            scores[index] = (random.nextInt(numberBins) + 0.5) / numberBins;
+            labels[index] = random.nextInt(2);
+        }
+        Curve expected = new Curve.PrimitivesBuilder()
+            .scores(scores).labels(labels).build();
+        HistogramBuilder builder = new HistogramBuilder(numberBins)
+            .add(scores, labels, 1);
+        Curve actual = builder.build();
+        assertArrayEquals(expected.truePositiveCounts, actual.truePositiveCounts);
+        assertArrayEquals(expected.falsePositiveCounts, actual.falsePositiveCounts);
+        assertEquals(expected.rocArea(), actual.rocArea(), 1e-12);
+    }
+
+    @Test
+    public void testMaximumRocAreaError() {
+        Random random = new Random(67);
+        int size = 5000;
+        double[] scores = new double[size];
+        int[] labels = new int[size];
+        for (int index = 0; index < size; index++) {
+            labels[index] = random.nextInt(2);
+            scores[index] = Math.min(1.0, Math.max(0.0, 0.5 + 0.1 * labels[index] + 0.2 * random.nextGaussian()));
+        }
+        double exactArea = new Curve.PrimitivesBuilder()
+            .scores(scores).labels(labels).build().rocArea();
+        int[] numbersBins = {1, 2, 10, 1000};
+        for (int numberBins : numbersBins) {
+            HistogramBuilder builder = new HistogramBuilder(numberBins)
+                .add(scores, labels, 1);
+            double error = builder.maximumRocAreaError();
+            assertTrue(Math.abs(exactArea - builder.build().rocArea()) <= error);
+        }
+        // A single bin has the largest possible error
+        assertEquals(0.5, new HistogramBuilder(1).add(scores, labels, 1)
+                     .maximumRocAreaError(), 0.0);
+        // Perfectly separated bins have no error
+        assertEquals(0.0, new HistogramBuilder(2)
+                     .add(0.9, true).add(0.1, false)
+                     .maximumRocAreaError(), 0.0);
+    }
+
+    @Test
+    public void testAddBuilder() {
+        HistogramBuilder builder1 = new HistogramBuilder(10)
+            .add(0.95, true).add(0.35, false);
+        HistogramBuilder builder2 = new HistogramBuilder(10)
+            .add(0.55, true).add(0.35, true);
+        Curve curve = builder1.add(builder2).build();
+        assertArrayEquals(new int[] {0, 1, 2, 3}, curve.truePositiveCounts);
+        assertArrayEquals(new int[] {0, 0, 0, 1}, curve.falsePositiveCounts);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddBuilderDifferentBins() {
+        new HistogramBuilder(10).add(new HistogramBuilder(11));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        new HistogramBuilder(10).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        new HistogramBuilder(10, 1.0, 1.0);
+    }
+}
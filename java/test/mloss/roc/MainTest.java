@@ -10,13 +10,24 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import org.hamcrest.Matcher;
 import org.junit.Test;
 
+import mloss.roc.util.ArrowFileTest;
+import mloss.roc.util.ConcatenatedGzipInputStreamTest;
+import mloss.roc.util.NpyArrayTest;
+
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
@@ -244,6 +255,32 @@ public class MainTest {
         assertThat(outputString.toString(), yamlMatcher);
     }
 
+    @Test
+    public void run_rankedLabelsAreaReports()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        // Only areas are reported, so the labels are streamed into an
+        // accumulator instead of a curve.  The areas are the same.
+        File labelsFile = makeTempFileWithContents(lblsCsv);
+        List<Integer> labels = new ArrayList<Integer>();
+        for (String line : lblsCsv.split("\n")) {
+            labels.add(Integer.valueOf(line));
+        }
+        Curve curve = new Curve(labels, 1);
+        String[] cmd = {
+            "--labels", labelsFile.getAbsolutePath(),
+            "--report", "rocArea,prArea",
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        StringWriter expected = new StringWriter();
+        PrintWriter expectedOutput = new PrintWriter(expected, true);
+        Reports.rocArea(curve, expectedOutput);
+        Reports.prArea(curve, expectedOutput);
+        assertEquals(expected.toString(), outputString.toString());
+    }
+
     @Test
     public void run_scoresLabelsTogether()
         throws Main.Exception, FileNotFoundException, IOException {
@@ -274,6 +311,292 @@ public class MainTest {
         assertThat(outputString.toString(), yamlMatcher);
     }
 
+    @Test
+    public void run_scoresLabelsTogetherWithMemory()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        String[] cmd = {
+            "--scores-labels", "-",
+            "--memory", "1",
+        };
+        makeMain(scrsLblsCsv);
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    @Test
+    public void run_scoresLabelsTogetherQuoted()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        // Quote the labels and make the positive label contain the
+        // delimiter
+        String quoted = scrsLblsCsv
+            .replace(",1\n", ",\"yes, \"\"1\"\"\"\r\n")
+            .replace(",0\n", ",\"no\"\r\n");
+        String[] cmd = {
+            "--scores-labels", "-",
+            "--positive", "yes, \"1\"",
+        };
+        makeMain(quoted);
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    @Test
+    public void run_scoresLabelsTogetherWithThreads()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresLabelsFile = makeTempFileWithContents(scrsLblsCsv);
+        String[] threads = {"1", "4"};
+        for (String numberThreads : threads) {
+            String[] cmd = {
+                "--scores-labels", scoresLabelsFile.getAbsolutePath(),
+                "--threads", numberThreads,
+            };
+            makeMain("");
+            main.run(cmd);
+            assertEquals("", errorString.toString());
+            assertThat(outputString.toString(), yamlMatcher);
+        }
+    }
+
+    @Test
+    public void run_scoresLabelsToBinary()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresLabelsFile = makeTempFileWithContents(scrsLblsCsv);
+        File binaryFile = makeTempFileWithContents("");
+        String[] convertCmd = {
+            "--scores-labels", scoresLabelsFile.getAbsolutePath(),
+            "--to-binary", binaryFile.getAbsolutePath(),
+        };
+        makeMain("");
+        main.run(convertCmd);
+        assertEquals("", errorString.toString());
+        assertEquals("", outputString.toString());
+
+        String[] cmd = {
+            "--scores-labels", binaryFile.getAbsolutePath(),
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    @Test
+    public void run_scoresLabelsToBinary_stringLabel()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresLabelsFile = makeTempFileWithContents(
+            scrsLblsCsv.replace(",1\n", ",pos\n").replace(",0\n", ",neg\n"));
+        File binaryFile = makeTempFileWithContents("");
+        String[] convertCmd = {
+            "--scores-labels", scoresLabelsFile.getAbsolutePath(),
+            "--positive", "pos",
+            "--to-binary", binaryFile.getAbsolutePath(),
+        };
+        makeMain("");
+        main.run(convertCmd);
+        assertEquals("", errorString.toString());
+
+        // The labels of the binary file already match the positive label
+        String[] cmd = {
+            "--scores-labels", binaryFile.getAbsolutePath(),
+            "--positive", "pos",
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    @Test
+    public void run_separateScoresLabelsToBinary()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents(scrsCsv);
+        File labelsFile = makeTempFileWithContents(lblsCsv);
+        File binaryFile = makeTempFileWithContents("");
+        String[] convertCmd = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--labels", labelsFile.getAbsolutePath(),
+            "--to-binary", binaryFile.getAbsolutePath(),
+        };
+        makeMain("");
+        main.run(convertCmd);
+        assertEquals("", errorString.toString());
+
+        String[] cmd = {
+            "--scores-labels", binaryFile.getAbsolutePath(),
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    /** Returns the scores and labels of scrsLblsCsv as NumPy arrays. */
+    private byte[][] scrsLblsNpy() {
+        String[] lines = scrsLblsCsv.split("\n");
+        double[] scores = new double[lines.length];
+        int[] labels = new int[lines.length];
+        for (int index = 0; index < lines.length; index++) {
+            String[] fields = lines[index].split(",");
+            scores[index] = Double.parseDouble(fields[0]);
+            labels[index] = Integer.parseInt(fields[1]);
+        }
+        String shape = String.format("(%s,)", lines.length);
+        return new byte[][] {
+            NpyArrayTest.npy("<f8", shape, NpyArrayTest.float64s(scores, ByteOrder.LITTLE_ENDIAN)),
+            NpyArrayTest.npy("<i4", shape, NpyArrayTest.int32s(labels, ByteOrder.LITTLE_ENDIAN)),
+        };
+    }
+
+    @Test
+    public void run_scoresLabelsNpz()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        byte[][] arrays = scrsLblsNpy();
+        File archiveFile = makeTempFileWithContents("");
+        NpyArrayTest.writeArchive(archiveFile, true,
+                                  "scores", arrays[0], "labels", arrays[1]);
+        String[] cmd = {
+            "--scores-labels", archiveFile.getAbsolutePath(),
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    @Test
+    public void run_separateScoresLabelsNpy()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        byte[][] arrays = scrsLblsNpy();
+        File scoresFile = makeTempFileWithContents("");
+        File labelsFile = makeTempFileWithContents("");
+        NpyArrayTest.write(scoresFile, arrays[0]);
+        NpyArrayTest.write(labelsFile, arrays[1]);
+        String[] cmd = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--labels", labelsFile.getAbsolutePath(),
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    @Test
+    public void run_scoresLabelsArrow()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        // A table with the labels before the scores and an extra column
+        String[] lines = scrsLblsCsv.split("\n");
+        String[] ids = new String[lines.length];
+        String[] labels = new String[lines.length];
+        double[] scores = new double[lines.length];
+        for (int index = 0; index < lines.length; index++) {
+            String[] fields = lines[index].split(",");
+            ids[index] = "row" + index;
+            scores[index] = Double.parseDouble(fields[0]);
+            labels[index] = fields[1];
+        }
+        File arrowFile = makeTempFileWithContents("");
+        ArrowFileTest.writeArrowFile(
+            arrowFile, new String[] {"id", "label", "score"},
+            new Object[] {ids, labels, scores}, lines.length, 4);
+        String[] cmd = {
+            "--scores-labels", arrowFile.getAbsolutePath(),
+            "--scores-name", "score",
+            "--labels-name", "label",
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    @Test
+    public void run_scoresLabelsGzip()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        // Two gzip members, as from concatenating gzip files
+        byte[] text = scrsLblsCsv.getBytes("US-ASCII");
+        int middle = text.length / 2;
+        File scoresLabelsFile = makeTempFileWithContents("");
+        NpyArrayTest.write(scoresLabelsFile, ConcatenatedGzipInputStreamTest.concat(
+            ConcatenatedGzipInputStreamTest.gzip(Arrays.copyOfRange(text, 0, middle)),
+            ConcatenatedGzipInputStreamTest.gzip(Arrays.copyOfRange(text, middle, text.length))));
+        String[] threads = {"1", "4"};
+        for (String numberThreads : threads) {
+            String[] cmd = {
+                "--scores-labels", scoresLabelsFile.getAbsolutePath(),
+                "--threads", numberThreads,
+            };
+            makeMain("");
+            main.run(cmd);
+            assertEquals("", errorString.toString());
+            assertThat(outputString.toString(), yamlMatcher);
+        }
+    }
+
+    @Test
+    public void openFileOrInputStream_stdinTwice() throws IOException {
+        // Checking for compression peeks at bytes that a second check
+        // would lose
+        makeMain(scrsLblsCsv);
+        InputStream first = main.openFileOrInputStream("-");
+        InputStream stdin = main.openFileOrInputStream("-");
+        assertSame(first, stdin);
+        byte[] bytes = new byte[scrsLblsCsv.length() + 1];
+        int length = 0;
+        int numberRead;
+        while ((numberRead = stdin.read(bytes, length, bytes.length - length)) > 0) {
+            length += numberRead;
+        }
+        assertEquals(scrsLblsCsv, new String(bytes, 0, length, "US-ASCII"));
+    }
+
+    @Test
+    public void run_separateScoresLabelsGzip()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents("");
+        NpyArrayTest.write(scoresFile, ConcatenatedGzipInputStreamTest.gzip(
+            scrsCsv.getBytes("US-ASCII")));
+        File labelsFile = makeTempFileWithContents(lblsCsv);
+        String[] cmd = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--labels", labelsFile.getAbsolutePath(),
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    @Test
+    public void run_separateScoresLabelsInOrderWithMemory()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents(scrsCsv);
+        File labelsFile = makeTempFileWithContents(lblsCsv);
+        String[] cmd = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--labels", labelsFile.getAbsolutePath(),
+            "--memory", "1",
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
     @Test
     public void run_separateScoresLabelsInOrder()
         throws Main.Exception, FileNotFoundException, IOException {
@@ -308,6 +631,67 @@ public class MainTest {
         assertThat(outputString.toString(), yamlMatcher);
     }
 
+    @Test
+    public void run_separateScoresLabelsWithThreads()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents(keysScrsCsv);
+        File labelsFile = makeTempFileWithContents(keysLblsCsv);
+        String[] threads = {"1", "4"};
+        for (String numberThreads : threads) {
+            // In order
+            String[] cmd = {
+                "--scores", scoresFile.getAbsolutePath(),
+                "--scores-column", "2",
+                "--labels", labelsFile.getAbsolutePath(),
+                "--labels-column", "1",
+                "--threads", numberThreads,
+            };
+            makeMain("");
+            main.run(cmd);
+            assertEquals("", errorString.toString());
+            assertThat(outputString.toString(), yamlMatcher);
+
+            // Joined
+            String[] joinCmd = {
+                "--scores", scoresFile.getAbsolutePath(),
+                "--scores-key", "3,1",
+                "--scores-column", "2",
+                "--labels", labelsFile.getAbsolutePath(),
+                "--labels-key", "2,3",
+                "--labels-column", "1",
+                "--threads", numberThreads,
+            };
+            makeMain("");
+            main.run(joinCmd);
+            assertEquals("", errorString.toString());
+            assertThat(outputString.toString(), yamlMatcher);
+        }
+    }
+
+    @Test
+    public void run_separateScoresLabelsWithThreads_differentLengths()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents(scrsCsv);
+        File labelsFile = makeTempFileWithContents(lblsCsv + "1\n");
+        String[] threads = {"1", "4"};
+        for (String numberThreads : threads) {
+            String[] cmd = {
+                "--scores", scoresFile.getAbsolutePath(),
+                "--labels", labelsFile.getAbsolutePath(),
+                "--threads", numberThreads,
+            };
+            makeMain("");
+            try {
+                main.run(cmd);
+                fail("Exception not thrown for inputs of different lengths.");
+            } catch (IllegalArgumentException e) {
+                assertEquals("The number of scores does not equal the number of labels.", e.getMessage());
+            }
+        }
+    }
+
     @Test
     public void run_joinedScoresLabels()
         throws Main.Exception, FileNotFoundException, IOException {
@@ -328,6 +712,224 @@ public class MainTest {
         assertThat(outputString.toString(), yamlMatcher);
     }
 
+    private static String[] concatArgs(String[] args1, String[] args2) {
+        List<String> args = new ArrayList<String>(Arrays.asList(args1));
+        args.addAll(Arrays.asList(args2));
+        return args.toArray(new String[args.size()]);
+    }
+
+    @Test
+    public void run_joinedMultipleScores()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        // Different scores in a different order for a second model
+        File[] scoresFiles = {
+            makeTempFileWithContents(keysScrsCsv),
+            makeTempFileWithContents(sortLines(
+                keysScrsCsv.replace("0.03331158540273116", "0.99"), 0)),
+        };
+        File labelsFile = makeTempFileWithContents(keysLblsCsv);
+        String[] joinOptions = {
+            "--scores-key", "3,1",
+            "--scores-column", "2",
+            "--labels", labelsFile.getAbsolutePath(),
+            "--labels-key", "2,3",
+            "--labels-column", "1",
+            "--report", "rocArea", "--report", "prArea",
+        };
+
+        // The reports for each scores file separately
+        StringBuilder expected = new StringBuilder();
+        for (File scoresFile : scoresFiles) {
+            makeMain("");
+            main.run(concatArgs(
+                new String[] {"--scores", scoresFile.getAbsolutePath()}, joinOptions));
+            expected.append(outputString.toString());
+        }
+
+        // The reports for both scores files together
+        makeMain("");
+        main.run(concatArgs(
+            new String[] {
+                "--scores", scoresFiles[0].getAbsolutePath(),
+                "--scores", scoresFiles[1].getAbsolutePath(),
+            },
+            joinOptions));
+        assertEquals("", errorString.toString());
+        assertEquals(expected.toString(), outputString.toString());
+        assertEquals(4, outputString.toString().split("\n").length);
+
+        // The same reports when each join is external
+        makeMain("");
+        main.run(concatArgs(
+            new String[] {
+                "--scores", scoresFiles[0].getAbsolutePath(),
+                "--scores", scoresFiles[1].getAbsolutePath(),
+                "--memory", "1",
+            },
+            joinOptions));
+        assertEquals("", errorString.toString());
+        assertEquals(expected.toString(), outputString.toString());
+    }
+
+    @Test
+    public void run_multipleScoresWithMemory_labelsStdin()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        // The labels are sorted once, so they can come from stdin
+        File scoresFile = makeTempFileWithContents(keysScrsCsv);
+        File labelsFile = makeTempFileWithContents(keysLblsCsv);
+        String[] joinOptions = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--scores", scoresFile.getAbsolutePath(),
+            "--scores-key", "3,1",
+            "--scores-column", "2",
+            "--labels-key", "2,3",
+            "--labels-column", "1",
+            "--report", "rocArea",
+            "--memory", "1",
+        };
+        makeMain("");
+        main.run(concatArgs(
+            new String[] {"--labels", labelsFile.getAbsolutePath()}, joinOptions));
+        String expected = outputString.toString();
+        assertEquals(2, expected.split("\n").length);
+
+        makeMain(keysLblsCsv);
+        main.run(concatArgs(new String[] {"--labels", "-"}, joinOptions));
+        assertEquals("", errorString.toString());
+        assertEquals(expected, outputString.toString());
+    }
+
+    @Test
+    public void run_multipleScoresWithoutKeys()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents(scrsCsv);
+        File labelsFile = makeTempFileWithContents(lblsCsv);
+        String[] cmd = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--scores", scoresFile.getAbsolutePath(),
+            "--labels", labelsFile.getAbsolutePath(),
+        };
+        makeMain("");
+        try {
+            main.run(cmd);
+            fail("Exception not thrown for multiple scores without keys.");
+        } catch (Main.Exception e) {
+            assertEquals(Main.ExitStatus.ERROR_USAGE, e.exitStatus);
+            assertThat(e.getMessage(), containsString("Multiple '--scores' options require keys"));
+        }
+    }
+
+    /** Returns the lines of the given CSV sorted by the given column. */
+    public static String sortLines(String csv, final int column) {
+        List<String> lines = new ArrayList<String>(Arrays.asList(csv.split("\n")));
+        Collections.sort(lines, new Comparator<String>() {
+                public int compare(String line1, String line2) {
+                    return line1.split(",")[column].compareTo(line2.split(",")[column]);
+                }
+            });
+        StringBuilder sorted = new StringBuilder();
+        for (String line : lines) {
+            sorted.append(line).append('\n');
+        }
+        return sorted.toString();
+    }
+
+    @Test
+    public void run_joinedScoresLabelsPresorted()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents(sortLines(keysScrsCsv, 0));
+        File labelsFile = makeTempFileWithContents(sortLines(keysLblsCsv, 2));
+        String[] cmd = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--scores-key", "1",
+            "--scores-column", "2",
+            "--labels", labelsFile.getAbsolutePath(),
+            "--labels-key", "3",
+            "--labels-column", "1",
+            "--presorted",
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
+    @Test
+    public void run_joinedScoresLabelsPresortedWithMemory()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents(sortLines(keysScrsCsv, 0));
+        File labelsFile = makeTempFileWithContents(sortLines(keysLblsCsv, 2));
+        String[] cmd = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--scores-key", "1",
+            "--scores-column", "2",
+            "--labels", labelsFile.getAbsolutePath(),
+            "--labels-key", "3",
+            "--labels-column", "1",
+            "--presorted",
+            "--report", "rocArea,prArea",
+        };
+        makeMain("");
+        main.run(cmd);
+        String expected = outputString.toString();
+        makeMain("");
+        main.run(concatArgs(cmd, new String[] {"--memory", "1"}));
+        assertEquals("", errorString.toString());
+        assertEquals(expected, outputString.toString());
+    }
+
+    @Test
+    public void run_joinedScoresLabelsPresorted_outOfOrder()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents(sortLines(keysScrsCsv, 0));
+        File labelsFile = makeTempFileWithContents(keysLblsCsv);
+        String[] cmd = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--scores-key", "1",
+            "--scores-column", "2",
+            "--labels", labelsFile.getAbsolutePath(),
+            "--labels-key", "3",
+            "--labels-column", "1",
+            "--presorted",
+        };
+        makeMain("");
+        try {
+            main.run(cmd);
+            fail("Exception not thrown for unsorted input.");
+        } catch (Main.Exception e) {
+            assertEquals(Main.ExitStatus.ERROR_INPUT, e.exitStatus);
+            assertEquals("Input not sorted by its keys: " + labelsFile.getAbsolutePath() + ": line 2", e.getMessage());
+        }
+        assertEquals("", outputString.toString());
+    }
+
+    @Test
+    public void run_joinedScoresLabelsWithMemory()
+        throws Main.Exception, FileNotFoundException, IOException {
+
+        File scoresFile = makeTempFileWithContents(keysScrsCsv);
+        File labelsFile = makeTempFileWithContents(keysLblsCsv);
+        String[] cmd = {
+            "--scores", scoresFile.getAbsolutePath(),
+            "--scores-key", "3,1",
+            "--scores-column", "2",
+            "--labels", labelsFile.getAbsolutePath(),
+            "--labels-key", "2,3",
+            "--labels-column", "1",
+            "--memory", "1",
+        };
+        makeMain("");
+        main.run(cmd);
+        assertEquals("", errorString.toString());
+        assertThat(outputString.toString(), yamlMatcher);
+    }
+
     @Test
     public void run_emptyJoinResult()
         throws Main.Exception, FileNotFoundException, IOException {
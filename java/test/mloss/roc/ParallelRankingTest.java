@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link ParallelRanking}. */
+public class ParallelRankingTest {
+
+    public static final int[] parallelisms = {2, 3, 8};
+
+    @Test
+    public void testRankCountsSameAsSequential() {
+        Random random = new Random(29);
+        int size = 200000;
+        double[] scores = RankingTest.makeScores(random, size);
+        // Balanced (each class large enough to be sorted in
+        // parallel), imbalanced, and single-class labels
+        double[] positiveFractions = {0.5, 0.01, 0.0, 1.0};
+        for (double positiveFraction : positiveFractions) {
+            int[] labels = RankingTest.makeLabels(random, size, positiveFraction);
+            int[][] expected = Ranking.rankCounts(scores, labels, 1);
+            for (int parallelism : parallelisms) {
+                int[][] counts = new ParallelRanking(parallelism)
+                    .rankCounts(scores, labels, 1);
+                assertArrayEquals(expected[0], counts[0]);
+                assertArrayEquals(expected[1], counts[1]);
+            }
+        }
+    }
+
+    @Test
+    public void testRankCountsAllTied() {
+        int size = ParallelRanking.PARALLEL_THRESHOLD * 2;
+        double[] scores = new double[size];
+        Arrays.fill(scores, 0.5);
+        int[] labels = RankingTest.makeLabels(new Random(31), size, 0.3);
+        int[][] expected = Ranking.rankCounts(scores, labels, 1);
+        int[][] counts = new ParallelRanking(4).rankCounts(scores, labels, 1);
+        assertEquals(2, counts[0].length);
+        assertArrayEquals(expected[0], counts[0]);
+        assertArrayEquals(expected[1], counts[1]);
+    }
+
+    @Test
+    public void testRankedCountsSameAsSequential() {
+        int size = ParallelRanking.PARALLEL_THRESHOLD * 2 + 1;
+        int[] labels = RankingTest.makeLabels(new Random(37), size, 0.4);
+        Curve expected = new Curve(labels);
+        for (int parallelism : parallelisms) {
+            int[][] counts = new ParallelRanking(parallelism)
+                .rankedCounts(labels, 1);
+            assertArrayEquals(expected.truePositiveCounts, counts[0]);
+            assertArrayEquals(expected.falsePositiveCounts, counts[1]);
+        }
+    }
+
+    @Test
+    public void testBuilderParallelism() {
+        Random random = new Random(41);
+        int size = ParallelRanking.PARALLEL_THRESHOLD + 100;
+        double[] scores = RankingTest.makeScores(random, size);
+        int[] labels = RankingTest.makeLabels(random, size, 0.5);
+        Curve expected = new Curve.PrimitivesBuilder()
+            .scores(scores).labels(labels).build();
+        Curve actual = new Curve.PrimitivesBuilder()
+            .scores(scores).labels(labels).parallelism(4).build();
+        assertArrayEquals(expected.truePositiveCounts, actual.truePositiveCounts);
+        assertArrayEquals(expected.falsePositiveCounts, actual.falsePositiveCounts);
+        actual = new Curve.Builder<Double, Integer>()
+            .scores(Curve.PrimitivesBuilder.primitiveArrayToList(scores))
+            .labels(Curve.PrimitivesBuilder.primitiveArrayToList(labels))
+            .positiveLabel(1)
+            .parallelism(4)
+            .build();
+        assertArrayEquals(expected.truePositiveCounts, actual.truePositiveCounts);
+        assertArrayEquals(expected.falsePositiveCounts, actual.falsePositiveCounts);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        new Curve.PrimitivesBuilder().parallelism(0);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link QuantileSketch}. */
+public class QuantileSketchTest {
+
+    /** Counts the scores that are at least the given score exactly. */
+    public static long exactCountAtLeast(double[] sortedScores, double score) {
+        long count = 0;
+        for (double other : sortedScores) {
+            if (Double.compare(other, score) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Checks the sketch against the exact counts at every score. */
+    public static void assertWithinBound(double[] scores, QuantileSketch sketch) {
+        double[] sortedScores = scores.clone();
+        Arrays.sort(sortedScores);
+        assertEquals(scores.length, sketch.count());
+        for (int index = 0; index < sortedScores.length; index += 37) {
+            double score = sortedScores[index];
+            long error = Math.abs(sketch.countAtLeast(score) -
+                                  exactCountAtLeast(sortedScores, score));
+            assertTrue(error <= sketch.maximumRankError());
+        }
+        // The total weight is exact
+        assertEquals(scores.length, sketch.countAtLeast(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void testExactWhenSmall() {
+        double[] scores = RankingTest.makeScores(new Random(71), 100);
+        QuantileSketch sketch = new QuantileSketch(128);
+        for (double score : scores) {
+            sketch.add(score);
+        }
+        assertEquals(0, sketch.maximumRankError());
+        assertWithinBound(scores, sketch);
+    }
+
+    @Test
+    public void testRankErrorBound() {
+        double[] scores = RankingTest.makeScores(new Random(73), 20000);
+        QuantileSketch sketch = new QuantileSketch(64);
+        for (double score : scores) {
+            sketch.add(score);
+        }
+        assertTrue(sketch.maximumRankError() > 0);
+        assertTrue(sketch.numberItems() < 64 * 20);
+        assertWithinBound(scores, sketch);
+    }
+
+    @Test
+    public void testMerge() {
+        Random random = new Random(79);
+        double[] scores = RankingTest.makeScores(random, 20000);
+        // Sketch several parts and merge them in a tree
+        QuantileSketch[] parts = new QuantileSketch[8];
+        for (int part = 0; part < parts.length; part++) {
+            parts[part] = new QuantileSketch(64);
+        }
+        for (int index = 0; index < scores.length; index++) {
+            parts[random.nextInt(parts.length)].add(scores[index]);
+        }
+        for (int width = 1; width < parts.length; width *= 2) {
+            for (int part = 0; part + width < parts.length; part += 2 * width) {
+                parts[part].merge(parts[part + width]);
+            }
+        }
+        assertWithinBound(scores, parts[0]);
+    }
+
+    @Test
+    public void testMergeSelf() {
+        double[] scores = RankingTest.makeScores(new Random(83), 1000);
+        QuantileSketch sketch = new QuantileSketch(64);
+        for (double score : scores) {
+            sketch.add(score);
+        }
+        sketch.merge(sketch);
+        double[] doubled = Arrays.copyOf(scores, 2 * scores.length);
+        System.arraycopy(scores, 0, doubled, scores.length, scores.length);
+        assertWithinBound(doubled, sketch);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentCapacities() {
+        new QuantileSketch(64).merge(new QuantileSketch(128));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOddCapacity() {
+        new QuantileSketch(63);
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        double[] scores = RankingTest.makeScores(new Random(89), 5000);
+        QuantileSketch sketch = new QuantileSketch(64);
+        for (double score : scores) {
+            sketch.add(score);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(bytes));
+        QuantileSketch copy = QuantileSketch.read(new DataInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(sketch.count(), copy.count());
+        assertEquals(sketch.maximumRankError(), copy.maximumRankError());
+        assertEquals(sketch.numberItems(), copy.numberItems());
+        for (double score : RankingTest.specialScores) {
+            assertEquals(sketch.countAtLeast(score), copy.countAtLeast(score));
+        }
+        // The copy keeps working
+        copy.add(0.5);
+        assertEquals(sketch.count() + 1, copy.count());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link RankedLabelsAccumulator}. */
+public class RankedLabelsAccumulatorTest {
+
+    /** Asserts the accumulator has exactly the areas of the curve. */
+    public static void assertSameAreas(Curve expected,
+                                       RankedLabelsAccumulator actual) {
+        assertEquals(expected.rocArea(), actual.rocArea(), 0.0);
+        assertEquals(expected.prArea(), actual.prArea(), 0.0);
+        assertArrayEquals(expected.mannWhitneyU(), actual.mannWhitneyU(), 0.0);
+    }
+
+    /** Returns the given labels as a list. */
+    public static List<Integer> asList(int[] labels) {
+        List<Integer> list = new ArrayList<Integer>(labels.length);
+        for (int label : labels) {
+            list.add(label);
+        }
+        return list;
+    }
+
+    @Test
+    public void testSmall() {
+        int[][] rankings = {
+            {1},
+            {0},
+            {1, 0},
+            {0, 1},
+            {1, 1, 0, 0},
+            {0, 0, 1, 1},
+            {1, 0, 1, 0, 0, 1, 1, 0},
+            {0, 1, 1, 0, 1, 0, 0, 0, 1},
+        };
+        for (int[] ranking : rankings) {
+            RankedLabelsAccumulator accumulator =
+                new RankedLabelsAccumulator().add(ranking, 1);
+            assertEquals(ranking.length, accumulator.size());
+            assertSameAreas(new Curve(asList(ranking), 1), accumulator);
+        }
+    }
+
+    @Test
+    public void testSameAsCurve() {
+        Random random = new Random(0x4a11e7L);
+        for (int trial = 0; trial < 20; trial++) {
+            int[] ranking = new int[1 + random.nextInt(10000)];
+            // Vary the proportion of positives
+            double positiveRate = random.nextDouble();
+            for (int index = 0; index < ranking.length; index++) {
+                ranking[index] = random.nextDouble() < positiveRate ? 3 : 2;
+            }
+            RankedLabelsAccumulator accumulator = new RankedLabelsAccumulator();
+            int numberPositives = 0;
+            for (int label : ranking) {
+                accumulator.add(label == 3);
+                numberPositives += (label == 3) ? 1 : 0;
+            }
+            assertEquals(numberPositives, accumulator.totalPositives());
+            assertEquals(ranking.length - numberPositives, accumulator.totalNegatives());
+            assertSameAreas(new Curve(asList(ranking), 3), accumulator);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        new RankedLabelsAccumulator().rocArea();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc;
+
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link Ranking}. */
+public class RankingTest {
+
+    public static final double[] specialScores = {
+        Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1.0,
+        -Double.MIN_VALUE, -0.0, 0.0, Double.MIN_VALUE, 1.0,
+        Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NaN,
+    };
+
+    /** Natural ordering that forces the builder to sort objects. */
+    public static final Comparator<Double> naturalOrder =
+        new Comparator<Double>() {
+            public int compare(Double d1, Double d2) {
+                return d1.compareTo(d2);
+            }
+        };
+
+    /**
+     * Makes random scores that are a mix of probabilities, small
+     * integers (many ties), and special values.
+     */
+    public static double[] makeScores(Random random, int size) {
+        double[] scores = new double[size];
+        for (int index = 0; index < size; index++) {
+            switch (random.nextInt(4)) {
+            case 0:
+                scores[index] = random.nextDouble();
+                break;
+            case 1:
+                scores[index] = random.nextGaussian() * 1e6;
+                break;
+            case 2:
+                scores[index] = random.nextInt(10);
+                break;
+            default:
+                scores[index] = specialScores[random.nextInt(specialScores.length)];
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Makes random 0/1 labels in which each label is 1 with the given
+     * probability.
+     */
+    public static int[] makeLabels(Random random, int size, double positiveFraction) {
+        int[] labels = new int[size];
+        for (int index = 0; index < size; index++) {
+            labels[index] = random.nextDouble() < positiveFraction ? 1 : 0;
+        }
+        return labels;
+    }
+
+    /**
+     * Builds the curve for the given scores and labels by sorting
+     * objects (the reference implementation).
+     */
+    public static Curve buildReference(double[] scores, int[] labels, int positiveLabel) {
+        return new Curve.Builder<Double, Integer>()
+            .scores(Curve.PrimitivesBuilder.primitiveArrayToList(scores))
+            .labels(Curve.PrimitivesBuilder.primitiveArrayToList(labels))
+            .positiveLabel(positiveLabel)
+            .comparator(naturalOrder)
+            .build();
+    }
+
+    @Test
+    public void testSortableKey() {
+        for (int index1 = 0; index1 < specialScores.length; index1++) {
+            for (int index2 = 0; index2 < specialScores.length; index2++) {
+                double score1 = specialScores[index1];
+                double score2 = specialScores[index2];
+                assertEquals(Integer.signum(Double.compare(score1, score2)),
+                             Integer.signum(Long.compare(
+                                 Ranking.sortableKey(score1),
+                                 Ranking.sortableKey(score2))));
+            }
+        }
+        // All NaNs are equal
+        assertEquals(Ranking.sortableKey(Double.NaN),
+                     Ranking.sortableKey(Double.longBitsToDouble(0x7ff0000000000001L)));
+    }
+
+    @Test
+    public void testRadixSort() {
+        Random random = new Random(17);
+        int[] sizes = {1, 2, 1000, Ranking.RADIX_SORT_THRESHOLD, 10000};
+        for (int size : sizes) {
+            long[] keys = new long[size + 10];
+            for (int index = 0; index < keys.length; index++) {
+                keys[index] = Ranking.sortableKey(makeScores(random, 1)[0]);
+            }
+            long[] expected = keys.clone();
+            Arrays.sort(expected, 5, size + 5);
+            Ranking.radixSort(keys, 5, size + 5, new long[size + 3], 3);
+            assertArrayEquals(expected, keys);
+        }
+    }
+
+    @Test
+    public void testRadixSortSkippedDigits() {
+        // Only one digit varies, so all but one pass are skipped
+        long[] keys = new long[2000];
+        Random random = new Random(3);
+        for (int index = 0; index < keys.length; index++) {
+            keys[index] = 0x1234000000000000L | ((long) random.nextInt(256) << 24);
+        }
+        long[] expected = keys.clone();
+        Arrays.sort(expected);
+        Ranking.radixSort(keys, 0, keys.length, new long[keys.length], 0);
+        assertArrayEquals(expected, keys);
+    }
+
+    @Test
+    public void testRankCounts() {
+        Random random = new Random(11);
+        int[] sizes = {1, 2, 3, 50, 3000, 20000};
+        for (int size : sizes) {
+            double[] scores = makeScores(random, size);
+            int[] labels = makeLabels(random, size, 0.5);
+            Curve expected = buildReference(scores, labels, 1);
+            int[][] counts = Ranking.rankCounts(scores, labels, 1);
+            assertArrayEquals(expected.truePositiveCounts, counts[0]);
+            assertArrayEquals(expected.falsePositiveCounts, counts[1]);
+        }
+    }
+
+    @Test
+    public void testRankCountsOneClass() {
+        double[] scores = {0.5, 0.25, 0.5, 1.0};
+        int[] labels = {0, 0, 0, 0};
+        int[][] counts = Ranking.rankCounts(scores, labels, 1);
+        assertArrayEquals(new int[] {0, 0, 0, 0}, counts[0]);
+        assertArrayEquals(new int[] {0, 1, 3, 4}, counts[1]);
+        counts = Ranking.rankCounts(scores, labels, 0);
+        assertArrayEquals(new int[] {0, 1, 3, 4}, counts[0]);
+        assertArrayEquals(new int[] {0, 0, 0, 0}, counts[1]);
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/** Tests {@link ArrowFile}. */
+public class ArrowFileTest {
+
+    public static final Charset utf8 = Charset.forName("UTF-8");
+
+    public static final String[] ids = {"a", "b", "c", "d", "e", "f", "g"};
+    public static final double[] scores = {0.75, -1.5, 3.25, 0.0, 1e-3, 0.75, 2.0};
+    public static final String[] labels = {"pos", "neg", "pos", "pos", "", "neg", "p\u00f6s"};
+    public static final int[] positives = {1, 0, 1, 1, 0, 0, 0};
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("roc-arrow-", ".arrow");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    ////////////////////////////////////////
+    // Writing flatbuffers and Arrow files
+
+    /**
+     * A flatbuffer table to write.  Fields are given in order (null if
+     * absent) as Byte, Short, Integer, Long, or Boolean scalars,
+     * Strings, Tables, arrays of Tables, or Structs.
+     */
+    static class Table {
+        Object[] fields;
+
+        Table(Object... fields) {
+            this.fields = fields;
+        }
+    }
+
+    /** A vector of structs given as their concatenated bytes. */
+    static class Structs {
+        int count;
+        byte[] bytes;
+
+        Structs(int count, byte[] bytes) {
+            this.count = count;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Writes a flatbuffer with the given root table.  Every table is
+     * written after its vtable and before its children, so all the
+     * (unsigned) offsets point forward.
+     */
+    static byte[] flatbuffer(Table root) {
+        ByteBuffer out = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(0);
+        out.putInt(0, writeTable(out, root));
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private static void align(ByteBuffer out, int alignment) {
+        while (out.position() % alignment != 0) {
+            out.put((byte) 0);
+        }
+    }
+
+    private static int writeTable(ByteBuffer out, Table table) {
+        int numberFields = table.fields.length;
+        align(out, 2);
+        int vtable = out.position();
+        out.position(vtable + 4 + 2 * numberFields);
+        align(out, 8);
+        int start = out.position();
+        out.putInt(start - vtable);
+        int[] offsets = new int[numberFields];
+        for (int field = 0; field < numberFields; field++) {
+            Object value = table.fields[field];
+            if (value == null) {
+                continue;
+            }
+            offsets[field] = out.position() - start;
+            if (value instanceof Byte) {
+                out.put((Byte) value);
+            } else if (value instanceof Boolean) {
+                out.put((byte) ((Boolean) value ? 1 : 0));
+            } else if (value instanceof Short) {
+                out.putShort((Short) value);
+            } else if (value instanceof Integer) {
+                out.putInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.putLong((Long) value);
+            } else {
+                // Placeholder for the offset of the child
+                out.putInt(0);
+            }
+        }
+        out.putShort(vtable, (short) (4 + 2 * numberFields));
+        out.putShort(vtable + 2, (short) (out.position() - start));
+        for (int field = 0; field < numberFields; field++) {
+            out.putShort(vtable + 4 + 2 * field, (short) offsets[field]);
+        }
+        for (int field = 0; field < numberFields; field++) {
+            Object value = table.fields[field];
+            if (value == null || value instanceof Byte || value instanceof Boolean ||
+                value instanceof Short || value instanceof Integer ||
+                value instanceof Long) {
+                continue;
+            }
+            int at = start + offsets[field];
+            out.putInt(at, writeChild(out, value) - at);
+        }
+        return start;
+    }
+
+    private static int writeChild(ByteBuffer out, Object value) {
+        if (value instanceof Table) {
+            return writeTable(out, (Table) value);
+        }
+        align(out, 8);
+        // Put the elements of vectors at a multiple of 8
+        out.putInt(0);
+        int start = out.position();
+        if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(utf8);
+            out.putInt(bytes.length).put(bytes).put((byte) 0);
+        } else if (value instanceof Structs) {
+            Structs structs = (Structs) value;
+            out.putInt(structs.count).put(structs.bytes);
+        } else {
+            Table[] tables = (Table[]) value;
+            out.putInt(tables.length);
+            int slots = out.position();
+            out.position(slots + 4 * tables.length);
+            for (int index = 0; index < tables.length; index++) {
+                int slot = slots + 4 * index;
+                out.putInt(slot, writeTable(out, tables[index]) - slot);
+            }
+        }
+        return start;
+    }
+
+    /** Returns the schema field for the given column. */
+    static Table field(String name, Object column) {
+        byte type;
+        Table typeTable;
+        if (column instanceof double[] || column instanceof Double[]) {
+            type = ArrowFile.TYPE_FLOATING_POINT;
+            typeTable = new Table((short) 2);
+        } else if (column instanceof float[]) {
+            type = ArrowFile.TYPE_FLOATING_POINT;
+            typeTable = new Table((short) 1);
+        } else if (column instanceof int[]) {
+            type = ArrowFile.TYPE_INT;
+            typeTable = new Table(32, true);
+        } else if (column instanceof long[]) {
+            type = ArrowFile.TYPE_INT;
+            typeTable = new Table(64, true);
+        } else if (column instanceof byte[]) {
+            // Unsigned 8-bit integers
+            type = ArrowFile.TYPE_INT;
+            typeTable = new Table(8, false);
+        } else if (column instanceof boolean[]) {
+            type = ArrowFile.TYPE_BOOL;
+            typeTable = new Table();
+        } else {
+            type = ArrowFile.TYPE_UTF8;
+            typeTable = new Table();
+        }
+        return new Table(name, true, type, typeTable, null, new Table[0]);
+    }
+
+    /**
+     * Writes the rows [from, to) of the given column as its buffers
+     * (validity, then data or offsets and data) to the body, adding
+     * their locations to the buffers and the field node to the nodes.
+     */
+    static void writeColumn(Object column, int from, int to, ByteBuffer body,
+                            ByteBuffer nodes, ByteBuffer buffers) {
+        int length = to - from;
+        // Validity (only if there are nulls)
+        int nullCount = 0;
+        byte[] validity = new byte[(length + 7) / 8];
+        if (column instanceof Double[]) {
+            for (int row = from; row < to; row++) {
+                if (((Double[]) column)[row] != null) {
+                    validity[(row - from) / 8] |= 1 << ((row - from) % 8);
+                } else {
+                    nullCount++;
+                }
+            }
+        }
+        nodes.putLong(length).putLong(nullCount);
+        writeBuffer(nullCount > 0 ? validity : new byte[0], body, buffers);
+
+        ByteBuffer data = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+        if (column instanceof String[]) {
+            ByteBuffer offsets = ByteBuffer.allocate(4 * (length + 1))
+                .order(ByteOrder.LITTLE_ENDIAN);
+            offsets.putInt(0);
+            for (int row = from; row < to; row++) {
+                data.put(((String[]) column)[row].getBytes(utf8));
+                offsets.putInt(data.position());
+            }
+            writeBuffer(offsets.array(), body, buffers);
+        } else {
+            for (int row = from; row < to; row++) {
+                if (column instanceof double[]) {
+                    data.putDouble(((double[]) column)[row]);
+                } else if (column instanceof Double[]) {
+                    Double value = ((Double[]) column)[row];
+                    data.putDouble(value == null ? 0.0 : value);
+                } else if (column instanceof float[]) {
+                    data.putFloat(((float[]) column)[row]);
+                } else if (column instanceof int[]) {
+                    data.putInt(((int[]) column)[row]);
+                } else if (column instanceof long[]) {
+                    data.putLong(((long[]) column)[row]);
+                } else if (column instanceof byte[]) {
+                    data.put(((byte[]) column)[row]);
+                }
+            }
+            if (column instanceof boolean[]) {
+                byte[] bits = new byte[(length + 7) / 8];
+                for (int row = from; row < to; row++) {
+                    if (((boolean[]) column)[row]) {
+                        bits[(row - from) / 8] |= 1 << ((row - from) % 8);
+                    }
+                }
+                data.put(bits);
+            }
+        }
+        writeBuffer(Arrays.copyOf(data.array(), data.position()), body, buffers);
+    }
+
+    private static void writeBuffer(byte[] bytes, ByteBuffer body,
+                                    ByteBuffer buffers) {
+        buffers.putLong(body.position()).putLong(bytes.length);
+        body.put(bytes);
+        align(body, 8);
+    }
+
+    /**
+     * Writes an Arrow IPC file of the given columns with the given
+     * number of rows per record batch.
+     */
+    public static void writeArrowFile(File file, String[] names,
+                                      Object[] columns, int numberRows,
+                                      int batchSize)
+        throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(ArrowFile.MAGIC).putShort((short) 0);
+
+        Table[] fields = new Table[columns.length];
+        for (int column = 0; column < columns.length; column++) {
+            fields[column] = field(names[column], columns[column]);
+        }
+        Table schema = new Table((short) 0, fields);
+
+        ByteBuffer blocks = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+        int numberBatches = 0;
+        for (int from = 0; from < numberRows || numberBatches == 0; from += batchSize) {
+            int to = Math.min(numberRows, from + batchSize);
+            ByteBuffer body = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer nodes = ByteBuffer.allocate(16 * columns.length).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer buffers = ByteBuffer.allocate(48 * columns.length).order(ByteOrder.LITTLE_ENDIAN);
+            for (Object column : columns) {
+                writeColumn(column, from, to, body, nodes, buffers);
+            }
+            Table recordBatch = new Table(
+                (long) (to - from),
+                new Structs(nodes.position() / 16, Arrays.copyOf(nodes.array(), nodes.position())),
+                new Structs(buffers.position() / 16, Arrays.copyOf(buffers.array(), buffers.position())));
+            Table message = new Table((short) 4, (byte) ArrowFile.MESSAGE_RECORD_BATCH,
+                                      recordBatch, (long) body.position());
+            byte[] metadata = flatbuffer(message);
+            int paddedLength = (metadata.length + 7) / 8 * 8;
+            long offset = out.position();
+            out.putInt(-1).putInt(paddedLength).put(metadata);
+            align(out, 8);
+            out.put(body.array(), 0, body.position());
+            // struct Block { offset: long; metaDataLength: int; bodyLength: long; }
+            blocks.putLong(offset).putInt(8 + paddedLength).putInt(0)
+                .putLong(body.position());
+            numberBatches++;
+        }
+
+        Table footer = new Table(
+            (short) 4, schema, new Structs(0, new byte[0]),
+            new Structs(numberBatches, Arrays.copyOf(blocks.array(), blocks.position())));
+        byte[] footerBytes = flatbuffer(footer);
+        out.put(footerBytes).putInt(footerBytes.length).put(ArrowFile.MAGIC);
+
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(out.array(), 0, out.position());
+        } finally {
+            output.close();
+        }
+    }
+
+    ////////////////////////////////////////
+    // Tests
+
+    @Test
+    public void readColumnsByName() throws IOException {
+        long[] counts = {3L, 1L << 40, -2L, 0L, 5L, 6L, 7L};
+        String[] names = {"id", "count", "label", "score"};
+        Object[] columns = {ids, counts, labels, scores};
+        for (int batchSize : new int[] {1, 3, 7}) {
+            writeArrowFile(file, names, columns, 7, batchSize);
+            assertTrue(ArrowFile.isArrowFile(file));
+            ArrowFile arrow = new ArrowFile(file);
+            try {
+                assertEquals(4, arrow.numberColumns());
+                assertEquals(7, arrow.numberRows());
+                assertEquals("label", arrow.columnName(2));
+                assertEquals(3, arrow.columnIndex("score"));
+                assertEquals(-1, arrow.columnIndex("missing"));
+                assertArrayEquals(scores, arrow.readDoubles(3), 0.0);
+                assertArrayEquals(positives, arrow.readPositives(2, "pos"));
+                assertArrayEquals(new int[] {0, 0, 0, 0, 0, 0, 1},
+                                  arrow.readPositives(2, "p\u00f6s"));
+                assertArrayEquals(new int[] {0, 0, 0, 0, 1, 0, 0},
+                                  arrow.readPositives(2, ""));
+                double[] doubleCounts = arrow.readDoubles(1);
+                for (int row = 0; row < counts.length; row++) {
+                    assertEquals((double) counts[row], doubleCounts[row], 0.0);
+                }
+                assertArrayEquals(new int[] {0, 1, 0, 0, 0, 0, 0},
+                                  arrow.readPositives(1, Long.toString(1L << 40)));
+            } finally {
+                arrow.close();
+            }
+        }
+    }
+
+    @Test
+    public void readOtherTypes() throws IOException {
+        float[] floats = {0.5f, -0.25f, 3.0f};
+        int[] ints = {1, 0, -1};
+        byte[] bytes = {(byte) 200, 1, 0};
+        boolean[] booleans = {true, false, true};
+        String[] names = {"floats", "ints", "bytes", "booleans"};
+        writeArrowFile(file, names, new Object[] {floats, ints, bytes, booleans}, 3, 2);
+        ArrowFile arrow = new ArrowFile(file);
+        try {
+            assertArrayEquals(new double[] {0.5, -0.25, 3.0}, arrow.readDoubles(0), 0.0);
+            assertArrayEquals(new double[] {1.0, 0.0, -1.0}, arrow.readDoubles(1), 0.0);
+            assertArrayEquals(new double[] {200.0, 1.0, 0.0}, arrow.readDoubles(2), 0.0);
+            assertArrayEquals(new int[] {1, 0, 0}, arrow.readPositives(1, "1"));
+            assertArrayEquals(new int[] {0, 0, 1}, arrow.readPositives(1, "-1"));
+            assertArrayEquals(new int[] {0, 0, 0}, arrow.readPositives(1, "01"));
+            assertArrayEquals(new int[] {1, 0, 0}, arrow.readPositives(2, "200"));
+            assertArrayEquals(new int[] {1, 0, 1}, arrow.readPositives(3, "true"));
+            assertArrayEquals(new int[] {1, 0, 1}, arrow.readPositives(3, "1"));
+            assertArrayEquals(new int[] {0, 1, 0}, arrow.readPositives(3, "False"));
+            assertArrayEquals(new int[] {0, 0, 0}, arrow.readPositives(3, "yes"));
+        } finally {
+            arrow.close();
+        }
+    }
+
+    @Test
+    public void readEmpty() throws IOException {
+        writeArrowFile(file, new String[] {"score"},
+                       new Object[] {new double[0]}, 0, 1);
+        ArrowFile arrow = new ArrowFile(file);
+        try {
+            assertEquals(0, arrow.numberRows());
+            assertEquals(0, arrow.readDoubles(0).length);
+        } finally {
+            arrow.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readDoubles_nulls() throws IOException {
+        Double[] nullable = {0.5, null, 0.25};
+        writeArrowFile(file, new String[] {"score"}, new Object[] {nullable}, 3, 3);
+        ArrowFile arrow = new ArrowFile(file);
+        try {
+            arrow.readDoubles(0);
+        } finally {
+            arrow.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readDoubles_strings() throws IOException {
+        writeArrowFile(file, new String[] {"id"}, new Object[] {ids}, 7, 7);
+        ArrowFile arrow = new ArrowFile(file);
+        try {
+            arrow.readDoubles(0);
+        } finally {
+            arrow.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readPositives_floats() throws IOException {
+        writeArrowFile(file, new String[] {"score"}, new Object[] {scores}, 7, 7);
+        ArrowFile arrow = new ArrowFile(file);
+        try {
+            arrow.readPositives(0, "1");
+        } finally {
+            arrow.close();
+        }
+    }
+
+    @Test
+    public void readPositives_truncatedData() throws IOException {
+        writeArrowFile(file, new String[] {"id"}, new Object[] {ids}, 7, 7);
+        // Make the last offset claim that the data buffer is empty while
+        // the other offsets still point into it
+        ByteBuffer offsets = ByteBuffer.allocate(4 * (ids.length + 1))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset <= ids.length; offset++) {
+            offsets.putInt(offset);
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int position = indexOf(bytes, offsets.array());
+        assertTrue(position >= 0);
+        Arrays.fill(bytes, position + 4 * ids.length, position + 4 * ids.length + 4, (byte) 0);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        ArrowFile arrow = new ArrowFile(file);
+        try {
+            arrow.readPositives(0, "a");
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("Not a valid Arrow file: " + file, e.getMessage());
+            assertTrue(e.getCause() instanceof IndexOutOfBoundsException);
+        } finally {
+            arrow.close();
+        }
+    }
+
+    /** Returns the index of the first occurrence of the pattern. */
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        for (int start = 0; start + pattern.length <= bytes.length; start++) {
+            int index = 0;
+            while (index < pattern.length && bytes[start + index] == pattern[index]) {
+                index++;
+            }
+            if (index == pattern.length) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    @Test(expected = IOException.class)
+    public void constructor_notArrow() throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write("0.5,1\n0.25,0\n0.75,1\n0.125,0\n".getBytes(utf8));
+        } finally {
+            output.close();
+        }
+        assertFalse(ArrowFile.isArrowFile(file));
+        new ArrowFile(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void constructor_truncated() throws IOException {
+        writeArrowFile(file, new String[] {"score"}, new Object[] {scores}, 7, 7);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes, 0, bytes.length - 20);
+        } finally {
+            output.close();
+        }
+        new ArrowFile(file);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link BackgroundInputStream}. */
+public class BackgroundInputStreamTest {
+
+    /** Reads the given stream to its end with reads of the given size. */
+    public static byte[] readAll(InputStream input, int readSize)
+        throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[readSize];
+        int numberRead;
+        while ((numberRead = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, numberRead);
+        }
+        return output.toByteArray();
+    }
+
+    /** A source that fails after the given number of bytes. */
+    static class FailingInputStream extends InputStream {
+        private int remaining;
+
+        FailingInputStream(int length) {
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                throw new IOException("Source failed.");
+            }
+            remaining--;
+            return 'x';
+        }
+    }
+
+    @Test
+    public void read_sameBytes() throws IOException {
+        Random random = new Random(0x5c03e7a1L);
+        byte[] bytes = new byte[100003];
+        random.nextBytes(bytes);
+        int[][] configurations = {
+            // Buffer size, number of buffers, read size
+            {1, 1, 1},
+            {7, 2, 5},
+            {1000, 3, 4096},
+            {BackgroundInputStream.DEFAULT_BUFFER_SIZE,
+             BackgroundInputStream.DEFAULT_NUMBER_BUFFERS, 1 << 16},
+        };
+        for (int[] configuration : configurations) {
+            InputStream input = new BackgroundInputStream(
+                new ByteArrayInputStream(bytes), configuration[0], configuration[1]);
+            assertArrayEquals(bytes, readAll(input, configuration[2]));
+            assertEquals(-1, input.read());
+            input.close();
+        }
+    }
+
+    @Test
+    public void read_empty() throws IOException {
+        InputStream input = new BackgroundInputStream(
+            new ByteArrayInputStream(new byte[0]));
+        assertEquals(-1, input.read());
+        input.close();
+    }
+
+    @Test
+    public void read_error() throws IOException {
+        InputStream input = new BackgroundInputStream(
+            new FailingInputStream(25), 10, 2);
+        byte[] buffer = new byte[100];
+        int length = 0;
+        try {
+            int numberRead;
+            while ((numberRead = input.read(buffer, length, buffer.length - length)) >= 0) {
+                length += numberRead;
+            }
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("Source failed.", e.getMessage());
+        }
+        // The bytes before the error are read
+        assertEquals(25, length);
+        input.close();
+    }
+
+    @Test(timeout = 10000)
+    public void close_beforeEnd() throws IOException {
+        // The producer blocks on a full ring until it is closed
+        byte[] bytes = new byte[1 << 20];
+        InputStream input = new BackgroundInputStream(
+            new ByteArrayInputStream(bytes), 100, 2);
+        assertEquals(0, input.read());
+        input.close();
+        try {
+            input.read();
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("Stream closed.", e.getMessage());
+        }
+    }
+}
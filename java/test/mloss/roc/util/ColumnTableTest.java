@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link ColumnTable}. */
+public class ColumnTableTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Reads the given columns of the given CSV text into a table. */
+    public static ColumnTable read(String csv, int[] columns,
+                                   boolean[] numeric)
+        throws IOException {
+        return ColumnTable.read(
+            new CsvTokenizer(new ByteArrayInputStream(csv.getBytes(UTF_8)),
+                             (byte) ',', UTF_8, 16),
+            columns, numeric);
+    }
+
+    /** Returns the values of the given column in the given rows. */
+    public static String[] strings(ColumnTable.DictionaryColumn column,
+                                   int[] rows) {
+        String[] strings = new String[rows.length];
+        for (int index = 0; index < rows.length; index++) {
+            strings[index] = column.get(rows[index]);
+        }
+        return strings;
+    }
+
+    // Keys, a label, and a score
+    private static final String scoresCsv =
+        "a,1,x,0.5\n" +
+        "b,2,y,0.25\n" +
+        "a,2,z,0.75\n" +
+        "c,1,x,-1\n" +
+        "b,1,y,2e3\n" +
+        "a,1,z,0.125\n";
+
+    // A label and keys (in a different order)
+    private static final String labelsCsv =
+        "1,2,b\n" +
+        "0,1,a\n" +
+        "1,1,b\n" +
+        "0,3,a\n" +
+        "1,1,a\n" +
+        "0,1,d\n";
+
+    @Test
+    public void testRead() throws IOException {
+        ColumnTable table = read(scoresCsv, new int[] {3, 0, 2},
+                                 new boolean[] {true, false, false});
+        assertEquals(6, table.numberRows());
+        assertEquals(3, table.numberColumns());
+        int[] rows = {0, 1, 2, 3, 4, 5};
+        assertArrayEquals(new double[] {0.5, 0.25, 0.75, -1.0, 2000.0, 0.125},
+                          table.doubleColumn(0).gather(rows), 0.0);
+        assertArrayEquals(new String[] {"a", "b", "a", "c", "b", "a"},
+                          strings(table.dictionaryColumn(1), rows));
+        // Equal values have equal codes
+        ColumnTable.DictionaryColumn labels = table.dictionaryColumn(2);
+        assertEquals(3, labels.dictionary().size());
+        assertEquals(labels.code(0), labels.code(3));
+        assertArrayEquals(new int[] {1, 0, 0, 1, 0, 0},
+                          labels.gatherMatches(rows, "x".getBytes(UTF_8)));
+    }
+
+    @Test
+    public void testRead_notNumber() throws IOException {
+        ColumnTable table = read("a,0.5\nb,NA\nc,1\n", new int[] {1},
+                                 new boolean[] {true});
+        // Only gathering the invalid row is an error
+        assertArrayEquals(new double[] {1.0, 0.5},
+                          table.doubleColumn(0).gather(new int[] {2, 0}), 0.0);
+        try {
+            table.doubleColumn(0).gather(new int[] {0, 1});
+            fail("Expected a NumberFormatException");
+        } catch (NumberFormatException e) {
+            assertEquals("Not a floating-point number: \"NA\"", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRead_notNumbers() throws IOException {
+        ColumnTable table = read("a,NA\nb,0.5\nc,?\nd,1\ne,-\n", new int[] {1},
+                                 new boolean[] {true});
+        ColumnTable.DoubleColumn column = table.doubleColumn(0);
+        assertArrayEquals(new double[] {1.0, 0.5},
+                          column.gather(new int[] {3, 1}), 0.0);
+        // Each invalid row reports its own text
+        String[] texts = {"NA", "?", "-"};
+        int[] rows = {0, 2, 4};
+        for (int index = 0; index < rows.length; index++) {
+            try {
+                column.gather(new int[] {1, rows[index]});
+                fail("Expected a NumberFormatException");
+            } catch (NumberFormatException e) {
+                assertEquals(String.format("Not a floating-point number: \"%s\"", texts[index]),
+                             e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testRanks() throws IOException {
+        // Codes in order of appearance, ranks in order of UTF-8 bytes
+        ColumnTable table = read("b\n\u00e9\na\n\nab\nb\n", new int[] {0},
+                                 new boolean[] {false});
+        LabelDictionary dictionary = table.dictionaryColumn(0).dictionary();
+        assertArrayEquals(new int[] {3, 4, 1, 0, 2},
+                          ColumnTable.DictionaryColumn.ranks(dictionary));
+    }
+
+    @Test
+    public void testProject() throws IOException {
+        ColumnTable table = read(scoresCsv, new int[] {0, 1, 3},
+                                 new boolean[] {false, false, true});
+        ColumnTable projected = table.project(2, 0);
+        assertEquals(6, projected.numberRows());
+        assertEquals(2, projected.numberColumns());
+        // Columns are shared
+        assertSame(table.column(2), projected.column(0));
+        assertSame(table.column(0), projected.column(1));
+    }
+
+    @Test
+    public void testSortedOrder() throws IOException {
+        ColumnTable table = read(scoresCsv, new int[] {0, 1, 3},
+                                 new boolean[] {false, false, true});
+        // Stable
+        assertArrayEquals(new int[] {0, 2, 5, 1, 4, 3}, table.sortedOrder(0));
+        assertArrayEquals(new int[] {0, 5, 2, 4, 1, 3}, table.sortedOrder(0, 1));
+        assertArrayEquals(new int[] {3, 5, 1, 0, 2, 4}, table.sortedOrder(2));
+    }
+
+    @Test
+    public void testSortedOrder_long() throws IOException {
+        // Enough rows to merge, with values whose bytes are not in the
+        // order of their codes
+        StringBuilder csv = new StringBuilder();
+        int numberRows = 1000;
+        for (int row = 0; row < numberRows; row++) {
+            csv.append((row * 7919) % 97).append(",\u00e9").append(row % 3).append('\n');
+        }
+        ColumnTable table = read(csv.toString(), new int[] {0, 1},
+                                 new boolean[] {false, false});
+        int[] order = table.sortedOrder(1, 0);
+        ColumnTable.DictionaryColumn first = table.dictionaryColumn(1);
+        ColumnTable.DictionaryColumn second = table.dictionaryColumn(0);
+        for (int index = 1; index < numberRows; index++) {
+            int row1 = order[index - 1];
+            int row2 = order[index];
+            int cmp = first.get(row1).compareTo(first.get(row2));
+            if (cmp == 0) {
+                cmp = second.get(row1).compareTo(second.get(row2));
+                if (cmp == 0) {
+                    assertTrue(row1 < row2);
+                }
+            }
+            assertTrue(cmp <= 0);
+        }
+    }
+
+    @Test
+    public void testHashJoin1Key() throws IOException {
+        ColumnTable scores = read(scoresCsv, new int[] {0, 3},
+                                  new boolean[] {false, true});
+        ColumnTable labels = read(labelsCsv, new int[] {2, 0},
+                                  new boolean[] {false, false});
+        int[][] rows = ColumnTable.hashJoin(scores, new int[] {0},
+                                            labels, new int[] {0});
+        // Tables of the same size build on the second table, so in the
+        // order of the first table, then the second table
+        assertArrayEquals(new int[] {0, 0, 0, 1, 1, 2, 2, 2, 4, 4, 5, 5, 5},
+                          rows[0]);
+        assertArrayEquals(new int[] {1, 3, 4, 0, 2, 1, 3, 4, 0, 2, 1, 3, 4},
+                          rows[1]);
+    }
+
+    @Test
+    public void testHashJoin2Keys() throws IOException {
+        ColumnTable scores = read(scoresCsv, new int[] {0, 1, 3},
+                                  new boolean[] {false, false, true});
+        ColumnTable labels = read(labelsCsv, new int[] {0, 2, 1},
+                                  new boolean[] {false, false, false});
+        int[][] rows = ColumnTable.hashJoin(scores, new int[] {0, 1},
+                                            labels, new int[] {1, 2});
+        assertArrayEquals(new int[] {0, 0, 1, 4, 5, 5}, rows[0]);
+        assertArrayEquals(new int[] {1, 4, 0, 2, 1, 4}, rows[1]);
+        assertArrayEquals(new double[] {0.5, 0.5, 0.25, 2000.0, 0.125, 0.125},
+                          scores.doubleColumn(2).gather(rows[0]), 0.0);
+        assertArrayEquals(new int[] {0, 1, 1, 1, 0, 1},
+                          labels.dictionaryColumn(0).gatherMatches(rows[1], "1".getBytes(UTF_8)));
+    }
+
+    @Test
+    public void testHashJoin_smallerFirst() throws IOException {
+        ColumnTable keys = read("a\nb\na\n", new int[] {0},
+                                new boolean[] {false});
+        ColumnTable scores = read(scoresCsv, new int[] {0, 3},
+                                  new boolean[] {false, true});
+        int[][] rows = ColumnTable.hashJoin(keys, new int[] {0},
+                                            scores, new int[] {0});
+        // Built on the first table, so in the order of the second table
+        assertArrayEquals(new int[] {0, 2, 1, 0, 2, 1, 0, 2}, rows[0]);
+        assertArrayEquals(new int[] {0, 0, 1, 2, 2, 4, 5, 5}, rows[1]);
+    }
+
+    @Test
+    public void testHashJoin3Keys_many() throws IOException {
+        // Compare with a nested loop join
+        Random random = new Random(0x70b1e5L);
+        StringBuilder csv1 = new StringBuilder();
+        StringBuilder csv2 = new StringBuilder();
+        for (int row = 0; row < 500; row++) {
+            csv1.append(random.nextInt(4)).append(',').append(random.nextInt(5))
+                .append(',').append(random.nextInt(6)).append('\n');
+            csv2.append(random.nextInt(6)).append(',').append(random.nextInt(5))
+                .append(',').append(random.nextInt(5)).append('\n');
+        }
+        ColumnTable table1 = read(csv1.toString(), new int[] {0, 1, 2},
+                                  new boolean[] {false, false, false});
+        ColumnTable table2 = read(csv2.toString(), new int[] {0, 1, 2},
+                                  new boolean[] {false, false, false});
+        int[] keys1 = {0, 1, 2};
+        int[] keys2 = {1, 2, 0};
+        int[][] rows = ColumnTable.hashJoin(table1, keys1, table2, keys2);
+        IntArrayList expected1 = new IntArrayList();
+        IntArrayList expected2 = new IntArrayList();
+        for (int row1 = 0; row1 < table1.numberRows(); row1++) {
+            for (int row2 = 0; row2 < table2.numberRows(); row2++) {
+                boolean isMatch = true;
+                for (int key = 0; key < keys1.length; key++) {
+                    isMatch &= table1.dictionaryColumn(keys1[key]).get(row1).equals(
+                        table2.dictionaryColumn(keys2[key]).get(row2));
+                }
+                if (isMatch) {
+                    expected1.add(row1);
+                    expected2.add(row2);
+                }
+            }
+        }
+        assertTrue(expected1.size() > 0);
+        assertArrayEquals(expected1.toArray(), rows[0]);
+        assertArrayEquals(expected2.toArray(), rows[1]);
+        // The same pairs in a different order from a merge join
+        int[][] mergeRows = ColumnTable.mergeJoin(table1, keys1, table2, keys2);
+        assertArrayEquals(sortedPairs(rows), sortedPairs(mergeRows));
+    }
+
+    /** Returns the given pairs of rows packed into longs and sorted. */
+    private static long[] sortedPairs(int[][] rows) {
+        long[] pairs = new long[rows[0].length];
+        for (int index = 0; index < pairs.length; index++) {
+            pairs[index] = ((long) rows[0][index] << 32) | rows[1][index];
+        }
+        Arrays.sort(pairs);
+        return pairs;
+    }
+
+    @Test
+    public void testMergeJoin2Keys() throws IOException {
+        ColumnTable scores = read(scoresCsv, new int[] {0, 1, 3},
+                                  new boolean[] {false, false, true});
+        ColumnTable labels = read(labelsCsv, new int[] {0, 2, 1},
+                                  new boolean[] {false, false, false});
+        int[][] rows = ColumnTable.mergeJoin(scores, new int[] {0, 1},
+                                             labels, new int[] {1, 2});
+        // In the order of the keys (a1, b1, b2), then the first table,
+        // then the second table
+        assertArrayEquals(new int[] {0, 0, 5, 5, 4, 1}, rows[0]);
+        assertArrayEquals(new int[] {1, 4, 1, 4, 2, 0}, rows[1]);
+    }
+
+    @Test
+    public void testMergeJoin_differentDictionaries() throws IOException {
+        // Values that are in only one table or appear in a different
+        // order, including non-ASCII values
+        ColumnTable table1 = read("\u00e9\nb\nz\na\n\u00e9\nb\n", new int[] {0},
+                                  new boolean[] {false});
+        ColumnTable table2 = read("c\nb\n\u00e9\n\na\nb\n", new int[] {0},
+                                  new boolean[] {false});
+        int[][] rows = ColumnTable.mergeJoin(table1, new int[] {0},
+                                             table2, new int[] {0});
+        assertArrayEquals(new int[] {3, 1, 1, 5, 5, 0, 4}, rows[0]);
+        assertArrayEquals(new int[] {4, 1, 5, 1, 5, 2, 2}, rows[1]);
+    }
+
+    @Test
+    public void testJoin() throws IOException {
+        // The same pairs as a hash join and as a merge join
+        ColumnTable scores = read(scoresCsv, new int[] {0, 1, 3},
+                                  new boolean[] {false, false, true});
+        ColumnTable labels = read(labelsCsv, new int[] {0, 2, 1},
+                                  new boolean[] {false, false, false});
+        int[] keys1 = {0, 1};
+        int[] keys2 = {1, 2};
+        int[][] hashRows = ColumnTable.hashJoin(scores, keys1, labels, keys2);
+        int[][] mergeRows = ColumnTable.mergeJoin(scores, keys1, labels, keys2);
+        int[][] rows = ColumnTable.join(scores, keys1, labels, keys2);
+        assertArrayEquals(hashRows[0], rows[0]);
+        assertArrayEquals(hashRows[1], rows[1]);
+        rows = ColumnTable.join(scores, keys1, labels, keys2, 6);
+        assertArrayEquals(hashRows[0], rows[0]);
+        assertArrayEquals(hashRows[1], rows[1]);
+        rows = ColumnTable.join(scores, keys1, labels, keys2, 5);
+        assertArrayEquals(mergeRows[0], rows[0]);
+        assertArrayEquals(mergeRows[1], rows[1]);
+    }
+
+    @Test
+    public void testHashJoin_empty() throws IOException {
+        ColumnTable scores = read(scoresCsv, new int[] {2},
+                                  new boolean[] {false});
+        ColumnTable labels = read(labelsCsv, new int[] {2},
+                                  new boolean[] {false});
+        int[][] rows = ColumnTable.hashJoin(scores, new int[] {0},
+                                            labels, new int[] {0});
+        assertEquals(0, rows[0].length);
+        assertEquals(0, rows[1].length);
+    }
+}
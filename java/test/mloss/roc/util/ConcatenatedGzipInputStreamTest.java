@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link ConcatenatedGzipInputStream}. */
+public class ConcatenatedGzipInputStreamTest {
+
+    /** Compresses the given bytes as a single gzip member. */
+    public static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(output);
+        gzip.write(bytes);
+        gzip.close();
+        return output.toByteArray();
+    }
+
+    /**
+     * Compresses the given bytes as a gzip member whose header has the
+     * given flags (and the corresponding optional fields).
+     */
+    public static byte[] gzipWithFlags(byte[] bytes, int flags) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(new byte[] {0x1f, (byte) 0x8b, 8, (byte) flags, 1, 2, 3, 4, 0, 3}, 0, 10);
+        if ((flags & 4) != 0) {
+            output.write(new byte[] {3, 0, 'a', 'b', 'c'}, 0, 5);
+        }
+        if ((flags & 8) != 0) {
+            output.write(new byte[] {'f', '.', 'c', 's', 'v', 0}, 0, 6);
+        }
+        if ((flags & 16) != 0) {
+            output.write(new byte[] {'h', 'i', 0}, 0, 3);
+        }
+        if ((flags & 2) != 0) {
+            output.write(new byte[] {0, 0}, 0, 2);
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            output.write(buffer, 0, length);
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        writeInt(output, (int) crc.getValue());
+        writeInt(output, bytes.length);
+        return output.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream output, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            output.write((value >>> shift) & 0xff);
+        }
+    }
+
+    public static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            output.write(array, 0, array.length);
+        }
+        return output.toByteArray();
+    }
+
+    /** Reads the given stream to its end with reads of the given size. */
+    public static byte[] readAll(InputStream input, int readSize)
+        throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[readSize];
+        int numberRead;
+        while ((numberRead = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, numberRead);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * A stream that returns at most one byte per read and is never
+     * available, like a slow pipe.
+     */
+    static class TrickleInputStream extends InputStream {
+        private InputStream input;
+
+        TrickleInputStream(byte[] bytes) {
+            input = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return input.read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return input.read(bytes, offset, Math.min(length, 1));
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+
+    private static byte[] randomText(Random random, int length) {
+        byte[] bytes = new byte[length];
+        for (int index = 0; index < length; index++) {
+            bytes[index] = (byte) ("0123456789.,\n".charAt(random.nextInt(13)));
+        }
+        return bytes;
+    }
+
+    @Test
+    public void read_singleMember() throws IOException {
+        byte[] text = randomText(new Random(0x3b5a18c7L), 200000);
+        for (int readSize : new int[] {1, 1000, 1 << 16}) {
+            InputStream input = new ConcatenatedGzipInputStream(
+                new ByteArrayInputStream(gzip(text)));
+            assertArrayEquals(text, readAll(input, readSize));
+        }
+    }
+
+    @Test
+    public void read_multipleMembers() throws IOException {
+        Random random = new Random(0x7e21c9d4L);
+        byte[] first = randomText(random, 70000);
+        byte[] second = randomText(random, 10);
+        byte[] third = randomText(random, 30000);
+        byte[] gzipped = concat(gzip(first), gzip(second), gzip(new byte[0]), gzip(third));
+        byte[] expected = concat(first, second, third);
+        InputStream input = new ConcatenatedGzipInputStream(
+            new ByteArrayInputStream(gzipped));
+        assertArrayEquals(expected, readAll(input, 4096));
+        // Members are not lost when the input is never available
+        input = new ConcatenatedGzipInputStream(new TrickleInputStream(gzipped));
+        assertArrayEquals(expected, readAll(input, 4096));
+    }
+
+    @Test
+    public void read_headerFlags() throws IOException {
+        byte[] text = "0.5,1\n0.25,0\n".getBytes("US-ASCII");
+        for (int flags : new int[] {0, 2, 4, 8, 16, 2 | 4 | 8 | 16}) {
+            InputStream input = new ConcatenatedGzipInputStream(
+                new ByteArrayInputStream(concat(gzipWithFlags(text, flags), gzip(text))));
+            assertArrayEquals(concat(text, text), readAll(input, 7));
+        }
+    }
+
+    @Test
+    public void read_empty() throws IOException {
+        InputStream input = new ConcatenatedGzipInputStream(
+            new ByteArrayInputStream(new byte[0]));
+        assertEquals(-1, input.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_truncated() throws IOException {
+        byte[] gzipped = gzip(randomText(new Random(0x11d0f3a2L), 10000));
+        readAll(new ConcatenatedGzipInputStream(new ByteArrayInputStream(
+            Arrays.copyOf(gzipped, gzipped.length - 5))), 1024);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_badCrc() throws IOException {
+        byte[] gzipped = gzip("0.5,1\n".getBytes("US-ASCII"));
+        gzipped[gzipped.length - 8] ^= 1;
+        readAll(new ConcatenatedGzipInputStream(new ByteArrayInputStream(gzipped)), 1024);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_trailingGarbage() throws IOException {
+        byte[] gzipped = concat(gzip("0.5,1\n".getBytes("US-ASCII")),
+                                "0.25,0\n".getBytes("US-ASCII"));
+        readAll(new ConcatenatedGzipInputStream(new ByteArrayInputStream(gzipped)), 1024);
+    }
+
+    @Test
+    public void hasMagic() throws IOException {
+        byte[] gzipped = gzip(new byte[0]);
+        assertTrue(ConcatenatedGzipInputStream.hasMagic(gzipped, gzipped.length));
+        assertFalse(ConcatenatedGzipInputStream.hasMagic(gzipped, 1));
+        assertFalse(ConcatenatedGzipInputStream.hasMagic("0.5,1".getBytes("US-ASCII"), 5));
+    }
+}
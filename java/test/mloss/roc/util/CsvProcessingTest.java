@@ -5,7 +5,13 @@
 
 package mloss.roc.util;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -58,6 +64,21 @@ public class CsvProcessingTest {
         {"8", "x", "a", "i", "0", "8", "v"},
     };
 
+    @Test public void testCompareFields() throws IOException {
+        // As UTF-8 bytes rather than as UTF-16 code units, which put
+        // supplementary characters before U+E000 to U+FFFF
+        String[] fields = {"", "a", "a\u0000", "ab", "\u00e9", "\ue000",
+                           "\uffff", "\ud83d\ude00", "\ud83d\ude00a", "\udbff\udfff"};
+        for (String field1 : fields) {
+            for (String field2 : fields) {
+                assertEquals(Integer.signum(NormalizedKeys.compareBytes(
+                                 field1.getBytes("UTF-8"), field2.getBytes("UTF-8"))),
+                             Integer.signum(CsvProcessing.StringArrayComparator.compareFields(
+                                 field1, field2)));
+            }
+        }
+    }
+
     @Test public void testProject() {
         int[][] fields;
         String[] expected;
@@ -227,4 +248,328 @@ public class CsvProcessingTest {
         int[][] fields = {{0, 0}, {1, 2}, {0, 2}, {1, 1}};
         testMergeJoin(keys, fields, csv1, csv2, mergeResult2Keys2Vals);
     }
+
+    /** Orders rows by all their fields. */
+    public static Comparator<String[]> rowComparator = new Comparator<String[]>() {
+            public int compare(String[] row1, String[] row2) {
+                for (int index = 0; index < Math.min(row1.length, row2.length); index++) {
+                    int cmp = row1[index].compareTo(row2[index]);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return row1.length - row2.length;
+            }
+        };
+
+    /** Returns the given rows sorted by all their fields. */
+    public static String[][] sortedRows(List<String[]> rows) {
+        List<String[]> sorted = new ArrayList<String[]>(rows);
+        Collections.sort(sorted, rowComparator);
+        return sorted.toArray(new String[sorted.size()][]);
+    }
+
+    /**
+     * Checks that a hash join and the planned joins have the same rows
+     * as a merge join.
+     */
+    public void testOtherJoins(
+            int[][] keys, int[][] fields,
+            String[][] csv1, String[][] csv2) {
+        String[][] expected = sortedRows(CsvProcessing.mergeJoin(
+            keys, fields,
+            new IterableArray<String[]>(csv1), new IterableArray<String[]>(csv2)));
+        assertArrayEquals(expected, sortedRows(CsvProcessing.hashJoin(
+            keys, fields,
+            new IterableArray<String[]>(csv1), new IterableArray<String[]>(csv2))));
+        // Hash joins building on either input and a merge join
+        for (int maxHashRows : new int[] {0, 10, 100}) {
+            assertArrayEquals(expected, sortedRows(CsvProcessing.join(
+                keys, fields, Arrays.asList(csv1), Arrays.asList(csv2),
+                maxHashRows)));
+        }
+        // Inputs of unknown size
+        assertArrayEquals(expected, sortedRows(CsvProcessing.join(
+            keys, fields,
+            new IterableArray<String[]>(csv1), new IterableArray<String[]>(csv2))));
+    }
+
+    @Test public void testHashJoin1Key2Vals() {
+        testOtherJoins(new int[][] {{0, 0}}, new int[][] {{0, 0}, {0, 2}, {1, 6}},
+                       csv1, csv2);
+        testOtherJoins(new int[][] {{0, 0}}, new int[][] {{0, 0}, {1, 2}, {0, 6}},
+                       csv2, csv1);
+    }
+
+    @Test public void testHashJoin1Key5Vals() {
+        testOtherJoins(new int[][] {{5, 3}},
+                       new int[][] {{0, 5}, {0, 6}, {0, 3}, {1, 2}, {1, 4}, {0, 4}},
+                       csv2, csv1);
+    }
+
+    @Test public void testHashJoin2Keys2Vals() {
+        testOtherJoins(new int[][] {{0, 0}, {1, 2}},
+                       new int[][] {{0, 0}, {1, 2}, {0, 2}, {1, 1}},
+                       csv1, csv2);
+    }
+
+    @Test public void testHashJoinOrder() {
+        // Rows are in the order of input 1 and then of input 2
+        String[][] input1 = {{"b", "1"}, {"a", "2"}, {"c", "3"}, {"b", "4"}};
+        String[][] input2 = {{"x", "b"}, {"y", "a"}, {"z", "b"}};
+        String[][] expected = {
+            {"1", "x"}, {"1", "z"}, {"2", "y"}, {"4", "x"}, {"4", "z"},
+        };
+        List<String[]> result = CsvProcessing.hashJoin(
+            new int[][] {{0, 1}}, new int[][] {{0, 1}, {1, 0}},
+            Arrays.asList(input1), Arrays.asList(input2));
+        assertArrayEquals(expected, result.toArray(new String[result.size()][]));
+    }
+
+    @Test public void testHashJoinAll() {
+        // Join the first and second halves of csv2 and all of it to csv1
+        int[][] keys = {{0, 0}};
+        int[][] fields = {{0, 0}, {1, 2}, {0, 6}};
+        List<List<String[]>> inputs = new ArrayList<List<String[]>>();
+        inputs.add(Arrays.asList(csv2).subList(0, 11));
+        inputs.add(Arrays.asList(csv2).subList(11, csv2.length));
+        inputs.add(Arrays.asList(csv2));
+        List<List<String[]>> results = CsvProcessing.hashJoinAll(
+            keys, fields, inputs, new IterableArray<String[]>(csv1));
+        assertEquals(inputs.size(), results.size());
+        for (int index = 0; index < inputs.size(); index++) {
+            List<String[]> expected = CsvProcessing.hashJoin(
+                keys, fields, inputs.get(index), Arrays.asList(csv1));
+            assertArrayEquals(expected.toArray(new String[expected.size()][]),
+                              results.get(index).toArray(new String[results.get(index).size()][]));
+        }
+        assertArrayEquals(sortedRows(Arrays.asList(mergeResult1Key2Vals)),
+                          sortedRows(results.get(2)));
+        assertEquals(results.get(2).size(),
+                     results.get(0).size() + results.get(1).size());
+    }
+
+    @Test public void testKeyEncoder() {
+        // Keys whose fields run together the same are still distinct
+        int[] keyFields = {2, 0};
+        CsvProcessing.KeyEncoder encoder = new CsvProcessing.KeyEncoder(2);
+        assertEquals(0, encoder.encode(new String[] {"a", "-", "bc"}, keyFields));
+        assertEquals(1, encoder.encode(new String[] {"", "-", "abc"}, keyFields));
+        assertEquals(2, encoder.encode(new String[] {"c", "-", "ab"}, keyFields));
+        assertEquals(0, encoder.encode(new String[] {"a", "+", "bc"}, keyFields));
+        assertEquals(3, encoder.encode(new String[] {"", "+", "bc"}, keyFields));
+        assertEquals(2, encoder.code(new String[] {"ab", "c"}, new int[] {0, 1}));
+        assertEquals(-1, encoder.code(new String[] {"bc", "c"}, new int[] {0, 1}));
+        assertEquals(-1, encoder.code(new String[] {"ab", "a"}, new int[] {0, 1}));
+    }
+
+    /** Checks a streaming merge join of sorted inputs. */
+    public void testSortedMergeJoin(
+            int[][] keys, int[][] fields,
+            String[][] csv1, String[][] csv2)
+        throws IOException {
+        // Sort the inputs by their keys
+        int[] keys1 = new int[keys.length];
+        int[] keys2 = new int[keys.length];
+        for (int index = 0; index < keys.length; index++) {
+            keys1[index] = keys[index][0];
+            keys2[index] = keys[index][1];
+        }
+        List<String[]> sorted1 = new ArrayList<String[]>(Arrays.asList(csv1));
+        Collections.sort(sorted1, new CsvProcessing.StringArrayComparator(keys1, keys1));
+        List<String[]> sorted2 = new ArrayList<String[]>(Arrays.asList(csv2));
+        Collections.sort(sorted2, new CsvProcessing.StringArrayComparator(keys2, keys2));
+
+        // The result is the same as that of a merge join, in order
+        List<String[]> expected = CsvProcessing.mergeJoin(keys, fields, sorted1, sorted2);
+        final List<String[]> actual = new ArrayList<String[]>();
+        long numberJoined = CsvProcessing.sortedMergeJoin(
+            keys, fields,
+            CsvProcessing.cursor(sorted1), CsvProcessing.cursor(sorted2),
+            new CsvProcessing.RowConsumer() {
+                public void accept(String[] row) {
+                    actual.add(row);
+                }
+            });
+        assertEquals(expected.size(), numberJoined);
+        assertArrayEquals(expected.toArray(new String[expected.size()][]),
+                          actual.toArray(new String[actual.size()][]));
+    }
+
+    @Test public void testSortedMergeJoin() throws IOException {
+        testSortedMergeJoin(new int[][] {{0, 0}}, new int[][] {{0, 0}, {0, 2}, {1, 6}},
+                            csv1, csv2);
+        testSortedMergeJoin(new int[][] {{0, 0}}, new int[][] {{0, 0}, {1, 2}, {0, 6}},
+                            csv2, csv1);
+        testSortedMergeJoin(new int[][] {{5, 3}},
+                            new int[][] {{0, 5}, {0, 6}, {0, 3}, {1, 2}, {1, 4}, {0, 4}},
+                            csv2, csv1);
+        testSortedMergeJoin(new int[][] {{0, 0}, {1, 2}},
+                            new int[][] {{0, 0}, {1, 2}, {0, 2}, {1, 1}},
+                            csv1, csv2);
+    }
+
+    @Test public void testSortedMergeJoin_unsorted() throws IOException {
+        // The order of the rest of an input is checked after the other
+        // input ends
+        String[][] input1 = {{"a"}, {"c"}, {"b"}};
+        String[][] input2 = {{"b"}};
+        try {
+            CsvProcessing.sortedMergeJoin(
+                new int[][] {{0, 0}}, new int[][] {{0, 0}},
+                CsvProcessing.cursor(Arrays.asList(input1)),
+                CsvProcessing.cursor(Arrays.asList(input2)),
+                new CsvProcessing.RowConsumer() {
+                    public void accept(String[] row) {}
+                });
+            fail("Exception not thrown for unsorted input.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Input 1 is not sorted by its keys at row 3.", e.getMessage());
+        }
+    }
+
+    /** Makes rows of a random key, a row number, and a random value. */
+    private static List<String[]> randomKeyedRows(Random random, int numberRows,
+                                                  int numberKeys) {
+        List<String[]> rows = new ArrayList<String[]>(numberRows);
+        for (int row = 0; row < numberRows; row++) {
+            rows.add(new String[] {
+                    Integer.toString(random.nextInt(numberKeys)),
+                    Integer.toString(row),
+                    Integer.toString(random.nextInt(10)),
+                });
+        }
+        return rows;
+    }
+
+    @Test public void testExternalRowSorter() throws IOException {
+        // Enough rows for more runs than can be merged at once
+        int numberRows = (CsvProcessing.ExternalRowSorter.MERGE_WIDTH + 2) *
+            CsvProcessing.ExternalRowSorter.MINIMUM_ROWS;
+        List<String[]> rows = randomKeyedRows(new Random(0x4d9a02e7L), numberRows, 500);
+        List<String[]> expected = new ArrayList<String[]>(rows);
+        int[] keyFields = {0};
+        Collections.sort(expected, new CsvProcessing.StringArrayComparator(keyFields, keyFields));
+        CsvProcessing.ExternalRowSorter sorter =
+            new CsvProcessing.ExternalRowSorter(keyFields, 1, null);
+        try {
+            for (String[] row : rows) {
+                sorter.add(row);
+            }
+            CsvProcessing.RowCursor cursor = sorter.sorted();
+            // Stable: rows with equal keys are in their original order
+            for (String[] expectedRow : expected) {
+                assertArrayEquals(expectedRow, cursor.nextRow());
+            }
+            assertNull(cursor.nextRow());
+        } finally {
+            sorter.close();
+        }
+    }
+
+    @Test public void testExternalRowSorter_compoundNonAsciiKeys() throws IOException {
+        // Keys whose encodings differ in length and whose UTF-16 order
+        // is not their UTF-8 order, spilled and in memory
+        String[] alphabet = {"", "a", "ab", "\u0000", "\u00e9", "\uffff", "\ud83d\ude00", "\ue000"};
+        Random random = new Random(0x2b7e1516L);
+        int numberRows = 3 * CsvProcessing.ExternalRowSorter.MINIMUM_ROWS;
+        List<String[]> rows = new ArrayList<String[]>(numberRows);
+        for (int row = 0; row < numberRows; row++) {
+            rows.add(new String[] {
+                    Integer.toString(row),
+                    alphabet[random.nextInt(alphabet.length)] +
+                    alphabet[random.nextInt(alphabet.length)],
+                    alphabet[random.nextInt(alphabet.length)],
+                });
+        }
+        int[] keyFields = {1, 2};
+        List<String[]> expected = new ArrayList<String[]>(rows);
+        Collections.sort(expected, new CsvProcessing.StringArrayComparator(keyFields, keyFields));
+        for (long memoryBytes : new long[] {1, 1L << 30}) {
+            CsvProcessing.ExternalRowSorter sorter =
+                new CsvProcessing.ExternalRowSorter(keyFields, memoryBytes, null);
+            try {
+                for (String[] row : rows) {
+                    sorter.add(row);
+                }
+                CsvProcessing.RowCursor cursor = sorter.sorted();
+                for (String[] expectedRow : expected) {
+                    assertArrayEquals(expectedRow, cursor.nextRow());
+                }
+                assertNull(cursor.nextRow());
+            } finally {
+                sorter.close();
+            }
+        }
+    }
+
+    @Test public void testExternalMergeJoin() throws IOException {
+        Random random = new Random(0x18f3c6a5L);
+        List<String[]> input1 = randomKeyedRows(random, 5000, 3000);
+        List<String[]> input2 = randomKeyedRows(random, 3000, 4000);
+        int[][] keys = {{0, 0}};
+        int[][] fields = {{1, 2}, {0, 1}, {0, 0}, {1, 1}};
+        List<String[]> expected = CsvProcessing.mergeJoin(keys, fields, input1, input2);
+        // Spilling to runs and in memory
+        for (long memoryBytes : new long[] {1, 1L << 30}) {
+            final List<String[]> actual = new ArrayList<String[]>();
+            long numberJoined = CsvProcessing.externalMergeJoin(
+                keys, fields,
+                CsvProcessing.cursor(input1), CsvProcessing.cursor(input2),
+                new CsvProcessing.RowConsumer() {
+                    public void accept(String[] row) {
+                        actual.add(row);
+                    }
+                },
+                memoryBytes, null);
+            assertEquals(expected.size(), numberJoined);
+            assertArrayEquals(expected.toArray(new String[expected.size()][]),
+                              actual.toArray(new String[actual.size()][]));
+        }
+    }
+
+    @Test public void testExternalMergeJoin_sortedOnce() throws IOException {
+        Random random = new Random(0x3c6ef372L);
+        List<String[]> input2 = randomKeyedRows(random, 3000, 2000);
+        int[][] keys = {{0, 0}};
+        int[][] fields = {{1, 2}, {0, 1}};
+        // Spilling to runs and in memory
+        for (long memoryBytes : new long[] {1, 1L << 30}) {
+            // Count the rows read from the second input
+            final CsvProcessing.RowCursor rows2 = CsvProcessing.cursor(input2);
+            final long[] numberRead = {0};
+            CsvProcessing.RowCursor counted2 = new CsvProcessing.RowCursor() {
+                public String[] nextRow() throws IOException {
+                    String[] row = rows2.nextRow();
+                    if (row != null) {
+                        numberRead[0]++;
+                    }
+                    return row;
+                }
+            };
+            CsvProcessing.ExternalRowSorter sorted2 = CsvProcessing.externalSort(
+                keys, fields, 1, counted2, memoryBytes, null);
+            try {
+                for (int trial = 0; trial < 3; trial++) {
+                    List<String[]> input1 = randomKeyedRows(random, 2000, 2000);
+                    List<String[]> expected = CsvProcessing.mergeJoin(keys, fields, input1, input2);
+                    final List<String[]> actual = new ArrayList<String[]>();
+                    long numberJoined = CsvProcessing.externalMergeJoin(
+                        keys, fields, CsvProcessing.cursor(input1), sorted2,
+                        new CsvProcessing.RowConsumer() {
+                            public void accept(String[] row) {
+                                actual.add(row);
+                            }
+                        },
+                        memoryBytes, null);
+                    assertEquals(expected.size(), numberJoined);
+                    assertArrayEquals(expected.toArray(new String[expected.size()][]),
+                                      actual.toArray(new String[actual.size()][]));
+                }
+            } finally {
+                sorted2.close();
+            }
+            assertEquals(input2.size(), numberRead[0]);
+        }
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link CsvTokenizer}. */
+public class CsvTokenizerTest {
+
+    public static final Charset utf8 = Charset.forName("UTF-8");
+
+    public static final String[] inputs = {
+        "",
+        "a",
+        "a\n",
+        "a,b,c\nd,e,f\n",
+        "a,b,c\r\nd,e,f\r\n",
+        "a,b\rc,d\r",
+        "\n\n,\n,,\n",
+        "trailing,empty,\n,leading",
+        "0.5,1\n0.25,0\n0.125,1",
+        "a\r\n\r\nb\r\r\nc",
+        "caf\u00e9,na\u00efve\n\u65e5\u672c,\u8a9e\n",
+    };
+
+    /** Reads all the rows with the tokenizer. */
+    public static List<String[]> tokenize(InputStream input, int bufferSize)
+        throws IOException {
+        CsvTokenizer csv = new CsvTokenizer(input, (byte) ',', utf8, bufferSize);
+        List<String[]> rows = new ArrayList<String[]>();
+        while (csv.nextRow()) {
+            String[] row = new String[csv.numberFields()];
+            for (int field = 0; field < row.length; field++) {
+                row[field] = csv.field(field);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Reads all the rows naively (the reference): splits each line at
+     * every comma, keeping trailing empty fields.
+     */
+    public static List<String[]> naive(String input) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(input));
+        List<String[]> rows = new ArrayList<String[]>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            rows.add(line.split(",", -1));
+        }
+        return rows;
+    }
+
+    public static void assertSameRows(List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertArrayEquals(expected.get(row), actual.get(row));
+        }
+    }
+
+    @Test
+    public void testSameAsNaiveSplit() throws IOException {
+        // Small buffers exercise refilling and growing mid-row
+        int[] bufferSizes = {1, 3, 16, 1024};
+        for (String input : inputs) {
+            List<String[]> expected = naive(input);
+            for (int bufferSize : bufferSizes) {
+                assertSameRows(expected, tokenize(
+                    new ByteArrayInputStream(input.getBytes(utf8)), bufferSize));
+            }
+        }
+    }
+
+    @Test
+    public void testReaderInputStream() throws IOException {
+        for (String input : inputs) {
+            assertSameRows(naive(input), tokenize(
+                new ReaderInputStream(new StringReader(input), utf8), 16));
+        }
+    }
+
+    @Test
+    public void testLongRows() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int row = 0; row < 50; row++) {
+            for (int field = 0; field < 500; field++) {
+                builder.append(row * field).append(field < 499 ? "," : "\n");
+            }
+        }
+        String input = builder.toString();
+        assertSameRows(naive(input), tokenize(
+            new ByteArrayInputStream(input.getBytes(utf8)), 64));
+    }
+
+    public static final String[] quotedInputs = {
+        "\"a,b\",c\n",
+        "\"a\"\"b\",\"\"\"\"\n",
+        "\"\",\"\"\r\n\"x\"",
+        "1,\"line\r\nbreak\",2\r\n3,\"cr\rlf\n\",4\n",
+        "a\"b,c\"\n",
+        "\"ab\"cd,e\n",
+        "x,\"unterminated,y\nz",
+    };
+
+    public static final String[][][] quotedRows = {
+        {{"a,b", "c"}},
+        {{"a\"b", "\""}},
+        {{"", ""}, {"x"}},
+        {{"1", "line\r\nbreak", "2"}, {"3", "cr\rlf\n", "4"}},
+        {{"a\"b", "c\""}},
+        {{"abcd", "e"}},
+        {{"x", "unterminated,y\nz"}},
+    };
+
+    @Test
+    public void testQuotedFields() throws IOException {
+        int[] bufferSizes = {1, 3, 16, 1024};
+        for (int input = 0; input < quotedInputs.length; input++) {
+            for (int bufferSize : bufferSizes) {
+                assertSameRows(Arrays.asList(quotedRows[input]), tokenize(
+                    new ByteArrayInputStream(quotedInputs[input].getBytes(utf8)),
+                    bufferSize));
+            }
+        }
+    }
+
+    @Test
+    public void testEndedInsideQuotes() throws IOException {
+        CsvTokenizer csv = new CsvTokenizer(
+            new ByteArrayInputStream("\"a\"\n\"b".getBytes(utf8)), (byte) ',');
+        assertTrue(csv.nextRow());
+        assertFalse(csv.endedInsideQuotes());
+        assertTrue(csv.nextRow());
+        assertTrue(csv.endedInsideQuotes());
+        assertEquals("b", csv.field(0));
+        assertFalse(csv.nextRow());
+    }
+
+    @Test
+    public void testLineNumber() throws IOException {
+        // Quoted fields with "\r\n", "\r", and "\n" line endings, the
+        // last after an escaped quote
+        String input = "a\r\n\"b\r\nc\",d\n\"e\rf\"\n\ng\r\"h\n\"\"\ri\"\n";
+        long[] expected = {1, 2, 4, 6, 7, 8};
+        for (int bufferSize : new int[] {1, 3, 16}) {
+            CsvTokenizer csv = new CsvTokenizer(
+                new ByteArrayInputStream(input.getBytes(utf8)), (byte) ',',
+                utf8, bufferSize);
+            for (long lineNumber : expected) {
+                assertTrue(csv.nextRow());
+                assertEquals(lineNumber, csv.lineNumber());
+            }
+            assertFalse(csv.nextRow());
+        }
+    }
+
+    @Test
+    public void testFieldAccess() throws IOException {
+        CsvTokenizer csv = new CsvTokenizer(
+            new ByteArrayInputStream("ab,cde,1\n".getBytes(utf8)), (byte) ',');
+        assertTrue(csv.nextRow());
+        assertEquals(3, csv.numberFields());
+        assertEquals(3, csv.fieldStart(1));
+        assertEquals(6, csv.fieldEnd(1));
+        assertTrue(csv.fieldEquals(2, "1".getBytes(utf8)));
+        assertFalse(csv.fieldEquals(1, "cd".getBytes(utf8)));
+        assertArrayEquals(new String[] {"1", "ab"}, csv.fields(new int[] {2, 0}));
+        try {
+            csv.field(3);
+            fail("Exception not thrown for column out of bounds.");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            assertEquals("Column index out of bounds: 3", e.getMessage());
+        }
+        assertFalse(csv.nextRow());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link DoubleArrayList}. */
+public class DoubleArrayListTest {
+
+    @Test
+    public void add_grows() {
+        DoubleArrayList list = new DoubleArrayList(0);
+        for (int index = 0; index < 1000; index++) {
+            list.add(index / 4.0);
+        }
+        assertEquals(1000, list.size());
+        for (int index = 0; index < 1000; index++) {
+            assertEquals(index / 4.0, list.get(index), 0.0);
+        }
+    }
+
+    @Test
+    public void set() {
+        DoubleArrayList list = new DoubleArrayList();
+        list.add(1.0);
+        list.add(2.0);
+        list.set(1, -2.0);
+        assertArrayEquals(new double[] {1.0, -2.0}, list.toArray(), 0.0);
+    }
+
+    @Test
+    public void addAll() {
+        DoubleArrayList list = new DoubleArrayList(1);
+        DoubleArrayList other = new DoubleArrayList();
+        list.add(0.5);
+        other.add(1.5);
+        other.add(2.5);
+        list.addAll(other);
+        list.addAll(list);
+        assertArrayEquals(new double[] {0.5, 1.5, 2.5, 0.5, 1.5, 2.5},
+                          list.toArray(), 0.0);
+    }
+
+    @Test
+    public void trimmedArray() {
+        DoubleArrayList list = new DoubleArrayList(4);
+        list.add(3.0);
+        double[] trimmed = list.trimmedArray();
+        assertArrayEquals(new double[] {3.0}, trimmed, 0.0);
+        // Already trimmed, so no copy
+        assertSame(trimmed, list.trimmedArray());
+        // Cleared lists keep their capacity
+        list.clear();
+        assertEquals(0, list.size());
+        assertEquals(0, list.trimmedArray().length);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void get_outOfBounds() {
+        DoubleArrayList list = new DoubleArrayList();
+        list.add(1.0);
+        list.get(1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void constructor_negativeCapacity() {
+        new DoubleArrayList(-1);
+    }
+}
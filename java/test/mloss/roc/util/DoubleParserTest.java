@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link DoubleParser}. */
+public class DoubleParserTest {
+
+    public static final Charset latin1 = Charset.forName("ISO-8859-1");
+
+    public static final String[] numbers = {
+        "0", "-0", "+0", "0.0", "-0.0", "00000", "0e999", "-0e-999",
+        "1", "-1", "+1", "1.", ".5", "-.5", "0.1", "0.2", "0.3",
+        "3.141592653589793", "2.718281828459045", "1e22", "1e23",
+        "9007199254740992", "9007199254740993", "9007199254740994",
+        "9007199254740995", "18014398509481985",
+        "1.7976931348623157e308", "1.7976931348623158e308",
+        "1.7976931348623159e308", "1e308", "1e309", "-1e400",
+        "2.2250738585072014e-308", "2.2250738585072011e-308",
+        "2.2250738585072012e-308", "4.9e-324", "2.4703282292062327e-324",
+        "2.4703282292062328e-324", "1e-323", "1e-400", "1e-999999999",
+        "1e999999999", "9999999999999999999", "99999999999999999999",
+        "1.0000000000000000001", "123456789012345678901234567890",
+        "0.000000000000000000000000000000000000001234",
+        "7.2057594037927933e16", "5e-324", "1E5", "1e+5", "1e-5",
+        "0.54803549918305260", "0.03331158540273116",
+        "1.00000000000000011102230246251565404236316680908203125",
+        "1.00000000000000011102230246251565404236316680908203124",
+        "1.00000000000000011102230246251565404236316680908203126",
+        " 1.5", "1.5 ", "1.5d", "1.5F", "NaN", "-Infinity", "Infinity",
+        "0x1.8p1",
+    };
+
+    public static final String[] notNumbers = {
+        "", "-", "+", ".", "e5", "1e", "1e+", "1.2.3", "1,5", "--1",
+        "abc", "1 2", "0x", "\u00e9",
+    };
+
+    public static void assertSameAsJava(String number) {
+        long expected = Double.doubleToRawLongBits(Double.parseDouble(number));
+        byte[] bytes = ("[" + number + "]").getBytes(latin1);
+        assertEquals(number, expected, Double.doubleToRawLongBits(
+            DoubleParser.parseDouble(bytes, 1, bytes.length - 1)));
+        assertEquals(number, expected, Double.doubleToRawLongBits(
+            DoubleParser.parseDouble(number)));
+        assertEquals(number, expected, Double.doubleToRawLongBits(
+            DoubleParser.parseDouble("[" + number + "]", 1, number.length() + 1)));
+    }
+
+    @Test
+    public void parseDouble_numbers() {
+        for (String number : numbers) {
+            assertSameAsJava(number);
+        }
+    }
+
+    @Test
+    public void parseDouble_notNumbers() {
+        for (String notNumber : notNumbers) {
+            byte[] bytes = notNumber.getBytes(latin1);
+            try {
+                DoubleParser.parseDouble(bytes, 0, bytes.length);
+                fail("Expected a NumberFormatException: " + notNumber);
+            } catch (NumberFormatException e) {}
+            try {
+                DoubleParser.parseDouble(notNumber);
+                fail("Expected a NumberFormatException: " + notNumber);
+            } catch (NumberFormatException e) {}
+        }
+    }
+
+    @Test
+    public void parseDouble_randomDoubles() {
+        Random random = new Random(0x5eedL);
+        for (int trial = 0; trial < 100000; trial++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (!Double.isNaN(value)) {
+                assertSameAsJava(Double.toString(value));
+            }
+            assertSameAsJava(Double.toString(random.nextDouble()));
+        }
+    }
+
+    @Test
+    public void parseDouble_randomDecimals() {
+        // Random digits (up to and beyond 19) with random exponents
+        // over the whole range, including subnormals and overflow
+        Random random = new Random(0xdecL);
+        for (int trial = 0; trial < 100000; trial++) {
+            StringBuilder number = new StringBuilder();
+            int numberDigits = 1 + random.nextInt(22);
+            int point = random.nextInt(numberDigits + 1);
+            for (int digit = 0; digit < numberDigits; digit++) {
+                if (digit == point) {
+                    number.append('.');
+                }
+                number.append((char) ('0' + random.nextInt(10)));
+            }
+            number.append('e').append(random.nextInt(700) - 350);
+            assertSameAsJava(number.toString());
+        }
+    }
+
+    @Test
+    public void parseDouble_halfway() {
+        // Decimal values exactly halfway between adjacent doubles and
+        // just above and below them
+        Random random = new Random(0x4a1fL);
+        for (int trial = 0; trial < 10000; trial++) {
+            double value = Math.abs(Double.longBitsToDouble(random.nextLong()));
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            BigDecimal low = new BigDecimal(value);
+            BigDecimal high = new BigDecimal(Math.nextUp(value));
+            BigDecimal halfway = low.add(high).divide(BigDecimal.valueOf(2));
+            String digits = halfway.round(new MathContext(19)).toString();
+            assertSameAsJava(digits);
+            assertSameAsJava(halfway.round(new MathContext(17)).toString());
+        }
+    }
+}
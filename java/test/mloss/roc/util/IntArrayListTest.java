@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link IntArrayList}. */
+public class IntArrayListTest {
+
+    @Test
+    public void add_grows() {
+        IntArrayList list = new IntArrayList(0);
+        for (int index = 0; index < 1000; index++) {
+            list.add(3 * index);
+        }
+        assertEquals(1000, list.size());
+        for (int index = 0; index < 1000; index++) {
+            assertEquals(3 * index, list.get(index));
+        }
+    }
+
+    @Test
+    public void set() {
+        IntArrayList list = new IntArrayList();
+        list.add(1);
+        list.add(2);
+        list.set(1, -2);
+        assertArrayEquals(new int[] {1, -2}, list.toArray());
+    }
+
+    @Test
+    public void addAll() {
+        IntArrayList list = new IntArrayList(1);
+        IntArrayList other = new IntArrayList();
+        list.add(5);
+        other.add(15);
+        other.add(25);
+        list.addAll(other);
+        list.addAll(list);
+        assertArrayEquals(new int[] {5, 15, 25, 5, 15, 25},
+                          list.toArray());
+    }
+
+    @Test
+    public void trimmedArray() {
+        IntArrayList list = new IntArrayList(4);
+        list.add(3);
+        int[] trimmed = list.trimmedArray();
+        assertArrayEquals(new int[] {3}, trimmed);
+        // Already trimmed, so no copy
+        assertSame(trimmed, list.trimmedArray());
+        // Cleared lists keep their capacity
+        list.clear();
+        assertEquals(0, list.size());
+        assertEquals(0, list.trimmedArray().length);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void get_outOfBounds() {
+        IntArrayList list = new IntArrayList();
+        list.add(1);
+        list.get(1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void constructor_negativeCapacity() {
+        new IntArrayList(-1);
+    }
+}
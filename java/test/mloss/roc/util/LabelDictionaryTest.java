@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link LabelDictionary}. */
+public class LabelDictionaryTest {
+
+    public static final Charset utf8 = Charset.forName("UTF-8");
+
+    @Test
+    public void encode_codesInOrderOfAppearance() {
+        LabelDictionary dictionary = new LabelDictionary();
+        byte[] buffer = "pos,neg,pos,,neg,other".getBytes(utf8);
+        assertEquals(0, dictionary.encode(buffer, 0, 3));
+        assertEquals(1, dictionary.encode(buffer, 4, 7));
+        assertEquals(0, dictionary.encode(buffer, 8, 11));
+        assertEquals(2, dictionary.encode(buffer, 12, 12));
+        assertEquals(1, dictionary.encode(buffer, 13, 16));
+        assertEquals(3, dictionary.encode(buffer, 17, 22));
+        assertEquals(4, dictionary.size());
+        assertArrayEquals("neg".getBytes(utf8), dictionary.label(1));
+        assertArrayEquals(new byte[0], dictionary.label(2));
+    }
+
+    @Test
+    public void code_missing() {
+        LabelDictionary dictionary = new LabelDictionary();
+        assertEquals(-1, dictionary.code("1".getBytes(utf8)));
+        byte[] one = "1".getBytes(utf8);
+        dictionary.encode(one, 0, 1);
+        assertEquals(0, dictionary.code(one));
+        assertEquals(-1, dictionary.code("10".getBytes(utf8)));
+    }
+
+    @Test
+    public void codeSet() {
+        LabelDictionary dictionary = new LabelDictionary();
+        String[] labels = {"a", "b", "c", "d"};
+        for (String label : labels) {
+            byte[] bytes = label.getBytes(utf8);
+            dictionary.encode(bytes, 0, bytes.length);
+        }
+        boolean[] set = dictionary.codeSet(
+            "b".getBytes(utf8), "d".getBytes(utf8), "z".getBytes(utf8));
+        assertArrayEquals(new boolean[] {false, true, false, true}, set);
+    }
+
+    @Test
+    public void encode_manyLabels() {
+        // Compare against a hash map through several resizes
+        LabelDictionary dictionary = new LabelDictionary();
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        Random random = new Random(11);
+        for (int trial = 0; trial < 100000; trial++) {
+            String label = Integer.toString(random.nextInt(20000), 36);
+            byte[] bytes = ("," + label + ",").getBytes(utf8);
+            int code = dictionary.encode(bytes, 1, bytes.length - 1);
+            if (!expected.containsKey(label)) {
+                expected.put(label, expected.size());
+            }
+            assertEquals(expected.get(label).intValue(), code);
+        }
+        assertEquals(expected.size(), dictionary.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey().getBytes(utf8),
+                              dictionary.label(entry.getValue()));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link NormalizedKeys}. */
+public class NormalizedKeysTest {
+
+    /**
+     * Makes rows of two fields whose values are random strings of the
+     * given characters with lengths up to the given length.
+     */
+    private static List<String[]> randomRows(Random random, int numberRows,
+                                             String characters, int maxLength) {
+        List<String[]> rows = new ArrayList<String[]>(numberRows);
+        for (int row = 0; row < numberRows; row++) {
+            String[] fields = new String[2];
+            for (int field = 0; field < fields.length; field++) {
+                int length = random.nextInt(maxLength + 1);
+                StringBuilder value = new StringBuilder(length);
+                for (int index = 0; index < length; index++) {
+                    value.append(characters.charAt(random.nextInt(characters.length())));
+                }
+                fields[field] = value.toString();
+            }
+            rows.add(fields);
+        }
+        return rows;
+    }
+
+    /**
+     * Checks that the encoded keys compare as the strings do, both
+     * within and between inputs, and that sorting is stable.
+     */
+    private static void checkOrder(List<String[]> rows1, int[] keys1,
+                                   List<String[]> rows2, int[] keys2) {
+        List<List<String[]>> inputs = new ArrayList<List<String[]>>();
+        inputs.add(rows1);
+        inputs.add(rows2);
+        NormalizedKeys[] normalized =
+            NormalizedKeys.normalize(inputs, new int[][] {keys1, keys2});
+        CsvProcessing.StringArrayComparator cmp11 =
+            new CsvProcessing.StringArrayComparator(keys1, keys1);
+        CsvProcessing.StringArrayComparator cmp12 =
+            new CsvProcessing.StringArrayComparator(keys1, keys2);
+        for (int index1 = 0; index1 < rows1.size(); index1++) {
+            for (int index2 = 0; index2 < rows1.size(); index2++) {
+                assertEquals(Integer.signum(cmp11.compare(rows1.get(index1), rows1.get(index2))),
+                             Integer.signum(normalized[0].compare(index1, normalized[0], index2)));
+            }
+            for (int index2 = 0; index2 < rows2.size(); index2++) {
+                assertEquals(Integer.signum(cmp12.compare(rows1.get(index1), rows2.get(index2))),
+                             Integer.signum(normalized[0].compare(index1, normalized[1], index2)));
+            }
+        }
+
+        // Sorting by index matches a stable sort of the rows
+        List<String[]> expected = new ArrayList<String[]>(rows1);
+        Collections.sort(expected, cmp11);
+        int[] order = normalized[0].sortedIndices();
+        assertEquals(rows1.size(), order.length);
+        for (int index = 0; index < order.length; index++) {
+            assertSame(expected.get(index), rows1.get(order[index]));
+        }
+    }
+
+    @Test
+    public void compare_digits() {
+        // Packed 4 bits per character into a long
+        Random random = new Random(0x2f6d1a53L);
+        checkOrder(randomRows(random, 150, "0123456789", 4), new int[] {0, 1},
+                   randomRows(random, 50, "0123456789", 4), new int[] {1, 0});
+    }
+
+    @Test
+    public void compare_ascii() {
+        // Packed 8 bits per character into a long
+        Random random = new Random(0x61c0e94bL);
+        checkOrder(randomRows(random, 150, "ab.Z9", 2), new int[] {0, 1},
+                   randomRows(random, 50, "ab.Z9", 2), new int[] {0, 1});
+    }
+
+    @Test
+    public void compare_asciiBytes() {
+        // Too long for a long
+        Random random = new Random(0x0b8e7d26L);
+        checkOrder(randomRows(random, 150, "abc", 10), new int[] {1, 0},
+                   randomRows(random, 50, "abc", 10), new int[] {1, 0});
+    }
+
+    @Test
+    public void compare_otherBytes() {
+        // Characters outside of nonzero ASCII
+        Random random = new Random(0x7d35b2c9L);
+        String characters = "a\u0000\u00e9\u0100\uffff";
+        checkOrder(randomRows(random, 150, characters, 3), new int[] {0, 1},
+                   randomRows(random, 50, characters, 3), new int[] {0, 1});
+    }
+
+    @Test
+    public void compare_supplementaryBytes() {
+        // Surrogates (including unpaired ones) and the characters whose
+        // encodings are escaped
+        Random random = new Random(0x3ac85e17L);
+        String characters = "a\u0000\u0001\u007f\u0080\u3fff\u4000\ue000\uffff\ud83d\ude00";
+        checkOrder(randomRows(random, 150, characters, 3), new int[] {0, 1},
+                   randomRows(random, 50, characters, 3), new int[] {0, 1});
+    }
+
+    @Test
+    public void compare_longDigits() {
+        // Sixteen digits fit in a long, including the sign bit
+        List<String[]> rows = Arrays.asList(
+            new String[] {"9999999999999999"},
+            new String[] {"1000000000000000"},
+            new String[] {"999"},
+            new String[] {""},
+            new String[] {"0"});
+        checkOrder(rows, new int[] {0}, rows, new int[] {0});
+    }
+
+    @Test
+    public void sortedIndices_empty() {
+        List<List<String[]>> inputs = new ArrayList<List<String[]>>();
+        inputs.add(new ArrayList<String[]>());
+        NormalizedKeys[] normalized =
+            NormalizedKeys.normalize(inputs, new int[][] {{0}});
+        assertEquals(0, normalized[0].size());
+        assertEquals(0, normalized[0].sortedIndices().length);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/** Tests {@link NpyArray}. */
+public class NpyArrayTest {
+
+    public static final Charset latin1 = Charset.forName("ISO-8859-1");
+
+    public static final double[] scores = {0.75, -1.5, 3.25, 0.0, 1e-3};
+    public static final int[] labels = {1, 0, 1, 1, 0};
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("roc-numpy-", ".npy");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Returns the contents of a version 1 <code>.npy</code> file with
+     * the given header fields and data.
+     */
+    public static byte[] npy(String descr, String shape, byte[] data) {
+        String header = String.format("{'descr': '%s', 'fortran_order': False, 'shape': %s, }", descr, shape);
+        // Pad with spaces and a newline so the data is aligned to 64
+        // bytes, as NumPy does
+        StringBuilder padded = new StringBuilder(header);
+        while ((10 + padded.length() + 1) % 64 != 0) {
+            padded.append(' ');
+        }
+        padded.append('\n');
+        byte[] headerBytes = padded.toString().getBytes(latin1);
+        ByteBuffer bytes = ByteBuffer.allocate(10 + headerBytes.length + data.length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put(NpyArray.MAGIC)
+            .put((byte) 1)
+            .put((byte) 0)
+            .putShort((short) headerBytes.length)
+            .put(headerBytes)
+            .put(data);
+        return bytes.array();
+    }
+
+    /** Returns the given doubles as float64 data in the given order. */
+    public static byte[] float64s(double[] values, ByteOrder order) {
+        ByteBuffer bytes = ByteBuffer.allocate(8 * values.length).order(order);
+        for (double value : values) {
+            bytes.putDouble(value);
+        }
+        return bytes.array();
+    }
+
+    /** Returns the given ints as int32 data in the given order. */
+    public static byte[] int32s(int[] values, ByteOrder order) {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * values.length).order(order);
+        for (int value : values) {
+            bytes.putInt(value);
+        }
+        return bytes.array();
+    }
+
+    /** Writes the given bytes to the given file. */
+    public static void write(File file, byte[] bytes) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Writes a <code>.npz</code> archive of the given arrays, which
+     * alternate between names and contents, with stored or deflated
+     * entries.
+     */
+    public static void writeArchive(File file, boolean stored, Object... arrays)
+        throws IOException {
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int index = 0; index < arrays.length; index += 2) {
+                byte[] contents = (byte[]) arrays[index + 1];
+                ZipEntry entry = new ZipEntry(arrays[index] + ".npy");
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(contents);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(contents.length);
+                    entry.setCompressedSize(contents.length);
+                    entry.setCrc(crc.getValue());
+                }
+                output.putNextEntry(entry);
+                output.write(contents);
+                output.closeEntry();
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test
+    public void read_float64() throws IOException {
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            String descr = (order == ByteOrder.LITTLE_ENDIAN ? "<" : ">") + "f8";
+            write(file, npy(descr, "(5,)", float64s(scores, order)));
+            assertTrue(NpyArray.isNpyFile(file));
+            assertFalse(NpyArray.isNpzFile(file));
+            NpyArray array = NpyArray.read(file);
+            assertEquals(5, array.length());
+            assertEquals("f8", array.dtype());
+            assertArrayEquals(scores, array.toDoubles(), 0.0);
+        }
+    }
+
+    @Test
+    public void read_float32() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(4 * scores.length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        for (double score : scores) {
+            data.putFloat((float) score);
+        }
+        write(file, npy("<f4", "(5,)", data.array()));
+        double[] actual = NpyArray.read(file).toDoubles();
+        for (int index = 0; index < scores.length; index++) {
+            assertEquals((float) scores[index], actual[index], 0.0);
+        }
+    }
+
+    @Test
+    public void read_int32() throws IOException {
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            String descr = (order == ByteOrder.LITTLE_ENDIAN ? "<" : ">") + "i4";
+            write(file, npy(descr, "(5,)", int32s(labels, order)));
+            NpyArray array = NpyArray.read(file);
+            assertArrayEquals(labels, array.toInts());
+            assertArrayEquals(new double[] {1.0, 0.0, 1.0, 1.0, 0.0},
+                              array.toDoubles(), 0.0);
+        }
+    }
+
+    @Test
+    public void read_otherIntegers() throws IOException {
+        // int8
+        write(file, npy("|i1", "(3,)", new byte[] {-1, 0, 127}));
+        assertArrayEquals(new int[] {-1, 0, 127}, NpyArray.read(file).toInts());
+        // uint8
+        write(file, npy("|u1", "(3,)", new byte[] {-1, 0, 127}));
+        assertArrayEquals(new int[] {255, 0, 127}, NpyArray.read(file).toInts());
+        // bool
+        write(file, npy("|b1", "(3,)", new byte[] {1, 0, 1}));
+        assertArrayEquals(new int[] {1, 0, 1}, NpyArray.read(file).toInts());
+        // int16
+        ByteBuffer data = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+        data.putShort((short) -300).putShort((short) 0).putShort((short) 300);
+        write(file, npy("<i2", "(3,)", data.array()));
+        assertArrayEquals(new int[] {-300, 0, 300}, NpyArray.read(file).toInts());
+        // int64
+        data = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        data.putLong(-7L).putLong(0L).putLong(Integer.MAX_VALUE);
+        write(file, npy("<i8", "(3,)", data.array()));
+        assertArrayEquals(new int[] {-7, 0, Integer.MAX_VALUE}, NpyArray.read(file).toInts());
+    }
+
+    @Test
+    public void read_uint64() throws IOException {
+        // 2^63 + 2^10 + 1 is just above the midpoint between 2^63 and
+        // 2^63 + 2^11, so its low bit decides the rounding
+        ByteBuffer data = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        data.putLong(0x8000000000000401L).putLong(0x8000000000000400L)
+            .putLong(-1L).putLong(5L);
+        write(file, npy("<u8", "(4,)", data.array()));
+        double twoTo63 = Math.scalb(1.0, 63);
+        assertArrayEquals(new double[] {twoTo63 + 2048.0, twoTo63,
+                                        Math.scalb(1.0, 64), 5.0},
+                          NpyArray.read(file).toDoubles(), 0.0);
+    }
+
+    @Test
+    public void read_columnAndRowVectors() throws IOException {
+        for (String shape : new String[] {"(5, 1)", "(1, 5)", "(5L,)"}) {
+            write(file, npy("<f8", shape, float64s(scores, ByteOrder.LITTLE_ENDIAN)));
+            assertArrayEquals(scores, NpyArray.read(file).toDoubles(), 0.0);
+        }
+    }
+
+    @Test
+    public void read_empty() throws IOException {
+        write(file, npy("<f8", "(0,)", new byte[0]));
+        assertEquals(0, NpyArray.read(file).toDoubles().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_matrix() throws IOException {
+        write(file, npy("<f8", "(2, 2)", float64s(new double[4], ByteOrder.LITTLE_ENDIAN)));
+        NpyArray.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_unsupportedDtype() throws IOException {
+        write(file, npy("<c16", "(1,)", new byte[16]));
+        NpyArray.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_truncated() throws IOException {
+        write(file, npy("<f8", "(6,)", float64s(scores, ByteOrder.LITTLE_ENDIAN)));
+        NpyArray.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_notNpy() throws IOException {
+        write(file, "0.5,1\n0.25,0\n".getBytes(latin1));
+        assertFalse(NpyArray.isNpyFile(file));
+        NpyArray.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void toInts_notInteger() throws IOException {
+        write(file, npy("<f8", "(5,)", float64s(scores, ByteOrder.LITTLE_ENDIAN)));
+        NpyArray.read(file).toInts();
+    }
+
+    @Test
+    public void readArchive() throws IOException {
+        writeArchive(file, true,
+                     "scores", npy("<f8", "(5,)", float64s(scores, ByteOrder.LITTLE_ENDIAN)),
+                     "labels", npy("<i4", "(5,)", int32s(labels, ByteOrder.LITTLE_ENDIAN)));
+        assertTrue(NpyArray.isNpzFile(file));
+        assertFalse(NpyArray.isNpyFile(file));
+        Map<String, NpyArray> arrays = NpyArray.readArchive(file);
+        assertEquals(2, arrays.size());
+        assertArrayEquals(scores, arrays.get("scores").toDoubles(), 0.0);
+        assertArrayEquals(labels, arrays.get("labels").toInts());
+    }
+
+    @Test(expected = IOException.class)
+    public void readArchive_compressed() throws IOException {
+        writeArchive(file, false,
+                     "scores", npy("<f8", "(5,)", float64s(scores, ByteOrder.LITTLE_ENDIAN)));
+        NpyArray.readArchive(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void readArchive_notArchive() throws IOException {
+        write(file, npy("<f8", "(5,)", float64s(scores, ByteOrder.LITTLE_ENDIAN)));
+        NpyArray.readArchive(file);
+    }
+}
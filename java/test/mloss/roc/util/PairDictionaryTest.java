@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+/** Tests {@link PairDictionary}. */
+public class PairDictionaryTest {
+
+    @Test
+    public void encode_idsInOrderOfAppearance() {
+        PairDictionary dictionary = new PairDictionary();
+        // Enough pairs to rehash several times
+        int numberPairs = 1000;
+        for (int first = 0; first < numberPairs; first++) {
+            assertEquals(first, dictionary.encode(first / 10, first % 10));
+        }
+        assertEquals(numberPairs, dictionary.size());
+        for (int first = 0; first < numberPairs; first++) {
+            assertEquals(first, dictionary.encode(first / 10, first % 10));
+            assertEquals(first, dictionary.code(first / 10, first % 10));
+        }
+        assertEquals(numberPairs, dictionary.size());
+        assertEquals(-1, dictionary.code(1, 10));
+        assertEquals(-1, dictionary.code(numberPairs, 0));
+    }
+}
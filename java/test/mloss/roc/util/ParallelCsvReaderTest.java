@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/** Tests {@link ParallelCsvReader}. */
+public class ParallelCsvReaderTest {
+
+    public static final Charset utf8 = Charset.forName("UTF-8");
+    public static final byte[] positive = "1".getBytes(utf8);
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("roc-parallel-csv-", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void write(String contents) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(contents.getBytes(utf8));
+        } finally {
+            output.close();
+        }
+    }
+
+    /** Generates rows of random scores and labels. */
+    public static String randomRows(Random random, int numberRows,
+                                    String lineEnding) {
+        StringBuilder rows = new StringBuilder();
+        for (int row = 0; row < numberRows; row++) {
+            // Use few distinct scores so there are ties
+            rows.append(random.nextInt(50) / 7.0)
+                .append(',')
+                .append(random.nextBoolean() ? "1" : "0")
+                .append(lineEnding);
+        }
+        return rows.toString();
+    }
+
+    /** Reads the file sequentially with the tokenizer (the reference). */
+    private void readSequentially(double[] scores, int[] labels)
+        throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            CsvTokenizer csv = new CsvTokenizer(input, (byte) ',');
+            int row = 0;
+            while (csv.nextRow()) {
+                scores[row] = csv.fieldDouble(0);
+                labels[row] = csv.fieldEquals(1, positive) ? 1 : 0;
+                row++;
+            }
+            assertEquals(scores.length, row);
+        } finally {
+            input.close();
+        }
+    }
+
+    private void assertSameAsSequential(int numberRows, int parallelism,
+                                        int minimumChunkSize)
+        throws IOException {
+        double[] expectedScores = new double[numberRows];
+        int[] expectedLabels = new int[numberRows];
+        readSequentially(expectedScores, expectedLabels);
+        ParallelCsvReader reader = new ParallelCsvReader(
+            file, (byte) ',', parallelism, minimumChunkSize);
+        reader.readScoresLabels(0, 1, positive);
+        assertArrayEquals(expectedScores, reader.scores(), 0.0);
+        assertArrayEquals(expectedLabels, reader.labels());
+    }
+
+    @Test
+    public void readScoresLabels_lineEndings() throws IOException {
+        String[] lineEndings = {"\n", "\r\n", "\r"};
+        for (String lineEnding : lineEndings) {
+            write(randomRows(new Random(lineEnding.hashCode()), 1000, lineEnding));
+            // Chunk sizes from one row and up (rows are 4 to 21 bytes)
+            int[] chunkSizes = {1, 5, 17, 100, 1 << 20};
+            for (int chunkSize : chunkSizes) {
+                assertSameAsSequential(1000, 4, chunkSize);
+                assertSameAsSequential(1000, 1, chunkSize);
+            }
+        }
+    }
+
+    @Test
+    public void readScoresLabels_quotedLineEndings() throws IOException {
+        // Labels with line endings inside quotes across chunk bounds
+        StringBuilder rows = new StringBuilder();
+        for (int row = 0; row < 200; row++) {
+            rows.append(row % 13).append(",\"")
+                .append(row % 3 == 0 ? "1" : "not\n1,\r\n\"\"")
+                .append("\"\n");
+        }
+        write(rows.toString());
+        int[] chunkSizes = {1, 7, 50};
+        for (int chunkSize : chunkSizes) {
+            assertSameAsSequential(200, 4, chunkSize);
+        }
+    }
+
+    @Test
+    public void readScoresLabels_noFinalLineEnding() throws IOException {
+        write("0.5,1\n0.25,0\r\n0.75,1");
+        assertSameAsSequential(3, 3, 1);
+    }
+
+    @Test
+    public void readScoresLabels_empty() throws IOException {
+        write("");
+        ParallelCsvReader reader = new ParallelCsvReader(file, (byte) ',', 4, 1);
+        reader.readScoresLabels(0, 1, positive);
+        assertEquals(0, reader.scores().length);
+        assertEquals(0, reader.labels().length);
+    }
+
+    @Test
+    public void readScoresLabels_notANumber() throws IOException {
+        write("0.5,1\n0.25,0\nbad,1\n0.75,1\n");
+        ParallelCsvReader reader = new ParallelCsvReader(file, (byte) ',', 4, 1);
+        try {
+            reader.readScoresLabels(0, 1, positive);
+            fail("Expected a NumberFormatException");
+        } catch (NumberFormatException e) {
+            assertEquals("Not a floating-point number: \"bad\"", e.getMessage());
+        }
+    }
+
+    @Test(expected=ArrayIndexOutOfBoundsException.class)
+    public void readScoresLabels_missingColumn() throws IOException {
+        write("0.5,1\n0.25\n0.75,1\n");
+        new ParallelCsvReader(file, (byte) ',', 4, 1)
+            .readScoresLabels(0, 1, positive);
+    }
+
+    @Test
+    public void chunkBounds_startsOfLines() throws IOException {
+        write("ab\ncd\r\nef\rgh\r\n\nij");
+        FileInputStream input = new FileInputStream(file);
+        try {
+            // One chunk per byte, so every position is tried
+            long[] bounds = ParallelCsvReader.chunkBounds(input.getChannel(), 17);
+            long[] expected = {
+                0, 3, 3, 3, 7, 7, 7, 7, 10, 10,
+                10, 14, 14, 14, 14, 15, 17, 17,
+            };
+            assertArrayEquals(expected, bounds);
+        } finally {
+            input.close();
+        }
+    }
+}
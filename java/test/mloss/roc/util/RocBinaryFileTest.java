@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015 Roc Project.  This is free software.  See
+ * LICENSE.txt for details.
+ */
+
+package mloss.roc.util;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/** Tests {@link RocBinaryFile}. */
+public class RocBinaryFileTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("roc-binary-", ".rocbin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test
+    public void write_read_allTypes() throws IOException {
+        Random random = new Random(0x1f0c4a25L);
+        // More rows than fit in the write buffer
+        int numberRows = 20000;
+        double[] scores = new double[numberRows];
+        int[] labels = new int[numberRows];
+        for (int row = 0; row < numberRows; row++) {
+            scores[row] = random.nextGaussian();
+            labels[row] = random.nextInt(256) - 128;
+        }
+        for (RocBinaryFile.ScoreType scoreType : RocBinaryFile.ScoreType.values()) {
+            for (RocBinaryFile.LabelType labelType : RocBinaryFile.LabelType.values()) {
+                RocBinaryFile.write(file, scores, scoreType, labels, labelType);
+                assertTrue(RocBinaryFile.isRocBinaryFile(file));
+                assertEquals(RocBinaryFile.HEADER_SIZE +
+                             numberRows * (scoreType.size + labelType.size),
+                             file.length());
+                RocBinaryFile binary = new RocBinaryFile(file);
+                try {
+                    assertEquals(numberRows, binary.numberRows());
+                    assertEquals(scoreType, binary.scoreType());
+                    assertEquals(labelType, binary.labelType());
+                    double[] actualScores = binary.readScores();
+                    if (scoreType == RocBinaryFile.ScoreType.FLOAT64) {
+                        assertArrayEquals(scores, actualScores, 0.0);
+                    } else {
+                        for (int row = 0; row < numberRows; row++) {
+                            assertEquals((float) scores[row], actualScores[row], 0.0);
+                        }
+                    }
+                    assertArrayEquals(labels, binary.readLabels());
+                } finally {
+                    binary.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void write_read_empty() throws IOException {
+        RocBinaryFile.write(file, new double[0], RocBinaryFile.ScoreType.FLOAT64,
+                            new int[0], RocBinaryFile.LabelType.INT8);
+        RocBinaryFile binary = new RocBinaryFile(file);
+        try {
+            assertEquals(0, binary.numberRows());
+            assertEquals(0, binary.readScores().length);
+            assertEquals(0, binary.readLabels().length);
+        } finally {
+            binary.close();
+        }
+    }
+
+    @Test
+    public void write_read_positives() throws IOException {
+        int[] labels = {1, 0, 0, 1};
+        RocBinaryFile.write(file, new double[] {0.5, 0.25, 0.75, 0.125},
+                            RocBinaryFile.ScoreType.FLOAT64,
+                            labels, RocBinaryFile.LabelType.INT8, true);
+        RocBinaryFile binary = new RocBinaryFile(file);
+        try {
+            assertTrue(binary.labelsArePositives());
+            assertArrayEquals(labels, binary.readLabels());
+        } finally {
+            binary.close();
+        }
+        RocBinaryFile.write(file, new double[] {0.5}, RocBinaryFile.ScoreType.FLOAT64,
+                            new int[] {1}, RocBinaryFile.LabelType.INT8);
+        binary = new RocBinaryFile(file);
+        try {
+            assertFalse(binary.labelsArePositives());
+        } finally {
+            binary.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void write_positivesNotIndicators() throws IOException {
+        RocBinaryFile.write(file, new double[] {0.5, 0.25}, RocBinaryFile.ScoreType.FLOAT64,
+                            new int[] {1, 2}, RocBinaryFile.LabelType.INT8, true);
+    }
+
+    @Test
+    public void isRocBinaryFile_text() throws IOException {
+        writeBytes("0.5,1\n0.25,0\n".getBytes("US-ASCII"));
+        assertFalse(RocBinaryFile.isRocBinaryFile(file));
+        writeBytes("ROC".getBytes("US-ASCII"));
+        assertFalse(RocBinaryFile.isRocBinaryFile(file));
+        assertFalse(RocBinaryFile.isRocBinaryFile(file.getParentFile()));
+    }
+
+    @Test(expected = IOException.class)
+    public void constructor_notBinary() throws IOException {
+        writeBytes("0.5,1\n0.25,0\n0.75,1\n0.125,0\n0.375,0\n".getBytes("US-ASCII"));
+        new RocBinaryFile(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void constructor_truncated() throws IOException {
+        RocBinaryFile.write(file, new double[] {0.5, 0.25}, RocBinaryFile.ScoreType.FLOAT64,
+                            new int[] {1, 0}, RocBinaryFile.LabelType.INT8);
+        byte[] bytes = new byte[RocBinaryFile.HEADER_SIZE + 8];
+        System.arraycopy(Files.readAllBytes(file.toPath()), 0,
+                         bytes, 0, bytes.length);
+        writeBytes(bytes);
+        new RocBinaryFile(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void constructor_unknownType() throws IOException {
+        RocBinaryFile.write(file, new double[] {0.5}, RocBinaryFile.ScoreType.FLOAT64,
+                            new int[] {1}, RocBinaryFile.LabelType.INT8);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[8] = 7;
+        writeBytes(bytes);
+        new RocBinaryFile(file);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void write_labelOutOfRange() throws IOException {
+        RocBinaryFile.write(file, new double[] {0.5, 0.25}, RocBinaryFile.ScoreType.FLOAT64,
+                            new int[] {1, 128}, RocBinaryFile.LabelType.INT8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void write_differentLengths() throws IOException {
+        RocBinaryFile.write(file, new double[] {0.5, 0.25}, RocBinaryFile.ScoreType.FLOAT64,
+                            new int[] {1}, RocBinaryFile.LabelType.INT32);
+    }
+}